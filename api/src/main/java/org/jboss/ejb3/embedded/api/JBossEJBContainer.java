@@ -22,8 +22,14 @@
 
 package org.jboss.ejb3.embedded.api;
 
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+
 import javax.ejb.embeddable.EJBContainer;
 import javax.naming.Context;
+import javax.naming.NamingException;
 
 /**
  * End-user view of JBoss {@link EJBContainer} implementation.
@@ -51,4 +57,136 @@ public interface JBossEJBContainer
     * @see {@link EJBContainer#close()}
     */
    void close();
+
+   /**
+    * Deploys the specified {@link URL}s into the running container, processing
+    * them together in a single pass.
+    * @param urls URLs to deploy; must be specified, even if empty
+    * @throws EJBDeploymentException If an error occurred in deployment
+    * @throws IllegalArgumentException If urls is null
+    */
+   void deploy(URL... urls) throws EJBDeploymentException, IllegalArgumentException;
+
+   /**
+    * Deploys the specified {@link File}s into the running container, processing
+    * them together in a single pass.
+    * @param files Files to deploy; must be specified, even if empty
+    * @throws EJBDeploymentException If an error occurred in deployment
+    * @throws IllegalArgumentException If files is null
+    */
+   void deploy(File... files) throws EJBDeploymentException, IllegalArgumentException;
+
+   /**
+    * Deploys the archive (JAR) read in full from the specified {@link InputStream}
+    * into the running container.  The archive is held in memory and never written to 
+    * the filesystem.  The stream is not closed.
+    * @param name Name of the archive, for instance "mymodule.jar"; the module name 
+    * is derived from this
+    * @param archive Stream from which to read the archive
+    * @return The {@link URL} under which the archive was deployed, to be passed to 
+    * {@link JBossEJBContainer#undeploy(URL...)}
+    * @throws EJBDeploymentException If the archive could not be read or an error 
+    * occurred in deployment
+    * @throws IllegalArgumentException If either argument is not specified, or the name 
+    * contains a path separator
+    */
+   URL deploy(String name, InputStream archive) throws EJBDeploymentException, IllegalArgumentException;
+
+   /**
+    * Deploys the archive (JAR) contained in the remaining bytes of the specified 
+    * {@link ByteBuffer} into the running container.  Entries are read from the buffer 
+    * as needed, which must not be modified until the archive is undeployed.
+    * @param name Name of the archive, for instance "mymodule.jar"; the module name 
+    * is derived from this
+    * @param archive Buffer containing the archive
+    * @return The {@link URL} under which the archive was deployed, to be passed to 
+    * {@link JBossEJBContainer#undeploy(URL...)}
+    * @throws EJBDeploymentException If the archive could not be read or an error 
+    * occurred in deployment
+    * @throws IllegalArgumentException If either argument is not specified, or the name 
+    * contains a path separator
+    */
+   URL deploy(String name, ByteBuffer archive) throws EJBDeploymentException, IllegalArgumentException;
+
+   /**
+    * Redeploys the specified {@link URL}s into the running container.  Those previously
+    * deployed whose content has not changed are left as they are; those changed are 
+    * undeployed and deployed again, and those not yet deployed are deployed.
+    * @param urls URLs to redeploy; must be specified, even if empty
+    * @throws EJBDeploymentException If an error occurred in undeployment or deployment
+    * @throws IllegalArgumentException If urls is null
+    */
+   void redeploy(URL... urls) throws EJBDeploymentException, IllegalArgumentException;
+
+   /**
+    * Undeploys the specified {@link URL}s from the running container.  {@link URL}s
+    * not previously deployed via this container are ignored.
+    * @param urls URLs to undeploy
+    * @throws EJBDeploymentException If an error occurred in undeployment
+    * @throws IllegalArgumentException If urls is null
+    */
+   void undeploy(URL... urls) throws EJBDeploymentException, IllegalArgumentException;
+
+   /**
+    * Undeploys the specified {@link File}s from the running container.  {@link File}s
+    * not previously deployed via this container are ignored.
+    * @param files Files to undeploy
+    * @throws EJBDeploymentException If an error occurred in undeployment
+    * @throws IllegalArgumentException If files is null
+    */
+   void undeploy(File... files) throws EJBDeploymentException, IllegalArgumentException;
+
+   /**
+    * Marks the current set of deployments as the baseline to which 
+    * {@link JBossEJBContainer#restoreBaseline()} will return; typically called
+    * once the container has started, before tests deploy anything of their own.
+    * Any previous baseline is replaced.
+    */
+   void markBaseline();
+
+   /**
+    * Returns the container to the baseline marked by {@link JBossEJBContainer#markBaseline()}
+    * in one batched pass: everything deployed since is undeployed, and only those baseline 
+    * deployments since undeployed or redeployed with other content are deployed again.  
+    * Deployments left untouched since the baseline are not affected.
+    * @throws EJBDeploymentException If an error occurred in undeployment or deployment
+    * @throws IllegalStateException If no baseline has been marked
+    */
+   void restoreBaseline() throws EJBDeploymentException, IllegalStateException;
+
+   /**
+    * Takes the session beans deployed via this container through their cold paths
+    * before the caller starts measuring: a view of each is obtained, generating its proxy, and
+    * the configured business methods (see {@link JBossEJBContainerProperties#WARMUP_METHODS}) 
+    * are invoked the configured number of times by the configured number of concurrent callers, 
+    * initializing singletons, growing stateless pools and compiling the invocation path.
+    * @throws NamingException If a view could not be obtained
+    * @throws javax.ejb.EJBException If a configured method could not be found or its invocation failed
+    */
+   void warmUp() throws NamingException;
+
+   /**
+    * Obtains the single deployed session bean view of the specified business interface 
+    * (or, for a no-interface view, bean class), found through an index of the 
+    * <code>java:global</code> namespace maintained as modules are deployed and undeployed
+    * @param businessInterface
+    * @return The view (typically a business proxy)
+    * @throws javax.naming.NameNotFoundException If no such view is deployed
+    * @throws NamingException If more than one bean has such a view, or the view could not be looked up
+    * @throws IllegalArgumentException If the business interface is not specified
+    */
+   <T> T lookup(Class<T> businessInterface) throws NamingException, IllegalArgumentException;
+
+   /**
+    * Obtains the deployed view of the specified business interface (or, for a no-interface
+    * view, bean class) of the named session bean, found through an index of the 
+    * <code>java:global</code> namespace maintained as modules are deployed and undeployed
+    * @param beanName Name of the session bean
+    * @param businessInterface
+    * @return The view (typically a business proxy)
+    * @throws javax.naming.NameNotFoundException If no such view is deployed
+    * @throws NamingException If more than one module has such a bean, or the view could not be looked up
+    * @throws IllegalArgumentException If either argument is not specified
+    */
+   <T> T lookup(String beanName, Class<T> businessInterface) throws NamingException, IllegalArgumentException;
 }
@@ -0,0 +1,240 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.api;
+
+import javax.ejb.embeddable.EJBContainer;
+
+/**
+ * JBoss-specific keys which may be supplied in the properties passed to
+ * {@link EJBContainer#createEJBContainer(java.util.Map)} in addition to those 
+ * defined by the specification.  This is a constants class which 
+ * is not to be instantiated.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public final class JBossEJBContainerProperties
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Path of a local directory in which the processed metadata of each deployed
+    * module is snapshotted, keyed by the module's name and content fingerprint, the
+    * application name and the server name.  When the same content is deployed again
+    * as such, the snapshot is used in place of descriptor parsing and metadata merging.
+    * If not specified, no snapshots are taken.
+    */
+   public static final String METADATA_SNAPSHOT_DIR = "org.jboss.ejb3.embedded.metadata.snapshot.dir";
+
+   /**
+    * Names of the deployment attachments to be snapshotted when
+    * {@link JBossEJBContainerProperties#METADATA_SNAPSHOT_DIR} is specified; either a 
+    * comma-delimited {@link String}, a String[] or a {@link java.util.Collection} of {@link String}.
+    * Defaults to the spec, annotated, JBoss and merged EJB metadata.
+    */
+   public static final String METADATA_SNAPSHOT_ATTACHMENTS = "org.jboss.ejb3.embedded.metadata.snapshot.attachments";
+
+   /**
+    * Whether the modules supplied to the container should only be registered upon
+    * creation, and each deployed upon the first lookup of a name in its 
+    * <code>java:global</code> namespace through {@link EJBContainer#getContext()}.  Modules
+    * named in the manifest Class-Path of a module are deployed along with it.  Either a 
+    * {@link Boolean} or a {@link String}; defaults to false.
+    */
+   public static final String LAZY_DEPLOYMENT = "org.jboss.ejb3.embedded.deployment.lazy";
+
+   /**
+    * Names of the modules which must be deployed before the container is returned
+    * from {@link EJBContainer#createEJBContainer(java.util.Map)}; either a comma-delimited 
+    * {@link String}, a String[] or a {@link java.util.Collection} of {@link String}.  The 
+    * remaining modules are deployed in the background (or upon lookup if 
+    * {@link JBossEJBContainerProperties#LAZY_DEPLOYMENT} is set), and a lookup through
+    * {@link EJBContainer#getContext()} of a name in the <code>java:global</code> namespace
+    * of a module not yet deployed waits only for that module.  If not specified, all modules
+    * are deployed before the container is returned.
+    */
+   public static final String PRIORITY_MODULES = "org.jboss.ejb3.embedded.deployment.priority.modules";
+
+   /**
+    * Whether the MC controller should be profiled while the modules supplied to the 
+    * container are deployed upon creation.  If so, the time each context spends in each 
+    * state and the dependencies upon which it waited are recorded, and a report of the 
+    * slowest contexts and the critical path of startup is logged.  Either a {@link Boolean} 
+    * or a {@link String}; defaults to false.
+    */
+   public static final String PROFILE_CONTROLLER = "org.jboss.ejb3.embedded.profile.controller";
+
+   /**
+    * Interval in milliseconds between samples of the MC controller when 
+    * {@link JBossEJBContainerProperties#PROFILE_CONTROLLER} is set; either a {@link Number}
+    * or a {@link String}.  Defaults to 10.
+    */
+   public static final String PROFILE_CONTROLLER_INTERVAL = "org.jboss.ejb3.embedded.profile.controller.interval";
+
+   /**
+    * Whether the results of looking up names in the <code>java:global</code> namespace
+    * through {@link EJBContainer#getContext()} should be cached, such that repeated lookups
+    * of a business proxy do not go through the naming system.  Cached results of a module
+    * are evicted when it is undeployed through the container.  Either a {@link Boolean} or 
+    * a {@link String}; defaults to false.
+    */
+   public static final String NAMING_LOOKUP_CACHE = "org.jboss.ejb3.embedded.naming.lookup.cache";
+
+   /**
+    * Whether lookups through {@link EJBContainer#getContext()} in the <code>java:global</code>
+    * namespace are restricted to the modules deployed via the container, such that containers
+    * sharing a server do not see each other's beans.  Either a {@link Boolean} or a 
+    * {@link String}; defaults to false.
+    */
+   public static final String NAMING_SCOPED = "org.jboss.ejb3.embedded.naming.scoped";
+
+   /**
+    * Whether the container should install a lock-free, in-VM naming implementation 
+    * for all initial contexts created in the VM, in place of that configured (for instance 
+    * through <code>jndi.properties</code>).  Objects are bound by reference, without 
+    * serialization.  Once installed the in-VM implementation remains for the lifetime of the 
+    * VM.  Either a {@link Boolean} or a {@link String}; defaults to false.
+    */
+   public static final String NAMING_IN_VM = "org.jboss.ejb3.embedded.naming.invm";
+
+   /**
+    * Location (file path or {@link java.net.URL}) of an MC descriptor installing the naming
+    * server, for instance a <code>SingletonNamingServer</code> bean.  If specified, the 
+    * container deploys it upon first need (the first use of {@link EJBContainer#getContext()}
+    * or a typed lookup, or before the first deployment, which may bind into JNDI) rather than
+    * upon creation, so a container which never needs naming never starts it.  If not specified,
+    * naming is as configured by the server.
+    */
+   public static final String NAMING_DESCRIPTOR = "org.jboss.ejb3.embedded.naming.descriptor";
+
+   /**
+    * Whether naming must be accessible to remote clients.  If so, the naming server 
+    * (see {@link JBossEJBContainerProperties#NAMING_DESCRIPTOR}) and the remote listeners 
+    * (see {@link JBossEJBContainerProperties#NAMING_REMOTE_DESCRIPTOR}) are started upon 
+    * creation of the container; otherwise no listeners are started.  Either a {@link Boolean} 
+    * or a {@link String}; defaults to false.
+    */
+   public static final String NAMING_REMOTE = "org.jboss.ejb3.embedded.naming.remote";
+
+   /**
+    * Location (file path or {@link java.net.URL}) of an MC descriptor installing the remote
+    * naming listeners (for instance the jnp <code>Main</code> bean with its ports), deployed
+    * only if {@link JBossEJBContainerProperties#NAMING_REMOTE} is set.
+    */
+   public static final String NAMING_REMOTE_DESCRIPTOR = "org.jboss.ejb3.embedded.naming.remote.descriptor";
+
+   /**
+    * Time in milliseconds which closing a container adapted to a running server may spend
+    * undeploying what the container added and checking that it was released.  For a standalone
+    * container, the time spent checking in the background that the class loader of its server
+    * was released (see {@link JBossEJBContainerProperties#LEAK_CHECK}).  Either a {@link Number}
+    * or a {@link String}; defaults to 30000.
+    */
+   public static final String CLOSE_TIMEOUT = "org.jboss.ejb3.embedded.close.timeout";
+
+   /**
+    * Whether closing a container checks that the class loaders it released become unreachable,
+    * reporting what keeps them reachable otherwise: those of the modules undeployed from a server
+    * which lives on, within the {@link JBossEJBContainerProperties#CLOSE_TIMEOUT}, or in the
+    * background that of the server of a standalone container.  Requests garbage collection
+    * meanwhile.  Either a {@link Boolean} or a {@link String}, also read from the system property
+    * of the same name; defaults to false.
+    */
+   public static final String LEAK_CHECK = "org.jboss.ejb3.embedded.leak.check";
+
+   /**
+    * Name of the registered server which a container adapted to a running server is to use, 
+    * allowing isolated servers to back concurrent containers.  Defaults to the server
+    * registered without a name.
+    */
+   public static final String SERVER_NAME = "org.jboss.ejb3.embedded.server.name";
+
+   /**
+    * Whether closed containers are to be kept for reuse.  If so, closing a container 
+    * restores it to the deployments present upon its creation and keeps it idle, and a 
+    * later request for a container with equal properties and modules, under the same Thread 
+    * Context {@link ClassLoader}, obtains it instead of a new one.  Each request obtains its own
+    * handle to the container, which may no longer be used once closed.  Either a {@link Boolean} 
+    * or a {@link String}; defaults to false.
+    */
+   public static final String POOL = "org.jboss.ejb3.embedded.pool";
+
+   /**
+    * Time in milliseconds after which an idle container kept for reuse 
+    * (see {@link JBossEJBContainerProperties#POOL}) is closed.  Either a {@link Number}
+    * or a {@link String}; defaults to 60000.
+    */
+   public static final String POOL_IDLE_TIMEOUT = "org.jboss.ejb3.embedded.pool.idle.timeout";
+
+   /**
+    * Maximum number of idle containers kept for reuse (see {@link JBossEJBContainerProperties#POOL}); 
+    * the longest idle are closed first.  Either a {@link Number} or a {@link String}; defaults to 2.
+    */
+   public static final String POOL_MAX_IDLE = "org.jboss.ejb3.embedded.pool.max.idle";
+
+   /**
+    * System property (rather than container property) requesting that work independent of the
+    * container properties, such as scanning the ClassPath for EJB modules, is started in the 
+    * background as soon as a JBoss provider is loaded.  Defaults to false.
+    */
+   public static final String PREWARM = "org.jboss.ejb3.embedded.prewarm";
+
+   /**
+    * Business methods invoked by {@link JBossEJBContainer#warmUp()}, each in the form 
+    * <code>[bean-name/]interface#method</code> naming a method taking no parameters whose
+    * invocation has no lasting effect; either a comma-delimited {@link String}, a String[] 
+    * or a {@link java.util.Collection} of {@link String}.  If not specified, warm-up only
+    * obtains the views deployed.
+    */
+   public static final String WARMUP_METHODS = "org.jboss.ejb3.embedded.warmup.methods";
+
+   /**
+    * Number of times each caller invokes each of the {@link JBossEJBContainerProperties#WARMUP_METHODS}
+    * during {@link JBossEJBContainer#warmUp()}.  Either a {@link Number} or a {@link String};
+    * defaults to 10000, enough for the invocation path to be compiled by a typical JIT.
+    */
+   public static final String WARMUP_INVOCATIONS = "org.jboss.ejb3.embedded.warmup.invocations";
+
+   /**
+    * Number of callers concurrently invoking each of the {@link JBossEJBContainerProperties#WARMUP_METHODS}
+    * during {@link JBossEJBContainer#warmUp()}, and so the number of instances to which the pool
+    * of a stateless bean is grown.  Either a {@link Number} or a {@link String}; defaults to 1.
+    */
+   public static final String WARMUP_POOL_SIZE = "org.jboss.ejb3.embedded.warmup.pool.size";
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Internal Constructor, no instances permitted
+    */
+   private JBossEJBContainerProperties()
+   {
+      throw new UnsupportedOperationException("No instances permitted");
+   }
+
+}
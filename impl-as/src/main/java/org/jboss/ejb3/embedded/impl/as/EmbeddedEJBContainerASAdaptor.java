@@ -21,23 +21,29 @@
  */
 package org.jboss.ejb3.embedded.impl.as;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import javax.ejb.embeddable.EJBContainer;
 
 import org.jboss.beans.metadata.api.annotations.Inject;
 import org.jboss.bootstrap.api.mc.server.MCBasedServer;
 import org.jboss.bootstrap.api.mc.server.MCServer;
+import org.jboss.ejb3.embedded.api.JBossEJBContainerProperties;
 
 /**
- * Utility class providing static access to the {@link MCServer}
+ * Utility class providing static access to the {@link MCServer}s
  * and other facilities underpinning the JBoss implementation of 
  * the {@link EJBContainer} used within AS.  Though an antipattern
  * to expose these in a static manner, creation of {@link EJBContainer}s
  * is, by spec, a static operation.  This is therefore the single hook
  * to the underlying wiring.  Integration environments should inject the correct
- * {@link MCServer} instance appropriately.  Creating a new instance exposes
- * the {@link MCServer} statically; once this has been done new requests for 
- * construction of another {@link EmbeddedEJBContainerASAdaptor} will 
- * fail with {@link IllegalStateException}
+ * {@link MCServer} instance appropriately.  Creating a new instance registers
+ * the {@link MCServer} statically under a name (by default 
+ * {@link EmbeddedEJBContainerASAdaptor#DEFAULT_SERVER_NAME}), from which containers 
+ * select it using {@link JBossEJBContainerProperties#SERVER_NAME}; requests for construction
+ * of another {@link EmbeddedEJBContainerASAdaptor} under a name already registered will 
+ * fail with {@link IllegalStateException}.  Stopping the instance unregisters its server.
  *
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  * @version $Revision: $
@@ -49,10 +55,29 @@ public final class EmbeddedEJBContainerASAdaptor
    //-------------------------------------------------------------------------------------||
 
    /**
-    * {@link MCServer} instance handling all wiring of components which together
-    * will compose the JBoss Embedded EJB3 implementation.
+    * Name under which a server is registered if none is specified
+    */
+   public static final String DEFAULT_SERVER_NAME = "default";
+
+   /**
+    * {@link MCServer} instances handling all wiring of components which together
+    * will compose the JBoss Embedded EJB3 implementation, keyed by name
+    */
+   private static final ConcurrentMap<String, MCBasedServer<?, ?>> servers = new ConcurrentHashMap<String, MCBasedServer<?, ?>>();
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Name under which {@link EmbeddedEJBContainerASAdaptor#server} is registered
     */
-   private static volatile MCBasedServer<?, ?> server;
+   private final String name;
+
+   /**
+    * Server registered by this adaptor
+    */
+   private final MCBasedServer<?, ?> server;
 
    //-------------------------------------------------------------------------------------||
    // Constructor ------------------------------------------------------------------------||
@@ -60,27 +85,47 @@ public final class EmbeddedEJBContainerASAdaptor
 
    /**
     * Creates a new instance, but more importantly exposes the supplied {@link MCServer}
-    * in static fashion.  Once called, subsequent requests for construction will fail with
-    * {@link IllegalStateException}.
+    * in static fashion under {@link EmbeddedEJBContainerASAdaptor#DEFAULT_SERVER_NAME}. 
     * 
     * @param server The MC Server to make available statically.  Must be supplied
     * @throws IllegalArgumentException If the server is not specified
-    * @throws IllegalStateException If this has already been called
+    * @throws IllegalStateException If a server has already been registered under the default name
     */
    public EmbeddedEJBContainerASAdaptor(@Inject final MCBasedServer<?, ?> server) throws IllegalStateException,
          IllegalArgumentException
    {
-      // So that we can't reset the MC Server
-      synchronized (this)
-      {
-         // Precondition checks
-         if (server == null)
-         {
-            throw new IllegalStateException("MC Server instance was not specified");
-         }
+      this(DEFAULT_SERVER_NAME, server);
+   }
 
-         setMCServer(server);
-      }
+   /**
+    * Creates a new instance, but more importantly exposes the supplied {@link MCServer}
+    * in static fashion under the specified name. 
+    * 
+    * @param name The name under which to register the server.  Must be supplied
+    * @param server The MC Server to make available statically.  Must be supplied
+    * @throws IllegalArgumentException If the name or server is not specified
+    * @throws IllegalStateException If a server has already been registered under the name
+    */
+   public EmbeddedEJBContainerASAdaptor(final String name, final MCBasedServer<?, ?> server)
+         throws IllegalStateException, IllegalArgumentException
+   {
+      register(name, server);
+
+      // Set
+      this.name = name;
+      this.server = server;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Unregisters the server exposed by this instance; invoked by MC upon undeployment 
+    */
+   public void stop()
+   {
+      servers.remove(name, server);
    }
 
    //-------------------------------------------------------------------------------------||
@@ -88,48 +133,87 @@ public final class EmbeddedEJBContainerASAdaptor
    //-------------------------------------------------------------------------------------||
 
    /**
-    * Returns the {@link MCServer} instance underpinning the JBoss {@link EJBContainer}
-    * implementation.  May only be called after the server has been set, otherwise an
-    * {@link IllegalStateException} will be raised
+    * Registers the specified {@link MCServer} under the specified name
     * 
-    * @throws IllegalStateException If the {@link MCServer} has not yet been set
+    * @param name
+    * @param server
+    * @throws IllegalArgumentException If either the name or server is not specified
+    * @throws IllegalStateException If a server has already been registered under the name
     */
-   static MCBasedServer<?, ?> getMCServer() throws IllegalStateException
+   public static void register(final String name, final MCBasedServer<?, ?> server) throws IllegalStateException,
+         IllegalArgumentException
    {
       // Precondition checks
+      if (name == null)
+      {
+         throw new IllegalArgumentException("Name must be specified");
+      }
       if (server == null)
       {
-         throw new IllegalStateException("MC Server has not yet been set");
+         throw new IllegalArgumentException("MC Server instance may not be null");
       }
 
-      // Return
-      return server;
+      // Set
+      if (servers.putIfAbsent(name, server) != null)
+      {
+         throw new IllegalStateException("MC Server has already been set under name " + name);
+      }
    }
 
    /**
-    * Sets the {@link MCServer} instance underpinning the JBoss {@link EJBContainer}
-    * implementation.  May only be called once, otherwise a {@link IllegalStateException}
-    * will be raised.  The specified kernel instance may not be null.
-    * @param server
-    * @throws IllegalStateException If the {@link MCServer} has already been set
-    * @throws IllegalArgumentException If the specified {@link MCServer} is null
+    * Unregisters the {@link MCServer} registered under the specified name, if any
+    * 
+    * @param name
+    * @return The server unregistered, or null if none was registered under the name
+    * @throws IllegalArgumentException If the name is not specified
     */
-   private static void setMCServer(final MCBasedServer<?, ?> server) throws IllegalStateException,
-         IllegalArgumentException
+   public static MCBasedServer<?, ?> unregister(final String name) throws IllegalArgumentException
    {
       // Precondition checks
-      if (server == null)
+      if (name == null)
       {
-         throw new IllegalArgumentException("MC Server instance may not be null");
+         throw new IllegalArgumentException("Name must be specified");
       }
 
-      if (EmbeddedEJBContainerASAdaptor.server != null)
+      return servers.remove(name);
+   }
+
+   /**
+    * Returns the {@link MCServer} instance registered under 
+    * {@link EmbeddedEJBContainerASAdaptor#DEFAULT_SERVER_NAME}
+    * 
+    * @throws IllegalStateException If the {@link MCServer} has not yet been set
+    */
+   static MCBasedServer<?, ?> getMCServer() throws IllegalStateException
+   {
+      return getMCServer(DEFAULT_SERVER_NAME);
+   }
+
+   /**
+    * Returns the {@link MCServer} instance registered under the specified name to underpin 
+    * the JBoss {@link EJBContainer} implementation.  May only be called after the server 
+    * has been set, otherwise an {@link IllegalStateException} will be raised
+    * 
+    * @param name
+    * @throws IllegalArgumentException If the name is not specified
+    * @throws IllegalStateException If no {@link MCServer} has been set under the name
+    */
+   static MCBasedServer<?, ?> getMCServer(final String name) throws IllegalArgumentException, IllegalStateException
+   {
+      // Precondition checks
+      if (name == null)
       {
-         throw new IllegalStateException("MC Server has already been set");
+         throw new IllegalArgumentException("Name must be specified");
       }
 
-      // Set
-      EmbeddedEJBContainerASAdaptor.server = server;
+      final MCBasedServer<?, ?> server = servers.get(name);
+      if (server == null)
+      {
+         throw new IllegalStateException("MC Server has not yet been set under name " + name);
+      }
+
+      // Return
+      return server;
    }
 
 }
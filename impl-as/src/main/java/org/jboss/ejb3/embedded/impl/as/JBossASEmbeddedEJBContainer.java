@@ -23,6 +23,7 @@ package org.jboss.ejb3.embedded.impl.as;
 
 import java.util.Map;
 
+import org.jboss.ejb3.embedded.api.JBossEJBContainerProperties;
 import org.jboss.ejb3.embedded.impl.base.JBossEJBContainerBase;
 
 /**
@@ -34,22 +35,47 @@ import org.jboss.ejb3.embedded.impl.base.JBossEJBContainerBase;
 public final class JBossASEmbeddedEJBContainer extends JBossEJBContainerBase
 {
 
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
    public JBossASEmbeddedEJBContainer(final Map<?, ?> properties, final String[] modules)
    {
-      super(properties, EmbeddedEJBContainerASAdaptor.getMCServer(), modules);
+      super(properties, EmbeddedEJBContainerASAdaptor.getMCServer(getServerName(properties)), modules);
    }
 
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * We've just created an adaptor to AS, so we cannot close or shutdown MC; instead
+    * everything deployed via this container is undeployed, within the time allowed by
+    * {@link JBossEJBContainerProperties#CLOSE_TIMEOUT}, and anything which could not be 
+    * released (for instance lingering class loaders, if checked for) is reported.  Subsequent
+    * invocations have no effect.  Containers created for reuse (see {@link JBossEJBContainerProperties#POOL})
+    * are instead restored to their baseline and kept idle.
+    * @see javax.ejb.embeddable.EJBContainer#close()
+    */
    @Override
    public void close()
    {
-      // TODO 
+      this.undeployAndClose();
+   }
 
-      /*
-       * Here we've just created an adaptor to AS, so we cannot close or shutdown MC.
-       * We can either make close a NOOP, or set a flag to throw IllegalStateException 
-       * or similar if other operations are invoked after close.
-       */
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
 
+   /**
+    * Obtains the name of the registered server selected by the specified properties
+    * (see {@link JBossEJBContainerProperties#SERVER_NAME})
+    */
+   private static String getServerName(final Map<?, ?> properties)
+   {
+      final Object name = properties == null ? null : properties.get(JBossEJBContainerProperties.SERVER_NAME);
+      return name == null ? EmbeddedEJBContainerASAdaptor.DEFAULT_SERVER_NAME : name.toString();
    }
 
 }
@@ -0,0 +1,152 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.as;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.jboss.bootstrap.api.mc.server.MCBasedServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that the registry of servers in {@link EmbeddedEJBContainerASAdaptor} 
+ * is working as contracted
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class EmbeddedEJBContainerASAdaptorUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Name of the first server registered
+    */
+   private static final String NAME_FIRST = EmbeddedEJBContainerASAdaptorUnitTest.class.getName() + ".first";
+
+   /**
+    * Name of the second server registered
+    */
+   private static final String NAME_SECOND = EmbeddedEJBContainerASAdaptorUnitTest.class.getName() + ".second";
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Unregisters the servers of each test
+    */
+   @After
+   public void unregister()
+   {
+      EmbeddedEJBContainerASAdaptor.unregister(NAME_FIRST);
+      EmbeddedEJBContainerASAdaptor.unregister(NAME_SECOND);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures servers registered under different names are isolated
+    */
+   @Test
+   public void serversIsolatedByName()
+   {
+      final MCBasedServer<?, ?> first = createServer();
+      final MCBasedServer<?, ?> second = createServer();
+      new EmbeddedEJBContainerASAdaptor(NAME_FIRST, first);
+      new EmbeddedEJBContainerASAdaptor(NAME_SECOND, second);
+
+      Assert.assertSame(first, EmbeddedEJBContainerASAdaptor.getMCServer(NAME_FIRST));
+      Assert.assertSame(second, EmbeddedEJBContainerASAdaptor.getMCServer(NAME_SECOND));
+   }
+
+   /**
+    * Ensures a name may not be registered twice
+    */
+   @Test(expected = IllegalStateException.class)
+   public void nameRegisteredOnce()
+   {
+      new EmbeddedEJBContainerASAdaptor(NAME_FIRST, createServer());
+      new EmbeddedEJBContainerASAdaptor(NAME_FIRST, createServer());
+   }
+
+   /**
+    * Ensures stopping an adaptor unregisters its server, allowing the name to be reused
+    */
+   @Test
+   public void stopUnregisters()
+   {
+      final EmbeddedEJBContainerASAdaptor adaptor = new EmbeddedEJBContainerASAdaptor(NAME_FIRST, createServer());
+      adaptor.stop();
+      try
+      {
+         EmbeddedEJBContainerASAdaptor.getMCServer(NAME_FIRST);
+         Assert.fail("Server should have been unregistered");
+      }
+      catch (final IllegalStateException expected)
+      {
+         // Good
+      }
+
+      final MCBasedServer<?, ?> replacement = createServer();
+      new EmbeddedEJBContainerASAdaptor(NAME_FIRST, replacement);
+      Assert.assertSame(replacement, EmbeddedEJBContainerASAdaptor.getMCServer(NAME_FIRST));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a distinct {@link MCBasedServer} which supports no operations
+    */
+   private static MCBasedServer<?, ?> createServer()
+   {
+      return (MCBasedServer<?, ?>) Proxy.newProxyInstance(MCBasedServer.class.getClassLoader(), new Class<?>[]
+      {MCBasedServer.class}, new InvocationHandler()
+      {
+         @Override
+         public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable
+         {
+            if (method.getName().equals("equals"))
+            {
+               return proxy == args[0];
+            }
+            if (method.getName().equals("hashCode"))
+            {
+               return System.identityHashCode(proxy);
+            }
+            throw new UnsupportedOperationException(method.getName());
+         }
+      });
+   }
+
+}
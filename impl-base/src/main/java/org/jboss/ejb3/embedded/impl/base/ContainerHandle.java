@@ -0,0 +1,260 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.embedded.impl.base;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.ejb.embeddable.EJBContainer;
+import javax.naming.Context;
+import javax.naming.NamingException;
+
+import org.jboss.ejb3.embedded.api.EJBDeploymentException;
+import org.jboss.ejb3.embedded.api.JBossEJBContainer;
+import org.jboss.ejb3.embedded.api.JBossEJBContainerProperties;
+
+/**
+ * A single checkout of a container kept for reuse (see {@link JBossEJBContainerProperties#POOL}).
+ * Delegates to the container until closed, upon which the container is returned to its pool
+ * and this handle becomes invalid, such that a caller holding on to it after close may not 
+ * use the container meanwhile handed out to another.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class ContainerHandle extends EJBContainer implements JBossEJBContainer
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * The checked out container; null once this handle has been closed
+    */
+   private final AtomicReference<JBossEJBContainerBase> container;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new handle to the specified checked out container
+    * 
+    * @param container
+    */
+   ContainerHandle(final JBossEJBContainerBase container)
+   {
+      assert container != null : "Container must be specified";
+      this.container = new AtomicReference<JBossEJBContainerBase>(container);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns the container to its pool, or closes it if it may not be reused, and 
+    * invalidates this handle.  Subsequent invocations have no effect.
+    * @see javax.ejb.embeddable.EJBContainer#close()
+    */
+   @Override
+   public void close()
+   {
+      final JBossEJBContainerBase container = this.container.getAndSet(null);
+      if (container != null)
+      {
+         container.close();
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see javax.ejb.embeddable.EJBContainer#getContext()
+    */
+   @Override
+   public Context getContext()
+   {
+      return this.getContainer().getContext();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#deploy(java.net.URL[])
+    */
+   @Override
+   public void deploy(final URL... urls) throws EJBDeploymentException, IllegalArgumentException
+   {
+      this.getContainer().deploy(urls);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#deploy(java.io.File[])
+    */
+   @Override
+   public void deploy(final File... files) throws EJBDeploymentException, IllegalArgumentException
+   {
+      this.getContainer().deploy(files);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#deploy(java.lang.String, java.io.InputStream)
+    */
+   @Override
+   public URL deploy(final String name, final InputStream archive) throws EJBDeploymentException,
+         IllegalArgumentException
+   {
+      return this.getContainer().deploy(name, archive);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#deploy(java.lang.String, java.nio.ByteBuffer)
+    */
+   @Override
+   public URL deploy(final String name, final ByteBuffer archive) throws EJBDeploymentException,
+         IllegalArgumentException
+   {
+      return this.getContainer().deploy(name, archive);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#redeploy(java.net.URL[])
+    */
+   @Override
+   public void redeploy(final URL... urls) throws EJBDeploymentException, IllegalArgumentException
+   {
+      this.getContainer().redeploy(urls);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#undeploy(java.net.URL[])
+    */
+   @Override
+   public void undeploy(final URL... urls) throws EJBDeploymentException, IllegalArgumentException
+   {
+      this.getContainer().undeploy(urls);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#undeploy(java.io.File[])
+    */
+   @Override
+   public void undeploy(final File... files) throws EJBDeploymentException, IllegalArgumentException
+   {
+      this.getContainer().undeploy(files);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#markBaseline()
+    */
+   @Override
+   public void markBaseline()
+   {
+      this.getContainer().markBaseline();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#restoreBaseline()
+    */
+   @Override
+   public void restoreBaseline() throws EJBDeploymentException, IllegalStateException
+   {
+      this.getContainer().restoreBaseline();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#warmUp()
+    */
+   @Override
+   public void warmUp() throws NamingException
+   {
+      this.getContainer().warmUp();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#lookup(java.lang.Class)
+    */
+   @Override
+   public <T> T lookup(final Class<T> businessInterface) throws NamingException, IllegalArgumentException
+   {
+      return this.getContainer().lookup(businessInterface);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#lookup(java.lang.String, java.lang.Class)
+    */
+   @Override
+   public <T> T lookup(final String beanName, final Class<T> businessInterface) throws NamingException,
+         IllegalArgumentException
+   {
+      return this.getContainer().lookup(beanName, businessInterface);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      final JBossEJBContainerBase container = this.container.get();
+      return this.getClass().getSimpleName() + "[" + (container == null ? "closed" : container) + "]";
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the checked out container
+    * 
+    * @throws IllegalStateException If this handle has been closed
+    */
+   private JBossEJBContainerBase getContainer() throws IllegalStateException
+   {
+      final JBossEJBContainerBase container = this.container.get();
+      if (container == null)
+      {
+         throw new IllegalStateException("Container has been closed and returned for reuse; obtain another");
+      }
+      return container;
+   }
+
+}
@@ -0,0 +1,277 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.ejb.embeddable.EJBContainer;
+
+import org.jboss.ejb3.embedded.api.JBossEJBContainerProperties;
+import org.jboss.logging.Logger;
+
+/**
+ * Idle {@link EJBContainer}s kept for reuse, keyed by the 
+ * {@link JBossEmbeddedContainerStartupParams} from which they were created
+ * (see {@link JBossEJBContainerProperties#POOL}).  Containers idle for longer than
+ * their timeout are closed in the background, and the longest idle are closed
+ * once more than the maximum are held.  Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class ContainerPool
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(ContainerPool.class);
+
+   /**
+    * Time between checks for expired containers, in milliseconds
+    */
+   private static final long INTERVAL_EVICTION = 1000;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Idle containers, longest idle first
+    */
+   private final LinkedList<Idle> idle = new LinkedList<Idle>();
+
+   /**
+    * Closes expired containers while any are idle; lazily created
+    */
+   private ScheduledExecutorService evictor;
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Removes and returns the most recently released container created from parameters
+    * equal to those specified, or null if there is none
+    * 
+    * @param params
+    */
+   synchronized EJBContainer acquire(final JBossEmbeddedContainerStartupParams params)
+   {
+      final Iterator<Idle> it = idle.descendingIterator();
+      while (it.hasNext())
+      {
+         final Idle entry = it.next();
+         if (entry.params.equals(params))
+         {
+            it.remove();
+            return entry.container;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Keeps the specified container, created from the specified parameters, for reuse.
+    * Containers already held are ignored.
+    * 
+    * @param params
+    * @param container
+    * @param idleTimeout Time after which the container is to be closed if not reused, in milliseconds
+    * @param maxIdle Maximum number of containers to hold
+    */
+   void release(final JBossEmbeddedContainerStartupParams params, final EJBContainer container,
+         final long idleTimeout, final int maxIdle)
+   {
+      final List<EJBContainer> evicted = new ArrayList<EJBContainer>();
+      synchronized (this)
+      {
+         for (final Idle entry : idle)
+         {
+            if (entry.container == container)
+            {
+               return;
+            }
+         }
+         idle.add(new Idle(params, container, System.currentTimeMillis() + idleTimeout));
+         while (idle.size() > Math.max(0, maxIdle))
+         {
+            evicted.add(idle.removeFirst().container);
+         }
+         if (evictor == null && !idle.isEmpty())
+         {
+            evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+            {
+               @Override
+               public Thread newThread(final Runnable r)
+               {
+                  final Thread thread = new Thread(r, "EJBContainer Pool Evictor");
+                  thread.setDaemon(true);
+                  return thread;
+               }
+            });
+            evictor.scheduleWithFixedDelay(new Runnable()
+            {
+               @Override
+               public void run()
+               {
+                  ContainerPool.this.evictExpired();
+               }
+            }, INTERVAL_EVICTION, INTERVAL_EVICTION, TimeUnit.MILLISECONDS);
+         }
+      }
+      closeAll(evicted);
+   }
+
+   /**
+    * Closes all idle containers
+    */
+   void clear()
+   {
+      final List<EJBContainer> evicted = new ArrayList<EJBContainer>();
+      synchronized (this)
+      {
+         for (final Idle entry : idle)
+         {
+            evicted.add(entry.container);
+         }
+         idle.clear();
+         this.stopEvictor();
+      }
+      closeAll(evicted);
+   }
+
+   /**
+    * Obtains the number of idle containers
+    */
+   synchronized int size()
+   {
+      return idle.size();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Closes all containers idle past their timeout
+    */
+   void evictExpired()
+   {
+      final List<EJBContainer> evicted = new ArrayList<EJBContainer>();
+      final long now = System.currentTimeMillis();
+      synchronized (this)
+      {
+         final Iterator<Idle> it = idle.iterator();
+         while (it.hasNext())
+         {
+            final Idle entry = it.next();
+            if (entry.expiry <= now)
+            {
+               it.remove();
+               evicted.add(entry.container);
+            }
+         }
+         if (idle.isEmpty())
+         {
+            this.stopEvictor();
+         }
+      }
+      closeAll(evicted);
+   }
+
+   /**
+    * Stops the {@link ContainerPool#evictor}, if running
+    */
+   private void stopEvictor()
+   {
+      assert Thread.holdsLock(this) : "Must hold the pool lock";
+      if (evictor != null)
+      {
+         evictor.shutdown();
+         evictor = null;
+      }
+   }
+
+   /**
+    * Really closes the specified containers, logging any failure
+    */
+   private static void closeAll(final List<EJBContainer> containers)
+   {
+      for (final EJBContainer container : containers)
+      {
+         if (container instanceof JBossEJBContainerBase)
+         {
+            ((JBossEJBContainerBase) container).detachFromPool();
+         }
+         try
+         {
+            container.close();
+         }
+         catch (final RuntimeException re)
+         {
+            log.warn("Could not close idle container " + container + ": " + re);
+         }
+      }
+   }
+
+   /**
+    * An idle container and the time it expires
+    */
+   private static final class Idle
+   {
+      /**
+       * Parameters from which the container was created
+       */
+      private final JBossEmbeddedContainerStartupParams params;
+
+      /**
+       * The idle container
+       */
+      private final EJBContainer container;
+
+      /**
+       * Time after which the container is to be closed, in milliseconds since the epoch
+       */
+      private final long expiry;
+
+      private Idle(final JBossEmbeddedContainerStartupParams params, final EJBContainer container, final long expiry)
+      {
+         this.params = params;
+         this.container = container;
+         this.expiry = expiry;
+      }
+   }
+
+}
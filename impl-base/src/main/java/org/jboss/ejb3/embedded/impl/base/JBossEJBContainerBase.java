@@ -21,17 +21,49 @@
  */
 package org.jboss.ejb3.embedded.impl.base;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.ejb.EJBException;
 import javax.ejb.embeddable.EJBContainer;
 import javax.naming.Context;
 import javax.naming.InitialContext;
+import javax.naming.NameNotFoundException;
 import javax.naming.NamingException;
 
 import org.jboss.bootstrap.api.mc.server.MCBasedServer;
@@ -39,13 +71,28 @@ import org.jboss.bootstrap.api.mc.server.MCServer;
 import org.jboss.deployers.client.spi.Deployment;
 import org.jboss.deployers.client.spi.main.MainDeployer;
 import org.jboss.deployers.spi.DeploymentException;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+import org.jboss.deployers.structure.spi.main.MainDeployerStructure;
 import org.jboss.deployers.vfs.spi.client.VFSDeployment;
 import org.jboss.deployers.vfs.spi.client.VFSDeploymentFactory;
 import org.jboss.ejb3.embedded.api.EJBDeploymentException;
+import org.jboss.ejb3.embedded.api.JBossEJBContainerProperties;
+import org.jboss.ejb3.embedded.impl.base.deployment.DeploymentFingerprint;
+import org.jboss.ejb3.embedded.impl.base.deployment.DeploymentMetaDataSnapshot;
+import org.jboss.ejb3.embedded.impl.base.deployment.EjbJarStructure;
+import org.jboss.ejb3.embedded.impl.base.deployment.EjbModules;
+import org.jboss.ejb3.embedded.impl.base.deployment.InMemoryZipFileSystem;
+import org.jboss.ejb3.embedded.impl.base.leak.LeakDetector;
+import org.jboss.ejb3.embedded.impl.base.naming.EmbeddedNamingContext;
+import org.jboss.ejb3.embedded.impl.base.naming.InVMContextFactory;
+import org.jboss.ejb3.embedded.impl.base.naming.LookupCache;
+import org.jboss.ejb3.embedded.impl.base.naming.SessionBeanIndex;
+import org.jboss.ejb3.embedded.impl.base.profiler.ControllerStateProfiler;
 import org.jboss.ejb3.embedded.impl.base.scanner.ClassPathEjbJarScanner;
 import org.jboss.ejb3.embedded.spi.JBossEJBContainerProvider;
 import org.jboss.kernel.Kernel;
 import org.jboss.logging.Logger;
+import org.jboss.vfs.TempFileProvider;
 import org.jboss.vfs.VFS;
 import org.jboss.vfs.VirtualFile;
 
@@ -54,7 +101,9 @@ import org.jboss.vfs.VirtualFile;
  * support for deployment operations backed by a supplied {@link MCServer}
  * to be provided by concrete implementations.
  * 
- * Not thread-safe.
+ * Deployment operations are serialized; modules may be deployed
+ * upon lookup or in the background (see {@link JBossEJBContainerProperties}),
+ * but the container is otherwise not thread-safe.
  *
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  * @version $Revision: $
@@ -71,6 +120,57 @@ public abstract class JBossEJBContainerBase extends EJBContainer implements JBos
     */
    private static final Logger log = Logger.getLogger(JBossEJBContainerBase.class);
 
+   /**
+    * Protocol of {@link URL}s on the filesystem
+    */
+   private static final String PROTOCOL_FILE = "file";
+
+   /**
+    * Virtual path under which archives deployed from memory are mounted
+    */
+   private static final String PATH_IN_MEMORY = "/jboss-ejb-container/in-memory";
+
+   /**
+    * Size of the buffer used in reading archives from streams
+    */
+   private static final int BUFFER_SIZE = 8192;
+
+   /**
+    * Source of unique mount points for archives deployed from memory
+    */
+   private static final AtomicLong inMemoryCounter = new AtomicLong();
+
+   /**
+    * Default interval between samples of the controller state, in milliseconds
+    * (see {@link JBossEJBContainerProperties#PROFILE_CONTROLLER_INTERVAL})
+    */
+   private static final long DEFAULT_PROFILE_INTERVAL = 10;
+
+   /**
+    * Default time allowed for {@link JBossEJBContainerBase#undeployAll()}, in milliseconds
+    */
+   private static final long DEFAULT_CLOSE_TIMEOUT = 30000;
+
+   /**
+    * Default time an idle pooled container is kept, in milliseconds
+    */
+   private static final long DEFAULT_POOL_IDLE_TIMEOUT = 60000;
+
+   /**
+    * Default maximum number of idle pooled containers
+    */
+   private static final long DEFAULT_POOL_MAX_IDLE = 2;
+
+   /**
+    * Default number of times each caller invokes each warm-up method
+    */
+   private static final long DEFAULT_WARMUP_INVOCATIONS = 10000;
+
+   /**
+    * Default number of callers concurrently invoking each warm-up method
+    */
+   private static final long DEFAULT_WARMUP_POOL_SIZE = 1;
+
    //-------------------------------------------------------------------------------------||
    // Instance Members -------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -85,11 +185,178 @@ public abstract class JBossEJBContainerBase extends EJBContainer implements JBos
     */
    private final MCBasedServer<?, ?> mcServer;
 
+   /**
+    * State shared with the other containers backed by the Kernel of the {@link JBossEJBContainerBase#mcServer}
+    */
+   private final SharedKernel sharedKernel;
+
    /**
     * All deployments currently installed via this container
     */
    private final Map<URL, Deployment> deployments;
 
+   /**
+    * Quick fingerprints of all deployments currently installed via this container, 
+    * used to skip redeployment of unchanged content
+    */
+   private final Map<URL, String> fingerprints;
+
+   /**
+    * Snapshot of processed deployment metadata, or null if not configured
+    * (see {@link JBossEJBContainerProperties#METADATA_SNAPSHOT_DIR}) 
+    */
+   private final DeploymentMetaDataSnapshot metaDataSnapshot;
+
+   /**
+    * Modules registered for deployment upon first lookup of a name
+    * in their <code>java:global</code> namespace, keyed by module name
+    * (see {@link JBossEJBContainerProperties#LAZY_DEPLOYMENT})
+    */
+   private final Map<String, URL> lazyModules;
+
+   /**
+    * Modules being deployed in the background after container creation, keyed by 
+    * module name; lookups in their <code>java:global</code> namespace wait for completion
+    * (see {@link JBossEJBContainerProperties#PRIORITY_MODULES})
+    */
+   private final ConcurrentMap<String, Future<Void>> pendingModules;
+
+   /**
+    * {@link URL}s deployed as EJB modules with a predetermined structure; these
+    * keep their structure upon redeployment
+    */
+   private final Set<URL> structuredModules;
+
+   /**
+    * Handles to archives mounted by this container for deployments with a 
+    * predetermined structure, to be closed upon undeployment
+    */
+   private final Map<URL, Closeable> mounts;
+
+   /**
+    * Provider of temporary files backing mounted archives; lazily created
+    */
+   private TempFileProvider tempFileProvider;
+
+   /**
+    * Executor cleaning up after the {@link JBossEJBContainerBase#tempFileProvider}
+    */
+   private ScheduledExecutorService tempFileExecutor;
+
+   /**
+    * Deployments present when the baseline was marked, or null if no baseline has been marked
+    */
+   private Map<URL, Deployment> baseline;
+
+   /**
+    * Those baseline {@link URL}s deployed as EJB modules with a predetermined structure
+    */
+   private Set<URL> baselineStructuredModules;
+
+   /**
+    * Modules registered for lazy deployment when the baseline was marked, keyed by module name
+    */
+   private Map<String, URL> baselineLazyModules;
+
+   /**
+    * Cache of <code>java:global</code> lookup results, or null if not configured
+    * (see {@link JBossEJBContainerProperties#NAMING_LOOKUP_CACHE})
+    */
+   private final LookupCache lookupCache;
+
+   /**
+    * Naming context shared by all callers of {@link JBossEJBContainerBase#getContext()}; lazily created
+    */
+   private volatile Context context;
+
+   /**
+    * Guards creation of the {@link JBossEJBContainerBase#context}, which must not wait upon deployment
+    */
+   private final Object contextLock = new Object();
+
+   /**
+    * Guards claiming of {@link JBossEJBContainerBase#lazyModules} for deployment upon lookup,
+    * held only while claiming such that lookups of other names do not wait upon deployment
+    */
+   private final Object lazyLock = new Object();
+
+   /**
+    * Index of the session bean views deployed, by interface
+    */
+   private final SessionBeanIndex beanIndex;
+
+   /**
+    * Names of modules deployed via this container and not yet indexed in the 
+    * {@link JBossEJBContainerBase#beanIndex}; indexed upon the next typed lookup
+    */
+   private final Set<String> unindexedModules;
+
+   /**
+    * Names of modules deployed via this container
+    */
+   private final Set<String> ownModules;
+
+   /**
+    * Whether lookups through the {@link JBossEJBContainerBase#context} are restricted to
+    * the <code>java:global</code> namespaces of modules deployed via this container
+    * (see {@link JBossEJBContainerProperties#NAMING_SCOPED})
+    */
+   private final boolean namingScoped;
+
+   /**
+    * Descriptor of the naming server, deployed upon first need, or null if naming is
+    * provided otherwise (see {@link JBossEJBContainerProperties#NAMING_DESCRIPTOR})
+    */
+   private final URL namingDescriptor;
+
+   /**
+    * Whether the {@link JBossEJBContainerBase#namingDescriptor} has been deployed
+    */
+   private volatile boolean namingStarted;
+
+   /**
+    * Time allowed for {@link JBossEJBContainerBase#undeployAll()}, in milliseconds
+    */
+   private final long closeTimeout;
+
+   /**
+    * Whether {@link JBossEJBContainerBase#undeployAll()} checks that the {@link ClassLoader}s of 
+    * the undeployed modules have been released (see {@link JBossEJBContainerProperties#LEAK_CHECK})
+    */
+   private final boolean leakCheck;
+
+   /**
+    * Whether {@link JBossEJBContainerBase#undeployAndClose()} has been invoked
+    */
+   private final AtomicBoolean undeployedAndClosed = new AtomicBoolean();
+
+   /**
+    * Business methods invoked upon {@link JBossEJBContainerBase#warmUp()}, or null if none
+    * (see {@link JBossEJBContainerProperties#WARMUP_METHODS})
+    */
+   private final String[] warmUpMethods;
+
+   /**
+    * Number of times each caller invokes each of the {@link JBossEJBContainerBase#warmUpMethods}
+    */
+   private final long warmUpInvocations;
+
+   /**
+    * Number of callers concurrently invoking each of the {@link JBossEJBContainerBase#warmUpMethods}
+    */
+   private final int warmUpPoolSize;
+
+   /**
+    * Pool to which this container is returned upon close, or null if not pooled
+    * (see {@link JBossEJBContainerProperties#POOL})
+    */
+   private volatile ContainerPool pool;
+
+   /**
+    * Parameters from which this container was created, keying it in the {@link JBossEJBContainerBase#pool}
+    */
+   private volatile JBossEmbeddedContainerStartupParams poolParams;
+
    //-------------------------------------------------------------------------------------||
    // Constructor ------------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -109,13 +376,112 @@ public abstract class JBossEJBContainerBase extends EJBContainer implements JBos
             .getTarget();
       assert mainDeployer != null : "MainDeployer found in Kernel was null";
 
+      // Install in-VM naming if requested, before anything is bound
+      if (PropertyValues.getBoolean(properties, JBossEJBContainerProperties.NAMING_IN_VM, false))
+      {
+         try
+         {
+            InVMContextFactory.install();
+         }
+         catch (final NamingException ne)
+         {
+            throw new EJBException("Could not install in-VM naming", ne);
+         }
+      }
+
+      // Configure metadata snapshots if requested
+      final String snapshotDir = PropertyValues.getString(properties, JBossEJBContainerProperties.METADATA_SNAPSHOT_DIR);
+      final DeploymentMetaDataSnapshot metaDataSnapshot = snapshotDir == null ? null : new DeploymentMetaDataSnapshot(
+            new File(snapshotDir), getMetaDataConfiguration(properties), PropertyValues.getStrings(properties,
+                  JBossEJBContainerProperties.METADATA_SNAPSHOT_ATTACHMENTS));
+
       log.info("Started JBoss Embedded " + EJBContainer.class.getSimpleName());
       log.info("Modules for deployment: " + Arrays.asList(modules));
 
       // Set
       this.mcServer = server;
+      this.sharedKernel = SharedKernel.of(kernel);
       this.deployer = mainDeployer;
       this.deployments = new HashMap<URL, Deployment>();
+      this.fingerprints = new HashMap<URL, String>();
+      this.metaDataSnapshot = metaDataSnapshot;
+      this.lazyModules = new ConcurrentHashMap<String, URL>();
+      this.pendingModules = new ConcurrentHashMap<String, Future<Void>>();
+      this.structuredModules = new HashSet<URL>();
+      this.mounts = new HashMap<URL, Closeable>();
+      this.beanIndex = new SessionBeanIndex();
+      this.unindexedModules = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+      this.ownModules = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+      this.namingScoped = PropertyValues.getBoolean(properties, JBossEJBContainerProperties.NAMING_SCOPED, false);
+      this.lookupCache = PropertyValues.getBoolean(properties, JBossEJBContainerProperties.NAMING_LOOKUP_CACHE,
+            false) ? new LookupCache() : null;
+      final String namingDescriptor = PropertyValues.getString(properties,
+            JBossEJBContainerProperties.NAMING_DESCRIPTOR);
+      this.namingDescriptor = namingDescriptor == null ? null : EjbModules.toURL(namingDescriptor);
+      this.closeTimeout = PropertyValues.getLong(properties, JBossEJBContainerProperties.CLOSE_TIMEOUT,
+            DEFAULT_CLOSE_TIMEOUT);
+      this.leakCheck = PropertyValues.getBoolean(properties, JBossEJBContainerProperties.LEAK_CHECK, Boolean
+            .getBoolean(JBossEJBContainerProperties.LEAK_CHECK));
+
+      this.warmUpMethods = PropertyValues.getStrings(properties, JBossEJBContainerProperties.WARMUP_METHODS);
+      this.warmUpInvocations = PropertyValues.getLong(properties, JBossEJBContainerProperties.WARMUP_INVOCATIONS,
+            DEFAULT_WARMUP_INVOCATIONS);
+      this.warmUpPoolSize = (int) Math.max(1, PropertyValues.getLong(properties,
+            JBossEJBContainerProperties.WARMUP_POOL_SIZE, DEFAULT_WARMUP_POOL_SIZE));
+
+      // Other containers may be backed by the same Kernel; should creation fail from here on, 
+      // what was deployed and claimed so far is given up along with the Kernel
+      sharedKernel.retain();
+      boolean created = false;
+      try
+      {
+         // Remote clients can't ask for naming, so start it and its listeners now if they're wanted
+         if (PropertyValues.getBoolean(properties, JBossEJBContainerProperties.NAMING_REMOTE, false))
+         {
+            final String remoteDescriptor = PropertyValues.getString(properties,
+                  JBossEJBContainerProperties.NAMING_REMOTE_DESCRIPTOR);
+            if (remoteDescriptor == null)
+            {
+               log.warn("Remote naming requested but no " + JBossEJBContainerProperties.NAMING_REMOTE_DESCRIPTOR
+                     + " specified; remote naming listeners will be as configured by the server");
+            }
+            this.startNaming();
+            if (remoteDescriptor != null)
+            {
+               this.deployUrls(new URL[]
+               {EjbModules.toURL(remoteDescriptor)});
+            }
+         }
+
+         // Deploy the initial modules, profiling the controller if requested
+         ControllerStateProfiler profiler = null;
+         if (PropertyValues.getBoolean(properties, JBossEJBContainerProperties.PROFILE_CONTROLLER, false))
+         {
+            profiler = new ControllerStateProfiler(kernel.getController(), PropertyValues.getLong(properties,
+                  JBossEJBContainerProperties.PROFILE_CONTROLLER_INTERVAL, DEFAULT_PROFILE_INTERVAL));
+            profiler.start();
+         }
+         try
+         {
+            this.deployInitialModules(properties, modules);
+         }
+         finally
+         {
+            if (profiler != null)
+            {
+               profiler.stop();
+               log.info(profiler.report());
+            }
+         }
+         created = true;
+      }
+      finally
+      {
+         if (!created)
+         {
+            this.abandon();
+         }
+      }
    }
 
    protected JBossEJBContainerBase(final Map<?, ?> properties, final MCServer server)
@@ -142,55 +508,59 @@ public abstract class JBossEJBContainerBase extends EJBContainer implements JBos
          throw new IllegalArgumentException("At least one deployment must be specified");
       }
 
-      // Mark deployments added
-      final Set<Deployment> deploymentsAdded = new HashSet<Deployment>(deployments.length);
-
-      // Add all deployments
-      for (final Deployment deployment : deployments)
+      // The deployer is shared with any other containers backed by the Kernel
+      synchronized (sharedKernel.getDeployerLock())
       {
-         if (log.isTraceEnabled())
-         {
-            log.tracef("Adding deployment: ", deployment);
-         }
-         try
-         {
-            // Add to the deployer
-            deployer.addDeployment(deployment);
+         // Mark deployments added
+         final Set<Deployment> deploymentsAdded = new HashSet<Deployment>(deployments.length);
 
-            // Mark we've added this
-            deploymentsAdded.add(deployment);
-         }
-         catch (final DeploymentException mainDeploymentException)
+         // Add all deployments
+         for (final Deployment deployment : deployments)
          {
-            // Remove the pending deployments
-            for (final Deployment pending : deploymentsAdded)
+            if (log.isTraceEnabled())
             {
-               try
-               {
-                  deployer.removeDeployment(pending);
-               }
-               catch (final DeploymentException pendingDeploymentRemovalException)
+               log.tracef("Adding deployment: ", deployment);
+            }
+            try
+            {
+               // Add to the deployer
+               deployer.addDeployment(deployment);
+
+               // Mark we've added this
+               deploymentsAdded.add(deployment);
+            }
+            catch (final DeploymentException mainDeploymentException)
+            {
+               // Remove the pending deployments
+               for (final Deployment pending : deploymentsAdded)
                {
-                  log.warn("Could not back out pending deployment due to " + pendingDeploymentRemovalException
-                        + " while handing deployment error: " + mainDeploymentException);
+                  try
+                  {
+                     deployer.removeDeployment(pending);
+                  }
+                  catch (final DeploymentException pendingDeploymentRemovalException)
+                  {
+                     log.warn("Could not back out pending deployment due to " + pendingDeploymentRemovalException
+                           + " while handing deployment error: " + mainDeploymentException);
+                  }
                }
-            }
 
-            // Translate exception to our API
-            throw EJBDeploymentException
-                  .newInstance("Could not add deployment: " + deployment, mainDeploymentException);
+               // Translate exception to our API
+               throw EJBDeploymentException
+                     .newInstance("Could not add deployment: " + deployment, mainDeploymentException);
+            }
          }
-      }
 
-      // Process and ensure everything's OK
-      deployer.process();
-      try
-      {
-         deployer.checkComplete();
-      }
-      catch (final DeploymentException e)
-      {
-         throw EJBDeploymentException.newInstance("Processing the pending deployments resulted in error", e);
+         // Process and ensure everything's OK
+         deployer.process();
+         try
+         {
+            deployer.checkComplete();
+         }
+         catch (final DeploymentException e)
+         {
+            throw EJBDeploymentException.newInstance("Processing the pending deployments resulted in error", e);
+         }
       }
    }
 
@@ -209,107 +579,486 @@ public abstract class JBossEJBContainerBase extends EJBContainer implements JBos
          throw new IllegalArgumentException("At least one deployment must be specified");
       }
 
-      // Add all deployments
-      for (final Deployment deployment : deployments)
+      synchronized (sharedKernel.getDeployerLock())
       {
-         if (log.isTraceEnabled())
+         // Add all deployments
+         for (final Deployment deployment : deployments)
          {
-            log.tracef("Removing deployment: ", deployment);
+            if (log.isTraceEnabled())
+            {
+               log.tracef("Removing deployment: ", deployment);
+            }
+            try
+            {
+               // Remove from the deployer
+               deployer.removeDeployment(deployment);
+            }
+            catch (final DeploymentException mainDeploymentException)
+            {
+               // Translate exception to our API
+               throw EJBDeploymentException.newInstance("Could not remove deployment: " + deployment,
+                     mainDeploymentException);
+            }
          }
+
+         // Process and ensure everything's OK
+         deployer.process();
          try
          {
-            // Remove from the deployer
-            deployer.removeDeployment(deployment);
+            deployer.checkComplete();
          }
-         catch (final DeploymentException mainDeploymentException)
+         catch (final DeploymentException e)
          {
-            // Translate exception to our API
-            throw EJBDeploymentException.newInstance("Could not remove deployment: " + deployment,
-                  mainDeploymentException);
+            throw EJBDeploymentException.newInstance("Processing the removed deployments resulted in error", e);
          }
       }
+   }
+
+   /**
+    * To be invoked by {@link EJBContainer#close()} implementations before closing.  If this 
+    * container was created for reuse (see {@link JBossEJBContainerProperties#POOL}), restores
+    * it to its baseline and returns it to its pool, in which case it must not be closed.
+    * 
+    * @return Whether the container was returned to its pool
+    */
+   protected boolean returnToPool()
+   {
+      final ContainerPool pool = this.pool;
+      final JBossEmbeddedContainerStartupParams params = this.poolParams;
+      if (pool == null)
+      {
+         return false;
+      }
 
-      // Process and ensure everything's OK
-      deployer.process();
       try
       {
-         deployer.checkComplete();
+         this.restoreBaseline();
       }
-      catch (final DeploymentException e)
+      catch (final EJBDeploymentException ede)
       {
-         throw EJBDeploymentException.newInstance("Processing the removed deployments resulted in error", e);
+         log.warn("Could not restore " + this + " for reuse; closing instead: " + ede);
+         this.detachFromPool();
+         return false;
       }
+      final Map<?, ?> properties = params.getProperties();
+      pool.release(params, this, PropertyValues.getLong(properties, JBossEJBContainerProperties.POOL_IDLE_TIMEOUT,
+            DEFAULT_POOL_IDLE_TIMEOUT), (int) PropertyValues.getLong(properties,
+            JBossEJBContainerProperties.POOL_MAX_IDLE, DEFAULT_POOL_MAX_IDLE));
+      return true;
    }
 
    /**
-    * Deploys the specified {@link URL}s into the Container
+    * Undeploys everything deployed via this container and releases the resources it holds, 
+    * for use by containers which cannot simply shut down the underlying MC Server.  All deployments 
+    * are removed in a single pass of the {@link MainDeployer}, which uninstalls them in reverse 
+    * order of their dependencies.  Waits at most the configured time (see 
+    * {@link JBossEJBContainerProperties#CLOSE_TIMEOUT}), leaving undeployment to complete in 
+    * the background if exceeded.  If requested (see {@link JBossEJBContainerProperties#LEAK_CHECK}),
+    * spends any time remaining checking that the {@link ClassLoader}s of the undeployed modules
+    * have been released.
     * 
-    * @param urls URLs to deploy; must be specified, even if empty
-    * @throws EJBDeploymentException If an error occurred during deployment
-    * @throws IllegalArgumentException
+    * @return Descriptions of anything which could not be released; empty if all was released
     */
-   protected void deploy(final URL... urls) throws EJBDeploymentException, IllegalArgumentException
+   protected List<String> undeployAll()
    {
-      // Precondition checks
-      if (urls == null)
+      final long deadline = System.currentTimeMillis() + closeTimeout;
+      final List<String> leaks = new ArrayList<String>();
+
+      // Nothing more is to be deployed lazily or in the background
+      lazyModules.clear();
+      for (final Future<Void> pending : pendingModules.values())
       {
-         throw new IllegalArgumentException("URLs must be specified");
+         pending.cancel(false);
       }
 
-      // Hold the deployments
-      final Map<URL, Deployment> newDeployments = new HashMap<URL, Deployment>(urls.length);
+      // Note everything to be undeployed, and watch the class loaders it owns if requested
+      final LeakDetector leakDetector = leakCheck ? new LeakDetector() : null;
+      final URL[] urls;
+      synchronized (this)
+      {
+         // Naming still serves the other containers backed by the Kernel, so leave it to the Kernel
+         final Deployment naming = namingDescriptor == null ? null : this.deployments.get(namingDescriptor);
+         if (naming != null && sharedKernel.getContainers() > 1)
+         {
+            sharedKernel.share(namingDescriptor, naming, this);
+            this.deployments.remove(namingDescriptor);
+            this.fingerprints.remove(namingDescriptor);
+            namingStarted = false;
+         }
+
+         urls = this.deployments.keySet().toArray(new URL[]
+         {});
+         for (final Map.Entry<URL, Deployment> deployment : this.deployments.entrySet())
+         {
+            final ClassLoader classLoader = leakDetector == null ? null : this.getOwnClassLoader(deployment
+                  .getValue());
+            if (classLoader != null)
+            {
+               leakDetector.watch(deployment.getKey().toExternalForm(), classLoader);
+            }
+         }
+      }
 
-      // For each URL, make a Deployment
-      for (int i = 0; i < urls.length; i++)
+      // Undeploy within the time allowed; the deployer handles one batch at a time
+      boolean undeployed = true;
+      if (urls.length > 0)
       {
-         final URL url = urls[i];
-         final VirtualFile root;
+         final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+         {
+            @Override
+            public Thread newThread(final Runnable r)
+            {
+               final Thread thread = new Thread(r, "EJBContainer Undeployer");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+         final Future<Void> undeployment = executor.submit(new Callable<Void>()
+         {
+            @Override
+            public Void call() throws Exception
+            {
+               JBossEJBContainerBase.this.undeploy(urls);
+               return null;
+            }
+         });
+         executor.shutdown();
          try
          {
-            root = VFS.getChild(url);
+            undeployment.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
          }
-         catch (final URISyntaxException urise)
+         catch (final TimeoutException te)
          {
-            throw new RuntimeException("Could not create a virtual file to deploy from URL: " + url, urise);
+            undeployed = false;
+            leaks.add("Undeployment did not complete within " + closeTimeout + "ms and continues in the background");
          }
-         final VFSDeployment deployment = VFSDeploymentFactory.getInstance().createVFSDeployment(root);
-         newDeployments.put(url, deployment);
+         catch (final ExecutionException ee)
+         {
+            undeployed = false;
+            leaks.add("Undeployment failed: " + ee.getCause());
+         }
+         catch (final InterruptedException ie)
+         {
+            Thread.currentThread().interrupt();
+            undeployed = false;
+            leaks.add("Interrupted waiting for undeployment");
+         }
+      }
+      if (!undeployed)
+      {
+         // The undeployer still holds what would be released
+         return leaks;
       }
 
-      // Delegate to real deployment
-      this.deploy(newDeployments.values().toArray(new Deployment[]
-      {}));
+      // Release what this container holds itself
+      synchronized (this)
+      {
+         closeAll(this.mounts.values());
+         this.mounts.clear();
+         if (tempFileProvider != null)
+         {
+            closeAll(Collections.<Closeable> singleton(tempFileProvider));
+            tempFileExecutor.shutdown();
+            tempFileProvider = null;
+            tempFileExecutor = null;
+         }
+         if (lookupCache != null)
+         {
+            lookupCache.clear();
+         }
+         this.baseline = null;
+      }
 
-      // Mark these are done
-      this.deployments.putAll(newDeployments);
+      // Anything still reachable has leaked
+      if (leakDetector != null)
+      {
+         leaks.addAll(leakDetector.check(deadline - System.currentTimeMillis()));
+      }
+      return leaks;
    }
 
    /**
-    * Undeploys the specified {@link URL}s from the Container.  If a {@link URL}
-    * is specified that has not been previously deployed via this view, it will be ignored.
-    * 
-    * @param urls URLs to undeploy; at least one must be specified
-    * @throws EJBDeploymentException If an error occurred during deployment
-    * @throws IllegalArgumentException
+    * Closes this container for {@link EJBContainer#close()} implementations which cannot simply 
+    * shut down the underlying MC Server: returns it to its pool if created for reuse, otherwise 
+    * undeploys everything deployed via it (see {@link JBossEJBContainerBase#undeployAll()}), 
+    * releases the MC Server and reports anything which could not be released.  Subsequent 
+    * invocations have no effect.
     */
-   protected void undeploy(final URL... urls) throws EJBDeploymentException, IllegalArgumentException
+   protected void undeployAndClose()
    {
-      // Precondition checks
-      if (urls == null)
+      // Kept for reuse if pooled
+      if (this.returnToPool())
       {
-         throw new IllegalArgumentException("URLs must be specified");
+         return;
+      }
+      if (!undeployedAndClosed.compareAndSet(false, true))
+      {
+         return;
       }
 
-      // Get the Deployments for the URLs
-      final Set<Deployment> deploymentsToRemove = new HashSet<Deployment>();
-      final Set<URL> urlsToUnregister = new HashSet<URL>();
-      for (final URL url : urls)
+      final List<String> leaks = this.undeployAll();
+      this.releaseMCServer();
+      if (leaks.isEmpty())
       {
-         // Lookup
-         final Deployment deployment = this.deployments.get(url);
-         if (deployment == null)
-         {
-            if (log.isDebugEnabled())
+         log.info("Closed " + this);
+         return;
+      }
+      final StringBuilder report = new StringBuilder("Closed " + this + ", but not everything could be released:");
+      for (final String leak : leaks)
+      {
+         report.append("\n\t").append(leak);
+      }
+      log.warn(report.toString());
+   }
+
+   /**
+    * Undoes what a constructor failing once the Kernel was retained has done: undeploys what was
+    * deployed so far, giving up the claims upon it (naming included), and releases the Kernel.  
+    * Failures are logged rather than thrown, such that they do not hide why creation failed.
+    */
+   private void abandon()
+   {
+      try
+      {
+         final List<String> leaks = this.undeployAll();
+         if (!leaks.isEmpty())
+         {
+            log.warn("Could not release everything deployed by " + this + " before its creation failed: " + leaks);
+         }
+      }
+      catch (final RuntimeException re)
+      {
+         log.warn("Could not undeploy what was deployed by " + this + " before its creation failed: " + re);
+      }
+      this.releaseMCServer();
+   }
+
+   /**
+    * To be invoked by {@link EJBContainer#close()} implementations once this container
+    * no longer uses the underlying MC Server, which may back other containers.  Undeploys
+    * anything left to the Kernel by containers since closed if this was the last.
+    * 
+    * @return Whether no other containers are backed by the MC Server, such that it may be shut down
+    */
+   protected boolean releaseMCServer()
+   {
+      if (!sharedKernel.release())
+      {
+         return false;
+      }
+      final Map<URL, Deployment> shared = sharedKernel.takeShared();
+      if (!shared.isEmpty())
+      {
+         try
+         {
+            this.undeploy(shared.values().toArray(new Deployment[]
+            {}));
+         }
+         catch (final EJBDeploymentException ede)
+         {
+            log.warn("Could not undeploy " + shared.keySet() + " left to the kernel: " + ede);
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Deploys the specified {@link URL}s into the Container
+    * 
+    * @param urls URLs to deploy; must be specified, even if empty
+    * @throws EJBDeploymentException If an error occurred during deployment
+    * @throws IllegalArgumentException
+    */
+   public synchronized void deploy(final URL... urls) throws EJBDeploymentException, IllegalArgumentException
+   {
+      // Precondition checks
+      if (urls == null)
+      {
+         throw new IllegalArgumentException("URLs must be specified");
+      }
+
+      // Delegate
+      this.deployUrls(urls);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#deploy(java.lang.String, java.io.InputStream)
+    */
+   @Override
+   public URL deploy(final String name, final InputStream archive) throws EJBDeploymentException,
+         IllegalArgumentException
+   {
+      // Precondition checks
+      if (archive == null)
+      {
+         throw new IllegalArgumentException("archive must be specified");
+      }
+
+      // Read it all in
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[BUFFER_SIZE];
+      try
+      {
+         int read;
+         while ((read = archive.read(buffer)) != -1)
+         {
+            bytes.write(buffer, 0, read);
+         }
+      }
+      catch (final IOException ioe)
+      {
+         throw EJBDeploymentException.newInstance("Could not read archive " + name, ioe);
+      }
+
+      // Delegate
+      return this.deploy(name, ByteBuffer.wrap(bytes.toByteArray()));
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#deploy(java.lang.String, java.nio.ByteBuffer)
+    */
+   @Override
+   public synchronized URL deploy(final String name, final ByteBuffer archive) throws EJBDeploymentException,
+         IllegalArgumentException
+   {
+      // Precondition checks
+      if (name == null || name.length() == 0)
+      {
+         throw new IllegalArgumentException("name must be specified");
+      }
+      if (name.indexOf('/') >= 0 || name.indexOf('\\') >= 0)
+      {
+         throw new IllegalArgumentException("name must not contain a path separator: " + name);
+      }
+      if (archive == null)
+      {
+         throw new IllegalArgumentException("archive must be specified");
+      }
+
+      // Mount the archive at a unique virtual location
+      final VirtualFile root = VFS.getChild(PATH_IN_MEMORY).getChild(String.valueOf(inMemoryCounter.incrementAndGet()))
+            .getChild(name);
+      final Closeable mount;
+      final URL url;
+      try
+      {
+         mount = VFS.mount(root, new InMemoryZipFileSystem(archive));
+      }
+      catch (final IOException ioe)
+      {
+         throw EJBDeploymentException.newInstance("Could not mount archive " + name, ioe);
+      }
+      try
+      {
+         url = root.toURL();
+      }
+      catch (final MalformedURLException murle)
+      {
+         closeAll(Collections.singleton(mount));
+         throw new RuntimeException("Could not obtain URL for mounted archive " + root, murle);
+      }
+
+      // Deploy as a module, unmounting if we fail
+      try
+      {
+         this.deploy(Collections.singletonMap(url, root), Collections.singletonMap(url, fingerprint(url, root)),
+               Collections.singleton(url));
+      }
+      catch (final RuntimeException re)
+      {
+         closeAll(Collections.singleton(mount));
+         throw re;
+      }
+      this.mounts.put(url, mount);
+      return url;
+   }
+
+   /**
+    * Redeploys the specified {@link URL}s into the Container.  {@link URL}s
+    * which have been previously deployed via this view and whose content is unchanged
+    * are ignored; those whose content has changed are undeployed and deployed again, and those
+    * not yet deployed are simply deployed.  All changed and new {@link URL}s are processed 
+    * together in a single pass. 
+    * 
+    * @param urls URLs to redeploy; must be specified, even if empty
+    * @throws EJBDeploymentException If an error occurred during undeployment or deployment
+    * @throws IllegalArgumentException
+    */
+   public synchronized void redeploy(final URL... urls) throws EJBDeploymentException, IllegalArgumentException
+   {
+      // Precondition checks
+      if (urls == null)
+      {
+         throw new IllegalArgumentException("URLs must be specified");
+      }
+
+      // Determine what's changed
+      final Set<URL> changed = new HashSet<URL>();
+      final Map<URL, VirtualFile> roots = new HashMap<URL, VirtualFile>(urls.length);
+      final Map<URL, String> newFingerprints = new HashMap<URL, String>(urls.length);
+      for (final URL url : urls)
+      {
+         final VirtualFile root = getRoot(url);
+         final String fingerprint = fingerprint(url, root);
+
+         // Already deployed?
+         if (this.deployments.containsKey(url))
+         {
+            // Unchanged, so nothing to do
+            if (fingerprint != null && fingerprint.equals(this.fingerprints.get(url)))
+            {
+               if (log.isDebugEnabled())
+               {
+                  log.debug("Skipping redeployment of unchanged " + url.toExternalForm());
+               }
+               continue;
+            }
+            changed.add(url);
+         }
+
+         roots.put(url, root);
+         newFingerprints.put(url, fingerprint);
+      }
+
+      // Remove the stale versions, then deploy the new ones (modules keeping their structure)
+      final Set<URL> modules = new HashSet<URL>(roots.keySet());
+      modules.retainAll(this.structuredModules);
+      if (!changed.isEmpty())
+      {
+         this.undeploy(changed.toArray(new URL[]
+         {}));
+      }
+      this.deploy(roots, newFingerprints, modules);
+   }
+
+   /**
+    * Undeploys the specified {@link URL}s from the Container.  If a {@link URL}
+    * is specified that has not been previously deployed via this view, it will be ignored.
+    * 
+    * @param urls URLs to undeploy; at least one must be specified
+    * @throws EJBDeploymentException If an error occurred during deployment
+    * @throws IllegalArgumentException
+    */
+   public synchronized void undeploy(final URL... urls) throws EJBDeploymentException, IllegalArgumentException
+   {
+      // Precondition checks
+      if (urls == null)
+      {
+         throw new IllegalArgumentException("URLs must be specified");
+      }
+
+      // Get the Deployments for the URLs
+      final Set<Deployment> deploymentsToRemove = new HashSet<Deployment>();
+      final Set<URL> urlsToUnregister = new HashSet<URL>();
+      for (final URL url : urls)
+      {
+         // Lookup
+         final Deployment deployment = this.deployments.get(url);
+         if (deployment == null)
+         {
+            if (log.isDebugEnabled())
             {
                log.debug("Ignoring undeployment request of " + url.toExternalForm()
                      + "; has not been previously deployed via " + this);
@@ -322,6 +1071,12 @@ public abstract class JBossEJBContainerBase extends EJBContainer implements JBos
          }
       }
 
+      // Nothing of ours; undeploy(Deployment...) requires at least one
+      if (deploymentsToRemove.isEmpty())
+      {
+         return;
+      }
+
       // Undeploy
       this.undeploy(deploymentsToRemove.toArray(new Deployment[]
       {}));
@@ -329,8 +1084,159 @@ public abstract class JBossEJBContainerBase extends EJBContainer implements JBos
       for (final URL url : urlsToUnregister)
       {
          this.deployments.remove(url);
+         this.fingerprints.remove(url);
+         this.structuredModules.remove(url);
+         if (url.equals(namingDescriptor))
+         {
+            namingStarted = false;
+         }
+         sharedKernel.unclaim(url, this);
+         final String moduleName = EjbModules.getModuleName(url);
+         unindexedModules.remove(moduleName);
+         ownModules.remove(moduleName);
+         beanIndex.remove(moduleName);
+         if (lookupCache != null)
+         {
+            lookupCache.evictModule(moduleName);
+         }
+         final Closeable mount = this.mounts.remove(url);
+         if (mount != null)
+         {
+            closeAll(Collections.singleton(mount));
+         }
+      }
+
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#deploy(java.io.File[])
+    */
+   @Override
+   public void deploy(final File... files) throws EJBDeploymentException, IllegalArgumentException
+   {
+      // Precondition checks
+      if (files == null)
+      {
+         throw new IllegalArgumentException("Files must be specified");
+      }
+
+      // Delegate
+      this.deploy(toURLs(files));
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#undeploy(java.io.File[])
+    */
+   @Override
+   public void undeploy(final File... files) throws EJBDeploymentException, IllegalArgumentException
+   {
+      // Precondition checks
+      if (files == null)
+      {
+         throw new IllegalArgumentException("Files must be specified");
+      }
+
+      // Delegate
+      this.undeploy(toURLs(files));
+   }
+
+   /**
+    * {@inheritDoc}
+    * Waits for any modules still being deployed in the background before marking.
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#markBaseline()
+    */
+   @Override
+   public void markBaseline()
+   {
+      // Background deployments belong to the baseline; wait outside the lock they need
+      for (final Map.Entry<String, Future<Void>> pending : pendingModules.entrySet())
+      {
+         try
+         {
+            pending.getValue().get();
+         }
+         catch (final InterruptedException ie)
+         {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for deployment of module " + pending.getKey());
+         }
+         catch (final ExecutionException ee)
+         {
+            log.warn("Module " + pending.getKey() + " failed to deploy and is not part of the baseline: "
+                  + ee.getCause());
+         }
+      }
+
+      synchronized (this)
+      {
+         this.baseline = new HashMap<URL, Deployment>(this.deployments);
+         this.baselineStructuredModules = new HashSet<URL>(this.structuredModules);
+         this.baselineLazyModules = new HashMap<String, URL>(this.lazyModules);
+         log.info("Marked baseline of " + this.baseline.size() + " deployments");
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#restoreBaseline()
+    */
+   @Override
+   public synchronized void restoreBaseline() throws EJBDeploymentException, IllegalStateException
+   {
+      // Precondition checks
+      if (baseline == null)
+      {
+         throw new IllegalStateException("No baseline has been marked");
+      }
+
+      final long start = System.currentTimeMillis();
+
+      // Everything added since the baseline, and baseline deployments replaced since, must go
+      final Set<URL> toRemove = new HashSet<URL>();
+      for (final Map.Entry<URL, Deployment> deployment : this.deployments.entrySet())
+      {
+         if (baseline.get(deployment.getKey()) != deployment.getValue())
+         {
+            toRemove.add(deployment.getKey());
+         }
+      }
+
+      // Baseline deployments removed or replaced since must come back
+      final Map<URL, VirtualFile> roots = new HashMap<URL, VirtualFile>();
+      final Map<URL, String> newFingerprints = new HashMap<URL, String>();
+      for (final URL url : baseline.keySet())
+      {
+         if (!this.deployments.containsKey(url) || toRemove.contains(url))
+         {
+            final VirtualFile root = getRoot(url);
+            roots.put(url, root);
+            newFingerprints.put(url, fingerprint(url, root));
+         }
+      }
+      final Set<URL> modules = new HashSet<URL>(roots.keySet());
+      modules.retainAll(baselineStructuredModules);
+
+      // One pass each way
+      if (!toRemove.isEmpty())
+      {
+         this.undeploy(toRemove.toArray(new URL[]
+         {}));
+      }
+      this.deploy(roots, newFingerprints, modules);
+
+      // Modules registered lazily at the baseline and deployed since are lazy again
+      for (final Map.Entry<String, URL> lazyModule : baselineLazyModules.entrySet())
+      {
+         if (!this.deployments.containsKey(lazyModule.getValue()))
+         {
+            lazyModules.put(lazyModule.getKey(), lazyModule.getValue());
+         }
       }
 
+      log.info("Restored baseline in " + (System.currentTimeMillis() - start) + "ms; undeployed " + toRemove.size()
+            + ", deployed " + roots.size());
    }
 
    /**
@@ -344,19 +1250,1139 @@ public abstract class JBossEJBContainerBase extends EJBContainer implements JBos
 
    /**
     * {@inheritDoc}
+    * The same thread-safe {@link Context} is returned to all callers; closing it
+    * has no effect.
     * @see javax.ejb.embeddable.EJBContainer#getContext()
     */
    @Override
    public Context getContext()
    {
-      // We could return this assuming the naming system is up, as one idea
-      try
+      Context context = this.context;
+      if (context != null)
+      {
+         return context;
+      }
+      this.startNaming();
+      synchronized (contextLock)
+      {
+         context = this.context;
+         if (context == null)
+         {
+            // We could return this assuming the naming system is up, as one idea
+            try
+            {
+               context = new EmbeddedNamingContext(new InitialContext(), new EmbeddedNamingContext.LookupListener()
+               {
+                  @Override
+                  public void beforeLookup(final String name) throws NamingException
+                  {
+                     awaitModuleFor(name);
+                     deployLazyModuleFor(name);
+                     checkScopeOf(name);
+                  }
+               }, lookupCache);
+            }
+            catch (final NamingException e)
+            {
+               throw new RuntimeException("Could not create new naming context", e);
+            }
+            this.context = context;
+         }
+         return context;
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#lookup(java.lang.Class)
+    */
+   @Override
+   public <T> T lookup(final Class<T> businessInterface) throws NamingException, IllegalArgumentException
+   {
+      // Precondition checks
+      if (businessInterface == null)
+      {
+         throw new IllegalArgumentException("business interface must be specified");
+      }
+
+      // Delegate
+      return this.lookupView(null, businessInterface);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#lookup(java.lang.String, java.lang.Class)
+    */
+   @Override
+   public <T> T lookup(final String beanName, final Class<T> businessInterface) throws NamingException,
+         IllegalArgumentException
+   {
+      // Precondition checks
+      if (beanName == null || beanName.length() == 0)
+      {
+         throw new IllegalArgumentException("bean name must be specified");
+      }
+      if (businessInterface == null)
+      {
+         throw new IllegalArgumentException("business interface must be specified");
+      }
+
+      // Delegate
+      return this.lookupView(beanName, businessInterface);
+   }
+
+   /**
+    * {@inheritDoc}
+    * Modules registered for deployment upon lookup are deployed only if named by a warm-up method.
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#warmUp()
+    */
+   @Override
+   public void warmUp() throws NamingException
+   {
+      final long start = System.currentTimeMillis();
+
+      // Generate the proxy of every view deployed via this container
+      this.startNaming();
+      this.indexDeployedModules();
+      final Context context = this.getContext();
+      int views = 0;
+      for (final String moduleName : ownModules)
+      {
+         for (final String jndiName : beanIndex.getJndiNames(moduleName))
+         {
+            context.lookup(jndiName);
+            views++;
+         }
+      }
+
+      // Drive the configured methods
+      if (warmUpMethods != null)
+      {
+         for (final String warmUpMethod : warmUpMethods)
+         {
+            this.invokeForWarmUp(warmUpMethod.trim());
+         }
+      }
+
+      log.info("Warmed up " + views + " views and " + (warmUpMethods == null ? 0 : warmUpMethods.length)
+            + " methods in " + (System.currentTimeMillis() - start) + "ms");
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Invokes the specified warm-up method, in the form <code>[bean-name/]interface#method</code>,
+    * the configured number of times from each of the configured number of concurrent callers
+    * 
+    * @throws NamingException If a view of the bean could not be obtained
+    * @throws EJBException If the method could not be found or its invocation failed
+    */
+   private void invokeForWarmUp(final String warmUpMethod) throws NamingException, EJBException
+   {
+      // Find the method
+      final int hash = warmUpMethod.lastIndexOf('#');
+      if (hash <= 0 || hash == warmUpMethod.length() - 1)
+      {
+         throw new EJBException("Illegal warm-up method " + warmUpMethod + "; expected [bean-name/]interface#method");
+      }
+      final int slash = warmUpMethod.lastIndexOf('/', hash);
+      final String beanName = slash < 0 ? null : warmUpMethod.substring(0, slash);
+      final Class<?> businessInterface;
+      final Method method;
+      try
+      {
+         businessInterface = Class.forName(warmUpMethod.substring(slash + 1, hash), false, Thread.currentThread()
+               .getContextClassLoader());
+         method = businessInterface.getMethod(warmUpMethod.substring(hash + 1));
+      }
+      catch (final ClassNotFoundException cnfe)
+      {
+         throw new EJBException("Could not load the business interface of warm-up method " + warmUpMethod, cnfe);
+      }
+      catch (final NoSuchMethodException nsme)
+      {
+         throw new EJBException("No public method taking no parameters for warm-up method " + warmUpMethod, nsme);
+      }
+      final Object view = beanName == null ? this.lookup(businessInterface) : this.lookup(beanName,
+            businessInterface);
+
+      // All callers begin together, such that the pool of a stateless bean grows to their number
+      final CyclicBarrier barrier = new CyclicBarrier(warmUpPoolSize);
+      final ExecutorService executor = Executors.newFixedThreadPool(warmUpPoolSize, new ThreadFactory()
+      {
+         @Override
+         public Thread newThread(final Runnable r)
+         {
+            final Thread thread = new Thread(r, "EJBContainer Warm-up");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      final List<Future<Void>> callers = new ArrayList<Future<Void>>(warmUpPoolSize);
+      for (int i = 0; i < warmUpPoolSize; i++)
+      {
+         callers.add(executor.submit(new Callable<Void>()
+         {
+            @Override
+            public Void call() throws Exception
+            {
+               barrier.await();
+               for (long invocation = 0; invocation < warmUpInvocations
+                     && !Thread.currentThread().isInterrupted(); invocation++)
+               {
+                  method.invoke(view);
+               }
+               return null;
+            }
+         }));
+      }
+      executor.shutdown();
+      try
+      {
+         for (final Future<Void> caller : callers)
+         {
+            caller.get();
+         }
+      }
+      catch (final InterruptedException ie)
+      {
+         executor.shutdownNow();
+         Thread.currentThread().interrupt();
+         throw new EJBException("Interrupted invoking warm-up method " + warmUpMethod);
+      }
+      catch (final ExecutionException ee)
+      {
+         executor.shutdownNow();
+         Throwable cause = ee.getCause();
+         if (cause instanceof InvocationTargetException)
+         {
+            cause = cause.getCause();
+         }
+         throw new EJBException("Invocation of warm-up method " + warmUpMethod + " failed",
+               cause instanceof Exception ? (Exception) cause : new RuntimeException(cause));
+      }
+   }
+
+   /**
+    * Looks up the single view of the specified interface, optionally restricted
+    * to the named bean, through the {@link JBossEJBContainerBase#beanIndex}.  If the 
+    * index knows of no such view, or the view it knows of is no longer bound, the index is
+    * rebuilt from the naming system once.
+    */
+   private <T> T lookupView(final String beanName, final Class<T> businessInterface) throws NamingException
+   {
+      this.startNaming();
+      this.indexDeployedModules();
+      String jndiName = this.getIndexedJndiName(beanName, businessInterface);
+      if (jndiName == null)
+      {
+         this.reindex();
+         jndiName = this.getIndexedJndiName(beanName, businessInterface);
+      }
+      if (jndiName == null)
+      {
+         throw new NameNotFoundException("No view of " + businessInterface.getName()
+               + (beanName == null ? "" : " of bean " + beanName) + " is deployed");
+      }
+      try
+      {
+         return businessInterface.cast(this.getContext().lookup(jndiName));
+      }
+      catch (final NameNotFoundException nnfe)
+      {
+         // Undeployed other than through us; try again with what's bound now
+         this.reindex();
+         jndiName = this.getIndexedJndiName(beanName, businessInterface);
+         if (jndiName == null)
+         {
+            throw nnfe;
+         }
+         return businessInterface.cast(this.getContext().lookup(jndiName));
+      }
+   }
+
+   /**
+    * Obtains the JNDI name of the single indexed view of the specified interface, 
+    * optionally restricted to the named bean, or null if there is none
+    * 
+    * @throws NamingException If there is more than one such view
+    */
+   private String getIndexedJndiName(final String beanName, final Class<?> businessInterface)
+         throws NamingException
+   {
+      final Set<String> jndiNames = beanIndex.getJndiNames(businessInterface.getName(), beanName);
+      if (jndiNames.isEmpty())
+      {
+         return null;
+      }
+      if (jndiNames.size() > 1)
+      {
+         throw new NamingException("More than one view of " + businessInterface.getName() + " is deployed: "
+               + jndiNames + (beanName == null ? "; specify the bean name" : ""));
+      }
+      return jndiNames.iterator().next();
+   }
+
+   /**
+    * Indexes the session bean views of all modules deployed since the last typed lookup
+    */
+   private void indexDeployedModules() throws NamingException
+   {
+      // Nothing new
+      if (unindexedModules.isEmpty())
+      {
+         return;
+      }
+
+      // Use the naming system directly; lookups through our context may wait upon deployment
+      final Context context = new InitialContext();
+      try
+      {
+         for (final String moduleName : unindexedModules)
+         {
+            if (unindexedModules.remove(moduleName))
+            {
+               beanIndex.index(context, moduleName);
+            }
+         }
+      }
+      finally
+      {
+         context.close();
+      }
+   }
+
+   /**
+    * Rebuilds the {@link JBossEJBContainerBase#beanIndex} from everything now bound
+    */
+   private void reindex() throws NamingException
+   {
+      final Context context = new InitialContext();
+      try
+      {
+         beanIndex.reindex(context);
+      }
+      finally
+      {
+         context.close();
+      }
+   }
+
+   /**
+    * Deploys the modules supplied upon creation: all now, or those prioritized now
+    * and the rest lazily or in the background as configured
+    */
+   private void deployInitialModules(final Map<?, ?> properties, final String[] modules)
+         throws EJBDeploymentException
+   {
+      final URL[] moduleUrls = toURLs(modules);
+      final boolean lazy = PropertyValues.getBoolean(properties, JBossEJBContainerProperties.LAZY_DEPLOYMENT, false);
+      final String[] priorityModules = PropertyValues.getStrings(properties,
+            JBossEJBContainerProperties.PRIORITY_MODULES);
+      if (!lazy && priorityModules == null)
+      {
+         // All now
+         this.deployModules(moduleUrls);
+      }
+      else
+      {
+         final Map<String, URL> registry = new LinkedHashMap<String, URL>();
+         for (final URL moduleUrl : moduleUrls)
+         {
+            registry.put(EjbModules.getModuleName(moduleUrl), moduleUrl);
+         }
+
+         // Priority modules (and their dependencies) now
+         final Map<String, URL> prioritized = new LinkedHashMap<String, URL>();
+         if (priorityModules != null)
+         {
+            for (final String priorityModule : priorityModules)
+            {
+               if (!registry.containsKey(priorityModule))
+               {
+                  log.warn("Priority module " + priorityModule + " is not among the modules to deploy: "
+                        + registry.keySet());
+                  continue;
+               }
+               prioritized.putAll(withDependencies(priorityModule, registry));
+            }
+            registry.keySet().removeAll(prioritized.keySet());
+            log.info("Deploying priority modules: " + prioritized.keySet());
+            this.deployModules(prioritized.values().toArray(new URL[]
+            {}));
+         }
+
+         // The rest upon lookup, or in the background
+         if (lazy)
+         {
+            lazyModules.putAll(registry);
+            log.info("Modules registered for deployment upon first lookup: " + lazyModules.keySet());
+         }
+         else
+         {
+            this.deployInBackground(registry);
+         }
+      }
+   }
+
+   /**
+    * Deploys the naming server descriptor, if configured and not yet deployed
+    * 
+    * @throws EJBDeploymentException If the naming server could not be deployed
+    */
+   private void startNaming() throws EJBDeploymentException
+   {
+      if (namingDescriptor == null || namingStarted)
+      {
+         return;
+      }
+      synchronized (this)
+      {
+         if (namingStarted)
+         {
+            return;
+         }
+         // Mark first; deploying the descriptor comes back through here
+         namingStarted = true;
+
+         // Naming is Kernel-wide, so may have been started by another container
+         if (!sharedKernel.claim(namingDescriptor, this))
+         {
+            if (log.isDebugEnabled())
+            {
+               log.debug("Naming already started by another container backed by the same kernel");
+            }
+            return;
+         }
+         log.info("Starting naming upon first use: " + namingDescriptor.toExternalForm());
+         try
+         {
+            this.deployUrls(new URL[]
+            {namingDescriptor});
+         }
+         catch (final RuntimeException re)
+         {
+            namingStarted = false;
+            throw re;
+         }
+      }
+   }
+
+   /**
+    * Deploys the specified {@link URL}s into the Container
+    */
+   private void deployUrls(final URL[] urls) throws EJBDeploymentException
+   {
+      this.deployUrls(urls, false);
+   }
+
+   /**
+    * Deploys the specified {@link URL}s into the Container as EJB modules, 
+    * supplying a predetermined EJB JAR structure where applicable
+    * (see {@link EjbJarStructure})
+    */
+   private void deployModules(final URL[] urls) throws EJBDeploymentException
+   {
+      this.deployUrls(urls, true);
+   }
+
+   /**
+    * Deploys the specified {@link URL}s into the Container, optionally as EJB modules
+    */
+   private synchronized void deployUrls(final URL[] urls, final boolean asModules) throws EJBDeploymentException
+   {
+      // Resolve the roots and their fingerprints
+      final Map<URL, VirtualFile> roots = new HashMap<URL, VirtualFile>(urls.length);
+      final Map<URL, String> newFingerprints = new HashMap<URL, String>(urls.length);
+      for (final URL url : urls)
+      {
+         final VirtualFile root = getRoot(url);
+         roots.put(url, root);
+         newFingerprints.put(url, fingerprint(url, root));
+      }
+
+      // Delegate to real deployment
+      this.deploy(roots, newFingerprints, asModules ? roots.keySet() : Collections.<URL> emptySet());
+   }
+
+   /**
+    * If the specified JNDI name is in the <code>java:global</code> namespace
+    * of a module registered for lazy deployment, deploys that module and the 
+    * registered modules upon which it depends, or waits for their deployment 
+    * upon a concurrent lookup.  Lookups of other names do not wait.  Modules which
+    * could not be deployed remain registered, to be deployed upon a later lookup.
+    * 
+    * @param name JNDI name about to be looked up
+    * @throws NamingException If the module could not be deployed
+    */
+   private void deployLazyModuleFor(final String name) throws NamingException
+   {
+      // Nothing registered
+      if (lazyModules.isEmpty())
+      {
+         return;
+      }
+
+      // Claim the module and its registered dependencies, registering them as pending such 
+      // that concurrent lookups wait for us rather than deploy them again
+      String moduleName = null;
+      Map<String, URL> toDeploy = null;
+      FutureTask<Void> deployment = null;
+      synchronized (lazyLock)
+      {
+         for (final String candidate : EjbModules.getModuleNameCandidates(name))
+         {
+            if (lazyModules.containsKey(candidate))
+            {
+               moduleName = candidate;
+               break;
+            }
+         }
+         if (moduleName != null)
+         {
+            try
+            {
+               toDeploy = withDependencies(moduleName, lazyModules);
+            }
+            catch (final EJBDeploymentException ede)
+            {
+               throw newNamingException("Could not deploy module " + moduleName + " upon lookup of " + name, ede);
+            }
+            final URL[] urls = toDeploy.values().toArray(new URL[]
+            {});
+            deployment = new FutureTask<Void>(new Callable<Void>()
+            {
+               @Override
+               public Void call() throws Exception
+               {
+                  deployModules(urls);
+                  return null;
+               }
+            });
+            for (final String claimed : toDeploy.keySet())
+            {
+               pendingModules.put(claimed, deployment);
+            }
+            lazyModules.keySet().removeAll(toDeploy.keySet());
+         }
+      }
+
+      // Claimed by a concurrent lookup, if at all
+      if (deployment == null)
+      {
+         this.awaitModuleFor(name);
+         return;
+      }
+
+      // Deploy in this Thread, outside of the lock
+      log.info("Deploying upon lookup of " + name + ": " + toDeploy.keySet());
+      deployment.run();
+      try
+      {
+         deployment.get();
+      }
+      catch (final InterruptedException ie)
+      {
+         // Already run, so never
+         Thread.currentThread().interrupt();
+      }
+      catch (final CancellationException ce)
+      {
+         throw newNamingException("Container closed upon lookup of " + name, ce);
+      }
+      catch (final ExecutionException ee)
+      {
+         // Register again such that a later lookup may retry
+         synchronized (lazyLock)
+         {
+            lazyModules.putAll(toDeploy);
+         }
+         throw newNamingException("Could not deploy module " + moduleName + " upon lookup of " + name, ee
+               .getCause());
+      }
+      finally
+      {
+         for (final String claimed : toDeploy.keySet())
+         {
+            pendingModules.remove(claimed, deployment);
+         }
+      }
+   }
+
+   /**
+    * Creates a {@link NamingException} with the specified message and root cause
+    */
+   private static NamingException newNamingException(final String message, final Throwable rootCause)
+   {
+      final NamingException ne = new NamingException(message);
+      ne.setRootCause(rootCause);
+      return ne;
+   }
+
+   /**
+    * If lookups are restricted to modules deployed via this container (see 
+    * {@link JBossEJBContainerProperties#NAMING_SCOPED}), ensures the specified JNDI name 
+    * is not in the <code>java:global</code> namespace of another module
+    * 
+    * @param name JNDI name about to be looked up
+    * @throws NameNotFoundException If the name is that of another module
+    */
+   private void checkScopeOf(final String name) throws NameNotFoundException
+   {
+      final String[] candidates = EjbModules.getModuleNameCandidates(name);
+      if (!namingScoped || candidates.length == 0)
+      {
+         return;
+      }
+      for (final String candidate : candidates)
+      {
+         if (ownModules.contains(candidate) || lazyModules.containsKey(candidate)
+               || pendingModules.containsKey(candidate))
+         {
+            return;
+         }
+      }
+      throw new NameNotFoundException(name + " is not in the scope of " + this);
+   }
+
+   /**
+    * If the specified JNDI name is in the <code>java:global</code> namespace
+    * of a module still being deployed in the background, waits for its deployment
+    * to complete
+    * 
+    * @param name JNDI name about to be looked up
+    * @throws NamingException If the module could not be deployed, or we were interrupted while waiting
+    */
+   private void awaitModuleFor(final String name) throws NamingException
+   {
+      // Nothing pending
+      if (pendingModules.isEmpty())
+      {
+         return;
+      }
+
+      for (final String candidate : EjbModules.getModuleNameCandidates(name))
+      {
+         final Future<Void> pending = pendingModules.get(candidate);
+         if (pending == null)
+         {
+            continue;
+         }
+         try
+         {
+            pending.get();
+         }
+         catch (final InterruptedException ie)
+         {
+            Thread.currentThread().interrupt();
+            final NamingException ne = new NamingException("Interrupted waiting for deployment of module "
+                  + candidate + " upon lookup of " + name);
+            ne.setRootCause(ie);
+            throw ne;
+         }
+         catch (final CancellationException ce)
+         {
+            throw newNamingException("Container closed upon lookup of " + name, ce);
+         }
+         catch (final ExecutionException ee)
+         {
+            final NamingException ne = new NamingException("Could not deploy module " + candidate
+                  + " upon lookup of " + name);
+            ne.setRootCause(ee.getCause());
+            throw ne;
+         }
+      }
+   }
+
+   /**
+    * Deploys the specified modules, one at a time with dependencies first, using
+    * a background {@link Thread}.  Each is registered as pending until deployed.
+    */
+   private void deployInBackground(final Map<String, URL> modules)
+   {
+      // Nothing to do
+      if (modules.isEmpty())
+      {
+         return;
+      }
+
+      // Order so that dependencies are deployed first
+      final Map<String, URL> ordered = new LinkedHashMap<String, URL>();
+      for (final String moduleName : modules.keySet())
+      {
+         ordered.putAll(withDependencies(moduleName, modules));
+      }
+      log.info("Deploying in the background: " + ordered.keySet());
+
+      // Submit
+      final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+      {
+         @Override
+         public Thread newThread(final Runnable r)
+         {
+            final Thread thread = new Thread(r, "EJBContainer Background Deployer");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      for (final Map.Entry<String, URL> module : ordered.entrySet())
+      {
+         final String moduleName = module.getKey();
+         final URL moduleUrl = module.getValue();
+         final FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>()
+         {
+            @Override
+            public Void call() throws Exception
+            {
+               deployModules(new URL[]
+               {moduleUrl});
+               // Done, so lookups needn't wait; failures stay registered to be reported upon lookup
+               pendingModules.remove(moduleName);
+               return null;
+            }
+         });
+         pendingModules.put(moduleName, task);
+         executor.execute(task);
+      }
+      executor.shutdown();
+   }
+
+   /**
+    * Obtains the specified module and those registered modules upon which it (transitively) 
+    * depends, with dependencies ordered before their dependents
+    * 
+    * @param moduleName Name of the module
+    * @param registry All modules which may be included, keyed by name
+    * @throws EJBDeploymentException If the dependencies of a module could not be determined
+    */
+   private static Map<String, URL> withDependencies(final String moduleName, final Map<String, URL> registry)
+         throws EJBDeploymentException
+   {
+      final Map<String, URL> ordered = new LinkedHashMap<String, URL>();
+      addWithDependencies(moduleName, registry, ordered, new HashSet<String>());
+      return ordered;
+   }
+
+   /**
+    * Adds the specified module to the ordered target after its dependencies
+    */
+   private static void addWithDependencies(final String moduleName, final Map<String, URL> registry,
+         final Map<String, URL> ordered, final Set<String> visited) throws EJBDeploymentException
+   {
+      final URL url = registry.get(moduleName);
+      if (url == null || !visited.add(moduleName))
+      {
+         return;
+      }
+      final Collection<String> dependencies;
+      try
+      {
+         dependencies = EjbModules.getClassPathModuleNames(getRoot(url));
+      }
+      catch (final IOException ioe)
+      {
+         throw EJBDeploymentException.newInstance("Could not read dependencies of module " + moduleName, ioe);
+      }
+      for (final String dependency : dependencies)
+      {
+         addWithDependencies(dependency, registry, ordered, visited);
+      }
+      ordered.put(moduleName, url);
+   }
+
+   /**
+    * Obtains {@link URL}s for each of the specified {@link File}s
+    */
+   private static URL[] toURLs(final File[] files)
+   {
+      final URL[] urls = new URL[files.length];
+      for (int i = 0; i < files.length; i++)
+      {
+         try
+         {
+            urls[i] = files[i].toURI().toURL();
+         }
+         catch (final MalformedURLException murle)
+         {
+            throw new IllegalArgumentException("Could not obtain URL for " + files[i], murle);
+         }
+      }
+      return urls;
+   }
+
+   /**
+    * Obtains {@link URL}s for each of the specified modules
+    */
+   private static URL[] toURLs(final String[] modules)
+   {
+      if (modules == null)
+      {
+         return new URL[]
+         {};
+      }
+      final URL[] urls = new URL[modules.length];
+      for (int i = 0; i < modules.length; i++)
+      {
+         urls[i] = EjbModules.toURL(modules[i]);
+      }
+      return urls;
+   }
+
+   /**
+    * Deploys the specified roots into the Container, recording the supplied
+    * fingerprints for each upon success
+    * 
+    * @param roots Roots to deploy, keyed by the {@link URL} from which they were obtained
+    * @param newFingerprints Fingerprints of the roots, keyed by {@link URL}
+    * @param modules {@link URL}s of those roots to be deployed as EJB modules with a predetermined 
+    * structure where applicable
+    * @throws EJBDeploymentException If an error occurred during deployment, or a root
+    * is deployed via another container backed by the same Kernel
+    */
+   private void deploy(final Map<URL, VirtualFile> roots, final Map<URL, String> newFingerprints,
+         final Set<URL> modules) throws EJBDeploymentException
+   {
+      // Nothing to do
+      if (roots.isEmpty())
+      {
+         return;
+      }
+
+      // Each URL belongs to the deployment set of one container on the Kernel
+      final Set<URL> claimed = new HashSet<URL>();
+      for (final URL url : roots.keySet())
+      {
+         if (this.deployments.containsKey(url))
+         {
+            continue;
+         }
+         if (!sharedKernel.claim(url, this))
+         {
+            for (final URL claim : claimed)
+            {
+               sharedKernel.unclaim(claim, this);
+            }
+            throw EJBDeploymentException.newInstance("Could not deploy " + url.toExternalForm(),
+                  new IllegalStateException("Deployed via another container backed by the same kernel"));
+         }
+         claimed.add(url);
+      }
+
+      // Deploy, giving up the claims if we fail
+      try
+      {
+         this.deployClaimed(roots, newFingerprints, modules);
+      }
+      catch (final RuntimeException re)
+      {
+         for (final URL claim : claimed)
+         {
+            sharedKernel.unclaim(claim, this);
+         }
+         throw re;
+      }
+   }
+
+   /**
+    * Deploys the specified roots, already claimed by this container, into the Container
+    * 
+    * @see JBossEJBContainerBase#deploy(Map, Map, Set)
+    */
+   private void deployClaimed(final Map<URL, VirtualFile> roots, final Map<URL, String> newFingerprints,
+         final Set<URL> modules) throws EJBDeploymentException
+   {
+      // Deployments may bind into JNDI
+      this.startNaming();
+
+      // For each root, make a Deployment
+      final Map<URL, Deployment> newDeployments = new HashMap<URL, Deployment>(roots.size());
+      final Map<URL, String> snapshotsToStore = new HashMap<URL, String>();
+      final Map<URL, Closeable> newMounts = new HashMap<URL, Closeable>();
+      final Set<URL> newStructuredModules = new HashSet<URL>();
+      for (final Map.Entry<URL, VirtualFile> entry : roots.entrySet())
+      {
+         final URL url = entry.getKey();
+         final VirtualFile root = entry.getValue();
+
+         // We already know the structure of EJB modules, so no need for the structure deployers
+         final boolean structured = modules.contains(url) && EjbJarStructure.isApplicable(root);
+         if (structured && !root.isDirectory())
+         {
+            // Structure deployers would otherwise have mounted the archive
+            try
+            {
+               newMounts.put(url, VFS.mountZip(root.getPhysicalFile(), root, this.getTempFileProvider()));
+            }
+            catch (final IOException ioe)
+            {
+               closeAll(newMounts.values());
+               throw EJBDeploymentException.newInstance("Could not mount " + root, ioe);
+            }
+         }
+         final VFSDeployment deployment = VFSDeploymentFactory.getInstance().createVFSDeployment(root);
+         if (structured)
+         {
+            EjbJarStructure.attach(deployment);
+            newStructuredModules.add(url);
+         }
+         newDeployments.put(url, deployment);
+
+         // Use processed metadata from a previous run if we've got it; only then is the content digested
+         final String contentFingerprint = metaDataSnapshot == null ? null : contentFingerprint(url, root);
+         if (contentFingerprint != null
+               && !metaDataSnapshot.restore(deployment, EjbModules.getModuleName(url), contentFingerprint))
+         {
+            snapshotsToStore.put(url, contentFingerprint);
+         }
+      }
+
+      // Delegate to real deployment
+      try
+      {
+         this.deploy(newDeployments.values().toArray(new Deployment[]
+         {}));
+      }
+      catch (final RuntimeException re)
+      {
+         closeAll(newMounts.values());
+         throw re;
+      }
+      this.mounts.putAll(newMounts);
+      this.structuredModules.addAll(newStructuredModules);
+
+      // Snapshot the processed metadata for next time
+      for (final Map.Entry<URL, String> snapshot : snapshotsToStore.entrySet())
+      {
+         final DeploymentUnit unit = this.getDeploymentUnit(newDeployments.get(snapshot.getKey()));
+         if (unit != null)
+         {
+            metaDataSnapshot.store(unit, EjbModules.getModuleName(snapshot.getKey()), snapshot.getValue());
+         }
+      }
+
+      // Mark these are done, to be indexed upon the next typed lookup
+      this.deployments.putAll(newDeployments);
+      for (final URL url : newDeployments.keySet())
+      {
+         final String moduleName = EjbModules.getModuleName(url);
+         unindexedModules.add(moduleName);
+         ownModules.add(moduleName);
+      }
+      for (final URL url : newDeployments.keySet())
+      {
+         final String fingerprint = newFingerprints.get(url);
+         if (fingerprint != null)
+         {
+            this.fingerprints.put(url, fingerprint);
+         }
+      }
+   }
+
+   /**
+    * Obtains the processed {@link DeploymentUnit} for the specified {@link Deployment},
+    * or null if it cannot be obtained from the {@link MainDeployer}
+    */
+   private DeploymentUnit getDeploymentUnit(final Deployment deployment)
+   {
+      if (!(deployer instanceof MainDeployerStructure))
+      {
+         return null;
+      }
+      return ((MainDeployerStructure) deployer).getDeploymentUnit(deployment.getName());
+   }
+
+   /**
+    * Marks this container as created for reuse from the specified parameters, to be returned
+    * to the specified pool upon close with the current deployments as its baseline
+    */
+   void attachToPool(final ContainerPool pool, final JBossEmbeddedContainerStartupParams params)
+   {
+      assert pool != null : "Pool must be specified";
+      assert params != null : "Params must be specified";
+      this.markBaseline();
+      this.poolParams = params;
+      this.pool = pool;
+   }
+
+   /**
+    * Marks this container as no longer to be returned to its pool, such that it may be closed
+    */
+   void detachFromPool()
+   {
+      this.pool = null;
+      this.poolParams = null;
+   }
+
+   /**
+    * Obtains the {@link ClassLoader} created for the specified {@link Deployment}, or null if 
+    * it has none of its own (for instance if it shares the class loader of this container)
+    */
+   private ClassLoader getOwnClassLoader(final Deployment deployment)
+   {
+      final DeploymentUnit unit = this.getDeploymentUnit(deployment);
+      if (unit == null)
+      {
+         return null;
+      }
+      final ClassLoader classLoader;
+      try
+      {
+         classLoader = unit.getClassLoader();
+      }
+      catch (final IllegalStateException ise)
+      {
+         // No class loader
+         return null;
+      }
+      for (ClassLoader shared = JBossEJBContainerBase.class.getClassLoader(); shared != null; shared = shared
+            .getParent())
+      {
+         if (shared == classLoader)
+         {
+            return null;
+         }
+      }
+      return classLoader;
+   }
+
+   /**
+    * Obtains the {@link TempFileProvider} backing archives mounted by this 
+    * container, creating it if necessary
+    */
+   private TempFileProvider getTempFileProvider() throws IOException
+   {
+      if (tempFileProvider == null)
+      {
+         final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+         {
+            @Override
+            public Thread newThread(final Runnable r)
+            {
+               final Thread thread = new Thread(r, "EJBContainer Temp File Cleaner");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+         tempFileProvider = TempFileProvider.create("jbossejbcontainer", executor);
+         tempFileExecutor = executor;
+      }
+      return tempFileProvider;
+   }
+
+   /**
+    * Closes all the specified handles, logging any failure
+    */
+   private static void closeAll(final Collection<Closeable> handles)
+   {
+      for (final Closeable handle : handles)
+      {
+         try
+         {
+            handle.close();
+         }
+         catch (final IOException ioe)
+         {
+            log.warn("Could not close handle " + handle + ": " + ioe);
+         }
+      }
+   }
+
+   /**
+    * Obtains the {@link VirtualFile} root for the specified {@link URL}
+    */
+   private static VirtualFile getRoot(final URL url)
+   {
+      try
+      {
+         return VFS.getChild(url);
+      }
+      catch (final URISyntaxException urise)
+      {
+         throw new RuntimeException("Could not create a virtual file to deploy from URL: " + url, urise);
+      }
+   }
+
+   /**
+    * Obtains the fingerprint of the specified root used to detect changes, or null if 
+    * it could not be determined (in which case the root will always be
+    * considered changed).  Roots on the filesystem are fingerprinted directly and quickly,
+    * by size and last modified time (see {@link DeploymentFingerprint#quickOf(File)}), such that
+    * the result does not depend upon whether an archive is currently mounted and archives
+    * need not be read upon every deployment.
+    */
+   private static String fingerprint(final URL url, final VirtualFile root)
+   {
+      try
+      {
+         if (PROTOCOL_FILE.equals(url.getProtocol()))
+         {
+            return DeploymentFingerprint.quickOf(new File(url.toURI()));
+         }
+         return DeploymentFingerprint.of(root);
+      }
+      catch (final URISyntaxException urise)
+      {
+         log.warn("Could not fingerprint " + root + "; will always be redeployed: " + urise);
+         return null;
+      }
+      catch (final IOException ioe)
+      {
+         log.warn("Could not fingerprint " + root + "; will always be redeployed: " + ioe);
+         return null;
+      }
+      catch (final IllegalArgumentException iae)
+      {
+         log.warn("Could not fingerprint " + root + "; will always be redeployed: " + iae.getMessage());
+         return null;
+      }
+   }
+
+   /**
+    * Obtains the properties which affect the metadata processed upon deployment, such that
+    * metadata snapshots are restored only under the same (see {@link DeploymentMetaDataSnapshot})
+    */
+   private static Map<String, String> getMetaDataConfiguration(final Map<?, ?> properties)
+   {
+      final Map<String, String> configuration = new HashMap<String, String>();
+      for (final String key : new String[]
+      {EJBContainer.APP_NAME, JBossEJBContainerProperties.SERVER_NAME})
+      {
+         configuration.put(key, PropertyValues.getString(properties, key));
+      }
+      return configuration;
+   }
+
+   /**
+    * Obtains the content fingerprint of the specified root keying its metadata snapshot, or null if 
+    * it could not be determined (in which case no snapshot is used).  Roots on the filesystem are 
+    * fingerprinted directly such that the result does not depend upon whether an archive is currently mounted.
+    */
+   private static String contentFingerprint(final URL url, final VirtualFile root)
+   {
+      try
+      {
+         if (PROTOCOL_FILE.equals(url.getProtocol()))
+         {
+            return DeploymentFingerprint.of(new File(url.toURI()));
+         }
+         return DeploymentFingerprint.of(root);
+      }
+      catch (final URISyntaxException urise)
+      {
+         log.warn("Could not fingerprint " + root + "; its metadata will not be snapshotted: " + urise);
+         return null;
+      }
+      catch (final IOException ioe)
       {
-         return new InitialContext();
+         log.warn("Could not fingerprint " + root + "; its metadata will not be snapshotted: " + ioe);
+         return null;
       }
-      catch (final NamingException e)
+      catch (final IllegalArgumentException iae)
       {
-         throw new RuntimeException("Could not create new naming context", e);
+         log.warn("Could not fingerprint " + root + "; its metadata will not be snapshotted: " + iae.getMessage());
+         return null;
       }
    }
 
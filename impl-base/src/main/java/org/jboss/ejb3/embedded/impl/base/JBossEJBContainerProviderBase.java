@@ -21,14 +21,30 @@
  */
 package org.jboss.ejb3.embedded.impl.base;
 
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.ejb.EJBException;
 import javax.ejb.embeddable.EJBContainer;
 import javax.ejb.spi.EJBContainerProvider;
 
+import org.jboss.ejb3.embedded.api.JBossEJBContainer;
+import org.jboss.ejb3.embedded.api.JBossEJBContainerProperties;
+import org.jboss.ejb3.embedded.impl.base.scanner.ClassPathEjbJarScanner;
 import org.jboss.logging.Logger;
 
 /**
@@ -36,6 +52,11 @@ import org.jboss.logging.Logger;
  * implementations.  Responsible for parsing all properties
  * into an encapsulated {@link JBossEmbeddedContainerStartupParams} object which 
  * will be used to instantiate the real container provider impl.
+ * Containers may be kept for reuse upon close (see {@link JBossEJBContainerProperties#POOL})
+ * in a pool shared by all instances of the same provider class.  Containers may be created
+ * in the background (see {@link JBossEJBContainerProviderBase#createEJBContainerAsync(Map)}), and
+ * the ClassPath scanned for EJB modules as soon as the provider is loaded 
+ * (see {@link JBossEJBContainerProperties#PREWARM}).
  *
  * @author <a href="mailto:cdewolf@redhat.com">Carlo de Wolf</a>
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
@@ -53,6 +74,53 @@ public abstract class JBossEJBContainerProviderBase implements EJBContainerProvi
     */
    private static final Logger log = Logger.getLogger(JBossEJBContainerProviderBase.class);
 
+   /**
+    * Name of the Java 7 type denoting a filesystem path, accepted as a module
+    */
+   private static final String CLASS_NAME_PATH = "java.nio.file.Path";
+
+   /**
+    * Name of the method converting a <code>java.nio.file.Path</code> to a {@link URI}
+    */
+   private static final String METHOD_NAME_TO_URI = "toUri";
+
+   /**
+    * Scheme of {@link URI}s denoting files
+    */
+   private static final String PROTOCOL_FILE = "file";
+
+   /**
+    * Pools of idle containers, keyed by the provider class which created them
+    */
+   private static final ConcurrentMap<Class<?>, ContainerPool> pools = new ConcurrentHashMap<Class<?>, ContainerPool>();
+
+   /**
+    * EJB modules being discovered on the ClassPath in the background, to be used by the
+    * next container created without explicit modules; null if not pre-warmed or already used
+    */
+   private static final AtomicReference<Future<String[]>> prewarmedEjbJars = new AtomicReference<Future<String[]>>();
+
+   /*
+    * Pre-warm as soon as a provider is loaded, if requested
+    */
+   static
+   {
+      if (Boolean.getBoolean(JBossEJBContainerProperties.PREWARM))
+      {
+         final FutureTask<String[]> scan = new FutureTask<String[]>(new Callable<String[]>()
+         {
+            @Override
+            public String[] call() throws Exception
+            {
+               return ClassPathEjbJarScanner.getEjbJars();
+            }
+         });
+         prewarmedEjbJars.set(scan);
+         startDaemon(scan, "EJBContainer Prewarm");
+         log.debug("Scanning ClassPath for EJB modules in the background");
+      }
+   }
+
    //-------------------------------------------------------------------------------------||
    // Required Implementations -----------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -108,20 +176,36 @@ public abstract class JBossEJBContainerProviderBase implements EJBContainerProvi
             Object o = properties.get(EJBContainer.MODULES);
             if (o != null)
             {
-               if (o instanceof String)
-                  modules = new String[]
-                  {(String) o};
-               else if (o instanceof Collection<?>)
-                  modules = toStringArray(o);
-               else
-                  throw new EJBException("Illegal type of " + EJBContainer.MODULES + " (" + o.getClass().getName()
-                        + ") (EJB 3.1 22.2.2.2)");
+               modules = toModules(o);
             }
          }
 
          // Create the container from the parameters
          final JBossEmbeddedContainerStartupParams params = new JBossEmbeddedContainerStartupParams(properties, modules);
-         return this.createEJBContainer(params);
+         if (!PropertyValues.getBoolean(properties, JBossEJBContainerProperties.POOL, false))
+         {
+            return this.createEJBContainer(params);
+         }
+
+         // Reuse an idle container if we can; each checkout gets its own handle, invalidated upon close
+         final ContainerPool pool = getPool(this.getClass());
+         final EJBContainer idle = pool.acquire(params);
+         if (idle != null)
+         {
+            log.info("Reusing idle container: " + idle);
+            return new ContainerHandle((JBossEJBContainerBase) idle);
+         }
+         final EJBContainer container = this.createEJBContainer(params);
+         if (container instanceof JBossEJBContainerBase)
+         {
+            ((JBossEJBContainerBase) container).attachToPool(pool, params);
+            return new ContainerHandle((JBossEJBContainerBase) container);
+         }
+         if (container != null)
+         {
+            log.warn("Container " + container + " does not support reuse; will not be pooled");
+         }
+         return container;
       }
       catch (final Throwable t)
       {
@@ -135,10 +219,207 @@ public abstract class JBossEJBContainerProviderBase implements EJBContainerProvi
       }
    }
 
-   @SuppressWarnings("unchecked")
-   private static final String[] toStringArray(Object o)
+   /**
+    * Creates a new {@link JBossEJBContainer} in the background, as 
+    * {@link JBossEJBContainerProviderBase#createEJBContainer(Map)} would.  Enterprise beans are 
+    * loaded using the context {@link ClassLoader} of the calling {@link Thread}.
+    * 
+    * @param properties
+    * @return A {@link Future} of the container, holding null if another provider was requested
+    */
+   public Future<JBossEJBContainer> createEJBContainerAsync(final Map<?, ?> properties)
+   {
+      final ClassLoader beanLoader = Thread.currentThread().getContextClassLoader();
+      final FutureTask<JBossEJBContainer> creation = new FutureTask<JBossEJBContainer>(
+            new Callable<JBossEJBContainer>()
+            {
+               @Override
+               public JBossEJBContainer call() throws Exception
+               {
+                  Thread.currentThread().setContextClassLoader(beanLoader);
+                  final EJBContainer container = JBossEJBContainerProviderBase.this.createEJBContainer(properties);
+                  if (container != null && !(container instanceof JBossEJBContainer))
+                  {
+                     container.close();
+                     throw new EJBException("Created container is not a " + JBossEJBContainer.class.getSimpleName()
+                           + ": " + container);
+                  }
+                  return (JBossEJBContainer) container;
+               }
+            });
+      startDaemon(creation, "EJBContainer Async Creation");
+      return creation;
+   }
+
+   /**
+    * Obtains the EJB modules on the ClassPath, using those discovered upon
+    * pre-warming (see {@link JBossEJBContainerProperties#PREWARM}) if not yet used
+    */
+   static String[] getEjbJars()
+   {
+      final Future<String[]> prewarmed = prewarmedEjbJars.getAndSet(null);
+      if (prewarmed != null)
+      {
+         try
+         {
+            return prewarmed.get();
+         }
+         catch (final InterruptedException ie)
+         {
+            Thread.currentThread().interrupt();
+            throw new EJBException("Interrupted waiting for the ClassPath scan");
+         }
+         catch (final ExecutionException ee)
+         {
+            log.warn("Background ClassPath scan failed; scanning again: " + ee.getCause());
+         }
+      }
+      return ClassPathEjbJarScanner.getEjbJars();
+   }
+
+   /**
+    * Runs the specified task upon a new daemon {@link Thread} of the specified name
+    */
+   private static void startDaemon(final Runnable task, final String name)
+   {
+      final Thread thread = new Thread(task, name);
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   /**
+    * Obtains the pool of idle containers created by the specified provider class, creating it if necessary
+    */
+   static ContainerPool getPool(final Class<?> providerClass)
    {
-      return ((Collection<String>) o).toArray(new String[0]);
+      ContainerPool pool = pools.get(providerClass);
+      if (pool == null)
+      {
+         final ContainerPool created = new ContainerPool();
+         pool = pools.putIfAbsent(providerClass, created);
+         if (pool == null)
+         {
+            pool = created;
+         }
+      }
+      return pool;
+   }
+
+   /**
+    * Converts the specified value of {@link EJBContainer#MODULES} into module locations: a
+    * {@link String}, {@link File}, {@link URL} or <code>java.nio.file.Path</code>, or an array
+    * or {@link Collection} of these (EJB 3.1 22.2.2.2)
+    * 
+    * @throws EJBException If the value is of another type
+    */
+   static String[] toModules(final Object value) throws EJBException
+   {
+      final List<String> modules = new ArrayList<String>();
+      addModules(modules, value);
+      return modules.toArray(new String[modules.size()]);
+   }
+
+   /**
+    * Adds the module locations denoted by the specified value to the specified {@link List}
+    */
+   private static void addModules(final List<String> modules, final Object value) throws EJBException
+   {
+      if (value instanceof String)
+      {
+         modules.add((String) value);
+      }
+      else if (value instanceof File)
+      {
+         modules.add(((File) value).getAbsolutePath());
+      }
+      else if (value instanceof URL)
+      {
+         modules.add(((URL) value).toExternalForm());
+      }
+      else if (value instanceof Object[])
+      {
+         for (final Object element : (Object[]) value)
+         {
+            addModules(modules, element);
+         }
+      }
+      else if (value instanceof Collection<?>)
+      {
+         for (final Object element : (Collection<?>) value)
+         {
+            addModules(modules, element);
+         }
+      }
+      else
+      {
+         final Class<?> pathClass = value == null ? null : getPathInterface(value.getClass());
+         if (pathClass == null)
+         {
+            throw new EJBException("Illegal type of " + EJBContainer.MODULES + " ("
+                  + (value == null ? null : value.getClass().getName()) + ") (EJB 3.1 22.2.2.2)");
+         }
+         modules.add(toModule(pathClass, value));
+      }
+   }
+
+   /**
+    * Obtains the <code>java.nio.file.Path</code> interface if implemented by the specified type,
+    * otherwise null; referenced by name so as to run upon JREs without it
+    */
+   private static Class<?> getPathInterface(final Class<?> type)
+   {
+      for (Class<?> current = type; current != null; current = current.getSuperclass())
+      {
+         for (final Class<?> iface : current.getInterfaces())
+         {
+            if (CLASS_NAME_PATH.equals(iface.getName()))
+            {
+               return iface;
+            }
+            final Class<?> inherited = getPathInterface(iface);
+            if (inherited != null)
+            {
+               return inherited;
+            }
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Converts the specified <code>java.nio.file.Path</code> into a module location
+    */
+   private static String toModule(final Class<?> pathClass, final Object path) throws EJBException
+   {
+      try
+      {
+         final URI uri = (URI) pathClass.getMethod(METHOD_NAME_TO_URI).invoke(path);
+         if (PROTOCOL_FILE.equals(uri.getScheme()))
+         {
+            return new File(uri).getAbsolutePath();
+         }
+         return uri.toURL().toExternalForm();
+      }
+      catch (final InvocationTargetException ite)
+      {
+         throw new EJBException("Could not convert module path " + path, toException(ite.getCause()));
+      }
+      catch (final Exception e)
+      {
+         throw new EJBException("Could not convert module path " + path, e);
+      }
+   }
+
+   /**
+    * Obtains the specified {@link Throwable} as an {@link Exception}, rethrowing {@link Error}s
+    */
+   private static Exception toException(final Throwable t)
+   {
+      if (t instanceof Error)
+      {
+         throw (Error) t;
+      }
+      return (Exception) t;
    }
 
    /**
@@ -21,20 +21,30 @@
  */
 package org.jboss.ejb3.embedded.impl.base;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import javax.ejb.embeddable.EJBContainer;
 
-import org.jboss.ejb3.embedded.impl.base.scanner.ClassPathEjbJarScanner;
 import org.jboss.logging.Logger;
 
 /**
  * Value object encapsulating the constructor parameters 
  * required to create a new {@link JBossEJBContainerBase}
- * extension instance.
+ * extension instance.  Instances are equal if they were created under
+ * the same Thread Context {@link ClassLoader}, from which enterprise beans
+ * are loaded, and their properties and modules are equal once normalized: 
+ * property keys are compared as {@link String}s, array and {@link Collection} 
+ * values by their elements, and modules regardless of order.  Modules are compared
+ * as requested, so comparison never scans the ClassPath: instances requesting
+ * discovery on the ClassPath equal one another, but not instances naming modules
+ * explicitly, even those which discovery would find.
  *
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  * @version $Revision: $
@@ -65,9 +75,33 @@ public class JBossEmbeddedContainerStartupParams
    /**
     * Value of {@link EJBContainer#MODULES} used to denote the
     * initial deployments to be processed by the Container.  To be defensively
-    * copied during construction and copied as returned to the caller.
+    * copied during construction and copied as returned to the caller.  If not
+    * specified, discovered on the ClassPath upon first need.
     */
-   private final String[] modules;
+   private volatile String[] modules;
+
+   /**
+    * Properties keyed by {@link String}, with array and {@link Collection} values 
+    * as {@link List}s; used in comparison
+    */
+   private final Map<String, Object> normalizedProperties;
+
+   /**
+    * Modules in sorted order.  Created with {@link JBossEmbeddedContainerStartupParams#modules}.
+    */
+   private volatile List<String> normalizedModules;
+
+   /**
+    * Modules explicitly requested, in sorted order, or null if to be discovered on the 
+    * ClassPath; used in comparison
+    */
+   private final List<String> requestedModules;
+
+   /**
+    * Thread Context {@link ClassLoader} upon construction, from which enterprise beans 
+    * will be loaded; used in comparison
+    */
+   private final ClassLoader classLoader;
 
    //-------------------------------------------------------------------------------------||
    // Constructor ------------------------------------------------------------------------||
@@ -80,7 +114,7 @@ public class JBossEmbeddedContainerStartupParams
     * a new, empty {@link Map} will be allocated
     * @param modules Modules to deploy into the {@link EJBContainer}.  A null argument here
     * signals that the ClassPath should be searched for EJB Modules as defined by {@link EJBContainer#createEJBContainer()}
-    * and EJB 3.1 22.2.1.
+    * and EJB 3.1 22.2.1; this is done upon first need of the modules, as when obtaining them, but not when comparing.
     */
    public JBossEmbeddedContainerStartupParams(Map<?, ?> properties, String[] modules)
    {
@@ -89,22 +123,49 @@ public class JBossEmbeddedContainerStartupParams
       {
          properties = new HashMap<Object, Object>(0);
       }
-      if (modules == null)
-      {
-         if (log.isDebugEnabled())
-         {
-            log.debug("No modules explicitly passed in; scanning ClassPath for EJBs");
-         }
-         modules = ClassPathEjbJarScanner.getEjbJars();
-      }
-
       // Defensive copy and set
       final Map<?, ?> copy = new HashMap<Object, Object>(properties);
       this.properties = Collections.unmodifiableMap(copy);
 
-      final String[] copyModules = copy(modules);
-      this.modules = copyModules;
+      this.normalizedProperties = normalize(copy);
+      this.classLoader = Thread.currentThread().getContextClassLoader();
+      this.requestedModules = modules == null ? null : this.setModules(modules);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#equals(java.lang.Object)
+    */
+   @Override
+   public boolean equals(final Object obj)
+   {
+      if (this == obj)
+      {
+         return true;
+      }
+      if (!(obj instanceof JBossEmbeddedContainerStartupParams))
+      {
+         return false;
+      }
+      final JBossEmbeddedContainerStartupParams other = (JBossEmbeddedContainerStartupParams) obj;
+      return classLoader == other.classLoader && normalizedProperties.equals(other.normalizedProperties)
+            && (requestedModules == null ? other.requestedModules == null : requestedModules
+                  .equals(other.requestedModules));
+   }
 
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#hashCode()
+    */
+   @Override
+   public int hashCode()
+   {
+      return 31 * (31 * System.identityHashCode(classLoader) + normalizedProperties.hashCode())
+            + (requestedModules == null ? 0 : requestedModules.hashCode());
    }
 
    //-------------------------------------------------------------------------------------||
@@ -127,8 +188,17 @@ public class JBossEmbeddedContainerStartupParams
     */
    public String[] getModules()
    {
-      // Return null or a copy
-      return modules == null ? null : copy(modules);
+      // Return a copy
+      this.getNormalizedModules();
+      return copy(modules);
+   }
+
+   /**
+    * Obtains whether the modules are known, having been either specified or discovered
+    */
+   boolean isModulesKnown()
+   {
+      return normalizedModules != null;
    }
 
    //-------------------------------------------------------------------------------------||
@@ -143,4 +213,81 @@ public class JBossEmbeddedContainerStartupParams
       return Arrays.copyOf(original, original.length);
    }
 
+   /**
+    * Obtains the {@link JBossEmbeddedContainerStartupParams#normalizedModules}, discovering
+    * the modules on the ClassPath if not yet known
+    */
+   private List<String> getNormalizedModules()
+   {
+      List<String> normalizedModules = this.normalizedModules;
+      if (normalizedModules == null)
+      {
+         synchronized (this)
+         {
+            normalizedModules = this.normalizedModules;
+            if (normalizedModules == null)
+            {
+               if (log.isDebugEnabled())
+               {
+                  log.debug("No modules explicitly passed in; scanning ClassPath for EJBs");
+               }
+               normalizedModules = this.setModules(JBossEJBContainerProviderBase.getEjbJars());
+            }
+         }
+      }
+      return normalizedModules;
+   }
+
+   /**
+    * Sets the modules to a copy of those specified, returning them normalized
+    */
+   private List<String> setModules(final String[] modules)
+   {
+      this.modules = copy(modules);
+      final String[] sortedModules = copy(modules);
+      Arrays.sort(sortedModules);
+      final List<String> normalizedModules = Arrays.asList(sortedModules);
+      this.normalizedModules = normalizedModules;
+      return normalizedModules;
+   }
+
+   /**
+    * Normalizes the specified properties for comparison
+    */
+   private static Map<String, Object> normalize(final Map<?, ?> properties)
+   {
+      final Map<String, Object> normalized = new TreeMap<String, Object>();
+      for (final Map.Entry<?, ?> property : properties.entrySet())
+      {
+         normalized.put(String.valueOf(property.getKey()), normalizeValue(property.getValue()));
+      }
+      return Collections.unmodifiableMap(normalized);
+   }
+
+   /**
+    * Normalizes the specified property value for comparison
+    */
+   private static Object normalizeValue(final Object value)
+   {
+      final Collection<?> elements;
+      if (value instanceof Object[])
+      {
+         elements = Arrays.asList((Object[]) value);
+      }
+      else if (value instanceof Collection<?>)
+      {
+         elements = (Collection<?>) value;
+      }
+      else
+      {
+         return value;
+      }
+      final List<Object> normalized = new ArrayList<Object>(elements.size());
+      for (final Object element : elements)
+      {
+         normalized.add(normalizeValue(element));
+      }
+      return normalized;
+   }
+
 }
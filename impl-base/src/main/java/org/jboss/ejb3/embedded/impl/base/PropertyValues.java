@@ -0,0 +1,208 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.ejb.EJBException;
+import javax.ejb.embeddable.EJBContainer;
+
+/**
+ * Internal utilities to obtain typed values from the
+ * properties used in creating an {@link EJBContainer}.
+ * This is a static utility class which is not to be instantiated.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class PropertyValues
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Dummy String array used in converting a {@link Collection} of {@link String} to a typed array
+    */
+   private static final String[] DUMMY = new String[]
+   {};
+
+   /**
+    * Delimiter of multiple values specified as a single {@link String}
+    */
+   private static final String DELIMITER = ",";
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Internal Constructor, no instances permitted
+    */
+   private PropertyValues()
+   {
+      throw new UnsupportedOperationException("No instances permitted");
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the value of the specified property as a {@link String}, or null
+    * if not present
+    * @throws EJBException If the value is not a {@link String}
+    */
+   static String getString(final Map<?, ?> properties, final String key) throws EJBException
+   {
+      final Object value = properties == null ? null : properties.get(key);
+      if (value == null)
+      {
+         return null;
+      }
+      if (!(value instanceof String))
+      {
+         throw new EJBException("Illegal type of " + key + " (" + value.getClass().getName() + "); expected "
+               + String.class.getName());
+      }
+      return (String) value;
+   }
+
+   /**
+    * Obtains the value of the specified property as a boolean; either a {@link Boolean}
+    * or a {@link String} may be supplied
+    * @throws EJBException If the value is of an illegal type
+    */
+   static boolean getBoolean(final Map<?, ?> properties, final String key, final boolean defaultValue)
+         throws EJBException
+   {
+      final Object value = properties == null ? null : properties.get(key);
+      if (value == null)
+      {
+         return defaultValue;
+      }
+      if (value instanceof Boolean)
+      {
+         return ((Boolean) value).booleanValue();
+      }
+      if (value instanceof String)
+      {
+         return Boolean.parseBoolean(((String) value).trim());
+      }
+      throw new EJBException("Illegal type of " + key + " (" + value.getClass().getName() + "); expected "
+            + Boolean.class.getName());
+   }
+
+   /**
+    * Obtains the value of the specified property as a long; either a {@link Number}
+    * or a {@link String} may be supplied
+    * @throws EJBException If the value is of an illegal type
+    */
+   static long getLong(final Map<?, ?> properties, final String key, final long defaultValue) throws EJBException
+   {
+      final Object value = properties == null ? null : properties.get(key);
+      if (value == null)
+      {
+         return defaultValue;
+      }
+      if (value instanceof Number)
+      {
+         return ((Number) value).longValue();
+      }
+      if (value instanceof String)
+      {
+         try
+         {
+            return Long.parseLong(((String) value).trim());
+         }
+         catch (final NumberFormatException nfe)
+         {
+            throw new EJBException("Illegal value of " + key + ": " + value, nfe);
+         }
+      }
+      throw new EJBException("Illegal type of " + key + " (" + value.getClass().getName() + "); expected "
+            + Number.class.getName());
+   }
+
+   /**
+    * Obtains the value of the specified property as a {@link String} array; either
+    * a comma-delimited {@link String}, a String[] or a {@link Collection} of 
+    * {@link String} may be supplied.  Returns null if not present.
+    * @throws EJBException If the value is of an illegal type
+    */
+   static String[] getStrings(final Map<?, ?> properties, final String key) throws EJBException
+   {
+      final Object value = properties == null ? null : properties.get(key);
+      if (value == null)
+      {
+         return null;
+      }
+      final List<String> values = new ArrayList<String>();
+      if (value instanceof String)
+      {
+         for (final String token : ((String) value).split(DELIMITER))
+         {
+            values.add(token);
+         }
+      }
+      else if (value instanceof String[])
+      {
+         for (final String token : (String[]) value)
+         {
+            values.add(token);
+         }
+      }
+      else if (value instanceof Collection<?>)
+      {
+         for (final Object token : (Collection<?>) value)
+         {
+            if (!(token instanceof String))
+            {
+               throw new EJBException("Illegal element type of " + key + " (" + token + "); expected "
+                     + String.class.getName());
+            }
+            values.add((String) token);
+         }
+      }
+      else
+      {
+         throw new EJBException("Illegal type of " + key + " (" + value.getClass().getName() + ")");
+      }
+
+      // Trim and drop empty values
+      final List<String> trimmed = new ArrayList<String>(values.size());
+      for (final String token : values)
+      {
+         final String candidate = token == null ? "" : token.trim();
+         if (candidate.length() > 0)
+         {
+            trimmed.add(candidate);
+         }
+      }
+      return trimmed.toArray(DUMMY);
+   }
+}
@@ -0,0 +1,200 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.deployers.client.spi.Deployment;
+import org.jboss.kernel.Kernel;
+
+/**
+ * State shared by all {@link JBossEJBContainerBase}s backed by the same {@link Kernel}.
+ * Each {@link URL} deployed into the Kernel is owned by a single container, such that 
+ * containers keep separate deployment sets; deployments needed by all containers, such as 
+ * the naming server, may instead be left to the Kernel until the last container releases it.
+ * Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class SharedKernel
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Shared state by Kernel; entries go when the Kernel does
+    */
+   private static final Map<Kernel, SharedKernel> kernels = new WeakHashMap<Kernel, SharedKernel>();
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Owner of each {@link URL} deployed into the Kernel; either a container or this Kernel 
+    */
+   private final ConcurrentMap<URL, Object> owners = new ConcurrentHashMap<URL, Object>();
+
+   /**
+    * Deployments left to the Kernel by containers since closed
+    */
+   private final Map<URL, Deployment> shared = new HashMap<URL, Deployment>();
+
+   /**
+    * Number of containers currently backed by the Kernel
+    */
+   private int containers;
+
+   /**
+    * Guards the Kernel's MainDeployer, which handles one batch at a time
+    */
+   private final Object deployerLock = new Object();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private SharedKernel()
+   {
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the state shared by all containers backed by the specified {@link Kernel}
+    * 
+    * @param kernel
+    * @throws IllegalArgumentException If the kernel is not specified
+    */
+   static SharedKernel of(final Kernel kernel) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (kernel == null)
+      {
+         throw new IllegalArgumentException("kernel must be specified");
+      }
+
+      synchronized (kernels)
+      {
+         SharedKernel shared = kernels.get(kernel);
+         if (shared == null)
+         {
+            shared = new SharedKernel();
+            kernels.put(kernel, shared);
+         }
+         return shared;
+      }
+   }
+
+   /**
+    * Notes that another container is backed by the Kernel
+    */
+   synchronized void retain()
+   {
+      containers++;
+   }
+
+   /**
+    * Notes that a container is no longer backed by the Kernel
+    * 
+    * @return Whether no containers remain
+    * @throws IllegalStateException If no containers were backed by the Kernel
+    */
+   synchronized boolean release() throws IllegalStateException
+   {
+      if (containers == 0)
+      {
+         throw new IllegalStateException("No containers are backed by the kernel");
+      }
+      return --containers == 0;
+   }
+
+   /**
+    * Obtains the number of containers currently backed by the Kernel
+    */
+   synchronized int getContainers()
+   {
+      return containers;
+   }
+
+   /**
+    * Obtains the lock to be held while using the Kernel's MainDeployer
+    */
+   Object getDeployerLock()
+   {
+      return deployerLock;
+   }
+
+   /**
+    * Claims the specified {@link URL} for deployment by the specified owner
+    * 
+    * @return Whether the owner now owns the {@link URL}; false if it is owned by another
+    */
+   boolean claim(final URL url, final Object owner)
+   {
+      final Object current = owners.putIfAbsent(url, owner);
+      return current == null || current == owner;
+   }
+
+   /**
+    * Releases the specified {@link URL} if owned by the specified owner
+    */
+   void unclaim(final URL url, final Object owner)
+   {
+      owners.remove(url, owner);
+   }
+
+   /**
+    * Leaves the specified deployment, owned by the specified owner, to the Kernel,
+    * to be undeployed once no containers remain
+    */
+   synchronized void share(final URL url, final Deployment deployment, final Object owner)
+   {
+      if (owners.replace(url, owner, this))
+      {
+         shared.put(url, deployment);
+      }
+   }
+
+   /**
+    * Removes and returns all deployments left to the Kernel
+    */
+   synchronized Map<URL, Deployment> takeShared()
+   {
+      final Map<URL, Deployment> taken = new HashMap<URL, Deployment>(shared);
+      shared.clear();
+      owners.keySet().removeAll(taken.keySet());
+      return taken;
+   }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base;
+
+import java.util.Map;
+
+import javax.ejb.embeddable.EJBContainer;
+
+import org.jboss.bootstrap.api.mc.server.MCBasedServer;
+import org.jboss.ejb3.embedded.api.JBossEJBContainerProperties;
+import org.jboss.ejb3.embedded.spi.JBossEJBContainerProvider;
+
+/**
+ * {@link EJBContainer} backed by the MC Server of another container, sharing its booted 
+ * infrastructure (deployers, naming, transactions) such that creating it costs only its
+ * own deployments.  It keeps its own deployment set; a {@link java.net.URL} deployed via one
+ * container on the server may not be deployed via another.  Lookups may additionally be
+ * restricted to its own modules (see {@link JBossEJBContainerProperties#NAMING_SCOPED}).
+ * Closing it undeploys only what was deployed through it; the server lives on with the
+ * container from which it was obtained.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public final class SharedKernelEJBContainer extends JBossEJBContainerBase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new container backed by the MC Server of the specified container, 
+    * deploying the specified modules
+    * 
+    * @param properties Container properties
+    * @param host Container whose MC Server is to be shared
+    * @param modules Modules to deploy
+    * @throws IllegalArgumentException If the host or modules are not specified
+    */
+   public SharedKernelEJBContainer(final Map<?, ?> properties, final JBossEJBContainerProvider host,
+         final String[] modules) throws IllegalArgumentException
+   {
+      super(properties, getMCServerOf(host), modules);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * Undeploys everything deployed via this container, within the time allowed by
+    * {@link JBossEJBContainerProperties#CLOSE_TIMEOUT}, reporting anything which could not
+    * be released; the shared MC Server is left running.  Subsequent invocations have no effect.
+    * @see javax.ejb.embeddable.EJBContainer#close()
+    */
+   @Override
+   public void close()
+   {
+      this.undeployAndClose();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the MC Server of the specified container
+    * 
+    * @throws IllegalArgumentException If the container is not specified
+    */
+   private static MCBasedServer<?, ?> getMCServerOf(final JBossEJBContainerProvider host)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (host == null)
+      {
+         throw new IllegalArgumentException("host container must be specified");
+      }
+      return host.getMCServer();
+   }
+
+}
@@ -0,0 +1,348 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.deployment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.jboss.vfs.VirtualFile;
+
+/**
+ * Computes a digest of the contents of a deployment root such that 
+ * two roots with equal fingerprints may be considered to have identical
+ * content.  Archives are fingerprinted by hashing their bytes; exploded
+ * directories by hashing the relative path, size and last modified
+ * time of every entry, so the files themselves need not be read. A quick
+ * fingerprint of an archive on the filesystem hashes only its size and last
+ * modified time, for frequent change detection where reading every archive
+ * would cost too much.
+ * This is a static utility class which is not to be instantiated.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public final class DeploymentFingerprint
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Digest algorithm used in computing fingerprints
+    */
+   private static final String ALGORITHM = "SHA-1";
+
+   /**
+    * Size of the buffer used in reading archive contents
+    */
+   private static final int BUFFER_SIZE = 8192;
+
+   /**
+    * Characters used in encoding the digest as hex
+    */
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Internal Constructor, no instances permitted
+    */
+   private DeploymentFingerprint()
+   {
+      throw new UnsupportedOperationException("No instances permitted");
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the fingerprint of the specified deployment root, encoded as a hex {@link String}
+    * 
+    * @param root The root of the deployment
+    * @return The fingerprint of the root's contents
+    * @throws IllegalArgumentException If the root is not specified or does not exist
+    * @throws IOException If the contents of the root could not be read
+    */
+   public static String of(final VirtualFile root) throws IllegalArgumentException, IOException
+   {
+      // Precondition checks
+      if (root == null)
+      {
+         throw new IllegalArgumentException("root must be specified");
+      }
+      if (!root.exists())
+      {
+         throw new IllegalArgumentException("Cannot fingerprint nonexistent root: " + root);
+      }
+
+      // Digest
+      final MessageDigest digest = newDigest();
+      if (root.isDirectory())
+      {
+         digestTree(root, digest);
+      }
+      else
+      {
+         digestContents(root.openStream(), digest);
+      }
+
+      // Return
+      return toHex(digest.digest());
+   }
+
+   /**
+    * Obtains the fingerprint of the specified deployment root on the filesystem, encoded 
+    * as a hex {@link String}.  This is independent of any VFS mounts over the root.
+    * 
+    * @param root The root of the deployment
+    * @return The fingerprint of the root's contents
+    * @throws IllegalArgumentException If the root is not specified or does not exist
+    * @throws IOException If the contents of the root could not be read
+    */
+   public static String of(final File root) throws IllegalArgumentException, IOException
+   {
+      // Precondition checks
+      if (root == null)
+      {
+         throw new IllegalArgumentException("root must be specified");
+      }
+      if (!root.exists())
+      {
+         throw new IllegalArgumentException("Cannot fingerprint nonexistent root: " + root);
+      }
+
+      // Digest
+      final MessageDigest digest = newDigest();
+      if (root.isDirectory())
+      {
+         final SortedMap<String, File> sorted = new TreeMap<String, File>();
+         collect(root, "", sorted);
+         for (final String path : sorted.keySet())
+         {
+            final File child = sorted.get(path);
+            digestEntry(path, child.isDirectory(), child.length(), child.lastModified(), digest);
+         }
+      }
+      else
+      {
+         digestContents(new FileInputStream(root), digest);
+      }
+
+      // Return
+      return toHex(digest.digest());
+   }
+
+   /**
+    * Obtains a quick fingerprint of the specified deployment root on the filesystem, encoded 
+    * as a hex {@link String}.  Directories are fingerprinted as by {@link DeploymentFingerprint#of(File)};
+    * archives by their size and last modified time only, such that their contents need not be read.
+    * 
+    * @param root The root of the deployment
+    * @return The quick fingerprint of the root
+    * @throws IllegalArgumentException If the root is not specified or does not exist
+    * @throws IOException If the contents of the root could not be read
+    */
+   public static String quickOf(final File root) throws IllegalArgumentException, IOException
+   {
+      // Precondition checks
+      if (root == null)
+      {
+         throw new IllegalArgumentException("root must be specified");
+      }
+      if (root.isDirectory())
+      {
+         return of(root);
+      }
+      if (!root.exists())
+      {
+         throw new IllegalArgumentException("Cannot fingerprint nonexistent root: " + root);
+      }
+
+      // Digest
+      final MessageDigest digest = newDigest();
+      digestEntry("", false, root.length(), root.lastModified(), digest);
+
+      // Return
+      return toHex(digest.digest());
+   }
+
+   /**
+    * Obtains a fingerprint of the specified values, in order, encoded as a hex {@link String}; 
+    * null values are taken as empty
+    */
+   static String ofValues(final String... values)
+   {
+      final MessageDigest digest = newDigest();
+      for (final String value : values)
+      {
+         digest.update(getBytes(value == null ? "" : value));
+         digest.update((byte) 0);
+      }
+      return toHex(digest.digest());
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Updates the digest with the relative path, size and last modified time
+    * of every entry under the specified root, in a stable order
+    */
+   private static void digestTree(final VirtualFile root, final MessageDigest digest)
+   {
+      // Sort by relative path so the fingerprint does not depend upon listing order
+      final List<VirtualFile> children = root.getChildrenRecursively();
+      final SortedMap<String, VirtualFile> sorted = new TreeMap<String, VirtualFile>();
+      for (final VirtualFile child : children)
+      {
+         sorted.put(child.getPathNameRelativeTo(root), child);
+      }
+
+      for (final String path : sorted.keySet())
+      {
+         final VirtualFile child = sorted.get(path);
+         digestEntry(path, child.isDirectory(), child.getSize(), child.getLastModified(), digest);
+      }
+   }
+
+   /**
+    * Collects all entries under the specified directory, keyed by their path relative to the root
+    */
+   private static void collect(final File directory, final String prefix, final SortedMap<String, File> target)
+   {
+      final File[] children = directory.listFiles();
+      if (children == null)
+      {
+         return;
+      }
+      for (final File child : children)
+      {
+         final String path = prefix + child.getName();
+         target.put(path, child);
+         if (child.isDirectory())
+         {
+            collect(child, path + "/", target);
+         }
+      }
+   }
+
+   /**
+    * Updates the digest with the relative path, size and last modified time of a single entry
+    */
+   private static void digestEntry(final String path, final boolean directory, final long size,
+         final long lastModified, final MessageDigest digest)
+   {
+      final StringBuilder sb = new StringBuilder(path);
+      sb.append('|');
+      if (directory)
+      {
+         sb.append('/');
+      }
+      else
+      {
+         sb.append(size);
+         sb.append('|');
+         sb.append(lastModified);
+      }
+      sb.append('\n');
+      digest.update(getBytes(sb.toString()));
+   }
+
+   /**
+    * Updates the digest with the full contents of the specified stream, closing it when done
+    */
+   private static void digestContents(final InputStream in, final MessageDigest digest) throws IOException
+   {
+      try
+      {
+         final byte[] buffer = new byte[BUFFER_SIZE];
+         int read = 0;
+         while ((read = in.read(buffer)) != -1)
+         {
+            digest.update(buffer, 0, read);
+         }
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+
+   /**
+    * Creates a new {@link MessageDigest} for the configured algorithm
+    */
+   private static MessageDigest newDigest()
+   {
+      try
+      {
+         return MessageDigest.getInstance(ALGORITHM);
+      }
+      catch (final NoSuchAlgorithmException nsae)
+      {
+         throw new RuntimeException("Digest algorithm " + ALGORITHM + " is not available", nsae);
+      }
+   }
+
+   /**
+    * Obtains the UTF-8 representation of the specified {@link String}
+    */
+   private static byte[] getBytes(final String value)
+   {
+      try
+      {
+         return value.getBytes("UTF-8");
+      }
+      catch (final UnsupportedEncodingException uee)
+      {
+         throw new RuntimeException("UTF-8 must be supported by the JVM", uee);
+      }
+   }
+
+   /**
+    * Encodes the specified bytes as a lowercase hex {@link String}
+    */
+   private static String toHex(final byte[] bytes)
+   {
+      final char[] chars = new char[bytes.length * 2];
+      for (int i = 0; i < bytes.length; i++)
+      {
+         chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0F];
+         chars[i * 2 + 1] = HEX[bytes[i] & 0x0F];
+      }
+      return new String(chars);
+   }
+
+}
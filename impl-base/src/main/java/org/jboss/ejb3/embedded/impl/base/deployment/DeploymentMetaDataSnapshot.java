@@ -0,0 +1,378 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.deployment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jboss.deployers.client.spi.Deployment;
+import org.jboss.deployers.spi.attachments.MutableAttachments;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+import org.jboss.logging.Logger;
+
+/**
+ * Stores the processed metadata attachments of a deployment in a local 
+ * directory, keyed by the name and content fingerprint of the deployment 
+ * (see {@link DeploymentFingerprint}) along with the configuration it was processed 
+ * under, and restores them as predetermined attachments of a later {@link Deployment} 
+ * of the same name, identical content and configuration.  Parsing 
+ * deployers will not process metadata which is already attached, so restoring
+ * a snapshot bypasses descriptor parsing, annotation processing and metadata merging.
+ * 
+ * Only attachments which are {@link Serializable} are snapshotted; snapshots which 
+ * can no longer be read (for instance due to changed metadata classes) are discarded.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class DeploymentMetaDataSnapshot
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(DeploymentMetaDataSnapshot.class);
+
+   /**
+    * Names of the attachments snapshotted by default: spec, annotated, JBoss and merged EJB metadata
+    */
+   public static final String[] DEFAULT_ATTACHMENT_NAMES = new String[]
+   {"org.jboss.metadata.ejb.spec.EjbJarMetaData", "annotated.org.jboss.metadata.ejb.spec.EjbJarMetaData",
+         "org.jboss.metadata.ejb.jboss.JBossMetaData", "merged.org.jboss.metadata.ejb.jboss.JBossMetaData"};
+
+   /**
+    * Extension of snapshot files
+    */
+   private static final String EXTENSION_SNAPSHOT = ".ser";
+
+   /**
+    * Extension of snapshot files while being written
+    */
+   private static final String EXTENSION_PARTIAL = ".partial";
+
+   /**
+    * Characters of a deployment name not to be used in a snapshot file name
+    */
+   private static final String PATTERN_UNSAFE_CHARACTERS = "[^A-Za-z0-9._-]";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Directory in which snapshots are stored
+    */
+   private final File directory;
+
+   /**
+    * Names of the attachments to snapshot
+    */
+   private final String[] attachmentNames;
+
+   /**
+    * Configuration the metadata is processed under, and the attachments snapshotted, 
+    * in a stable form to be digested into the snapshot keys
+    */
+   private final String configuration;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance storing snapshots in the specified directory
+    * 
+    * @param directory Directory in which to store snapshots; will be created if it does not exist
+    * @param attachmentNames Names of the attachments to snapshot; if null or empty, 
+    * {@link DeploymentMetaDataSnapshot#DEFAULT_ATTACHMENT_NAMES} will be used
+    * @throws IllegalArgumentException If the directory is not specified or could not be created
+    */
+   public DeploymentMetaDataSnapshot(final File directory, final String... attachmentNames)
+         throws IllegalArgumentException
+   {
+      this(directory, null, attachmentNames);
+   }
+
+   /**
+    * Creates a new instance storing snapshots in the specified directory, taken under the 
+    * specified configuration; snapshots taken under another configuration are not restored
+    * 
+    * @param directory Directory in which to store snapshots; will be created if it does not exist
+    * @param configuration Settings affecting the processed metadata (for instance the application
+    * name), keyed by name; may be null
+    * @param attachmentNames Names of the attachments to snapshot; if null or empty, 
+    * {@link DeploymentMetaDataSnapshot#DEFAULT_ATTACHMENT_NAMES} will be used
+    * @throws IllegalArgumentException If the directory is not specified or could not be created
+    */
+   public DeploymentMetaDataSnapshot(final File directory, final Map<String, ?> configuration,
+         final String... attachmentNames) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (directory == null)
+      {
+         throw new IllegalArgumentException("directory must be specified");
+      }
+      if (!directory.isDirectory() && !directory.mkdirs())
+      {
+         throw new IllegalArgumentException("Could not create snapshot directory " + directory.getAbsolutePath());
+      }
+
+      // Set
+      this.directory = directory;
+      final String[] names = attachmentNames == null || attachmentNames.length == 0
+            ? DEFAULT_ATTACHMENT_NAMES
+            : attachmentNames;
+      this.attachmentNames = Arrays.copyOf(names, names.length);
+      final Map<String, Object> sorted = new TreeMap<String, Object>();
+      if (configuration != null)
+      {
+         sorted.putAll(configuration);
+      }
+      this.configuration = sorted + Arrays.toString(this.attachmentNames);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Restores the snapshot for the specified name and fingerprint, if one exists, as predetermined
+    * attachments of the specified {@link Deployment}
+    * 
+    * @param deployment The deployment to receive the snapshotted metadata
+    * @param name Name of the deployment, for instance its module name
+    * @param fingerprint Fingerprint of the deployment's content
+    * @return Whether a snapshot was restored
+    * @throws IllegalArgumentException If any argument is not specified
+    */
+   public boolean restore(final Deployment deployment, final String name, final String fingerprint)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (deployment == null)
+      {
+         throw new IllegalArgumentException("deployment must be specified");
+      }
+      if (name == null)
+      {
+         throw new IllegalArgumentException("name must be specified");
+      }
+      if (fingerprint == null)
+      {
+         throw new IllegalArgumentException("fingerprint must be specified");
+      }
+
+      // Anything to restore?
+      final File snapshot = new File(directory, this.getSnapshotKey(name, fingerprint) + EXTENSION_SNAPSHOT);
+      if (!snapshot.isFile())
+      {
+         return false;
+      }
+
+      // Read
+      final Map<String, Serializable> attachments;
+      try
+      {
+         attachments = read(snapshot);
+      }
+      catch (final Exception e)
+      {
+         // Stale or corrupt, so discard and process normally
+         log.warn("Discarding unreadable metadata snapshot " + snapshot + " for " + deployment.getName() + ": " + e);
+         if (!snapshot.delete())
+         {
+            log.warn("Could not delete " + snapshot);
+         }
+         return false;
+      }
+
+      // Attach as predetermined
+      final MutableAttachments predetermined = PredeterminedAttachments.getMutable(deployment);
+      for (final Map.Entry<String, Serializable> attachment : attachments.entrySet())
+      {
+         predetermined.addAttachment(attachment.getKey(), attachment.getValue());
+      }
+
+      if (log.isDebugEnabled())
+      {
+         log.debug("Restored metadata snapshot " + attachments.keySet() + " for " + deployment.getName());
+      }
+      return true;
+   }
+
+   /**
+    * Stores the configured attachments of the specified processed {@link DeploymentUnit}
+    * as the snapshot for the specified name and fingerprint.  Failures are logged and otherwise 
+    * ignored; a missing snapshot only means metadata will be processed again.
+    * 
+    * @param unit The processed deployment unit
+    * @param name Name of the deployment, as to be given upon restore
+    * @param fingerprint Fingerprint of the deployment's content
+    * @throws IllegalArgumentException If any argument is not specified
+    */
+   public void store(final DeploymentUnit unit, final String name, final String fingerprint)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (unit == null)
+      {
+         throw new IllegalArgumentException("unit must be specified");
+      }
+      if (name == null)
+      {
+         throw new IllegalArgumentException("name must be specified");
+      }
+      if (fingerprint == null)
+      {
+         throw new IllegalArgumentException("fingerprint must be specified");
+      }
+
+      // Collect the serializable attachments
+      final Map<String, Serializable> attachments = new HashMap<String, Serializable>();
+      for (final String name : attachmentNames)
+      {
+         final Object attachment = unit.getAttachment(name);
+         if (attachment instanceof Serializable)
+         {
+            attachments.put(name, (Serializable) attachment);
+         }
+         else if (attachment != null && log.isTraceEnabled())
+         {
+            log.tracef("Not snapshotting non-serializable attachment %s of %s", name, unit.getName());
+         }
+      }
+      if (attachments.isEmpty())
+      {
+         return;
+      }
+
+      // Write to a partial file first so readers never see an incomplete snapshot
+      final String key = this.getSnapshotKey(name, fingerprint);
+      final File snapshot = new File(directory, key + EXTENSION_SNAPSHOT);
+      final File partial = new File(directory, key + EXTENSION_PARTIAL);
+      try
+      {
+         final ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(partial)));
+         try
+         {
+            out.writeObject(attachments);
+         }
+         finally
+         {
+            out.close();
+         }
+         if (!partial.renameTo(snapshot))
+         {
+            throw new IOException("Could not rename " + partial + " to " + snapshot);
+         }
+         if (log.isDebugEnabled())
+         {
+            log.debug("Stored metadata snapshot " + attachments.keySet() + " for " + unit.getName());
+         }
+      }
+      catch (final IOException ioe)
+      {
+         log.warn("Could not store metadata snapshot for " + unit.getName() + ": " + ioe);
+         partial.delete();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the key of the snapshot for the specified deployment name and content fingerprint 
+    * under the configuration of this instance, readable by the name it starts with
+    */
+   private String getSnapshotKey(final String name, final String fingerprint)
+   {
+      return name.replaceAll(PATTERN_UNSAFE_CHARACTERS, "_") + "-"
+            + DeploymentFingerprint.ofValues(name, fingerprint, configuration);
+   }
+
+   /**
+    * Reads the attachments stored in the specified snapshot
+    */
+   @SuppressWarnings("unchecked")
+   private static Map<String, Serializable> read(final File snapshot) throws IOException, ClassNotFoundException
+   {
+      final ObjectInputStream in = new TcclObjectInputStream(new BufferedInputStream(new FileInputStream(snapshot)));
+      try
+      {
+         return (Map<String, Serializable>) in.readObject();
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+
+   /**
+    * {@link ObjectInputStream} resolving classes using the Thread Context {@link ClassLoader},
+    * which is that used to load the deployments
+    */
+   private static final class TcclObjectInputStream extends ObjectInputStream
+   {
+      TcclObjectInputStream(final InputStream in) throws IOException
+      {
+         super(in);
+      }
+
+      @Override
+      protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException
+      {
+         final ClassLoader tccl = Thread.currentThread().getContextClassLoader();
+         if (tccl != null)
+         {
+            try
+            {
+               return Class.forName(desc.getName(), false, tccl);
+            }
+            catch (final ClassNotFoundException cnfe)
+            {
+               // Fall through to the default resolution
+            }
+         }
+         return super.resolveClass(desc);
+      }
+   }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.deployment;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.deployers.client.spi.Deployment;
+import org.jboss.deployers.spi.attachments.MutableAttachments;
+import org.jboss.deployers.spi.structure.ClassPathEntry;
+import org.jboss.deployers.spi.structure.ContextInfo;
+import org.jboss.deployers.spi.structure.StructureMetaData;
+import org.jboss.deployers.spi.structure.StructureMetaDataFactory;
+import org.jboss.vfs.VirtualFile;
+
+/**
+ * Supplies the structure of a plain EJB JAR (a single context 
+ * with its root on the ClassPath and metadata under <code>META-INF</code>)
+ * as predetermined {@link StructureMetaData} of a {@link Deployment}, such that 
+ * the structure deployers need not rediscover what is already known.  
+ * This is a static utility class which is not to be instantiated.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public final class EjbJarStructure
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Path of the metadata location, relative to the root of a deployment
+    */
+   private static final String PATH_META_INF = "META-INF";
+
+   /**
+    * Paths which, if present, denote something other than a plain EJB JAR
+    */
+   private static final String[] PATHS_NOT_EJB_JAR =
+   {"WEB-INF", "META-INF/application.xml", "META-INF/ra.xml"};
+
+   /**
+    * Extensions of files which may be treated as EJB JARs
+    */
+   private static final String EXTENSION_JAR = ".jar";
+
+   /**
+    * Extensions of directories which must not be treated as EJB JARs
+    */
+   private static final String[] EXTENSIONS_NOT_EJB_JAR =
+   {".ear", ".war", ".rar", ".sar"};
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Internal Constructor, no instances permitted
+    */
+   private EjbJarStructure()
+   {
+      throw new UnsupportedOperationException("No instances permitted");
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Determines whether the specified root may be deployed with a predetermined
+    * EJB JAR structure: it must be either an archive with the .jar extension, or a 
+    * directory which does not look like another type of module.  Archives must
+    * be mounted before deployment, as the structure deployers will not do so.
+    * 
+    * @param root
+    * @throws IllegalArgumentException If the root is not specified
+    */
+   public static boolean isApplicable(final VirtualFile root) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (root == null)
+      {
+         throw new IllegalArgumentException("root must be specified");
+      }
+
+      final String name = root.getName();
+      if (!root.isDirectory())
+      {
+         return root.exists() && name.endsWith(EXTENSION_JAR);
+      }
+      for (final String extension : EXTENSIONS_NOT_EJB_JAR)
+      {
+         if (name.endsWith(extension))
+         {
+            return false;
+         }
+      }
+      for (final String path : PATHS_NOT_EJB_JAR)
+      {
+         if (root.getChild(path).exists())
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Attaches the EJB JAR structure to the specified {@link Deployment}
+    * as predetermined {@link StructureMetaData}
+    * 
+    * @param deployment
+    * @throws IllegalArgumentException If the deployment is not specified
+    */
+   public static void attach(final Deployment deployment) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (deployment == null)
+      {
+         throw new IllegalArgumentException("deployment must be specified");
+      }
+
+      // Root context on the ClassPath, metadata in META-INF
+      final List<ClassPathEntry> classPath = Collections.singletonList(StructureMetaDataFactory
+            .createClassPathEntry());
+      final ContextInfo context = StructureMetaDataFactory.createContextInfo("", PATH_META_INF, classPath);
+      final StructureMetaData structure = StructureMetaDataFactory.createStructureMetaData();
+      structure.addContext(context);
+
+      // Attach
+      final MutableAttachments predetermined = PredeterminedAttachments.getMutable(deployment);
+      predetermined.addAttachment(StructureMetaData.class, structure);
+   }
+
+}
@@ -0,0 +1,245 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.deployment;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.jboss.vfs.VFSUtils;
+import org.jboss.vfs.VirtualFile;
+
+/**
+ * Utilities for dealing with EJB modules as deployed into the
+ * embedded container: their names as used in the portable 
+ * <code>java:global</code> namespace (EJB 3.1 4.4.1.1) and the 
+ * other modules upon which they depend.  This is a static utility
+ * class which is not to be instantiated.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public final class EjbModules
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Recognized module extensions, stripped in determining the module name
+    */
+   private static final String[] EXTENSIONS_MODULE =
+   {".jar", ".war", ".ear"};
+
+   /**
+    * Delimiter of entries in the manifest Class-Path header
+    */
+   private static final String DELIMITER_CLASS_PATH = "\\s+";
+
+   /**
+    * Prefix of names in the portable global JNDI namespace (EJB 3.1 4.4.1.1)
+    */
+   private static final String PREFIX_JNDI_GLOBAL = "java:global/";
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Internal Constructor, no instances permitted
+    */
+   private EjbModules()
+   {
+      throw new UnsupportedOperationException("No instances permitted");
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains a {@link URL} for the specified module, which may be either a file path
+    * or a {@link URL} in external form
+    * 
+    * @param module
+    * @throws IllegalArgumentException If the module is not specified or is neither an
+    * existing file nor a valid {@link URL}
+    */
+   public static URL toURL(final String module) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (module == null || module.length() == 0)
+      {
+         throw new IllegalArgumentException("module must be specified");
+      }
+
+      try
+      {
+         final File file = new File(module);
+         if (file.exists())
+         {
+            return file.toURI().toURL();
+         }
+         return new URL(module);
+      }
+      catch (final MalformedURLException murle)
+      {
+         throw new IllegalArgumentException("Module is neither an existing file nor a valid URL: " + module, murle);
+      }
+   }
+
+   /**
+    * Obtains the name of the module located at the specified {@link URL}; this is the 
+    * last path segment with any module extension removed
+    * 
+    * @param url
+    * @throws IllegalArgumentException If the {@link URL} is not specified
+    */
+   public static String getModuleName(final URL url) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (url == null)
+      {
+         throw new IllegalArgumentException("URL must be specified");
+      }
+
+      return getModuleName(url.getPath());
+   }
+
+   /**
+    * Obtains the name of the module at the specified path or archive name; this is the 
+    * last path segment with any module extension removed
+    * 
+    * @param path
+    * @throws IllegalArgumentException If the path is not specified
+    */
+   public static String getModuleName(final String path) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (path == null)
+      {
+         throw new IllegalArgumentException("path must be specified");
+      }
+
+      String name = path;
+      while (name.endsWith("/"))
+      {
+         name = name.substring(0, name.length() - 1);
+      }
+      name = name.substring(name.lastIndexOf('/') + 1);
+      for (final String extension : EXTENSIONS_MODULE)
+      {
+         if (name.endsWith(extension))
+         {
+            return name.substring(0, name.length() - extension.length());
+         }
+      }
+      return name;
+   }
+
+   /**
+    * Obtains the names which may denote a module in the specified JNDI name:
+    * <code>java:global[/app-name]/module-name/bean-name[!interface]</code>, so the 
+    * first two segments.  Returns an empty array if this is not a global name.
+    * 
+    * @param jndiName
+    */
+   public static String[] getModuleNameCandidates(final String jndiName)
+   {
+      if (jndiName == null || !jndiName.startsWith(PREFIX_JNDI_GLOBAL))
+      {
+         return new String[]
+         {};
+      }
+      final String[] segments = jndiName.substring(PREFIX_JNDI_GLOBAL.length()).split("/");
+      return Arrays.copyOf(segments, Math.min(segments.length, 2));
+   }
+
+   /**
+    * Obtains the names of the modules referenced by the manifest Class-Path 
+    * of the specified module root.  Returns an empty {@link Collection} if there
+    * is no manifest or Class-Path.
+    * 
+    * @param root
+    * @throws IllegalArgumentException If the root is not specified
+    * @throws IOException If the manifest could not be read
+    */
+   public static Collection<String> getClassPathModuleNames(final VirtualFile root) throws IllegalArgumentException,
+         IOException
+   {
+      // Precondition checks
+      if (root == null)
+      {
+         throw new IllegalArgumentException("root must be specified");
+      }
+
+      // Get the manifest
+      final Manifest manifest;
+      if (root.isDirectory())
+      {
+         manifest = VFSUtils.getManifest(root);
+      }
+      else
+      {
+         // Unmounted archive; go straight to the file
+         final JarFile jar = new JarFile(root.getPhysicalFile());
+         try
+         {
+            manifest = jar.getManifest();
+         }
+         finally
+         {
+            jar.close();
+         }
+      }
+
+      // Get the module names
+      final Collection<String> names = new ArrayList<String>();
+      if (manifest == null)
+      {
+         return names;
+      }
+      final String classPath = manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+      if (classPath == null)
+      {
+         return names;
+      }
+      for (final String entry : classPath.trim().split(DELIMITER_CLASS_PATH))
+      {
+         if (entry.length() > 0)
+         {
+            names.add(getModuleName(entry));
+         }
+      }
+      return names;
+   }
+
+}
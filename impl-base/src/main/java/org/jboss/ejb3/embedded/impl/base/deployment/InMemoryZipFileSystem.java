@@ -0,0 +1,609 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.deployment;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.CodeSigner;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+import org.jboss.vfs.VirtualFile;
+import org.jboss.vfs.spi.FileSystem;
+
+/**
+ * Read-only {@link FileSystem} exposing the entries of a ZIP archive held 
+ * in a {@link ByteBuffer}, such that an archive generated in memory may be 
+ * mounted and deployed without its bytes ever going through the filesystem.
+ * Only the central directory is read upon construction; entry contents are
+ * read (and inflated) from the buffer as they are opened.  ZIP64 archives are
+ * not supported.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public final class InMemoryZipFileSystem implements FileSystem
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Signature of the end of central directory record
+    */
+   private static final int SIGNATURE_END = 0x06054b50;
+
+   /**
+    * Signature of a central directory file header
+    */
+   private static final int SIGNATURE_CENTRAL = 0x02014b50;
+
+   /**
+    * Signature of a local file header
+    */
+   private static final int SIGNATURE_LOCAL = 0x04034b50;
+
+   /**
+    * Length of the fixed portion of the end of central directory record
+    */
+   private static final int LENGTH_END = 22;
+
+   /**
+    * Length of the fixed portion of a central directory file header
+    */
+   private static final int LENGTH_CENTRAL = 46;
+
+   /**
+    * Length of the fixed portion of a local file header
+    */
+   private static final int LENGTH_LOCAL = 30;
+
+   /**
+    * Maximum length of the archive comment trailing the end of central directory record
+    */
+   private static final int MAX_LENGTH_COMMENT = 0xFFFF;
+
+   /**
+    * Charset of entry names
+    */
+   private static final String CHARSET_NAMES = "UTF-8";
+
+   /**
+    * Path of the root entry
+    */
+   private static final String PATH_ROOT = "";
+
+   /**
+    * Path separator within the archive
+    */
+   private static final char SEPARATOR = '/';
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Read-only, little-endian view of the archive
+    */
+   private final ByteBuffer archive;
+
+   /**
+    * All entries (including implied directories), keyed by path relative to the root
+    */
+   private final Map<String, Entry> entries;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new {@link FileSystem} over the remaining bytes of the specified 
+    * buffer, which is not modified and must not be changed by the caller thereafter
+    * 
+    * @param archive
+    * @throws IllegalArgumentException If the buffer is not specified
+    * @throws IOException If the buffer does not contain a valid ZIP archive
+    */
+   public InMemoryZipFileSystem(final ByteBuffer archive) throws IllegalArgumentException, IOException
+   {
+      // Precondition checks
+      if (archive == null)
+      {
+         throw new IllegalArgumentException("archive must be specified");
+      }
+
+      // Set
+      this.archive = archive.slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+      this.entries = new HashMap<String, Entry>();
+      this.entries.put(PATH_ROOT, new Entry(PATH_ROOT, true, -1, 0, 0, ZipEntry.STORED, System.currentTimeMillis()));
+
+      // Read the central directory
+      this.readCentralDirectory();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Entries have no physical file; always throws {@link IOException}
+    * @see org.jboss.vfs.spi.FileSystem#getFile(org.jboss.vfs.VirtualFile, org.jboss.vfs.VirtualFile)
+    */
+   @Override
+   public File getFile(final VirtualFile mountPoint, final VirtualFile target) throws IOException
+   {
+      throw new IOException("In-memory entry has no physical file: " + target);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.vfs.spi.FileSystem#openInputStream(org.jboss.vfs.VirtualFile, org.jboss.vfs.VirtualFile)
+    */
+   @Override
+   public InputStream openInputStream(final VirtualFile mountPoint, final VirtualFile target) throws IOException
+   {
+      final Entry entry = this.getEntry(mountPoint, target);
+      if (entry == null || entry.directory)
+      {
+         throw new FileNotFoundException("No file in archive: " + target);
+      }
+
+      // Locate the data past the local header
+      if (archive.getInt(entry.localHeaderOffset) != SIGNATURE_LOCAL)
+      {
+         throw new IOException("Invalid local header for " + entry.path);
+      }
+      final int dataOffset = entry.localHeaderOffset + LENGTH_LOCAL + getUnsignedShort(entry.localHeaderOffset + 26)
+            + getUnsignedShort(entry.localHeaderOffset + 28);
+      final ByteBuffer data = archive.duplicate();
+      data.position(dataOffset);
+      data.limit(dataOffset + entry.compressedSize);
+      final InputStream in = new ByteBufferInputStream(data.slice());
+
+      switch (entry.method)
+      {
+         case ZipEntry.STORED :
+            return in;
+         case ZipEntry.DEFLATED :
+            // Raw inflation needs a trailing dummy byte
+            final Inflater inflater = new Inflater(true);
+            return new InflaterInputStream(new SequenceInputStream(in, new ByteArrayInputStream(new byte[1])),
+                  inflater)
+            {
+               @Override
+               public void close() throws IOException
+               {
+                  super.close();
+                  inflater.end();
+               }
+            };
+         default :
+            throw new IOException("Unsupported compression method " + entry.method + " for " + entry.path);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.vfs.spi.FileSystem#isReadOnly()
+    */
+   @Override
+   public boolean isReadOnly()
+   {
+      return true;
+   }
+
+   /**
+    * Entries may not be deleted; always returns false
+    * @see org.jboss.vfs.spi.FileSystem#delete(org.jboss.vfs.VirtualFile, org.jboss.vfs.VirtualFile)
+    */
+   @Override
+   public boolean delete(final VirtualFile mountPoint, final VirtualFile target)
+   {
+      return false;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.vfs.spi.FileSystem#getSize(org.jboss.vfs.VirtualFile, org.jboss.vfs.VirtualFile)
+    */
+   @Override
+   public long getSize(final VirtualFile mountPoint, final VirtualFile target)
+   {
+      final Entry entry = this.getEntry(mountPoint, target);
+      return entry == null || entry.directory ? 0L : entry.size;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.vfs.spi.FileSystem#getLastModified(org.jboss.vfs.VirtualFile, org.jboss.vfs.VirtualFile)
+    */
+   @Override
+   public long getLastModified(final VirtualFile mountPoint, final VirtualFile target)
+   {
+      final Entry entry = this.getEntry(mountPoint, target);
+      return entry == null ? 0L : entry.lastModified;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.vfs.spi.FileSystem#exists(org.jboss.vfs.VirtualFile, org.jboss.vfs.VirtualFile)
+    */
+   @Override
+   public boolean exists(final VirtualFile mountPoint, final VirtualFile target)
+   {
+      return this.getEntry(mountPoint, target) != null;
+   }
+
+   /**
+    * Whether the target is a file (as opposed to a directory) in the archive
+    * @see org.jboss.vfs.spi.FileSystem
+    */
+   public boolean isFile(final VirtualFile mountPoint, final VirtualFile target)
+   {
+      final Entry entry = this.getEntry(mountPoint, target);
+      return entry != null && !entry.directory;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.vfs.spi.FileSystem#isDirectory(org.jboss.vfs.VirtualFile, org.jboss.vfs.VirtualFile)
+    */
+   @Override
+   public boolean isDirectory(final VirtualFile mountPoint, final VirtualFile target)
+   {
+      final Entry entry = this.getEntry(mountPoint, target);
+      return entry != null && entry.directory;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.vfs.spi.FileSystem#getDirectoryEntries(org.jboss.vfs.VirtualFile, org.jboss.vfs.VirtualFile)
+    */
+   @Override
+   public List<String> getDirectoryEntries(final VirtualFile mountPoint, final VirtualFile target)
+   {
+      final Entry entry = this.getEntry(mountPoint, target);
+      if (entry == null || !entry.directory)
+      {
+         return Collections.emptyList();
+      }
+      return new ArrayList<String>(entry.children);
+   }
+
+   /**
+    * Entries are not verified; always returns null
+    * @see org.jboss.vfs.spi.FileSystem#getCodeSigners(org.jboss.vfs.VirtualFile, org.jboss.vfs.VirtualFile)
+    */
+   @Override
+   public CodeSigner[] getCodeSigners(final VirtualFile mountPoint, final VirtualFile target)
+   {
+      return null;
+   }
+
+   /**
+    * There is no physical mount source; always returns null
+    * @see org.jboss.vfs.spi.FileSystem
+    */
+   public File getMountSource()
+   {
+      return null;
+   }
+
+   /**
+    * Nothing to release; the buffer is reclaimed once unreferenced
+    * @see java.io.Closeable#close()
+    */
+   @Override
+   public void close() throws IOException
+   {
+      // NOOP
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [" + archive.capacity() + " bytes, " + entries.size() + " entries]";
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the entry for the specified target, or null if there is none
+    */
+   private Entry getEntry(final VirtualFile mountPoint, final VirtualFile target)
+   {
+      if (mountPoint.equals(target))
+      {
+         return entries.get(PATH_ROOT);
+      }
+      return entries.get(target.getPathNameRelativeTo(mountPoint));
+   }
+
+   /**
+    * Reads all entries from the central directory
+    */
+   private void readCentralDirectory() throws IOException
+   {
+      // Find the end record, which may be followed by a comment
+      final int limit = archive.limit();
+      int end = -1;
+      for (int i = limit - LENGTH_END; i >= 0 && i >= limit - LENGTH_END - MAX_LENGTH_COMMENT; i--)
+      {
+         if (archive.getInt(i) == SIGNATURE_END)
+         {
+            end = i;
+            break;
+         }
+      }
+      if (end < 0)
+      {
+         throw new IOException("No end of central directory record found; not a ZIP archive");
+      }
+      final int count = getUnsignedShort(end + 10);
+      int offset = getOffset(end + 16);
+
+      // Read each header
+      for (int i = 0; i < count; i++)
+      {
+         if (offset + LENGTH_CENTRAL > limit || archive.getInt(offset) != SIGNATURE_CENTRAL)
+         {
+            throw new IOException("Invalid central directory header at offset " + offset);
+         }
+         final int method = getUnsignedShort(offset + 10);
+         final long lastModified = toJavaTime(getUnsignedShort(offset + 12), getUnsignedShort(offset + 14));
+         final int compressedSize = getOffset(offset + 20);
+         final long size = archive.getInt(offset + 24) & 0xFFFFFFFFL;
+         final int nameLength = getUnsignedShort(offset + 28);
+         final int extraLength = getUnsignedShort(offset + 30);
+         final int commentLength = getUnsignedShort(offset + 32);
+         final int localHeaderOffset = getOffset(offset + 42);
+         final String name = this.getString(offset + LENGTH_CENTRAL, nameLength);
+         offset += LENGTH_CENTRAL + nameLength + extraLength + commentLength;
+
+         // Add
+         final boolean directory = name.charAt(name.length() - 1) == SEPARATOR;
+         final String path = directory ? name.substring(0, name.length() - 1) : name;
+         if (path.length() == 0 || entries.containsKey(path))
+         {
+            continue;
+         }
+         this.add(new Entry(path, directory, localHeaderOffset, compressedSize, size, method, lastModified));
+      }
+   }
+
+   /**
+    * Adds the specified entry, and any parent directories not yet present
+    */
+   private void add(final Entry entry)
+   {
+      entries.put(entry.path, entry);
+      final int lastSeparator = entry.path.lastIndexOf(SEPARATOR);
+      final String parentPath = lastSeparator < 0 ? PATH_ROOT : entry.path.substring(0, lastSeparator);
+      Entry parent = entries.get(parentPath);
+      if (parent == null)
+      {
+         parent = new Entry(parentPath, true, -1, 0, 0, ZipEntry.STORED, entry.lastModified);
+         this.add(parent);
+      }
+      parent.children.add(entry.path.substring(lastSeparator + 1));
+   }
+
+   /**
+    * Reads an unsigned 16-bit value at the specified position
+    */
+   private int getUnsignedShort(final int position)
+   {
+      return archive.getShort(position) & 0xFFFF;
+   }
+
+   /**
+    * Reads an unsigned 32-bit offset or size at the specified position, which must 
+    * fall within the archive
+    */
+   private int getOffset(final int position) throws IOException
+   {
+      final long value = archive.getInt(position) & 0xFFFFFFFFL;
+      if (value > archive.limit())
+      {
+         throw new IOException("Offset or size " + value + " exceeds archive; ZIP64 archives are not supported");
+      }
+      return (int) value;
+   }
+
+   /**
+    * Reads a name of the specified length at the specified position
+    */
+   private String getString(final int position, final int length) throws IOException
+   {
+      final byte[] bytes = new byte[length];
+      final ByteBuffer source = archive.duplicate();
+      source.position(position);
+      source.get(bytes);
+      try
+      {
+         return new String(bytes, CHARSET_NAMES);
+      }
+      catch (final UnsupportedEncodingException uee)
+      {
+         throw new IllegalStateException(CHARSET_NAMES + " must be supported", uee);
+      }
+   }
+
+   /**
+    * Converts an MS-DOS time and date to milliseconds since the epoch
+    */
+   private static long toJavaTime(final int time, final int date)
+   {
+      final Calendar calendar = new GregorianCalendar(((date >> 9) & 0x7F) + 1980, ((date >> 5) & 0x0F) - 1,
+            date & 0x1F, (time >> 11) & 0x1F, (time >> 5) & 0x3F, (time & 0x1F) << 1);
+      return calendar.getTimeInMillis();
+   }
+
+   /**
+    * An entry in the archive
+    */
+   private static final class Entry
+   {
+      /**
+       * Path relative to the root, without trailing separator
+       */
+      private final String path;
+
+      /**
+       * Whether this is a directory
+       */
+      private final boolean directory;
+
+      /**
+       * Offset of the local header, or -1 for implied directories
+       */
+      private final int localHeaderOffset;
+
+      /**
+       * Length of the (possibly compressed) data
+       */
+      private final int compressedSize;
+
+      /**
+       * Length of the uncompressed data
+       */
+      private final long size;
+
+      /**
+       * Compression method
+       */
+      private final int method;
+
+      /**
+       * Last modified time
+       */
+      private final long lastModified;
+
+      /**
+       * Names of the children of a directory
+       */
+      private final List<String> children = new ArrayList<String>();
+
+      Entry(final String path, final boolean directory, final int localHeaderOffset, final int compressedSize,
+            final long size, final int method, final long lastModified)
+      {
+         this.path = path;
+         this.directory = directory;
+         this.localHeaderOffset = localHeaderOffset;
+         this.compressedSize = compressedSize;
+         this.size = size;
+         this.method = method;
+         this.lastModified = lastModified;
+      }
+   }
+
+   /**
+    * {@link InputStream} reading the remaining bytes of a {@link ByteBuffer}
+    */
+   private static final class ByteBufferInputStream extends InputStream
+   {
+      /**
+       * Buffer from which we read
+       */
+      private final ByteBuffer buffer;
+
+      ByteBufferInputStream(final ByteBuffer buffer)
+      {
+         this.buffer = buffer;
+      }
+
+      /**
+       * {@inheritDoc}
+       * @see java.io.InputStream#read()
+       */
+      @Override
+      public int read() throws IOException
+      {
+         return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+      }
+
+      /**
+       * {@inheritDoc}
+       * @see java.io.InputStream#read(byte[], int, int)
+       */
+      @Override
+      public int read(final byte[] b, final int off, final int len) throws IOException
+      {
+         if (len == 0)
+         {
+            return 0;
+         }
+         if (!buffer.hasRemaining())
+         {
+            return -1;
+         }
+         final int read = Math.min(len, buffer.remaining());
+         buffer.get(b, off, read);
+         return read;
+      }
+
+      /**
+       * {@inheritDoc}
+       * @see java.io.InputStream#skip(long)
+       */
+      @Override
+      public long skip(final long n) throws IOException
+      {
+         final int skipped = (int) Math.max(0L, Math.min(n, buffer.remaining()));
+         buffer.position(buffer.position() + skipped);
+         return skipped;
+      }
+
+      /**
+       * {@inheritDoc}
+       * @see java.io.InputStream#available()
+       */
+      @Override
+      public int available() throws IOException
+      {
+         return buffer.remaining();
+      }
+   }
+}
@@ -0,0 +1,82 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.deployment;
+
+import java.util.Map;
+
+import org.jboss.deployers.client.spi.Deployment;
+import org.jboss.deployers.spi.attachments.Attachments;
+import org.jboss.deployers.spi.attachments.AttachmentsFactory;
+import org.jboss.deployers.spi.attachments.MutableAttachments;
+
+/**
+ * Internal utilities to supply predetermined attachments to 
+ * a {@link Deployment}.  This is a static utility class which 
+ * is not to be instantiated.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class PredeterminedAttachments
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Internal Constructor, no instances permitted
+    */
+   private PredeterminedAttachments()
+   {
+      throw new UnsupportedOperationException("No instances permitted");
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the predetermined attachments of the specified {@link Deployment}
+    * in mutable form, replacing them with a mutable copy if necessary
+    */
+   static MutableAttachments getMutable(final Deployment deployment)
+   {
+      final Attachments predetermined = deployment.getPredeterminedManagedObjects();
+      if (predetermined instanceof MutableAttachments)
+      {
+         return (MutableAttachments) predetermined;
+      }
+      final MutableAttachments mutable = AttachmentsFactory.createMutableAttachments();
+      if (predetermined != null)
+      {
+         for (final Map.Entry<String, Object> existing : predetermined.getAttachments().entrySet())
+         {
+            mutable.addAttachment(existing.getKey(), existing.getValue());
+         }
+      }
+      deployment.setPredeterminedManagedObjects(mutable);
+      return mutable;
+   }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.leak;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Watches {@link ClassLoader}s which are expected to become unreachable (for 
+ * instance those of undeployed modules) and reports those which do not, along with
+ * the live {@link Thread}s which may be holding them.  Only weak references 
+ * are held, so watching does not itself cause a leak.  Not thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public final class LeakDetector
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Time between collection attempts, in milliseconds
+    */
+   private static final long INTERVAL_GC = 50;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Watched {@link ClassLoader}s keyed by a description of their owner
+    */
+   private final Map<String, WeakReference<ClassLoader>> classLoaders;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new detector watching nothing
+    */
+   public LeakDetector()
+   {
+      this.classLoaders = new LinkedHashMap<String, WeakReference<ClassLoader>>();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Watches the specified {@link ClassLoader}, expected to become unreachable
+    * 
+    * @param owner Description of the owner of the {@link ClassLoader}, for instance a deployment name
+    * @param classLoader
+    * @throws IllegalArgumentException If either argument is not specified
+    */
+   public void watch(final String owner, final ClassLoader classLoader) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (owner == null)
+      {
+         throw new IllegalArgumentException("owner must be specified");
+      }
+      if (classLoader == null)
+      {
+         throw new IllegalArgumentException("class loader must be specified");
+      }
+
+      classLoaders.put(owner, new WeakReference<ClassLoader>(classLoader));
+   }
+
+   /**
+    * Requests garbage collection until all watched {@link ClassLoader}s have been collected
+    * or the specified time has elapsed, then describes those remaining and the live {@link Thread}s
+    * whose context {@link ClassLoader} or class belongs to one of them.  Returns an empty {@link List}
+    * if nothing leaked.
+    * 
+    * @param timeout Maximum time to wait for collection, in milliseconds
+    */
+   public List<String> check(final long timeout)
+   {
+      // Give the collector a chance
+      final long deadline = System.currentTimeMillis() + Math.max(0, timeout);
+      while (this.hasLiveClassLoaders())
+      {
+         System.gc();
+         if (!this.hasLiveClassLoaders() || System.currentTimeMillis() >= deadline)
+         {
+            break;
+         }
+         try
+         {
+            Thread.sleep(INTERVAL_GC);
+         }
+         catch (final InterruptedException ie)
+         {
+            Thread.currentThread().interrupt();
+            break;
+         }
+      }
+
+      // Describe what remains
+      final List<String> leaks = new ArrayList<String>();
+      for (final Map.Entry<String, WeakReference<ClassLoader>> entry : classLoaders.entrySet())
+      {
+         final ClassLoader classLoader = entry.getValue().get();
+         if (classLoader == null)
+         {
+            continue;
+         }
+         leaks.add("Class loader of " + entry.getKey() + " is still reachable: " + classLoader);
+         for (final Thread thread : Thread.getAllStackTraces().keySet())
+         {
+            if (!thread.isAlive())
+            {
+               continue;
+            }
+            if (thread.getContextClassLoader() == classLoader)
+            {
+               leaks.add("Thread \"" + thread.getName() + "\" has the class loader of " + entry.getKey()
+                     + " as its context class loader");
+            }
+            else if (thread.getClass().getClassLoader() == classLoader)
+            {
+               leaks.add("Thread \"" + thread.getName() + "\" is of a class loaded by " + entry.getKey());
+            }
+         }
+      }
+      return leaks;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Whether any watched {@link ClassLoader} has not been collected
+    */
+   private boolean hasLiveClassLoaders()
+   {
+      for (final WeakReference<ClassLoader> reference : classLoaders.values())
+      {
+         if (reference.get() != null)
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+}
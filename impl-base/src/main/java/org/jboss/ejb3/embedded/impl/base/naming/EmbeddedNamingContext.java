@@ -0,0 +1,391 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.naming;
+
+import java.util.Hashtable;
+
+import javax.ejb.embeddable.EJBContainer;
+import javax.naming.Binding;
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameClassPair;
+import javax.naming.NameParser;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+
+/**
+ * {@link Context} returned from {@link EJBContainer#getContext()}.  Delegates
+ * all operations to the underlying naming {@link Context}, first notifying 
+ * a {@link LookupListener} of each name to be resolved such that the container
+ * may make the target available on demand.  If a {@link LookupCache} is supplied,
+ * lookups of names in the <code>java:global</code> namespace are served from it
+ * where possible.  Instances are shared by all callers of the container, so 
+ * must be safe for concurrent use; the underlying context is owned by the container.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class EmbeddedNamingContext implements Context
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Underlying naming context
+    */
+   private final Context delegate;
+
+   /**
+    * Listener notified before each name is resolved
+    */
+   private final LookupListener listener;
+
+   /**
+    * Cache of lookup results, or null if results are not cached
+    */
+   private final LookupCache cache;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance delegating to the specified {@link Context}
+    * 
+    * @param delegate The underlying naming context
+    * @param listener Listener to be notified before names are resolved
+    * @throws IllegalArgumentException If either argument is not specified
+    */
+   public EmbeddedNamingContext(final Context delegate, final LookupListener listener)
+         throws IllegalArgumentException
+   {
+      this(delegate, listener, null);
+   }
+
+   /**
+    * Creates a new instance delegating to the specified {@link Context}, 
+    * caching the results of lookups in the specified {@link LookupCache}
+    * 
+    * @param delegate The underlying naming context
+    * @param listener Listener to be notified before names are resolved
+    * @param cache Cache of lookup results; may be null if results are not to be cached
+    * @throws IllegalArgumentException If either the delegate or listener is not specified
+    */
+   public EmbeddedNamingContext(final Context delegate, final LookupListener listener, final LookupCache cache)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (delegate == null)
+      {
+         throw new IllegalArgumentException("delegate must be specified");
+      }
+      if (listener == null)
+      {
+         throw new IllegalArgumentException("listener must be specified");
+      }
+
+      // Set
+      this.delegate = delegate;
+      this.listener = listener;
+      this.cache = cache;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Evicts all cached lookup results in the <code>java:global</code> namespace of 
+    * the specified module; to be called when that module is undeployed.  Has no effect 
+    * if results are not cached.
+    * 
+    * @param moduleName
+    */
+   public void evictModule(final String moduleName)
+   {
+      if (cache != null)
+      {
+         cache.evictModule(moduleName);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Contracts --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Callback notified of every name about to be resolved through
+    * an {@link EmbeddedNamingContext}
+    */
+   public interface LookupListener
+   {
+      /**
+       * Invoked before the specified name is resolved
+       * @param name The name in its {@link String} form
+       * @throws NamingException If the target of the name could not be made available
+       */
+      void beforeLookup(String name) throws NamingException;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   @Override
+   public Object lookup(final Name name) throws NamingException
+   {
+      final String nameString = name.toString();
+      if (cache == null || !cache.isCacheable(nameString))
+      {
+         listener.beforeLookup(nameString);
+         return delegate.lookup(name);
+      }
+      final Object cached = cache.get(nameString);
+      if (cached != null)
+      {
+         return cached;
+      }
+      final long generation = cache.getGeneration();
+      listener.beforeLookup(nameString);
+      final Object result = delegate.lookup(name);
+      cache.put(nameString, result, generation);
+      return result;
+   }
+
+   @Override
+   public Object lookup(final String name) throws NamingException
+   {
+      if (cache == null || !cache.isCacheable(name))
+      {
+         listener.beforeLookup(name);
+         return delegate.lookup(name);
+      }
+      final Object cached = cache.get(name);
+      if (cached != null)
+      {
+         return cached;
+      }
+      final long generation = cache.getGeneration();
+      listener.beforeLookup(name);
+      final Object result = delegate.lookup(name);
+      cache.put(name, result, generation);
+      return result;
+   }
+
+   @Override
+   public Object lookupLink(final Name name) throws NamingException
+   {
+      listener.beforeLookup(name.toString());
+      return delegate.lookupLink(name);
+   }
+
+   @Override
+   public Object lookupLink(final String name) throws NamingException
+   {
+      listener.beforeLookup(name);
+      return delegate.lookupLink(name);
+   }
+
+   @Override
+   public void bind(final Name name, final Object obj) throws NamingException
+   {
+      delegate.bind(name, obj);
+   }
+
+   @Override
+   public void bind(final String name, final Object obj) throws NamingException
+   {
+      delegate.bind(name, obj);
+   }
+
+   @Override
+   public void rebind(final Name name, final Object obj) throws NamingException
+   {
+      this.evict(name.toString());
+      delegate.rebind(name, obj);
+   }
+
+   @Override
+   public void rebind(final String name, final Object obj) throws NamingException
+   {
+      this.evict(name);
+      delegate.rebind(name, obj);
+   }
+
+   @Override
+   public void unbind(final Name name) throws NamingException
+   {
+      this.evict(name.toString());
+      delegate.unbind(name);
+   }
+
+   @Override
+   public void unbind(final String name) throws NamingException
+   {
+      this.evict(name);
+      delegate.unbind(name);
+   }
+
+   @Override
+   public void rename(final Name oldName, final Name newName) throws NamingException
+   {
+      this.evict(oldName.toString());
+      delegate.rename(oldName, newName);
+   }
+
+   @Override
+   public void rename(final String oldName, final String newName) throws NamingException
+   {
+      this.evict(oldName);
+      delegate.rename(oldName, newName);
+   }
+
+   @Override
+   public NamingEnumeration<NameClassPair> list(final Name name) throws NamingException
+   {
+      listener.beforeLookup(name.toString());
+      return delegate.list(name);
+   }
+
+   @Override
+   public NamingEnumeration<NameClassPair> list(final String name) throws NamingException
+   {
+      listener.beforeLookup(name);
+      return delegate.list(name);
+   }
+
+   @Override
+   public NamingEnumeration<Binding> listBindings(final Name name) throws NamingException
+   {
+      listener.beforeLookup(name.toString());
+      return delegate.listBindings(name);
+   }
+
+   @Override
+   public NamingEnumeration<Binding> listBindings(final String name) throws NamingException
+   {
+      listener.beforeLookup(name);
+      return delegate.listBindings(name);
+   }
+
+   @Override
+   public void destroySubcontext(final Name name) throws NamingException
+   {
+      delegate.destroySubcontext(name);
+   }
+
+   @Override
+   public void destroySubcontext(final String name) throws NamingException
+   {
+      delegate.destroySubcontext(name);
+   }
+
+   @Override
+   public Context createSubcontext(final Name name) throws NamingException
+   {
+      return delegate.createSubcontext(name);
+   }
+
+   @Override
+   public Context createSubcontext(final String name) throws NamingException
+   {
+      return delegate.createSubcontext(name);
+   }
+
+   @Override
+   public NameParser getNameParser(final Name name) throws NamingException
+   {
+      return delegate.getNameParser(name);
+   }
+
+   @Override
+   public NameParser getNameParser(final String name) throws NamingException
+   {
+      return delegate.getNameParser(name);
+   }
+
+   @Override
+   public Name composeName(final Name name, final Name prefix) throws NamingException
+   {
+      return delegate.composeName(name, prefix);
+   }
+
+   @Override
+   public String composeName(final String name, final String prefix) throws NamingException
+   {
+      return delegate.composeName(name, prefix);
+   }
+
+   @Override
+   public Object addToEnvironment(final String propName, final Object propVal) throws NamingException
+   {
+      return delegate.addToEnvironment(propName, propVal);
+   }
+
+   @Override
+   public Object removeFromEnvironment(final String propName) throws NamingException
+   {
+      return delegate.removeFromEnvironment(propName);
+   }
+
+   @Override
+   public Hashtable<?, ?> getEnvironment() throws NamingException
+   {
+      return delegate.getEnvironment();
+   }
+
+   /**
+    * The underlying context is shared by all callers of the container
+    * and owned by it, so is left open
+    * @see javax.naming.Context#close()
+    */
+   @Override
+   public void close() throws NamingException
+   {
+      // NOOP
+   }
+
+   @Override
+   public String getNameInNamespace() throws NamingException
+   {
+      return delegate.getNameInNamespace();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Evicts any cached lookup result of the specified name, which is being rebound
+    */
+   private void evict(final String name)
+   {
+      if (cache != null && cache.isCacheable(name))
+      {
+         cache.evict(name);
+      }
+   }
+
+}
@@ -0,0 +1,532 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.naming;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.naming.Binding;
+import javax.naming.CompoundName;
+import javax.naming.Context;
+import javax.naming.ContextNotEmptyException;
+import javax.naming.InvalidNameException;
+import javax.naming.LinkRef;
+import javax.naming.Name;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameClassPair;
+import javax.naming.NameNotFoundException;
+import javax.naming.NameParser;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.NotContextException;
+import javax.naming.spi.NamingManager;
+
+/**
+ * In-VM naming {@link Context} for the embedded container.  The namespace is
+ * a tree of {@link ConcurrentHashMap}s, one per (sub)context, so reads take no
+ * locks and writes contend only within a single context.  Bound objects are 
+ * held by reference; nothing is serialized or marshalled on bind or lookup.  
+ * {@link javax.naming.Reference}s are resolved through {@link NamingManager} 
+ * and {@link LinkRef}s followed from the root upon lookup, as with other 
+ * providers.  Names are compound, left to right, separated by '/'.  Instances 
+ * are obtained from {@link InVMContextFactory}.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class InVMContext implements Context
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Separator of name components
+    */
+   private static final String SEPARATOR = "/";
+
+   /**
+    * Syntax of names in this namespace
+    */
+   private static final Properties SYNTAX = new Properties();
+   static
+   {
+      SYNTAX.put("jndi.syntax.direction", "left_to_right");
+      SYNTAX.put("jndi.syntax.separator", SEPARATOR);
+   }
+
+   /**
+    * Parser of names in this namespace
+    */
+   private static final NameParser PARSER = new NameParser()
+   {
+      @Override
+      public Name parse(final String name) throws NamingException
+      {
+         return new CompoundName(name, SYNTAX);
+      }
+   };
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Root of the namespace, against which links are resolved
+    */
+   private final Node root;
+
+   /**
+    * Bindings of this context
+    */
+   private final Node node;
+
+   /**
+    * Full name of this context in the namespace
+    */
+   private final Name nameInNamespace;
+
+   /**
+    * Environment of this context
+    */
+   private final Hashtable<Object, Object> environment;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new context over the root of the specified namespace
+    */
+   InVMContext(final Node root, final Hashtable<?, ?> environment) throws NamingException
+   {
+      this(root, root, PARSER.parse(""), environment);
+   }
+
+   /**
+    * Creates a new context over the specified node
+    */
+   private InVMContext(final Node root, final Node node, final Name nameInNamespace, final Hashtable<?, ?> environment)
+   {
+      this.root = root;
+      this.node = node;
+      this.nameInNamespace = nameInNamespace;
+      this.environment = environment == null ? new Hashtable<Object, Object>() : new Hashtable<Object, Object>(
+            environment);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   @Override
+   public Object lookup(final Name name) throws NamingException
+   {
+      final Object bound = this.lookupLink(name);
+      if (bound instanceof LinkRef)
+      {
+         final String link = ((LinkRef) bound).getLinkName();
+         return new InVMContext(root, environment).lookup(link);
+      }
+      if (bound instanceof Context)
+      {
+         return bound;
+      }
+      try
+      {
+         return NamingManager.getObjectInstance(bound, name, this, environment);
+      }
+      catch (final NamingException ne)
+      {
+         throw ne;
+      }
+      catch (final Exception e)
+      {
+         final NamingException ne = new NamingException("Could not obtain instance bound at " + name);
+         ne.setRootCause(e);
+         throw ne;
+      }
+   }
+
+   @Override
+   public Object lookup(final String name) throws NamingException
+   {
+      return this.lookup(PARSER.parse(name));
+   }
+
+   @Override
+   public Object lookupLink(final Name name) throws NamingException
+   {
+      if (name.isEmpty())
+      {
+         return new InVMContext(root, node, nameInNamespace, environment);
+      }
+      final Node parent = this.getParent(name);
+      final Object bound = parent.bindings.get(getLast(name));
+      if (bound == null)
+      {
+         throw new NameNotFoundException(name + " not bound");
+      }
+      if (bound instanceof Node)
+      {
+         return new InVMContext(root, (Node) bound, ((Name) nameInNamespace.clone()).addAll(name), environment);
+      }
+      return bound;
+   }
+
+   @Override
+   public Object lookupLink(final String name) throws NamingException
+   {
+      return this.lookupLink(PARSER.parse(name));
+   }
+
+   @Override
+   public void bind(final Name name, final Object obj) throws NamingException
+   {
+      if (this.getParent(name).bindings.putIfAbsent(getLast(name), obj) != null)
+      {
+         throw new NameAlreadyBoundException(name + " already bound");
+      }
+   }
+
+   @Override
+   public void bind(final String name, final Object obj) throws NamingException
+   {
+      this.bind(PARSER.parse(name), obj);
+   }
+
+   @Override
+   public void rebind(final Name name, final Object obj) throws NamingException
+   {
+      this.getParent(name).bindings.put(getLast(name), obj);
+   }
+
+   @Override
+   public void rebind(final String name, final Object obj) throws NamingException
+   {
+      this.rebind(PARSER.parse(name), obj);
+   }
+
+   @Override
+   public void unbind(final Name name) throws NamingException
+   {
+      this.getParent(name).bindings.remove(getLast(name));
+   }
+
+   @Override
+   public void unbind(final String name) throws NamingException
+   {
+      this.unbind(PARSER.parse(name));
+   }
+
+   @Override
+   public void rename(final Name oldName, final Name newName) throws NamingException
+   {
+      final Node oldParent = this.getParent(oldName);
+      final String oldKey = getLast(oldName);
+      final Object bound = oldParent.bindings.get(oldKey);
+      if (bound == null)
+      {
+         throw new NameNotFoundException(oldName + " not bound");
+      }
+      if (this.getParent(newName).bindings.putIfAbsent(getLast(newName), bound) != null)
+      {
+         throw new NameAlreadyBoundException(newName + " already bound");
+      }
+      oldParent.bindings.remove(oldKey, bound);
+   }
+
+   @Override
+   public void rename(final String oldName, final String newName) throws NamingException
+   {
+      this.rename(PARSER.parse(oldName), PARSER.parse(newName));
+   }
+
+   @Override
+   public NamingEnumeration<NameClassPair> list(final Name name) throws NamingException
+   {
+      final List<NameClassPair> pairs = new ArrayList<NameClassPair>();
+      for (final Map.Entry<String, Object> entry : this.getContextNode(name).bindings.entrySet())
+      {
+         final Object bound = entry.getValue();
+         final String className = bound instanceof Node ? InVMContext.class.getName() : bound.getClass().getName();
+         pairs.add(new NameClassPair(entry.getKey(), className));
+      }
+      return new IteratorNamingEnumeration<NameClassPair>(pairs.iterator());
+   }
+
+   @Override
+   public NamingEnumeration<NameClassPair> list(final String name) throws NamingException
+   {
+      return this.list(PARSER.parse(name));
+   }
+
+   @Override
+   public NamingEnumeration<Binding> listBindings(final Name name) throws NamingException
+   {
+      final Node target = this.getContextNode(name);
+      final Context context = new InVMContext(root, target, ((Name) nameInNamespace.clone()).addAll(name),
+            environment);
+      final List<Binding> bindings = new ArrayList<Binding>();
+      for (final String key : target.bindings.keySet())
+      {
+         try
+         {
+            bindings.add(new Binding(key, context.lookup(key)));
+         }
+         catch (final NameNotFoundException nnfe)
+         {
+            // Unbound concurrently
+         }
+      }
+      return new IteratorNamingEnumeration<Binding>(bindings.iterator());
+   }
+
+   @Override
+   public NamingEnumeration<Binding> listBindings(final String name) throws NamingException
+   {
+      return this.listBindings(PARSER.parse(name));
+   }
+
+   @Override
+   public void destroySubcontext(final Name name) throws NamingException
+   {
+      final Node parent = this.getParent(name);
+      final String key = getLast(name);
+      final Object bound = parent.bindings.get(key);
+      if (bound == null)
+      {
+         return;
+      }
+      if (!(bound instanceof Node))
+      {
+         throw new NotContextException(name + " is not a context");
+      }
+      if (!((Node) bound).bindings.isEmpty())
+      {
+         throw new ContextNotEmptyException(name + " is not empty");
+      }
+      parent.bindings.remove(key, bound);
+   }
+
+   @Override
+   public void destroySubcontext(final String name) throws NamingException
+   {
+      this.destroySubcontext(PARSER.parse(name));
+   }
+
+   @Override
+   public Context createSubcontext(final Name name) throws NamingException
+   {
+      final Node created = new Node();
+      if (this.getParent(name).bindings.putIfAbsent(getLast(name), created) != null)
+      {
+         throw new NameAlreadyBoundException(name + " already bound");
+      }
+      return new InVMContext(root, created, ((Name) nameInNamespace.clone()).addAll(name), environment);
+   }
+
+   @Override
+   public Context createSubcontext(final String name) throws NamingException
+   {
+      return this.createSubcontext(PARSER.parse(name));
+   }
+
+   @Override
+   public NameParser getNameParser(final Name name) throws NamingException
+   {
+      return PARSER;
+   }
+
+   @Override
+   public NameParser getNameParser(final String name) throws NamingException
+   {
+      return PARSER;
+   }
+
+   @Override
+   public Name composeName(final Name name, final Name prefix) throws NamingException
+   {
+      return ((Name) prefix.clone()).addAll(name);
+   }
+
+   @Override
+   public String composeName(final String name, final String prefix) throws NamingException
+   {
+      return this.composeName(PARSER.parse(name), PARSER.parse(prefix)).toString();
+   }
+
+   @Override
+   public Object addToEnvironment(final String propName, final Object propVal) throws NamingException
+   {
+      return environment.put(propName, propVal);
+   }
+
+   @Override
+   public Object removeFromEnvironment(final String propName) throws NamingException
+   {
+      return environment.remove(propName);
+   }
+
+   @Override
+   public Hashtable<?, ?> getEnvironment() throws NamingException
+   {
+      return new Hashtable<Object, Object>(environment);
+   }
+
+   /**
+    * Nothing to release; bindings live as long as the namespace
+    * @see javax.naming.Context#close()
+    */
+   @Override
+   public void close() throws NamingException
+   {
+      // NOOP
+   }
+
+   @Override
+   public String getNameInNamespace() throws NamingException
+   {
+      return nameInNamespace.toString();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the node of the context in which the last component of the specified
+    * (non-empty) name is bound
+    */
+   private Node getParent(final Name name) throws NamingException
+   {
+      if (name.isEmpty())
+      {
+         throw new InvalidNameException("Name must not be empty");
+      }
+      return this.getContextNode(name.getPrefix(name.size() - 1));
+   }
+
+   /**
+    * Obtains the node of the context bound at the specified name
+    */
+   private Node getContextNode(final Name name) throws NamingException
+   {
+      Node current = node;
+      for (int i = 0; i < name.size(); i++)
+      {
+         final Object bound = current.bindings.get(name.get(i));
+         if (bound == null)
+         {
+            throw new NameNotFoundException(name.getPrefix(i + 1) + " not bound");
+         }
+         if (!(bound instanceof Node))
+         {
+            throw new NotContextException(name.getPrefix(i + 1) + " is not a context");
+         }
+         current = (Node) bound;
+      }
+      return current;
+   }
+
+   /**
+    * Obtains the last component of the specified name
+    */
+   private static String getLast(final Name name) throws InvalidNameException
+   {
+      if (name.isEmpty())
+      {
+         throw new InvalidNameException("Name must not be empty");
+      }
+      return name.get(name.size() - 1);
+   }
+
+   /**
+    * The bindings of a single context
+    */
+   static final class Node
+   {
+      /**
+       * Bound objects (or subcontext nodes) keyed by atomic name
+       */
+      private final ConcurrentMap<String, Object> bindings = new ConcurrentHashMap<String, Object>();
+   }
+
+   /**
+    * {@link NamingEnumeration} over a snapshot
+    */
+   private static final class IteratorNamingEnumeration<T> implements NamingEnumeration<T>
+   {
+      /**
+       * Iterator over the snapshot
+       */
+      private final Iterator<T> iterator;
+
+      IteratorNamingEnumeration(final Iterator<T> iterator)
+      {
+         this.iterator = iterator;
+      }
+
+      @Override
+      public T next() throws NamingException
+      {
+         return this.nextElement();
+      }
+
+      @Override
+      public boolean hasMore() throws NamingException
+      {
+         return iterator.hasNext();
+      }
+
+      @Override
+      public void close() throws NamingException
+      {
+         // NOOP
+      }
+
+      @Override
+      public boolean hasMoreElements()
+      {
+         return iterator.hasNext();
+      }
+
+      @Override
+      public T nextElement()
+      {
+         if (!iterator.hasNext())
+         {
+            throw new NoSuchElementException();
+         }
+         return iterator.next();
+      }
+   }
+}
@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.naming;
+
+import java.util.Hashtable;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.spi.InitialContextFactory;
+import javax.naming.spi.InitialContextFactoryBuilder;
+import javax.naming.spi.NamingManager;
+
+import org.jboss.logging.Logger;
+
+/**
+ * {@link InitialContextFactory} of {@link InVMContext}s over a single namespace
+ * shared by the VM (or, more precisely, by the {@link ClassLoader} of this class).
+ * May be selected per {@link javax.naming.InitialContext} through 
+ * {@link Context#INITIAL_CONTEXT_FACTORY}, or installed for the whole VM 
+ * through {@link InVMContextFactory#install()} such that all initial contexts, including 
+ * those of <code>java:</code> URLs, resolve against the in-VM namespace.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class InVMContextFactory implements InitialContextFactory
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(InVMContextFactory.class);
+
+   /**
+    * Root of the namespace
+    */
+   private static final InVMContext.Node ROOT = new InVMContext.Node();
+
+   /**
+    * Whether we have installed ourselves for the whole VM
+    */
+   private static boolean installed;
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see javax.naming.spi.InitialContextFactory#getInitialContext(java.util.Hashtable)
+    */
+   @Override
+   public Context getInitialContext(final Hashtable<?, ?> environment) throws NamingException
+   {
+      return new InVMContext(ROOT, environment);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Installs the in-VM namespace as that of all initial contexts created in this VM, 
+    * regardless of their environment.  As the {@link InitialContextFactoryBuilder} of
+    * {@link NamingManager} may only be set once, this cannot be undone.  Has no effect 
+    * if already installed.
+    * 
+    * @throws IllegalStateException If another {@link InitialContextFactoryBuilder} has been installed
+    * @throws NamingException If installation was denied
+    */
+   public static synchronized void install() throws IllegalStateException, NamingException
+   {
+      if (installed)
+      {
+         return;
+      }
+      if (NamingManager.hasInitialContextFactoryBuilder())
+      {
+         throw new IllegalStateException("Another " + InitialContextFactoryBuilder.class.getSimpleName()
+               + " has already been installed for this VM");
+      }
+      try
+      {
+         NamingManager.setInitialContextFactoryBuilder(new InitialContextFactoryBuilder()
+         {
+            @Override
+            public InitialContextFactory createInitialContextFactory(final Hashtable<?, ?> environment)
+                  throws NamingException
+            {
+               return new InVMContextFactory();
+            }
+         });
+      }
+      catch (final SecurityException se)
+      {
+         final NamingException ne = new NamingException("Not permitted to install in-VM naming");
+         ne.setRootCause(se);
+         throw ne;
+      }
+      installed = true;
+      log.info("Installed in-VM naming for all initial contexts");
+   }
+
+}
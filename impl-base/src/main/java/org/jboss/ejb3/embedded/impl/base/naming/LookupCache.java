@@ -0,0 +1,172 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.naming;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.ejb3.embedded.impl.base.deployment.EjbModules;
+
+/**
+ * Thread-safe cache of the results of looking up names in the portable
+ * <code>java:global</code> namespace (EJB 3.1 4.4.1.1), typically business
+ * proxies.  Entries are evicted by module when that module is undeployed; a
+ * lookup in flight across an eviction does not populate the cache, so a result
+ * from an undeployed module is never served.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public final class LookupCache
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Cached results keyed by JNDI name
+    */
+   private final ConcurrentMap<String, Object> results;
+
+   /**
+    * Incremented upon every eviction, such that results of lookups started 
+    * before may be discarded
+    */
+   private final AtomicLong generation;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new, empty cache
+    */
+   public LookupCache()
+   {
+      this.results = new ConcurrentHashMap<String, Object>();
+      this.generation = new AtomicLong();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Whether the result of looking up the specified name may be cached
+    * 
+    * @param name
+    */
+   public boolean isCacheable(final String name)
+   {
+      return EjbModules.getModuleNameCandidates(name).length > 0;
+   }
+
+   /**
+    * Obtains the cached result of looking up the specified name, or null if none
+    * 
+    * @param name
+    */
+   public Object get(final String name)
+   {
+      return name == null ? null : results.get(name);
+   }
+
+   /**
+    * Obtains the current generation, to be taken before a lookup and supplied 
+    * to {@link LookupCache#put(String, Object, long)} with its result
+    */
+   public long getGeneration()
+   {
+      return generation.get();
+   }
+
+   /**
+    * Caches the result of looking up the specified name, unless it is not cacheable
+    * or an eviction has occurred since the specified generation was taken
+    * 
+    * @param name
+    * @param result
+    * @param generation Generation taken before the lookup
+    */
+   public void put(final String name, final Object result, final long generation)
+   {
+      if (result == null || !this.isCacheable(name) || this.generation.get() != generation)
+      {
+         return;
+      }
+      results.put(name, result);
+
+      // Evicted while we were putting
+      if (this.generation.get() != generation)
+      {
+         results.remove(name, result);
+      }
+   }
+
+   /**
+    * Evicts the cached result of the specified name, if any
+    * 
+    * @param name
+    */
+   public void evict(final String name)
+   {
+      generation.incrementAndGet();
+      if (name != null)
+      {
+         results.remove(name);
+      }
+   }
+
+   /**
+    * Evicts all cached results in the <code>java:global</code> namespace of
+    * the specified module
+    * 
+    * @param moduleName
+    */
+   public void evictModule(final String moduleName)
+   {
+      generation.incrementAndGet();
+      final Iterator<String> names = results.keySet().iterator();
+      while (names.hasNext())
+      {
+         if (Arrays.asList(EjbModules.getModuleNameCandidates(names.next())).contains(moduleName))
+         {
+            names.remove();
+         }
+      }
+   }
+
+   /**
+    * Evicts all cached results
+    */
+   public void clear()
+   {
+      generation.incrementAndGet();
+      results.clear();
+   }
+
+}
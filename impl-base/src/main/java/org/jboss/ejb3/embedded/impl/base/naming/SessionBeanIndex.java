@@ -0,0 +1,338 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.naming;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.naming.Context;
+import javax.naming.NameClassPair;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.NotContextException;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Index of the session bean views bound in the portable <code>java:global</code>
+ * namespace (EJB 3.1 4.4.1.1), from which the JNDI name of a view may be obtained by
+ * business interface (or bean class, for no-interface views) and bean name without
+ * consulting the naming system.  The index is built by listing the namespace of each 
+ * module as it is deployed, from the fully-qualified 
+ * <code>java:global[/app-name]/module-name/bean-name!interface</code> bindings
+ * required of every view.  Reads take no locks.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public final class SessionBeanIndex
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(SessionBeanIndex.class);
+
+   /**
+    * Root of the portable global namespace
+    */
+   private static final String JNDI_GLOBAL = "java:global";
+
+   /**
+    * Separator of the bean name and interface in a fully-qualified view name
+    */
+   private static final char SEPARATOR_VIEW = '!';
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * JNDI names of views keyed by interface name; values are never modified, only replaced
+    */
+   private final Map<String, Set<View>> viewsByInterface;
+
+   /**
+    * JNDI names of views keyed by the top-level name (module or application) under 
+    * <code>java:global</code> in which they are bound; guarded by this
+    */
+   private final Map<String, Set<View>> viewsByModule;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new, empty index
+    */
+   public SessionBeanIndex()
+   {
+      this.viewsByInterface = new ConcurrentHashMap<String, Set<View>>();
+      this.viewsByModule = new HashMap<String, Set<View>>();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the JNDI names of the indexed views of the specified interface, optionally 
+    * restricted to those of the named bean.  Returns an empty {@link Set} if there are none.
+    * 
+    * @param interfaceName Fully-qualified name of the business interface or (no-interface view) bean class
+    * @param beanName Name of the bean, or null for views of any bean
+    */
+   public Set<String> getJndiNames(final String interfaceName, final String beanName)
+   {
+      final Set<View> views = viewsByInterface.get(interfaceName);
+      if (views == null)
+      {
+         return Collections.emptySet();
+      }
+      final Set<String> names = new HashSet<String>();
+      for (final View view : views)
+      {
+         if (beanName == null || beanName.equals(view.beanName))
+         {
+            names.add(view.jndiName);
+         }
+      }
+      return names;
+   }
+
+   /**
+    * Obtains the JNDI names of the indexed views bound under <code>java:global/</code> the 
+    * specified module or application name.  Returns an empty {@link Set} if there are none.
+    * 
+    * @param moduleName
+    */
+   public synchronized Set<String> getJndiNames(final String moduleName)
+   {
+      final Set<View> views = viewsByModule.get(moduleName);
+      if (views == null)
+      {
+         return Collections.emptySet();
+      }
+      final Set<String> names = new HashSet<String>();
+      for (final View view : views)
+      {
+         names.add(view.jndiName);
+      }
+      return names;
+   }
+
+   /**
+    * Indexes the views bound under <code>java:global/</code> the specified module or 
+    * application name, replacing any previously indexed there
+    * 
+    * @param context Naming context through which to list the namespace
+    * @param moduleName
+    */
+   public synchronized void index(final Context context, final String moduleName)
+   {
+      this.remove(moduleName);
+      final Set<View> views = new HashSet<View>();
+      try
+      {
+         collect(context, JNDI_GLOBAL + "/" + moduleName, true, views);
+      }
+      catch (final NameNotFoundException nnfe)
+      {
+         // No beans
+      }
+      catch (final NamingException ne)
+      {
+         log.debug("Could not index views of " + moduleName + ": " + ne);
+      }
+      if (views.isEmpty())
+      {
+         return;
+      }
+      viewsByModule.put(moduleName, views);
+      for (final View view : views)
+      {
+         final Set<View> existing = viewsByInterface.get(view.interfaceName);
+         final Set<View> updated = existing == null ? new HashSet<View>() : new HashSet<View>(existing);
+         updated.add(view);
+         viewsByInterface.put(view.interfaceName, Collections.unmodifiableSet(updated));
+      }
+      if (log.isDebugEnabled())
+      {
+         log.debug("Indexed " + views.size() + " views of " + moduleName);
+      }
+   }
+
+   /**
+    * Removes from the index all views bound under <code>java:global/</code> the 
+    * specified module or application name
+    * 
+    * @param moduleName
+    */
+   public synchronized void remove(final String moduleName)
+   {
+      final Set<View> views = viewsByModule.remove(moduleName);
+      if (views == null)
+      {
+         return;
+      }
+      for (final View view : views)
+      {
+         final Set<View> existing = viewsByInterface.get(view.interfaceName);
+         if (existing == null)
+         {
+            continue;
+         }
+         final Set<View> updated = new HashSet<View>(existing);
+         updated.remove(view);
+         if (updated.isEmpty())
+         {
+            viewsByInterface.remove(view.interfaceName);
+         }
+         else
+         {
+            viewsByInterface.put(view.interfaceName, Collections.unmodifiableSet(updated));
+         }
+      }
+   }
+
+   /**
+    * Rebuilds the index from everything currently bound under <code>java:global</code>,
+    * picking up modules deployed or undeployed other than through the container
+    * 
+    * @param context Naming context through which to list the namespace
+    */
+   public synchronized void reindex(final Context context)
+   {
+      final Set<String> moduleNames = new HashSet<String>();
+      try
+      {
+         final NamingEnumeration<NameClassPair> pairs = context.list(JNDI_GLOBAL);
+         while (pairs.hasMore())
+         {
+            moduleNames.add(pairs.next().getName());
+         }
+      }
+      catch (final NamingException ne)
+      {
+         log.debug("Could not list " + JNDI_GLOBAL + ": " + ne);
+      }
+      for (final String moduleName : new HashSet<String>(viewsByModule.keySet()))
+      {
+         if (!moduleNames.contains(moduleName))
+         {
+            this.remove(moduleName);
+         }
+      }
+      for (final String moduleName : moduleNames)
+      {
+         this.index(context, moduleName);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Collects the views bound in the specified context, descending once more 
+    * if permitted (from an application into its modules)
+    */
+   private static void collect(final Context context, final String name, final boolean descend,
+         final Set<View> views) throws NamingException
+   {
+      final NamingEnumeration<NameClassPair> pairs = context.list(name);
+      while (pairs.hasMore())
+      {
+         final String child = pairs.next().getName();
+         final int separator = child.indexOf(SEPARATOR_VIEW);
+         if (separator > 0)
+         {
+            views.add(new View(name + "/" + child, child.substring(0, separator), child.substring(separator + 1)));
+         }
+         else if (descend)
+         {
+            try
+            {
+               collect(context, name + "/" + child, false, views);
+            }
+            catch (final NotContextException nce)
+            {
+               // A bean's short name; its fully-qualified names are indexed
+            }
+            catch (final NamingException ne)
+            {
+               log.debug("Could not index views under " + name + "/" + child + ": " + ne);
+            }
+         }
+      }
+   }
+
+   /**
+    * A single view of a session bean
+    */
+   private static final class View
+   {
+      /**
+       * Fully-qualified JNDI name
+       */
+      private final String jndiName;
+
+      /**
+       * Name of the bean
+       */
+      private final String beanName;
+
+      /**
+       * Name of the business interface or bean class
+       */
+      private final String interfaceName;
+
+      View(final String jndiName, final String beanName, final String interfaceName)
+      {
+         this.jndiName = jndiName;
+         this.beanName = beanName;
+         this.interfaceName = interfaceName;
+      }
+
+      @Override
+      public boolean equals(final Object obj)
+      {
+         return obj instanceof View && jndiName.equals(((View) obj).jndiName);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return jndiName.hashCode();
+      }
+   }
+}
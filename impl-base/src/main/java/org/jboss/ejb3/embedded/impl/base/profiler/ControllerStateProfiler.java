@@ -0,0 +1,499 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.profiler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.dependency.spi.Controller;
+import org.jboss.dependency.spi.ControllerContext;
+import org.jboss.dependency.spi.ControllerState;
+import org.jboss.dependency.spi.DependencyInfo;
+import org.jboss.dependency.spi.DependencyItem;
+import org.jboss.logging.Logger;
+
+/**
+ * Records, by periodically sampling the contexts of an MC {@link Controller} 
+ * which have not yet reached their required state, how long each context spends
+ * in each state and upon which dependencies it waited.  From this a report is 
+ * produced naming the slowest contexts and the critical path: the chain of 
+ * dependencies, ending at the last context to be installed, along which
+ * waits accumulated.  Contexts installed between samples are not observed, 
+ * so the resolution is that of the sampling interval.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public final class ControllerStateProfiler
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(ControllerStateProfiler.class);
+
+   /**
+    * Number of slowest contexts included in the report
+    */
+   private static final int REPORT_SLOWEST = 10;
+
+   /**
+    * Maximum time to wait for the sampling thread upon stop, in milliseconds
+    */
+   private static final long STOP_TIMEOUT = 5000;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Controller being sampled
+    */
+   private final Controller controller;
+
+   /**
+    * Interval between samples, in milliseconds
+    */
+   private final long interval;
+
+   /**
+    * All contexts observed, keyed by name, in order of first observation; 
+    * guarded by this
+    */
+   private final Map<String, ContextRecord> records;
+
+   /**
+    * Time at which profiling started
+    */
+   private long started;
+
+   /**
+    * Time at which profiling stopped, or 0 if still running
+    */
+   private long stopped;
+
+   /**
+    * Sampling thread, or null if not running
+    */
+   private ScheduledExecutorService sampler;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new profiler for the specified {@link Controller}
+    * 
+    * @param controller
+    * @param interval Interval between samples, in milliseconds
+    * @throws IllegalArgumentException If the controller is not specified or the 
+    * interval is not positive
+    */
+   public ControllerStateProfiler(final Controller controller, final long interval) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (controller == null)
+      {
+         throw new IllegalArgumentException("controller must be specified");
+      }
+      if (interval <= 0)
+      {
+         throw new IllegalArgumentException("interval must be positive: " + interval);
+      }
+
+      // Set
+      this.controller = controller;
+      this.interval = interval;
+      this.records = new LinkedHashMap<String, ContextRecord>();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Starts sampling the {@link Controller} in a background {@link Thread}
+    * 
+    * @throws IllegalStateException If already started
+    */
+   public synchronized void start() throws IllegalStateException
+   {
+      if (sampler != null)
+      {
+         throw new IllegalStateException("Already started");
+      }
+      started = System.currentTimeMillis();
+      stopped = 0;
+      sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+      {
+         @Override
+         public Thread newThread(final Runnable r)
+         {
+            final Thread thread = new Thread(r, "EJBContainer Controller State Profiler");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      sampler.scheduleWithFixedDelay(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            try
+            {
+               sample();
+            }
+            catch (final RuntimeException re)
+            {
+               // Don't let one bad sample stop profiling
+               log.debug("Could not sample controller: " + re);
+            }
+         }
+      }, 0, interval, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Stops sampling, taking a final sample such that contexts installed since the
+    * last are accounted for.  Has no effect if not started.
+    */
+   public void stop()
+   {
+      final ScheduledExecutorService sampler;
+      synchronized (this)
+      {
+         sampler = this.sampler;
+         this.sampler = null;
+      }
+      if (sampler == null)
+      {
+         return;
+      }
+      sampler.shutdownNow();
+      try
+      {
+         sampler.awaitTermination(STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+      }
+      catch (final InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+      }
+      this.sample();
+      synchronized (this)
+      {
+         stopped = System.currentTimeMillis();
+      }
+   }
+
+   /**
+    * Obtains a human-readable report of the contexts observed: the slowest, the
+    * critical path, and those still not installed
+    */
+   public synchronized String report()
+   {
+      final long end = stopped == 0 ? System.currentTimeMillis() : stopped;
+      final StringBuilder report = new StringBuilder();
+      report.append("Controller state profile over ").append(end - started).append("ms, sampled every ").append(
+            interval).append("ms; ").append(records.size()).append(" contexts observed waiting");
+
+      // Slowest
+      final List<ContextRecord> slowest = new ArrayList<ContextRecord>(records.values());
+      Collections.sort(slowest, new Comparator<ContextRecord>()
+      {
+         @Override
+         public int compare(final ContextRecord o1, final ContextRecord o2)
+         {
+            final long d1 = o1.getDuration(end);
+            final long d2 = o2.getDuration(end);
+            return d1 < d2 ? 1 : (d1 == d2 ? 0 : -1);
+         }
+      });
+      report.append("\nSlowest contexts:");
+      for (final ContextRecord record : slowest.subList(0, Math.min(REPORT_SLOWEST, slowest.size())))
+      {
+         report.append("\n  ").append(record.name).append(": ").append(record.getDuration(end)).append("ms in ")
+               .append(record.timeInState).append(", waited on ").append(record.waitedOn);
+      }
+
+      // Critical path
+      final List<ContextRecord> criticalPath = this.getCriticalPath();
+      if (!criticalPath.isEmpty())
+      {
+         report.append("\nCritical path (").append(criticalPath.get(0).getDuration(end)).append("ms):");
+         for (final ContextRecord record : criticalPath)
+         {
+            report.append("\n  ").append(record.name).append(" (").append(record.getDuration(end)).append("ms");
+            final String dependency = record.getLongestWait();
+            if (dependency != null)
+            {
+               report.append(", waited ").append(record.waitedOn.get(dependency)).append("ms on ").append(dependency);
+            }
+            report.append(")");
+         }
+      }
+
+      // Never installed
+      for (final ContextRecord record : records.values())
+      {
+         if (record.installed == 0)
+         {
+            report.append("\nNot installed: ").append(record.name).append(" in state ").append(record.state).append(
+                  ", waiting on ").append(record.waitingOn);
+         }
+      }
+      return report.toString();
+   }
+
+   /**
+    * Obtains the time the named context was observed in each state, in milliseconds,
+    * or null if it was never observed waiting
+    */
+   synchronized Map<String, Long> getTimeInState(final String contextName)
+   {
+      final ContextRecord record = records.get(contextName);
+      return record == null ? null : new LinkedHashMap<String, Long>(record.timeInState);
+   }
+
+   /**
+    * Obtains the time the named context was observed waiting on each dependency, in 
+    * milliseconds, or null if it was never observed waiting
+    */
+   synchronized Map<String, Long> getWaitedOn(final String contextName)
+   {
+      final ContextRecord record = records.get(contextName);
+      return record == null ? null : new LinkedHashMap<String, Long>(record.waitedOn);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Records the current state and unresolved dependencies of every context not yet installed
+    */
+   private void sample()
+   {
+      // Outside our lock; the controller may be busy
+      final Set<ControllerContext> notInstalled = controller.getNotInstalled();
+      final long now = System.currentTimeMillis();
+
+      synchronized (this)
+      {
+         final Set<String> seen = new HashSet<String>();
+         for (final ControllerContext context : notInstalled)
+         {
+            final String name = String.valueOf(context.getName());
+            seen.add(name);
+            ContextRecord record = records.get(name);
+            if (record == null)
+            {
+               record = new ContextRecord(name, now);
+               records.put(name, record);
+            }
+            record.installed = 0;
+
+            // State
+            final ControllerState state = context.getState();
+            record.enter(state == null ? null : state.getStateString(), now);
+
+            // Unresolved dependencies; each is charged the time since the last sample
+            final Set<String> waitingOn = new HashSet<String>();
+            final DependencyInfo dependencyInfo = context.getDependencyInfo();
+            if (dependencyInfo != null)
+            {
+               for (final DependencyItem item : dependencyInfo.getUnresolvedDependencies(null))
+               {
+                  final String dependency = String.valueOf(item.getIDependOn());
+                  waitingOn.add(dependency);
+                  final Long waited = record.waitedOn.get(dependency);
+                  record.waitedOn.put(dependency, (waited == null ? 0L : waited) + (now - record.lastSeen));
+               }
+            }
+            record.waitingOn = waitingOn;
+            record.lastSeen = now;
+         }
+
+         // Those no longer waiting have been installed (or removed)
+         for (final ContextRecord record : records.values())
+         {
+            if (record.installed == 0 && !seen.contains(record.name))
+            {
+               record.enter(null, now);
+               record.installed = now;
+               record.waitingOn = Collections.emptySet();
+            }
+         }
+      }
+   }
+
+   /**
+    * Obtains the critical path, starting at the context installed last (or, if any are 
+    * still waiting, that which has waited longest) and following the dependency upon 
+    * which each waited longest.  Must be called holding the lock.
+    */
+   private List<ContextRecord> getCriticalPath()
+   {
+      ContextRecord last = null;
+      for (final ContextRecord record : records.values())
+      {
+         if (last == null || rank(record) > rank(last))
+         {
+            last = record;
+         }
+      }
+      final List<ContextRecord> path = new ArrayList<ContextRecord>();
+      final Set<String> visited = new HashSet<String>();
+      ContextRecord record = last;
+      while (record != null && visited.add(record.name))
+      {
+         path.add(record);
+         final String dependency = record.getLongestWait();
+         record = dependency == null ? null : records.get(dependency);
+      }
+      return path;
+   }
+
+   /**
+    * Ranks the specified record as the end of the critical path; contexts never
+    * installed rank above all those installed
+    */
+   private static long rank(final ContextRecord record)
+   {
+      return record.installed == 0 ? Long.MAX_VALUE - record.firstSeen : record.installed;
+   }
+
+   /**
+    * What has been observed of a single context
+    */
+   private static final class ContextRecord
+   {
+      /**
+       * Name of the context
+       */
+      private final String name;
+
+      /**
+       * Time at which first observed waiting
+       */
+      private final long firstSeen;
+
+      /**
+       * Time at which last observed waiting
+       */
+      private long lastSeen;
+
+      /**
+       * Time at which observed installed, or 0 if still waiting
+       */
+      private long installed;
+
+      /**
+       * Current state, or null once installed
+       */
+      private String state;
+
+      /**
+       * Time at which the current state was entered
+       */
+      private long stateEntered;
+
+      /**
+       * Time spent in each state, in milliseconds
+       */
+      private final Map<String, Long> timeInState = new LinkedHashMap<String, Long>();
+
+      /**
+       * Time spent waiting on each dependency, in milliseconds
+       */
+      private final Map<String, Long> waitedOn = new LinkedHashMap<String, Long>();
+
+      /**
+       * Dependencies unresolved at the last sample
+       */
+      private Set<String> waitingOn = Collections.emptySet();
+
+      ContextRecord(final String name, final long firstSeen)
+      {
+         this.name = name;
+         this.firstSeen = firstSeen;
+         this.lastSeen = firstSeen;
+         this.stateEntered = firstSeen;
+      }
+
+      /**
+       * Moves to the specified state (null if installed), charging the time 
+       * spent in the current one
+       */
+      void enter(final String newState, final long now)
+      {
+         if (state != null && state.equals(newState))
+         {
+            return;
+         }
+         if (state != null)
+         {
+            final Long spent = timeInState.get(state);
+            timeInState.put(state, (spent == null ? 0L : spent) + (now - stateEntered));
+         }
+         state = newState;
+         stateEntered = now;
+      }
+
+      /**
+       * Time from first observation to installation (or the specified end if still waiting)
+       */
+      long getDuration(final long end)
+      {
+         return (installed == 0 ? end : installed) - firstSeen;
+      }
+
+      /**
+       * The dependency upon which this context waited longest, or null if none
+       */
+      String getLongestWait()
+      {
+         String longest = null;
+         for (final Map.Entry<String, Long> entry : waitedOn.entrySet())
+         {
+            if (longest == null || entry.getValue() > waitedOn.get(longest))
+            {
+               longest = entry.getKey();
+            }
+         }
+         return longest;
+      }
+   }
+}
@@ -42,6 +42,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 
 import static org.jboss.ejb3.embedded.impl.base.scanner.SecurityActions.getSystemProperty;
 
@@ -114,15 +115,6 @@ public class ClassPathEjbJarScanner
    private static final Class<? extends Annotation>[] EJB_COMPONENT_ANNOTATIONS = (Class<? extends Annotation>[]) new Class<?>[]
    {Stateless.class, Stateful.class, Singleton.class, MessageDriven.class};
 
-   /**
-    * {@link ScheduledExecutorService} to mount files to be scanned
-    */
-   @Deprecated
-   //TODO Get some reusable, configurable real SES (as managed by the container) else we'll block on JVM shutdown; 
-   // this one is never shut down cleanly
-   private static final ScheduledExecutorService ses = Executors.newScheduledThreadPool(Runtime.getRuntime()
-         .availableProcessors());
-
    /**
     * Configured exclusion filters
     * TODO Shouldn't be hardcoded, but available via user configuration
@@ -171,16 +163,26 @@ public class ClassPathEjbJarScanner
       // Split by the path separator character
       final String[] classPathEntries = classPath.split(File.pathSeparator);
 
-      // For each CP entry
-      for (final String classPathEntry : classPathEntries)
+      // Mount with threads of this scan alone, such that concurrent scans don't share them
+      final ScheduledExecutorService executor = createExecutor();
+      try
       {
-         // If this is an EJB JAR
-         if (isEjbJar(classPathEntry))
+         // For each CP entry
+         for (final String classPathEntry : classPathEntries)
          {
-            // Add to be returned
-            returnValue.add(classPathEntry);
+            // If this is an EJB JAR
+            if (isEjbJar(classPathEntry, executor))
+            {
+               // Add to be returned
+               returnValue.add(classPathEntry);
+            }
          }
       }
+      finally
+      {
+         // Let pending removal of temporary files complete, then let the threads go
+         executor.shutdown();
+      }
 
       // Return
       if (log.isDebugEnabled())
@@ -194,10 +196,29 @@ public class ClassPathEjbJarScanner
    // Internal Helper Methods ------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
+   /**
+    * Creates the {@link ScheduledExecutorService} to mount files to be scanned by
+    * a single scan
+    */
+   private static ScheduledExecutorService createExecutor()
+   {
+      return Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+      {
+         @Override
+         public Thread newThread(final Runnable r)
+         {
+            // Don't block JVM shutdown
+            final Thread thread = new Thread(r, "EJB JAR Scanner");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+   }
+
    /**
     * Determines whether this entry from the ClassPath is an EJB JAR
     */
-   private static boolean isEjbJar(final String candidate)
+   private static boolean isEjbJar(final String candidate, final ScheduledExecutorService executor)
    {
 
       /*
@@ -232,7 +253,7 @@ public class ClassPathEjbJarScanner
             {
                if (provider == null)
                {
-                  provider = TempFileProvider.create("jbossejbmodulescanner", ses);
+                  provider = TempFileProvider.create("jbossejbmodulescanner", executor);
                }
                handle = VFS.mountZip(file.getPhysicalFile(), file, provider);
             }
@@ -303,13 +324,28 @@ public class ClassPathEjbJarScanner
       {
          try
          {
-            handle.close();
+            if (handle != null)
+            {
+               handle.close();
+            }
          }
          catch (final IOException e)
          {
             // Ignore
             log.warn("Could not close handle to mounted " + file, e);
          }
+         // Remove the temporary files of the mounted archive
+         if (provider != null)
+         {
+            try
+            {
+               provider.close();
+            }
+            catch (final IOException e)
+            {
+               log.warn("Could not close temporary file provider of mounted " + file, e);
+            }
+         }
       }
 
    }
@@ -0,0 +1,174 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base;
+
+import javax.ejb.embeddable.EJBContainer;
+import javax.naming.Context;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link ContainerPool} is working
+ * as contracted
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class ContainerPoolUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Idle timeout long enough not to expire during a test, in milliseconds
+    */
+   private static final long TIMEOUT_LONG = 60000;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Pool under test
+    */
+   private ContainerPool pool;
+
+   /**
+    * Parameters of pooled containers
+    */
+   private JBossEmbeddedContainerStartupParams params;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates the pool under test
+    */
+   @Before
+   public void createPool()
+   {
+      pool = new ContainerPool();
+      params = new JBossEmbeddedContainerStartupParams(null, new String[]
+      {"a.jar"});
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures a released container is acquired only with equal parameters
+    */
+   @Test
+   public void acquireByEqualParams()
+   {
+      final MockContainer container = new MockContainer();
+      pool.release(params, container, TIMEOUT_LONG, 2);
+
+      Assert.assertNull(pool.acquire(new JBossEmbeddedContainerStartupParams(null, new String[]
+      {"b.jar"})));
+      Assert.assertSame(container, pool.acquire(new JBossEmbeddedContainerStartupParams(null, new String[]
+      {"a.jar"})));
+      Assert.assertNull("Container should be acquired only once", pool.acquire(params));
+      Assert.assertFalse(container.closed);
+   }
+
+   /**
+    * Ensures the longest idle container is closed once the maximum is exceeded
+    */
+   @Test
+   public void longestIdleClosedOverMaximum()
+   {
+      final MockContainer first = new MockContainer();
+      final MockContainer second = new MockContainer();
+      pool.release(params, first, TIMEOUT_LONG, 1);
+      pool.release(params, second, TIMEOUT_LONG, 1);
+
+      Assert.assertTrue("Longest idle container should have been closed", first.closed);
+      Assert.assertFalse(second.closed);
+      Assert.assertEquals(1, pool.size());
+      pool.clear();
+      Assert.assertTrue(second.closed);
+   }
+
+   /**
+    * Ensures expired containers are closed
+    */
+   @Test
+   public void expiredClosed()
+   {
+      final MockContainer container = new MockContainer();
+      pool.release(params, container, 0, 2);
+      pool.evictExpired();
+
+      Assert.assertTrue("Expired container should have been closed", container.closed);
+      Assert.assertEquals(0, pool.size());
+   }
+
+   /**
+    * Ensures releasing a container already held has no effect
+    */
+   @Test
+   public void releaseTwiceIgnored()
+   {
+      final MockContainer container = new MockContainer();
+      pool.release(params, container, TIMEOUT_LONG, 2);
+      pool.release(params, container, TIMEOUT_LONG, 2);
+
+      Assert.assertEquals(1, pool.size());
+      pool.clear();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@link EJBContainer} recording whether it has been closed
+    */
+   private static final class MockContainer extends EJBContainer
+   {
+      /**
+       * Whether {@link MockContainer#close()} has been invoked
+       */
+      private boolean closed;
+
+      @Override
+      public Context getContext()
+      {
+         return null;
+      }
+
+      @Override
+      public void close()
+      {
+         closed = true;
+      }
+   }
+
+}
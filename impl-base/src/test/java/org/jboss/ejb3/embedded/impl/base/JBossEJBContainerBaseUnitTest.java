@@ -23,12 +23,28 @@
 package org.jboss.ejb3.embedded.impl.base;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ejb.EJBException;
 import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NamingException;
 
 import junit.framework.Assert;
 
@@ -36,8 +52,12 @@ import org.jboss.bootstrap.api.descriptor.BootstrapDescriptor;
 import org.jboss.bootstrap.api.lifecycle.LifecycleState;
 import org.jboss.bootstrap.api.mc.server.MCServer;
 import org.jboss.bootstrap.api.mc.server.MCServerFactory;
+import org.jboss.ejb3.embedded.api.EJBDeploymentException;
 import org.jboss.ejb3.embedded.api.JBossEJBContainer;
+import org.jboss.ejb3.embedded.api.JBossEJBContainerProperties;
+import org.jboss.logging.Logger;
 import org.jboss.reloaded.api.ReloadedDescriptors;
+import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -57,6 +77,11 @@ public class JBossEJBContainerBaseUnitTest
    // Class Members ----------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(JBossEJBContainerBaseUnitTest.class);
+
    /**
     * The underlying MC server
     */
@@ -71,6 +96,11 @@ public class JBossEJBContainerBaseUnitTest
     */
    private JBossEJBContainerBase ejbContainer;
 
+   /**
+    * All containers created by the current test, to be closed afterward
+    */
+   private final List<JBossEJBContainerBase> containers = new ArrayList<JBossEJBContainerBase>();
+
    //-------------------------------------------------------------------------------------||
    // Lifecycle --------------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -98,8 +128,27 @@ public class JBossEJBContainerBaseUnitTest
    @Before
    public void createEJBContainer()
    {
-      ejbContainer = new TestJBossEJBContainer(new HashMap<Object, Object>(), server, new String[]
-      {});
+      ejbContainer = this.newEJBContainer(new HashMap<Object, Object>());
+   }
+
+   /**
+    * Closes all containers created by the test, releasing their claim upon the MC server
+    */
+   @After
+   public void closeEJBContainers()
+   {
+      for (int i = containers.size() - 1; i >= 0; i--)
+      {
+         try
+         {
+            containers.get(i).close();
+         }
+         catch (final RuntimeException re)
+         {
+            log.warn("Could not close " + containers.get(i) + ": " + re);
+         }
+      }
+      containers.clear();
    }
 
    /**
@@ -150,6 +199,437 @@ public class JBossEJBContainerBaseUnitTest
 
    }
 
+   /**
+    * Ensures that {@link JBossEJBContainer#restoreBaseline()} removes deployments
+    * made since {@link JBossEJBContainer#markBaseline()}, and brings back those removed
+    * @throws Exception
+    */
+   @Test
+   public void restoreBaseline() throws Exception
+   {
+      final File namingServerDeploymentFile = new File(Thread.currentThread().getContextClassLoader().getResource(
+            "naming-server-jboss-beans.xml").toURI());
+      final String beanName = "NameServer";
+
+      // Mark an empty baseline, then deploy
+      ejbContainer.markBaseline();
+      ejbContainer.deploy(namingServerDeploymentFile);
+      Assert.assertNotNull("Bean should be installed after deployment", server.getKernel().getController()
+            .getInstalledContext(beanName));
+
+      // Restore should remove the addition
+      ejbContainer.restoreBaseline();
+      Assert.assertNull("Bean deployed after the baseline should be removed upon restore", server.getKernel()
+            .getController().getInstalledContext(beanName));
+
+      // Mark a baseline including the deployment, then undeploy
+      ejbContainer.deploy(namingServerDeploymentFile);
+      ejbContainer.markBaseline();
+      ejbContainer.undeploy(namingServerDeploymentFile);
+      Assert.assertNull("Bean should be removed after undeployment", server.getKernel().getController()
+            .getInstalledContext(beanName));
+
+      // Restore should bring it back
+      ejbContainer.restoreBaseline();
+      Assert.assertNotNull("Bean in the baseline should be deployed again upon restore", server.getKernel()
+            .getController().getInstalledContext(beanName));
+
+      // Clean up
+      ejbContainer.undeploy(namingServerDeploymentFile);
+   }
+
+   /**
+    * Ensures that undeploying only locations which were never deployed via the container
+    * is ignored, as documented, rather than refused
+    * @throws Exception
+    */
+   @Test
+   public void undeployNeverDeployed() throws Exception
+   {
+      final File namingServerDeploymentFile = new File(Thread.currentThread().getContextClassLoader().getResource(
+            "naming-server-jboss-beans.xml").toURI());
+
+      // Neither by URL nor by File
+      ejbContainer.undeploy(namingServerDeploymentFile.toURI().toURL());
+      ejbContainer.undeploy(namingServerDeploymentFile);
+
+      // And still deployable afterwards
+      ejbContainer.deploy(namingServerDeploymentFile);
+      Assert.assertNotNull("Bean should be installed after deployment", server.getKernel().getController()
+            .getInstalledContext("NameServer"));
+
+      // Clean up
+      ejbContainer.undeploy(namingServerDeploymentFile);
+   }
+
+   /**
+    * Ensures that the naming server named by {@link JBossEJBContainerProperties#NAMING_DESCRIPTOR}
+    * is started upon first use of {@link JBossEJBContainer#getContext()}, not upon creation
+    * @throws Exception
+    */
+   @Test
+   public void namingStartedUponFirstUse() throws Exception
+   {
+      final File namingServerDeploymentFile = new File(Thread.currentThread().getContextClassLoader().getResource(
+            "naming-server-jboss-beans.xml").toURI());
+      final Map<Object, Object> properties = new HashMap<Object, Object>();
+      properties.put(JBossEJBContainerProperties.NAMING_DESCRIPTOR, namingServerDeploymentFile.getAbsolutePath());
+      final JBossEJBContainerBase container = this.newEJBContainer(properties);
+
+      // Not yet
+      Assert.assertNull("Naming should not be started upon creation", server.getKernel().getController()
+            .getInstalledContext("NameServer"));
+
+      // Now
+      container.getContext();
+      Assert.assertNotNull("Naming should be started upon first use", server.getKernel().getController()
+            .getInstalledContext("NameServer"));
+
+      // Clean up
+      container.undeploy(namingServerDeploymentFile);
+   }
+
+   /**
+    * Ensures that containers backed by the same server keep separate deployment sets
+    * @throws Exception
+    */
+   @Test
+   public void sharedKernelDeploymentSets() throws Exception
+   {
+      final File namingServerDeploymentFile = new File(Thread.currentThread().getContextClassLoader().getResource(
+            "naming-server-jboss-beans.xml").toURI());
+      final JBossEJBContainerBase other = this.newEJBContainer(new HashMap<Object, Object>());
+
+      // Deployed via one, so not via the other
+      ejbContainer.deploy(namingServerDeploymentFile);
+      try
+      {
+         other.deploy(namingServerDeploymentFile);
+         Assert.fail("Deployment via another container on the same server should be refused");
+      }
+      catch (final EJBDeploymentException expected)
+      {
+         // Good
+      }
+
+      // Once undeployed, the other may have it
+      ejbContainer.undeploy(namingServerDeploymentFile);
+      other.deploy(namingServerDeploymentFile);
+      Assert.assertNotNull("Bean should be installed after deployment via the other container", server.getKernel()
+            .getController().getInstalledContext("NameServer"));
+
+      // Clean up
+      other.undeploy(namingServerDeploymentFile);
+   }
+
+   /**
+    * Ensures that {@link JBossEJBContainer#warmUp()} refuses a warm-up method not in the 
+    * form <code>[bean-name/]interface#method</code>
+    * @throws Exception
+    */
+   @Test
+   public void warmUpRejectsIllegalMethod() throws Exception
+   {
+      final Map<Object, Object> properties = new HashMap<Object, Object>();
+      properties.put(JBossEJBContainerProperties.WARMUP_METHODS, "ping");
+      final JBossEJBContainerBase container = this.newEJBContainer(properties);
+      try
+      {
+         container.warmUp();
+         Assert.fail("Warm-up method without interface should be refused");
+      }
+      catch (final EJBException expected)
+      {
+         // Good
+      }
+   }
+
+   /**
+    * Ensures that {@link JBossEJBContainer#warmUp()} obtains the views of a deployed bean
+    * and drives its configured warm-up method the configured number of times from each
+    * of the configured number of callers
+    * @throws Exception
+    */
+   @Test
+   public void warmUpDeployedBean() throws Exception
+   {
+      final Map<Object, Object> properties = new HashMap<Object, Object>();
+      properties.put(JBossEJBContainerProperties.NAMING_IN_VM, true);
+      properties.put(JBossEJBContainerProperties.WARMUP_METHODS, GreeterBean.class.getSimpleName() + "/"
+            + Greeter.class.getName() + "#greet");
+      properties.put(JBossEJBContainerProperties.WARMUP_INVOCATIONS, 5);
+      properties.put(JBossEJBContainerProperties.WARMUP_POOL_SIZE, 2);
+      final JBossEJBContainerBase container = this.newEJBContainer(properties);
+
+      // Deploy a bean binding its view in its module's java:global namespace
+      final File beanDeploymentFile = File.createTempFile("greeter", "-jboss-beans.xml");
+      try
+      {
+         writeGreeterDeployment(beanDeploymentFile, GreeterBean.class.getSimpleName());
+         container.deploy(beanDeploymentFile);
+         GreeterBean.invocations.set(0);
+
+         // Warm up
+         container.warmUp();
+         Assert.assertEquals("Warm-up method should be invoked the configured times from each caller", 10,
+               GreeterBean.invocations.get());
+         Assert.assertEquals("Warmed-up view should be that deployed", GreeterBean.GREETING, container.lookup(
+               Greeter.class).greet());
+      }
+      finally
+      {
+         container.undeploy(beanDeploymentFile);
+         beanDeploymentFile.delete();
+      }
+   }
+
+   /**
+    * Ensures that a module registered for lazy deployment is deployed upon the first
+    * lookup of a name in its <code>java:global</code> namespace, and not before
+    * @throws Exception
+    */
+   @Test
+   public void lazyModuleDeployedUponFirstLookup() throws Exception
+   {
+      final File module = File.createTempFile("lazy", "-jboss-beans.xml");
+      try
+      {
+         final String beanName = "LazyGreeterBean";
+         final String jndiName = writeGreeterDeployment(module, beanName);
+         final JBossEJBContainerBase container = this.newEJBContainer(lazyProperties(), module.getAbsolutePath());
+         Assert.assertNull("Lazy module should not be deployed upon creation", server.getKernel().getController()
+               .getInstalledContext(beanName));
+
+         // First lookup deploys
+         final Object view = container.getContext().lookup(jndiName);
+         Assert.assertTrue("Lookup should obtain the view of the lazily deployed bean", view instanceof Greeter);
+         Assert.assertNotNull("Lazy module should be deployed upon lookup", server.getKernel().getController()
+               .getInstalledContext(beanName));
+
+         // Later lookups find it deployed
+         Assert.assertSame(view, container.getContext().lookup(jndiName));
+      }
+      finally
+      {
+         this.closeEJBContainers();
+         module.delete();
+      }
+   }
+
+   /**
+    * Ensures that concurrent first lookups in the namespace of a lazy module deploy it
+    * once, each waiting for that deployment
+    * @throws Exception
+    */
+   @Test
+   public void lazyModuleDeployedOnceUponConcurrentLookups() throws Exception
+   {
+      final File module = File.createTempFile("lazy", "-jboss-beans.xml");
+      final int callers = 8;
+      final ExecutorService executor = Executors.newFixedThreadPool(callers);
+      try
+      {
+         final String jndiName = writeGreeterDeployment(module, "ConcurrentGreeterBean");
+         final Context context = this.newEJBContainer(lazyProperties(), module.getAbsolutePath()).getContext();
+
+         // All look up together
+         final CyclicBarrier barrier = new CyclicBarrier(callers);
+         final List<Future<Object>> lookups = new ArrayList<Future<Object>>(callers);
+         for (int i = 0; i < callers; i++)
+         {
+            lookups.add(executor.submit(new Callable<Object>()
+            {
+               @Override
+               public Object call() throws Exception
+               {
+                  barrier.await(10, TimeUnit.SECONDS);
+                  return context.lookup(jndiName);
+               }
+            }));
+         }
+
+         // A second deployment would have been refused, failing its lookup
+         final Object view = lookups.get(0).get(30, TimeUnit.SECONDS);
+         Assert.assertTrue(view instanceof Greeter);
+         for (final Future<Object> lookup : lookups)
+         {
+            Assert.assertSame("Every lookup should obtain the view of the single deployment", view, lookup.get(30,
+                  TimeUnit.SECONDS));
+         }
+      }
+      finally
+      {
+         executor.shutdownNow();
+         this.closeEJBContainers();
+         module.delete();
+      }
+   }
+
+   /**
+    * Ensures that a lazy module which could not be deployed upon lookup fails that lookup
+    * with the cause, and remains registered such that a later lookup deploys it
+    * @throws Exception
+    */
+   @Test
+   public void lazyModuleDeploymentFailureRetried() throws Exception
+   {
+      final File module = File.createTempFile("lazy", "-jboss-beans.xml");
+      try
+      {
+         final String beanName = "RetriedGreeterBean";
+         final String jndiName = writeGreeterDeployment(module, beanName);
+         final Context context = this.newEJBContainer(lazyProperties(), module.getAbsolutePath()).getContext();
+
+         // Deployed via another container first, so deployment upon lookup is refused
+         ejbContainer.deploy(module);
+         try
+         {
+            context.lookup(jndiName);
+            Assert.fail("Lookup should fail when the module could not be deployed");
+         }
+         catch (final NamingException expected)
+         {
+            Assert.assertTrue("Lookup should fail with the deployment failure: " + expected.getRootCause(), expected
+                  .getRootCause() instanceof EJBDeploymentException);
+         }
+
+         // Once free, a later lookup deploys it
+         ejbContainer.undeploy(module);
+         Assert.assertTrue(context.lookup(jndiName) instanceof Greeter);
+         Assert.assertNotNull(server.getKernel().getController().getInstalledContext(beanName));
+      }
+      finally
+      {
+         this.closeEJBContainers();
+         module.delete();
+      }
+   }
+
+   /**
+    * Ensures that priority modules are deployed upon creation, and the rest in the 
+    * background, such that a lookup in the namespace of a module still being deployed 
+    * waits for it
+    * @throws Exception
+    */
+   @Test
+   public void backgroundModuleAwaitedUponLookup() throws Exception
+   {
+      final File priorityModule = File.createTempFile("priority", "-jboss-beans.xml");
+      final File backgroundModule = File.createTempFile("background", "-jboss-beans.xml");
+      try
+      {
+         final String priorityBeanName = "PriorityGreeterBean";
+         writeGreeterDeployment(priorityModule, priorityBeanName);
+         final String jndiName = writeGreeterDeployment(backgroundModule, "BackgroundGreeterBean");
+         final Map<Object, Object> properties = new HashMap<Object, Object>();
+         properties.put(JBossEJBContainerProperties.NAMING_IN_VM, true);
+         properties.put(JBossEJBContainerProperties.PRIORITY_MODULES, priorityModule.getName());
+         final JBossEJBContainerBase container = this.newEJBContainer(properties, priorityModule.getAbsolutePath(),
+               backgroundModule.getAbsolutePath());
+
+         // Priority module upon creation
+         Assert.assertNotNull("Priority module should be deployed upon creation", server.getKernel()
+               .getController().getInstalledContext(priorityBeanName));
+
+         // The rest by the time we look it up
+         Assert.assertTrue("Lookup should wait for deployment of the background module", container.getContext()
+               .lookup(jndiName) instanceof Greeter);
+      }
+      finally
+      {
+         this.closeEJBContainers();
+         priorityModule.delete();
+         backgroundModule.delete();
+      }
+   }
+
+   /**
+    * Ensures that a container whose creation fails gives up the Kernel and what it
+    * claimed, such that neither is held by a container nobody can close
+    * @throws Exception
+    */
+   @Test
+   public void failedCreationReleasesKernel() throws Exception
+   {
+      final File freeModule = File.createTempFile("free", "-jboss-beans.xml");
+      final File takenModule = File.createTempFile("taken", "-jboss-beans.xml");
+      try
+      {
+         writeGreeterDeployment(freeModule, "FreeGreeterBean");
+         writeGreeterDeployment(takenModule, "TakenGreeterBean");
+         ejbContainer.deploy(takenModule);
+         final SharedKernel sharedKernel = SharedKernel.of(server.getKernel());
+         final int containers = sharedKernel.getContainers();
+
+         // The module deployed via another container can't be deployed again
+         try
+         {
+            new TestJBossEJBContainer(null, server, new String[]
+            {freeModule.getAbsolutePath(), takenModule.getAbsolutePath()});
+            Assert.fail("Creation should fail upon a module deployed via another container");
+         }
+         catch (final EJBDeploymentException expected)
+         {
+            // Good
+         }
+         Assert.assertEquals("Failed container should not be backed by the kernel", containers, sharedKernel
+               .getContainers());
+
+         // Nor does it keep what it did claim
+         ejbContainer.deploy(freeModule);
+         ejbContainer.undeploy(freeModule);
+      }
+      finally
+      {
+         ejbContainer.undeploy(takenModule);
+         freeModule.delete();
+         takenModule.delete();
+      }
+   }
+
+   /**
+    * Ensures that a handle to a pooled container is invalidated upon close, such that
+    * it may not be used to reach the container once handed out again
+    * @throws Exception
+    */
+   @Test
+   public void pooledHandleInvalidUponClose() throws Exception
+   {
+      final ContainerPool pool = new ContainerPool();
+      final JBossEmbeddedContainerStartupParams params = new JBossEmbeddedContainerStartupParams(null, new String[]
+      {});
+      ejbContainer.attachToPool(pool, params);
+      try
+      {
+         // Closing the handle returns the container for reuse
+         final ContainerHandle first = new ContainerHandle(ejbContainer);
+         first.close();
+         Assert.assertEquals("Container should be returned to the pool upon close", 1, pool.size());
+         try
+         {
+            first.getContext();
+            Assert.fail("Closed handle should not be usable");
+         }
+         catch (final IllegalStateException expected)
+         {
+            // Good
+         }
+
+         // Another checkout of the same container is unaffected by the stale handle
+         Assert.assertSame(ejbContainer, pool.acquire(params));
+         final ContainerHandle second = new ContainerHandle(ejbContainer);
+         first.close();
+         Assert.assertEquals("Closing a stale handle should not return the container", 0, pool.size());
+         second.markBaseline();
+         second.close();
+         Assert.assertEquals(1, pool.size());
+      }
+      finally
+      {
+         pool.clear();
+      }
+   }
+
    //-------------------------------------------------------------------------------------||
    // Functional Methods -----------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -158,6 +638,62 @@ public class JBossEJBContainerBaseUnitTest
    // Internal Helper Methods ------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
+   /**
+    * Creates a container backed by the MC server with the specified properties and 
+    * initial modules, to be closed after the test
+    */
+   private JBossEJBContainerBase newEJBContainer(final Map<?, ?> properties, final String... modules)
+   {
+      final JBossEJBContainerBase container = new TestJBossEJBContainer(properties, server, modules);
+      containers.add(container);
+      return container;
+   }
+
+   /**
+    * Obtains properties registering modules for lazy deployment, with in-VM naming 
+    * in which their beans bind their views
+    */
+   private static Map<Object, Object> lazyProperties()
+   {
+      final Map<Object, Object> properties = new HashMap<Object, Object>();
+      properties.put(JBossEJBContainerProperties.NAMING_IN_VM, true);
+      properties.put(JBossEJBContainerProperties.LAZY_DEPLOYMENT, true);
+      return properties;
+   }
+
+   /**
+    * Writes an MC descriptor of a {@link GreeterBean} of the specified name to the 
+    * specified file, returning the JNDI name of its view in the file's module
+    */
+   private static String writeGreeterDeployment(final File file, final String beanName) throws IOException
+   {
+      final String jndiName = "java:global/" + file.getName() + "/" + beanName + "!" + Greeter.class.getName();
+      writeBeanDeployment(file, beanName, GreeterBean.class, jndiName);
+      return jndiName;
+   }
+
+   /**
+    * Writes an MC descriptor of a single bean of the specified name and class, binding
+    * itself at the specified JNDI name, to the specified file
+    */
+   private static void writeBeanDeployment(final File file, final String beanName, final Class<?> beanClass,
+         final String jndiName) throws IOException
+   {
+      final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+      try
+      {
+         writer.write("<deployment xmlns=\"urn:jboss:bean-deployer:2.0\">\n");
+         writer.write("  <bean name=\"" + beanName + "\" class=\"" + beanClass.getName() + "\">\n");
+         writer.write("    <property name=\"jndiName\">" + jndiName + "</property>\n");
+         writer.write("  </bean>\n");
+         writer.write("</deployment>\n");
+      }
+      finally
+      {
+         writer.close();
+      }
+   }
+
    /**
     * Test concrete extension of the 
     */
@@ -171,12 +707,14 @@ public class JBossEJBContainerBaseUnitTest
 
       /**
        * {@inheritDoc}
+       * Undeploys everything deployed via this container and releases the MC server, which
+       * is left running for other tests.  Subsequent invocations have no effect.
        * @see javax.ejb.embeddable.EJBContainer#close()
        */
       @Override
       public void close()
       {
-         //NOOP
+         this.undeployAndClose();
       }
 
    }
@@ -197,4 +735,89 @@ public class JBossEJBContainerBaseUnitTest
       private static final long serialVersionUID = 1L;
 
    }
+
+   /**
+    * Business interface of the {@link GreeterBean}
+    */
+   public interface Greeter
+   {
+      String greet();
+   }
+
+   /**
+    * Stand-in for a session bean, binding itself as its view in the
+    * <code>java:global</code> namespace of its module while installed
+    * 
+    * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+    * @version $Revision: $
+    */
+   public static class GreeterBean implements Greeter
+   {
+      /**
+       * Greeting returned
+       */
+      static final String GREETING = "Hello";
+
+      /**
+       * Number of invocations of {@link GreeterBean#greet()}
+       */
+      static final AtomicInteger invocations = new AtomicInteger();
+
+      /**
+       * Name at which the view is bound
+       */
+      private String jndiName;
+
+      public void setJndiName(final String jndiName)
+      {
+         this.jndiName = jndiName;
+      }
+
+      public void start() throws NamingException
+      {
+         final Context context = new InitialContext();
+         try
+         {
+            final int moduleEnd = jndiName.lastIndexOf('/');
+            for (final String subcontext : new String[]
+            {jndiName.substring(0, jndiName.lastIndexOf('/', moduleEnd - 1)), jndiName.substring(0, moduleEnd)})
+            {
+               try
+               {
+                  context.createSubcontext(subcontext);
+               }
+               catch (final NameAlreadyBoundException nabe)
+               {
+                  // Shared namespace
+               }
+            }
+            context.bind(jndiName, this);
+         }
+         finally
+         {
+            context.close();
+         }
+      }
+
+      public void stop() throws NamingException
+      {
+         final Context context = new InitialContext();
+         try
+         {
+            context.unbind(jndiName);
+            context.destroySubcontext(jndiName.substring(0, jndiName.lastIndexOf('/')));
+         }
+         finally
+         {
+            context.close();
+         }
+      }
+
+      @Override
+      public String greet()
+      {
+         invocations.incrementAndGet();
+         return GREETING;
+      }
+   }
 }
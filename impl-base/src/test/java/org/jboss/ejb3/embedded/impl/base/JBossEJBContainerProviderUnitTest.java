@@ -21,13 +21,21 @@
  */
 package org.jboss.ejb3.embedded.impl.base;
 
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import javax.ejb.EJBException;
 import javax.ejb.embeddable.EJBContainer;
 import javax.ejb.spi.EJBContainerProvider;
 import javax.naming.Context;
 
+import org.jboss.ejb3.embedded.api.JBossEJBContainer;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -79,6 +87,63 @@ public class JBossEJBContainerProviderUnitTest
 
    }
 
+   /**
+    * Ensures that asynchronous creation honors the explicit provider property
+    */
+   @Test
+   public void createsAsynchronously() throws Exception
+   {
+      final Map<String, String> props = new HashMap<String, String>();
+      props.put(EJBContainer.PROVIDER, "dummyValue");
+
+      final Future<JBossEJBContainer> container = new TestJBossEJBContainerProvider().createEJBContainerAsync(props);
+
+      Assert.assertNull("Explicit provider property not met by current provider should result in a null container",
+            container.get(10, TimeUnit.SECONDS));
+   }
+
+   /**
+    * Ensures that modules may be specified by all spec-permitted types, 
+    * as well as by {@link URL} and <code>java.nio.file.Path</code>
+    */
+   @Test
+   public void acceptsModuleTypes() throws Exception
+   {
+      final File file = new File("module.jar");
+      final String location = file.getAbsolutePath();
+      final URL url = file.toURI().toURL();
+
+      Assert.assertArrayEquals(new String[]
+      {"module.jar"}, JBossEJBContainerProviderBase.toModules("module.jar"));
+      Assert.assertArrayEquals(new String[]
+      {location, location}, JBossEJBContainerProviderBase.toModules(new File[]
+      {file, file}));
+      Assert.assertArrayEquals(new String[]
+      {url.toExternalForm(), location}, JBossEJBContainerProviderBase.toModules(Arrays.asList(url, file)));
+
+      // Paths only where the JRE has them
+      final Method toPath;
+      try
+      {
+         toPath = File.class.getMethod("toPath");
+      }
+      catch (final NoSuchMethodException nsme)
+      {
+         return;
+      }
+      Assert.assertArrayEquals(new String[]
+      {location}, JBossEJBContainerProviderBase.toModules(toPath.invoke(file)));
+   }
+
+   /**
+    * Ensures that modules of other types are rejected
+    */
+   @Test(expected = EJBException.class)
+   public void rejectsIllegalModuleType()
+   {
+      JBossEJBContainerProviderBase.toModules(Integer.valueOf(1));
+   }
+
    //-------------------------------------------------------------------------------------||
    // Internal Helper Methods ------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -0,0 +1,135 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ejb.embeddable.EJBContainer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that {@link JBossEmbeddedContainerStartupParams} 
+ * compare as contracted
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class JBossEmbeddedContainerStartupParamsUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures parameters differing only in representation are equal
+    */
+   @Test
+   public void equalWhenNormalized()
+   {
+      final Map<Object, Object> arrayProperties = new HashMap<Object, Object>();
+      arrayProperties.put(EJBContainer.MODULES, new String[]
+      {"a.jar", "b.jar"});
+      final Map<Object, Object> listProperties = new HashMap<Object, Object>();
+      listProperties.put(EJBContainer.MODULES, Arrays.asList("a.jar", "b.jar"));
+
+      final JBossEmbeddedContainerStartupParams first = new JBossEmbeddedContainerStartupParams(arrayProperties,
+            new String[]
+            {"a.jar", "b.jar"});
+      final JBossEmbeddedContainerStartupParams second = new JBossEmbeddedContainerStartupParams(listProperties,
+            new String[]
+            {"b.jar", "a.jar"});
+
+      Assert.assertEquals(first, second);
+      Assert.assertEquals(first.hashCode(), second.hashCode());
+   }
+
+   /**
+    * Ensures parameters with different properties or modules are not equal
+    */
+   @Test
+   public void notEqualWhenDifferent()
+   {
+      final Map<Object, Object> properties = new HashMap<Object, Object>();
+      properties.put(EJBContainer.APP_NAME, "app");
+
+      final JBossEmbeddedContainerStartupParams base = new JBossEmbeddedContainerStartupParams(null, new String[]
+      {"a.jar"});
+      Assert.assertFalse(base.equals(new JBossEmbeddedContainerStartupParams(properties, new String[]
+      {"a.jar"})));
+      Assert.assertFalse(base.equals(new JBossEmbeddedContainerStartupParams(null, new String[]
+      {"a.jar", "b.jar"})));
+   }
+
+   /**
+    * Ensures parameters created under different Thread Context {@link ClassLoader}s,
+    * from which beans would be loaded, are not equal
+    */
+   @Test
+   public void notEqualUnderAnotherClassLoader()
+   {
+      final JBossEmbeddedContainerStartupParams base = new JBossEmbeddedContainerStartupParams(null, new String[]
+      {"a.jar"});
+      final Thread current = Thread.currentThread();
+      final ClassLoader tccl = current.getContextClassLoader();
+      current.setContextClassLoader(new URLClassLoader(new URL[]
+      {}, tccl));
+      final JBossEmbeddedContainerStartupParams other;
+      try
+      {
+         other = new JBossEmbeddedContainerStartupParams(null, new String[]
+         {"a.jar"});
+      }
+      finally
+      {
+         current.setContextClassLoader(tccl);
+      }
+      Assert.assertFalse(base.equals(other));
+      Assert.assertEquals(base, new JBossEmbeddedContainerStartupParams(null, new String[]
+      {"a.jar"}));
+   }
+
+   /**
+    * Ensures parameters requesting discovery of modules on the ClassPath compare 
+    * without discovering them
+    */
+   @Test
+   public void comparedWithoutScanning()
+   {
+      final JBossEmbeddedContainerStartupParams first = new JBossEmbeddedContainerStartupParams(null, null);
+      final JBossEmbeddedContainerStartupParams second = new JBossEmbeddedContainerStartupParams(null, null);
+
+      Assert.assertEquals(first, second);
+      Assert.assertEquals(first.hashCode(), second.hashCode());
+      Assert.assertFalse(first.equals(new JBossEmbeddedContainerStartupParams(null, new String[]
+      {})));
+      Assert.assertFalse("Comparison should not scan the ClassPath", first.isModulesKnown() || second.isModulesKnown());
+   }
+
+}
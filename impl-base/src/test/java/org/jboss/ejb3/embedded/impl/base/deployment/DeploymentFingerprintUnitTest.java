@@ -0,0 +1,179 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.deployment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.jboss.vfs.VFS;
+import org.jboss.vfs.VirtualFile;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link DeploymentFingerprint} is working
+ * as contracted
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class DeploymentFingerprintUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Exploded root under test
+    */
+   private File exploded;
+
+   /**
+    * Archive under test
+    */
+   private File archive;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates the exploded and archive roots to be fingerprinted
+    */
+   @Before
+   public void createRoots() throws Exception
+   {
+      exploded = File.createTempFile("fingerprint", "");
+      Assert.assertTrue(exploded.delete());
+      Assert.assertTrue(new File(exploded, "META-INF").mkdirs());
+      exploded.deleteOnExit();
+      write(new File(exploded, "META-INF/ejb-jar.xml"), "<ejb-jar/>");
+
+      archive = File.createTempFile("fingerprint", ".jar");
+      archive.deleteOnExit();
+      write(archive, "archive-contents");
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that unchanged content yields the same fingerprint
+    */
+   @Test
+   public void unchangedContentHasEqualFingerprint() throws Exception
+   {
+      Assert.assertEquals("Exploded fingerprint should be stable", fingerprint(exploded), fingerprint(exploded));
+      Assert.assertEquals("Archive fingerprint should be stable", fingerprint(archive), fingerprint(archive));
+   }
+
+   /**
+    * Ensures that changed content yields a new fingerprint
+    */
+   @Test
+   public void changedContentHasNewFingerprint() throws Exception
+   {
+      final String explodedBefore = fingerprint(exploded);
+      write(new File(exploded, "META-INF/ejb-jar.xml"), "<ejb-jar version=\"3.1\"/>");
+      Assert.assertFalse("Exploded fingerprint should reflect changed entry", explodedBefore
+            .equals(fingerprint(exploded)));
+
+      final String archiveBefore = fingerprint(archive);
+      write(archive, "changed-contents");
+      Assert.assertFalse("Archive fingerprint should reflect changed bytes", archiveBefore.equals(fingerprint(archive)));
+   }
+
+   /**
+    * Ensures that fingerprints taken from the filesystem and through VFS agree
+    */
+   @Test
+   public void filesystemAndVirtualFingerprintsAgree() throws Exception
+   {
+      Assert.assertEquals("Exploded fingerprints should agree", fingerprint(exploded), DeploymentFingerprint
+            .of(exploded));
+      Assert.assertEquals("Archive fingerprints should agree", fingerprint(archive), DeploymentFingerprint.of(archive));
+   }
+
+   /**
+    * Ensures that the quick fingerprint of an archive follows its size and last modified
+    * time, and that of a directory equals its full fingerprint
+    */
+   @Test
+   public void quickFingerprintFollowsSizeAndLastModified() throws Exception
+   {
+      Assert.assertEquals("Quick directory fingerprint should be the full one", DeploymentFingerprint.of(exploded),
+            DeploymentFingerprint.quickOf(exploded));
+
+      final String before = DeploymentFingerprint.quickOf(archive);
+      Assert.assertEquals("Quick archive fingerprint should be stable", before, DeploymentFingerprint.quickOf(archive));
+      Assert.assertTrue(archive.setLastModified(archive.lastModified() - 10000));
+      final String touched = DeploymentFingerprint.quickOf(archive);
+      Assert.assertFalse("Quick archive fingerprint should reflect last modified time", before.equals(touched));
+      write(archive, "longer-archive-contents");
+      Assert.assertFalse("Quick archive fingerprint should reflect size", touched.equals(DeploymentFingerprint
+            .quickOf(archive)));
+   }
+
+   /**
+    * Ensures that a nonexistent root cannot be fingerprinted
+    */
+   @Test(expected = IllegalArgumentException.class)
+   public void nonexistentRootIsRejected() throws Exception
+   {
+      fingerprint(new File(exploded, "nonexistent"));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the fingerprint of the specified file
+    */
+   private static String fingerprint(final File file) throws IOException
+   {
+      final VirtualFile root = VFS.getChild(file.toURI());
+      return DeploymentFingerprint.of(root);
+   }
+
+   /**
+    * Writes the specified contents to the specified file
+    */
+   private static void write(final File file, final String contents) throws IOException
+   {
+      final OutputStream out = new FileOutputStream(file);
+      try
+      {
+         out.write(contents.getBytes("UTF-8"));
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+}
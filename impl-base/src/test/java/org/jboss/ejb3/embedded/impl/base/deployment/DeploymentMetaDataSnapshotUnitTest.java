@@ -0,0 +1,395 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.embedded.impl.base.deployment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ejb.embeddable.EJBContainer;
+
+import junit.framework.Assert;
+
+import org.jboss.bootstrap.api.descriptor.BootstrapDescriptor;
+import org.jboss.bootstrap.api.lifecycle.LifecycleState;
+import org.jboss.bootstrap.api.mc.server.MCServer;
+import org.jboss.bootstrap.api.mc.server.MCServerFactory;
+import org.jboss.deployers.client.spi.main.MainDeployer;
+import org.jboss.deployers.plugins.deployers.DeployersImpl;
+import org.jboss.deployers.plugins.main.MainDeployerImpl;
+import org.jboss.deployers.spi.DeploymentException;
+import org.jboss.deployers.spi.deployer.DeploymentStages;
+import org.jboss.deployers.spi.deployer.helpers.AbstractDeployer;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+import org.jboss.ejb3.embedded.api.JBossEJBContainer;
+import org.jboss.ejb3.embedded.api.JBossEJBContainerProperties;
+import org.jboss.ejb3.embedded.impl.base.JBossEJBContainerBase;
+import org.jboss.reloaded.api.ReloadedDescriptors;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Ensures that {@link DeploymentMetaDataSnapshot} stores the processed metadata of 
+ * a deployment, restores it upon a later deployment of identical content such that
+ * the annotation and merge deployers have nothing left to do, and is invalidated
+ * by a change in content
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class DeploymentMetaDataSnapshotUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * The underlying MC server
+    */
+   private static final MCServer server = MCServerFactory.createServer();
+
+   /**
+    * Attachment name of annotated metadata, as produced by annotation processing
+    */
+   private static final String ATTACHMENT_ANNOTATED = "annotated.org.jboss.metadata.ejb.spec.EjbJarMetaData";
+
+   /**
+    * Attachment name of merged metadata, as produced by metadata merging
+    */
+   private static final String ATTACHMENT_MERGED = "merged.org.jboss.metadata.ejb.jboss.JBossMetaData";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Directory in which snapshots are stored
+    */
+   private File snapshotDir;
+
+   /**
+    * Deployment under test
+    */
+   private File deploymentFile;
+
+   /**
+    * Stand-in for the annotation and merge deployers
+    */
+   private MetaDataDeployer deployer;
+
+   /**
+    * Container under test
+    */
+   private JBossEJBContainer ejbContainer;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Configures and starts the underlying MC server
+    */
+   @BeforeClass
+   public static void startMc() throws Exception
+   {
+      final List<BootstrapDescriptor> descriptors = server.getConfiguration().getBootstrapDescriptors();
+      descriptors.add(ReloadedDescriptors.getClassLoadingDescriptor());
+      descriptors.add(ReloadedDescriptors.getVdfDescriptor());
+      server.start();
+   }
+
+   /**
+    * Cleans up and shuts down MC
+    */
+   @AfterClass
+   public static void stopMc() throws Exception
+   {
+      if (server != null && server.getState().equals(LifecycleState.STARTED))
+      {
+         server.stop();
+      }
+   }
+
+   /**
+    * Creates the deployment, the snapshot directory and the container under test,
+    * and installs the metadata deployer
+    */
+   @Before
+   public void createEJBContainer() throws Exception
+   {
+      snapshotDir = File.createTempFile("snapshots", "");
+      Assert.assertTrue("Could not replace " + snapshotDir + " with a directory", snapshotDir.delete()
+            && snapshotDir.mkdir());
+      deploymentFile = File.createTempFile("snapshot", "-jboss-beans.xml");
+      writeDeployment(deploymentFile, "");
+
+      deployer = new MetaDataDeployer(deploymentFile.getName());
+      getDeployers().addDeployer(deployer);
+
+      final Map<Object, Object> properties = new HashMap<Object, Object>();
+      properties.put(JBossEJBContainerProperties.METADATA_SNAPSHOT_DIR, snapshotDir.getAbsolutePath());
+      ejbContainer = new TestJBossEJBContainer(properties, server);
+   }
+
+   /**
+    * Undeploys, removes the metadata deployer and deletes the files created
+    */
+   @After
+   public void cleanup() throws Exception
+   {
+      try
+      {
+         ejbContainer.undeploy(deploymentFile);
+      }
+      finally
+      {
+         getDeployers().removeDeployer(deployer);
+         final File[] snapshots = snapshotDir.listFiles();
+         if (snapshots != null)
+         {
+            for (final File snapshot : snapshots)
+            {
+               snapshot.delete();
+            }
+         }
+         snapshotDir.delete();
+         deploymentFile.delete();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that deploying identical content again restores equal metadata from the
+    * snapshot, with no metadata processing
+    */
+   @Test
+   public void redeployRestoresSnapshot() throws Exception
+   {
+      // First deployment processes and is snapshotted
+      ejbContainer.deploy(deploymentFile);
+      Assert.assertEquals("First deployment should process metadata", 1, deployer.processed);
+      Assert.assertEquals("First deployment should have no snapshot to restore", 0, deployer.skipped);
+      Assert.assertEquals("Processed metadata should be snapshotted", 1, snapshotDir.listFiles().length);
+      Assert.assertTrue("Snapshot should be a .ser file", snapshotDir.listFiles()[0].getName().endsWith(".ser"));
+      final Object annotated = deployer.annotated;
+      final Object merged = deployer.merged;
+
+      // Second deployment of the same content restores
+      ejbContainer.undeploy(deploymentFile);
+      ejbContainer.deploy(deploymentFile);
+      Assert.assertEquals("Metadata should not be processed again when restored", 1, deployer.processed);
+      Assert.assertEquals("Annotation and merging should be skipped when restored", 1, deployer.skipped);
+      Assert.assertNotSame("Metadata should be restored from the snapshot", annotated, deployer.annotated);
+      Assert.assertEquals("Restored annotated metadata should equal that processed", annotated, deployer.annotated);
+      Assert.assertEquals("Restored merged metadata should equal that processed", merged, deployer.merged);
+   }
+
+   /**
+    * Ensures that a change in content, and so fingerprint, invalidates the snapshot
+    */
+   @Test
+   public void changedContentInvalidatesSnapshot() throws Exception
+   {
+      ejbContainer.deploy(deploymentFile);
+      final Object annotated = deployer.annotated;
+      ejbContainer.undeploy(deploymentFile);
+
+      // Change
+      writeDeployment(deploymentFile, "<!-- changed -->");
+      ejbContainer.deploy(deploymentFile);
+      Assert.assertEquals("Changed content should process metadata again", 2, deployer.processed);
+      Assert.assertEquals("Changed content should not restore the snapshot", 0, deployer.skipped);
+      Assert.assertFalse("Changed content should not be given the previous metadata", annotated
+            .equals(deployer.annotated));
+      Assert.assertEquals("Changed content should be snapshotted anew", 2, snapshotDir.listFiles().length);
+   }
+
+   /**
+    * Ensures that snapshots are named by their deployment, and not restored under another
+    * configuration affecting the processed metadata
+    */
+   @Test
+   public void otherConfigurationIgnoresSnapshot() throws Exception
+   {
+      ejbContainer.deploy(deploymentFile);
+      ejbContainer.undeploy(deploymentFile);
+      Assert.assertTrue("Snapshot should be named by its deployment", snapshotDir.listFiles()[0].getName()
+            .startsWith(EjbModules.getModuleName(deploymentFile.toURI().toURL())));
+
+      // Same content, other application
+      final Map<Object, Object> properties = new HashMap<Object, Object>();
+      properties.put(JBossEJBContainerProperties.METADATA_SNAPSHOT_DIR, snapshotDir.getAbsolutePath());
+      properties.put(EJBContainer.APP_NAME, "other");
+      final JBossEJBContainer other = new TestJBossEJBContainer(properties, server);
+      try
+      {
+         other.deploy(deploymentFile);
+         Assert.assertEquals("Another configuration should process metadata again", 2, deployer.processed);
+         Assert.assertEquals("Another configuration should not restore the snapshot", 0, deployer.skipped);
+         Assert.assertEquals("Another configuration should be snapshotted apart", 2, snapshotDir.listFiles().length);
+      }
+      finally
+      {
+         other.undeploy(deploymentFile);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the deployers of the MC server
+    */
+   private static DeployersImpl getDeployers()
+   {
+      final MainDeployerImpl mainDeployer = (MainDeployerImpl) server.getKernel().getController().getContextByClass(
+            MainDeployer.class).getTarget();
+      return (DeployersImpl) mainDeployer.getDeployers();
+   }
+
+   /**
+    * Writes a bean deployment of no beans, with the specified comment, to the specified file
+    */
+   private static void writeDeployment(final File file, final String comment) throws IOException
+   {
+      final OutputStream out = new FileOutputStream(file);
+      try
+      {
+         out.write(("<deployment xmlns=\"urn:jboss:bean-deployer:2.0\">" + comment + "</deployment>")
+               .getBytes("UTF-8"));
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+
+   /**
+    * Stand-in for the annotation and merge deployers, which (as they) skip units 
+    * to which their output is already attached
+    */
+   private static final class MetaDataDeployer extends AbstractDeployer
+   {
+      private final String deploymentName;
+
+      private int processed;
+
+      private int skipped;
+
+      private Object annotated;
+
+      private Object merged;
+
+      MetaDataDeployer(final String deploymentName)
+      {
+         this.deploymentName = deploymentName;
+         this.setStage(DeploymentStages.POST_PARSE);
+      }
+
+      public void deploy(final DeploymentUnit unit) throws DeploymentException
+      {
+         if (!unit.getName().endsWith(deploymentName))
+         {
+            return;
+         }
+         if (unit.isAttachmentPresent(ATTACHMENT_ANNOTATED) && unit.isAttachmentPresent(ATTACHMENT_MERGED))
+         {
+            skipped++;
+         }
+         else
+         {
+            processed++;
+            unit.addAttachment(ATTACHMENT_ANNOTATED, new MetaData("annotated", System.nanoTime()));
+            unit.addAttachment(ATTACHMENT_MERGED, new MetaData("merged", System.nanoTime()));
+         }
+         annotated = unit.getAttachment(ATTACHMENT_ANNOTATED);
+         merged = unit.getAttachment(ATTACHMENT_MERGED);
+      }
+   }
+
+   /**
+    * Serializable metadata, equal by value
+    */
+   private static final class MetaData implements Serializable
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final String kind;
+
+      private final long stamp;
+
+      MetaData(final String kind, final long stamp)
+      {
+         this.kind = kind;
+         this.stamp = stamp;
+      }
+
+      @Override
+      public boolean equals(final Object obj)
+      {
+         if (!(obj instanceof MetaData))
+         {
+            return false;
+         }
+         final MetaData other = (MetaData) obj;
+         return kind.equals(other.kind) && stamp == other.stamp;
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return kind.hashCode() * 31 + (int) stamp;
+      }
+   }
+
+   /**
+    * Test concrete extension of {@link JBossEJBContainerBase}
+    */
+   private static final class TestJBossEJBContainer extends JBossEJBContainerBase
+   {
+      TestJBossEJBContainer(final Map<?, ?> properties, final MCServer server)
+      {
+         super(properties, server, new String[]
+         {});
+      }
+
+      @Override
+      public void close()
+      {
+         //NOOP
+      }
+   }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.deployment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.jboss.vfs.VFS;
+import org.jboss.vfs.VirtualFile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link InMemoryZipFileSystem} is working
+ * as contracted
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class InMemoryZipFileSystemUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Contents of the deflated descriptor
+    */
+   private static final String CONTENTS_DESCRIPTOR = "<ejb-jar/>";
+
+   /**
+    * Contents of the stored class entry
+    */
+   private static final String CONTENTS_CLASS = "not-really-bytecode";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Mount point of the archive under test
+    */
+   private VirtualFile root;
+
+   /**
+    * Handle to the mount
+    */
+   private Closeable mount;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Builds an archive in memory and mounts it
+    */
+   @Before
+   public void mount() throws Exception
+   {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final ZipOutputStream zip = new ZipOutputStream(bytes);
+      zip.putNextEntry(new ZipEntry("META-INF/"));
+      zip.closeEntry();
+      zip.putNextEntry(new ZipEntry("META-INF/ejb-jar.xml"));
+      zip.write(CONTENTS_DESCRIPTOR.getBytes("UTF-8"));
+      zip.closeEntry();
+      // Stored, with parent directories implied
+      final byte[] classBytes = CONTENTS_CLASS.getBytes("UTF-8");
+      final ZipEntry classEntry = new ZipEntry("org/example/Bean.class");
+      classEntry.setMethod(ZipEntry.STORED);
+      classEntry.setSize(classBytes.length);
+      final CRC32 crc = new CRC32();
+      crc.update(classBytes);
+      classEntry.setCrc(crc.getValue());
+      zip.putNextEntry(classEntry);
+      zip.write(classBytes);
+      zip.closeEntry();
+      zip.setComment("in-memory");
+      zip.close();
+
+      root = VFS.getChild("/in-memory-zip-test/" + System.nanoTime() + "/test.jar");
+      mount = VFS.mount(root, new InMemoryZipFileSystem(ByteBuffer.wrap(bytes.toByteArray())));
+   }
+
+   /**
+    * Unmounts the archive
+    */
+   @After
+   public void unmount() throws IOException
+   {
+      mount.close();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures the directory structure, including implied directories, is exposed
+    */
+   @Test
+   public void structure() throws Exception
+   {
+      Assert.assertTrue("Root should be a directory", root.isDirectory());
+      Assert.assertEquals(2, root.getChildren().size());
+      Assert.assertTrue("Explicit directory should be a directory", root.getChild("META-INF").isDirectory());
+      Assert.assertTrue("Implied directory should be a directory", root.getChild("org/example").isDirectory());
+      Assert.assertEquals(Collections.singletonList(root.getChild("org/example/Bean.class")), root.getChild(
+            "org/example").getChildren());
+      Assert.assertFalse("Missing entry should not exist", root.getChild("missing").exists());
+   }
+
+   /**
+    * Ensures deflated and stored entries are read correctly
+    */
+   @Test
+   public void contents() throws Exception
+   {
+      Assert.assertEquals(CONTENTS_DESCRIPTOR, read(root.getChild("META-INF/ejb-jar.xml")));
+      Assert.assertEquals(CONTENTS_CLASS, read(root.getChild("org/example/Bean.class")));
+      Assert.assertEquals(CONTENTS_CLASS.length(), root.getChild("org/example/Bean.class").getSize());
+   }
+
+   /**
+    * Ensures content which is not a ZIP archive is rejected
+    */
+   @Test(expected = IOException.class)
+   public void notAnArchive() throws Exception
+   {
+      new InMemoryZipFileSystem(ByteBuffer.wrap("not an archive".getBytes("UTF-8")));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Reads the contents of the specified file as a String
+    */
+   private static String read(final VirtualFile file) throws IOException
+   {
+      final InputStream in = file.openStream();
+      try
+      {
+         final ByteArrayOutputStream out = new ByteArrayOutputStream();
+         final byte[] buffer = new byte[64];
+         int read;
+         while ((read = in.read(buffer)) != -1)
+         {
+            out.write(buffer, 0, read);
+         }
+         return new String(out.toByteArray(), "UTF-8");
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+}
@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.leak;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link LeakDetector} is working
+ * as contracted
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class LeakDetectorUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Time allowed for collection, in milliseconds
+    */
+   private static final long TIMEOUT = 5000;
+
+   /**
+    * Owner of the watched class loader
+    */
+   private static final String OWNER = "mymodule.jar";
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures nothing is reported once a watched class loader is unreachable
+    */
+   @Test
+   public void nothingReportedWhenReleased()
+   {
+      final LeakDetector detector = new LeakDetector();
+      detector.watch(OWNER, new URLClassLoader(new URL[]
+      {}));
+
+      final List<String> leaks = detector.check(TIMEOUT);
+      Assert.assertTrue("Released class loader should not be reported: " + leaks, leaks.isEmpty());
+   }
+
+   /**
+    * Ensures a reachable class loader is reported, along with a thread using it as 
+    * its context class loader
+    */
+   @Test
+   public void lingeringThreadReported() throws InterruptedException
+   {
+      final LeakDetector detector = new LeakDetector();
+      final ClassLoader classLoader = new URLClassLoader(new URL[]
+      {});
+      detector.watch(OWNER, classLoader);
+
+      final CountDownLatch release = new CountDownLatch(1);
+      final Thread thread = new Thread(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            try
+            {
+               release.await();
+            }
+            catch (final InterruptedException ie)
+            {
+               Thread.currentThread().interrupt();
+            }
+         }
+      }, "Lingering");
+      thread.setContextClassLoader(classLoader);
+      thread.start();
+      try
+      {
+         final List<String> leaks = detector.check(0);
+         Assert.assertEquals("Class loader and thread should be reported: " + leaks, 2, leaks.size());
+         Assert.assertTrue(leaks.get(0).contains(OWNER));
+         Assert.assertTrue(leaks.get(1).contains("Lingering"));
+      }
+      finally
+      {
+         release.countDown();
+         thread.join();
+      }
+   }
+
+   /**
+    * Ensures an owner must be specified
+    */
+   @Test(expected = IllegalArgumentException.class)
+   public void ownerRequired()
+   {
+      new LeakDetector().watch(null, LeakDetectorUnitTest.class.getClassLoader());
+   }
+
+}
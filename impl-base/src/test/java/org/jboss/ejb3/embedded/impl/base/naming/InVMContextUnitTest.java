@@ -0,0 +1,182 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.naming;
+
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Set;
+
+import javax.naming.Context;
+import javax.naming.ContextNotEmptyException;
+import javax.naming.LinkRef;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameClassPair;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link InVMContext} is working
+ * as contracted
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class InVMContextUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Context under test; a fresh subcontext of the shared namespace for each test
+    */
+   private Context context;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates the context under test
+    */
+   @Before
+   public void createContext() throws Exception
+   {
+      final Context root = new InVMContextFactory().getInitialContext(new Hashtable<Object, Object>());
+      context = root.createSubcontext("test-" + System.nanoTime());
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures objects are bound and looked up by reference through subcontexts
+    */
+   @Test
+   public void bindAndLookup() throws Exception
+   {
+      final Object bound = new Object();
+      context.createSubcontext("a").createSubcontext("b");
+      context.bind("a/b/c", bound);
+      Assert.assertSame("Should get the bound instance", bound, context.lookup("a/b/c"));
+      Assert.assertSame("Should get the bound instance through a subcontext", bound, ((Context) context
+            .lookup("a")).lookup("b/c"));
+      Assert.assertEquals(context.getNameInNamespace() + "/a/b", ((Context) context.lookup("a/b"))
+            .getNameInNamespace());
+   }
+
+   /**
+    * Ensures bind, rebind, unbind and rename honor the {@link Context} contracts
+    */
+   @Test
+   public void bindingContracts() throws Exception
+   {
+      context.bind("name", "first");
+      try
+      {
+         context.bind("name", "second");
+         Assert.fail("Should not be able to bind over an existing binding");
+      }
+      catch (final NameAlreadyBoundException nabe)
+      {
+         // Expected
+      }
+      context.rebind("name", "second");
+      Assert.assertEquals("second", context.lookup("name"));
+
+      context.rename("name", "renamed");
+      Assert.assertEquals("second", context.lookup("renamed"));
+      context.unbind("renamed");
+      try
+      {
+         context.lookup("renamed");
+         Assert.fail("Unbound name should not be found");
+      }
+      catch (final NameNotFoundException nnfe)
+      {
+         // Expected
+      }
+
+      try
+      {
+         context.bind("missing/name", "value");
+         Assert.fail("Should not be able to bind in a missing context");
+      }
+      catch (final NameNotFoundException nnfe)
+      {
+         // Expected
+      }
+   }
+
+   /**
+    * Ensures listing and subcontext destruction
+    */
+   @Test
+   public void listAndDestroy() throws Exception
+   {
+      context.createSubcontext("sub");
+      context.bind("sub/one", "1");
+      context.bind("sub/two", "2");
+      final Set<String> names = new HashSet<String>();
+      final NamingEnumeration<NameClassPair> list = context.list("sub");
+      while (list.hasMore())
+      {
+         names.add(list.next().getName());
+      }
+      Assert.assertEquals(2, names.size());
+      Assert.assertTrue(names.contains("one") && names.contains("two"));
+
+      try
+      {
+         context.destroySubcontext("sub");
+         Assert.fail("Should not be able to destroy a non-empty context");
+      }
+      catch (final ContextNotEmptyException cnee)
+      {
+         // Expected
+      }
+      context.unbind("sub/one");
+      context.unbind("sub/two");
+      context.destroySubcontext("sub");
+      Assert.assertFalse(context.list("").hasMore());
+   }
+
+   /**
+    * Ensures links are followed from the root upon lookup
+    */
+   @Test
+   public void links() throws Exception
+   {
+      final Object bound = new Object();
+      context.bind("target", bound);
+      context.bind("link", new LinkRef(context.getNameInNamespace() + "/target"));
+      Assert.assertSame("Link should be followed", bound, context.lookup("link"));
+      Assert.assertTrue("Link should not be followed by lookupLink", context.lookupLink("link") instanceof LinkRef);
+   }
+}
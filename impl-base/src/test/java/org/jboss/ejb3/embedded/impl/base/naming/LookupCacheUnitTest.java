@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.naming;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link LookupCache} is working
+ * as contracted
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class LookupCacheUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Name of a bean in a standalone module
+    */
+   private static final String NAME_MODULE_BEAN = "java:global/mymodule/MyBean";
+
+   /**
+    * Name of a bean in a module of an application
+    */
+   private static final String NAME_APP_BEAN = "java:global/myapp/othermodule/OtherBean!com.example.Other";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Cache under test
+    */
+   private LookupCache cache;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates the cache under test
+    */
+   @Before
+   public void createCache()
+   {
+      cache = new LookupCache();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures only names in the global namespace are cached
+    */
+   @Test
+   public void onlyGlobalNamesCached()
+   {
+      final Object result = new Object();
+      cache.put("java:comp/env/foo", result, cache.getGeneration());
+      Assert.assertNull("Non-global name should not be cached", cache.get("java:comp/env/foo"));
+      cache.put(NAME_MODULE_BEAN, result, cache.getGeneration());
+      Assert.assertSame(result, cache.get(NAME_MODULE_BEAN));
+   }
+
+   /**
+    * Ensures eviction of a module removes only its entries, whether standalone or within an application
+    */
+   @Test
+   public void evictModule()
+   {
+      cache.put(NAME_MODULE_BEAN, new Object(), cache.getGeneration());
+      cache.put(NAME_APP_BEAN, new Object(), cache.getGeneration());
+
+      cache.evictModule("othermodule");
+      Assert.assertNotNull("Entry of another module should remain", cache.get(NAME_MODULE_BEAN));
+      Assert.assertNull("Entry of evicted module should be removed", cache.get(NAME_APP_BEAN));
+
+      cache.evictModule("mymodule");
+      Assert.assertNull("Entry of evicted module should be removed", cache.get(NAME_MODULE_BEAN));
+   }
+
+   /**
+    * Ensures the result of a lookup started before an eviction is not cached
+    */
+   @Test
+   public void staleResultNotCached()
+   {
+      final long generation = cache.getGeneration();
+      cache.evictModule("mymodule");
+      cache.put(NAME_MODULE_BEAN, new Object(), generation);
+      Assert.assertNull("Result of lookup started before eviction should not be cached", cache.get(NAME_MODULE_BEAN));
+   }
+}
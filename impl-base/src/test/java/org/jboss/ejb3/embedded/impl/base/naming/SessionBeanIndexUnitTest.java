@@ -0,0 +1,140 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.naming;
+
+import java.util.Collections;
+import java.util.Hashtable;
+
+import javax.naming.Context;
+import javax.naming.NameAlreadyBoundException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link SessionBeanIndex} is working
+ * as contracted
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class SessionBeanIndexUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Name of a business interface
+    */
+   private static final String INTERFACE = "com.example.Greeter";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Naming context in which views are bound
+    */
+   private Context context;
+
+   /**
+    * Unique module name for this test
+    */
+   private String moduleName;
+
+   /**
+    * Index under test
+    */
+   private SessionBeanIndex index;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Binds views of a standalone module in an in-VM namespace
+    */
+   @Before
+   public void bindViews() throws Exception
+   {
+      context = new InVMContextFactory().getInitialContext(new Hashtable<Object, Object>());
+      try
+      {
+         context.createSubcontext("java:global");
+      }
+      catch (final NameAlreadyBoundException nabe)
+      {
+         // Shared namespace; bound by an earlier test
+      }
+      moduleName = "module" + System.nanoTime();
+      final Context module = context.createSubcontext("java:global/" + moduleName);
+      module.bind("GreeterBean", "short-name");
+      module.bind("GreeterBean!" + INTERFACE, "view");
+      index = new SessionBeanIndex();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures views are indexed by interface and bean name, and removed by module
+    */
+   @Test
+   public void indexAndRemove() throws Exception
+   {
+      final String jndiName = "java:global/" + moduleName + "/GreeterBean!" + INTERFACE;
+      index.index(context, moduleName);
+      Assert.assertEquals(Collections.singleton(jndiName), index.getJndiNames(INTERFACE, null));
+      Assert.assertEquals(Collections.singleton(jndiName), index.getJndiNames(INTERFACE, "GreeterBean"));
+      Assert.assertTrue(index.getJndiNames(INTERFACE, "OtherBean").isEmpty());
+
+      index.remove(moduleName);
+      Assert.assertTrue("Views of removed module should not be indexed", index.getJndiNames(INTERFACE, null)
+            .isEmpty());
+   }
+
+   /**
+    * Ensures views of modules within an application are indexed, and reindexing picks up
+    * what is bound and drops what is not
+    */
+   @Test
+   public void reindex() throws Exception
+   {
+      final String appName = "app" + System.nanoTime();
+      context.createSubcontext("java:global/" + appName).createSubcontext("web").bind("OtherBean!" + INTERFACE,
+            "view");
+      index.reindex(context);
+      Assert.assertTrue(index.getJndiNames(INTERFACE, "OtherBean").contains(
+            "java:global/" + appName + "/web/OtherBean!" + INTERFACE));
+
+      context.unbind("java:global/" + appName + "/web/OtherBean!" + INTERFACE);
+      context.destroySubcontext("java:global/" + appName + "/web");
+      context.destroySubcontext("java:global/" + appName);
+      index.reindex(context);
+      Assert.assertTrue(index.getJndiNames(INTERFACE, "OtherBean").isEmpty());
+   }
+}
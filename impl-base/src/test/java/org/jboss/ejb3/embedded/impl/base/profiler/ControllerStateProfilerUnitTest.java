@@ -0,0 +1,278 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.embedded.impl.base.profiler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.jboss.beans.metadata.spi.builder.BeanMetaDataBuilder;
+import org.jboss.bootstrap.api.descriptor.BootstrapDescriptor;
+import org.jboss.bootstrap.api.lifecycle.LifecycleState;
+import org.jboss.bootstrap.api.mc.server.MCServer;
+import org.jboss.bootstrap.api.mc.server.MCServerFactory;
+import org.jboss.ejb3.embedded.api.JBossEJBContainerProperties;
+import org.jboss.ejb3.embedded.impl.base.JBossEJBContainerBase;
+import org.jboss.kernel.spi.dependency.KernelController;
+import org.jboss.reloaded.api.ReloadedDescriptors;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link ControllerStateProfiler} records the time contexts 
+ * spend in each state and waiting on each dependency, and that containers
+ * profile only when requested
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class ControllerStateProfilerUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * The underlying MC server
+    */
+   private static final MCServer server = MCServerFactory.createServer();
+
+   /**
+    * Name of the sampling {@link Thread} of a running profiler
+    */
+   private static final String THREAD_NAME_PROFILER = "EJBContainer Controller State Profiler";
+
+   /**
+    * Interval between samples, in milliseconds
+    */
+   private static final long INTERVAL = 10;
+
+   /**
+    * Time a context is kept waiting, in milliseconds
+    */
+   private static final long WAIT = 300;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Configures and starts the underlying MC server
+    */
+   @BeforeClass
+   public static void startMc() throws Exception
+   {
+      final List<BootstrapDescriptor> descriptors = server.getConfiguration().getBootstrapDescriptors();
+      descriptors.add(ReloadedDescriptors.getClassLoadingDescriptor());
+      descriptors.add(ReloadedDescriptors.getVdfDescriptor());
+      server.start();
+   }
+
+   /**
+    * Cleans up and shuts down MC
+    */
+   @AfterClass
+   public static void stopMc() throws Exception
+   {
+      if (server != null && server.getState().equals(LifecycleState.STARTED))
+      {
+         server.stop();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that the time a context waits upon a dependency is charged to its state
+    * and to that dependency
+    */
+   @Test
+   public void recordsTimeInStateAndWaits() throws Throwable
+   {
+      final KernelController controller = server.getKernel().getController();
+      final ControllerStateProfiler profiler = new ControllerStateProfiler(controller, INTERVAL);
+      profiler.start();
+      try
+      {
+         // Keep a context waiting, then satisfy it
+         controller.install(BeanMetaDataBuilder.createBuilder("Dependent", Object.class.getName()).addDependency(
+               "Dependency").getBeanMetaData());
+         Thread.sleep(WAIT);
+         controller.install(BeanMetaDataBuilder.createBuilder("Dependency", Object.class.getName())
+               .getBeanMetaData());
+         Assert.assertNotNull("Dependent should be installed", controller.getInstalledContext("Dependent"));
+      }
+      finally
+      {
+         profiler.stop();
+         controller.uninstall("Dependent");
+         controller.uninstall("Dependency");
+      }
+
+      // Charged to the state in which it waited
+      final Map<String, Long> timeInState = profiler.getTimeInState("Dependent");
+      Assert.assertNotNull("Waiting context should have been observed", timeInState);
+      long total = 0;
+      for (final Long time : timeInState.values())
+      {
+         total += time;
+      }
+      Assert.assertTrue("Time in state should account for the wait: " + timeInState, total >= WAIT / 2);
+
+      // And to the dependency
+      final Long waited = profiler.getWaitedOn("Dependent").get("Dependency");
+      Assert.assertNotNull("Wait upon the dependency should have been recorded", waited);
+      Assert.assertTrue("Wait upon the dependency should account for the wait: " + waited, waited >= WAIT / 2);
+      Assert.assertTrue(profiler.report(), profiler.report().contains("on Dependency"));
+   }
+
+   /**
+    * Ensures that nothing is recorded unless started
+    */
+   @Test
+   public void recordsNothingUnlessStarted() throws Throwable
+   {
+      final KernelController controller = server.getKernel().getController();
+      final ControllerStateProfiler profiler = new ControllerStateProfiler(controller, INTERVAL);
+      try
+      {
+         controller.install(BeanMetaDataBuilder.createBuilder("Unprofiled", Object.class.getName()).addDependency(
+               "Missing").getBeanMetaData());
+         Thread.sleep(INTERVAL * 5);
+      }
+      finally
+      {
+         controller.uninstall("Unprofiled");
+      }
+      Assert.assertNull("Nothing should be observed unless started", profiler.getTimeInState("Unprofiled"));
+      Assert.assertTrue(profiler.report(), profiler.report().contains("0 contexts observed"));
+   }
+
+   /**
+    * Ensures that a container profiles the deployment of its modules only if 
+    * {@link JBossEJBContainerProperties#PROFILE_CONTROLLER} is set
+    */
+   @Test
+   public void containerProfilesOnlyWhenEnabled() throws Exception
+   {
+      Assert.assertFalse("Profiler should not run by default", this.isProfiledDuringDeployment(
+            new HashMap<Object, Object>(), "UnprofiledProbe"));
+
+      final Map<Object, Object> properties = new HashMap<Object, Object>();
+      properties.put(JBossEJBContainerProperties.PROFILE_CONTROLLER, true);
+      Assert.assertTrue("Profiler should run when enabled", this.isProfiledDuringDeployment(properties,
+            "ProfiledProbe"));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a container with the specified properties deploying a {@link ProbeBean}
+    * of the specified name, returning whether a profiler was running as it started
+    */
+   private boolean isProfiledDuringDeployment(final Map<Object, Object> properties, final String beanName)
+         throws IOException
+   {
+      final File module = File.createTempFile("probe", "-jboss-beans.xml");
+      final Writer writer = new OutputStreamWriter(new FileOutputStream(module), "UTF-8");
+      try
+      {
+         writer.write("<deployment xmlns=\"urn:jboss:bean-deployer:2.0\">\n");
+         writer.write("  <bean name=\"" + beanName + "\" class=\"" + ProbeBean.class.getName() + "\" />\n");
+         writer.write("</deployment>\n");
+      }
+      finally
+      {
+         writer.close();
+      }
+
+      ProbeBean.profiled = null;
+      final TestJBossEJBContainer container = new TestJBossEJBContainer(properties, server, new String[]
+      {module.getAbsolutePath()});
+      try
+      {
+         Assert.assertNotNull("Probe should have been started", ProbeBean.profiled);
+         return ProbeBean.profiled;
+      }
+      finally
+      {
+         container.close();
+         module.delete();
+      }
+   }
+
+   /**
+    * Bean recording whether a profiler is running as it starts
+    * 
+    * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+    * @version $Revision: $
+    */
+   public static class ProbeBean
+   {
+      /**
+       * Whether a profiler was running upon the last start, or null if not started
+       */
+      static volatile Boolean profiled;
+
+      public void start()
+      {
+         boolean running = false;
+         for (final Thread thread : Thread.getAllStackTraces().keySet())
+         {
+            running |= THREAD_NAME_PROFILER.equals(thread.getName()) && thread.isAlive();
+         }
+         profiled = running;
+      }
+   }
+
+   /**
+    * Test concrete extension of {@link JBossEJBContainerBase}
+    */
+   private static final class TestJBossEJBContainer extends JBossEJBContainerBase
+   {
+      TestJBossEJBContainer(final Map<?, ?> properties, final MCServer server, final String[] modules)
+      {
+         super(properties, server, modules);
+      }
+
+      @Override
+      public void close()
+      {
+         this.undeployAll();
+         this.releaseMCServer();
+      }
+   }
+
+}
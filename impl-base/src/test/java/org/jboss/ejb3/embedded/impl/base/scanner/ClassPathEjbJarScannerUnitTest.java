@@ -182,6 +182,26 @@ public class ClassPathEjbJarScannerUnitTest
 
    }
 
+   /**
+    * Tests that the {@link ClassPathEjbJarScanner} keeps no threads running 
+    * once a scan is done, and that scanning again finds the same
+    */
+   @Test
+   public void leavesNoThreadsAfterScan() throws InterruptedException
+   {
+      final int found = ClassPathEjbJarScanner.getEjbJars().length;
+      for (final Thread thread : Thread.getAllStackTraces().keySet())
+      {
+         if ("EJB JAR Scanner".equals(thread.getName()))
+         {
+            thread.join(5000);
+            Assert.assertFalse("Thread of a finished scan still running: " + thread, thread.isAlive());
+         }
+      }
+      Assert.assertEquals("EJB Modules found on ClassPath upon another scan differ", found,
+            ClassPathEjbJarScanner.getEjbJars().length);
+   }
+
    //-------------------------------------------------------------------------------------||
    // Internal Helper Methods ------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -22,14 +22,21 @@
 
 package org.jboss.ejb3.embedded.impl.shrinkwrap;
 
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import javax.naming.Context;
+import javax.naming.NamingException;
 
 import org.jboss.deployers.spi.DeploymentException;
 import org.jboss.ejb3.embedded.api.EJBDeploymentException;
 import org.jboss.ejb3.embedded.api.JBossEJBContainer;
 import org.jboss.ejb3.embedded.api.shrinkwrap.ShrinkWrapEJBContainer;
+import org.jboss.ejb3.embedded.impl.base.deployment.EjbModules;
+import org.jboss.ejb3.embedded.impl.base.naming.EmbeddedNamingContext;
 import org.jboss.ejb3.embedded.spi.JBossEJBContainerProvider;
 import org.jboss.kernel.Kernel;
 import org.jboss.shrinkwrap.api.Archive;
@@ -148,6 +155,16 @@ public class ShrinkWrapEJBContainerImpl implements ShrinkWrapEJBContainer
          // Translate
          throw EJBDeploymentException.newInstance("Could not undeploy " + Arrays.asList(archives), e);
       }
+
+      // Cached lookups of the undeployed modules are now stale
+      final Context context = delegate.getContext();
+      if (context instanceof EmbeddedNamingContext)
+      {
+         for (final Archive<?> archive : archives)
+         {
+            ((EmbeddedNamingContext) context).evictModule(EjbModules.getModuleName(archive.getName()));
+         }
+      }
    }
 
    /**
@@ -170,4 +187,127 @@ public class ShrinkWrapEJBContainerImpl implements ShrinkWrapEJBContainer
    {
       return delegate.getContext();
    }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#deploy(java.net.URL[])
+    */
+   @Override
+   public void deploy(final URL... urls) throws EJBDeploymentException, IllegalArgumentException
+   {
+      delegate.deploy(urls);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#deploy(java.io.File[])
+    */
+   @Override
+   public void deploy(final File... files) throws EJBDeploymentException, IllegalArgumentException
+   {
+      delegate.deploy(files);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#deploy(java.lang.String, java.io.InputStream)
+    */
+   @Override
+   public URL deploy(final String name, final InputStream archive) throws EJBDeploymentException,
+         IllegalArgumentException
+   {
+      return delegate.deploy(name, archive);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#deploy(java.lang.String, java.nio.ByteBuffer)
+    */
+   @Override
+   public URL deploy(final String name, final ByteBuffer archive) throws EJBDeploymentException,
+         IllegalArgumentException
+   {
+      return delegate.deploy(name, archive);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#redeploy(java.net.URL[])
+    */
+   @Override
+   public void redeploy(final URL... urls) throws EJBDeploymentException, IllegalArgumentException
+   {
+      delegate.redeploy(urls);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#undeploy(java.net.URL[])
+    */
+   @Override
+   public void undeploy(final URL... urls) throws EJBDeploymentException, IllegalArgumentException
+   {
+      delegate.undeploy(urls);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#undeploy(java.io.File[])
+    */
+   @Override
+   public void undeploy(final File... files) throws EJBDeploymentException, IllegalArgumentException
+   {
+      delegate.undeploy(files);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#markBaseline()
+    */
+   @Override
+   public void markBaseline()
+   {
+      delegate.markBaseline();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#restoreBaseline()
+    */
+   @Override
+   public void restoreBaseline() throws EJBDeploymentException, IllegalStateException
+   {
+      delegate.restoreBaseline();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#warmUp()
+    */
+   @Override
+   public void warmUp() throws NamingException
+   {
+      delegate.warmUp();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#lookup(java.lang.Class)
+    */
+   @Override
+   public <T> T lookup(final Class<T> businessInterface) throws NamingException, IllegalArgumentException
+   {
+      return delegate.lookup(businessInterface);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.api.JBossEJBContainer#lookup(java.lang.String, java.lang.Class)
+    */
+   @Override
+   public <T> T lookup(final String beanName, final Class<T> businessInterface) throws NamingException,
+         IllegalArgumentException
+   {
+      return delegate.lookup(beanName, businessInterface);
+   }
 }
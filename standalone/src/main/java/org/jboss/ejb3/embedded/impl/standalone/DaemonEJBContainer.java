@@ -0,0 +1,544 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.embedded.impl.standalone;
+
+import javax.ejb.EJBException;
+import javax.ejb.embeddable.EJBContainer;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An EJBContainer living in a daemon JVM on the same host (see org.jboss.ejb3.embedded.sub.EJBContainerDaemon),
+ * which is launched if not yet running and then reused by subsequent JVMs until idle.
+ * 
+ * Modules are deployed by location, so they must be on the shared filesystem. Lookups
+ * on the context are proxied to the daemon, thus only serializable objects, such as
+ * remote business views, can be looked up.
+ * 
+ * The daemon is only trusted, and only trusts us, once both ends have proven to know the token it
+ * wrote to a file only the user can read. A daemon serving another jboss home, server configuration
+ * or class path is refused.
+ * 
+ * @author <a href="mailto:cdewolf@redhat.com">Carlo de Wolf</a>
+ */
+class DaemonEJBContainer extends EJBContainer
+{
+   // protocol, must match org.jboss.ejb3.embedded.sub.EJBContainerDaemon
+   private static final String DEPLOY = "deploy";
+   private static final String LOOKUP = "lookup";
+   private static final String CLOSE = "close";
+   private static final int PROTOCOL_VERSION = 1;
+   private static final int NONCE_LENGTH = 16;
+   private static final String MAC_ALGORITHM = "HmacSHA1";
+
+   private static final String SCANNER_CLASS_NAME = "org.jboss.ejb3.embedded.impl.base.scanner.ClassPathEjbJarScanner";
+
+   private final Socket socket;
+   private final DataOutputStream out;
+   private final ObjectInputStream in;
+   private final Context context;
+
+   private DaemonEJBContainer(Socket socket, final ClassLoader loader, byte token[], String handshake[]) throws IOException, GeneralSecurityException
+   {
+      this.socket = socket;
+      this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      // the daemon speaks once it has booted
+      authenticate(new DataInputStream(socket.getInputStream()), token);
+      for(String s : handshake)
+         out.writeUTF(s);
+      out.flush();
+      this.in = new ObjectInputStream(socket.getInputStream())
+      {
+         @Override
+         protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+         {
+            try
+            {
+               return Class.forName(desc.getName(), false, loader);
+            }
+            catch(ClassNotFoundException e)
+            {
+               return super.resolveClass(desc);
+            }
+         }
+      };
+      this.context = (Context) Proxy.newProxyInstance(Context.class.getClassLoader(), new Class<?>[] { Context.class }, new InvocationHandler()
+      {
+         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+         {
+            String name = method.getName();
+            if(name.equals("lookup"))
+               return invokeDaemon(LOOKUP, null, String.valueOf(args[0]));
+            if(name.equals("close"))
+               return null;
+            if(name.equals("getEnvironment"))
+               return new Hashtable<Object, Object>();
+            if(name.equals("equals"))
+               return proxy == args[0];
+            if(name.equals("hashCode"))
+               return System.identityHashCode(proxy);
+            if(name.equals("toString"))
+               return "Context of " + DaemonEJBContainer.this;
+            throw new OperationNotSupportedException(name + " is not supported on a daemon container context");
+         }
+      });
+      if(!in.readBoolean())
+         throw new EJBException(in.readUTF() + ", stop it or configure another org.jboss.ejb3.embedded.daemon.port");
+   }
+
+   /**
+    * Proves we know the token and checks the daemon does too, before trusting anything it sends.
+    */
+   private void authenticate(DataInputStream din, byte token[]) throws IOException, GeneralSecurityException
+   {
+      byte nonce[] = new byte[NONCE_LENGTH];
+      din.readFully(nonce);
+      byte clientNonce[] = new byte[NONCE_LENGTH];
+      new SecureRandom().nextBytes(clientNonce);
+      out.write(clientNonce);
+      out.write(sign(token, nonce));
+      out.flush();
+      byte proof[] = new byte[sign(token, clientNonce).length];
+      din.readFully(proof);
+      if(!MessageDigest.isEqual(proof, sign(token, clientNonce)))
+         throw new EJBException("The process listening on " + socket.getRemoteSocketAddress() + " is not an embedded container daemon of this user");
+   }
+
+   /**
+    * Connects to the daemon on the given port, launching it if need be, and deploys the modules.
+    */
+   static EJBContainer create(Map<?, ?> properties, ClassLoader beanLoader, ClassLoader loader, String jbossHome, String serverConfig, int port, long launchTimeout) throws EJBException
+   {
+      String modules[] = modules(properties, beanLoader, loader);
+      String appName = properties == null ? null : (String) properties.get(EJBContainer.APP_NAME);
+
+      Socket socket = connect(port);
+      if(socket == null)
+      {
+         launch(loader, jbossHome, serverConfig, port);
+         long deadline = System.currentTimeMillis() + launchTimeout;
+         while(socket == null)
+         {
+            if(System.currentTimeMillis() > deadline)
+               throw new EJBException("Embedded container daemon did not start listening on port " + port + " within " + launchTimeout + " ms");
+            try
+            {
+               Thread.sleep(100);
+            }
+            catch(InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+               throw new EJBException(e);
+            }
+            socket = connect(port);
+         }
+      }
+
+      try
+      {
+         byte token[] = readToken(port, System.currentTimeMillis() + launchTimeout);
+         DaemonEJBContainer container = new DaemonEJBContainer(socket, loader, token, handshake(jbossHome, serverConfig, daemonClassPath(loader)));
+         container.invokeDaemon(DEPLOY, modules, appName);
+         return container;
+      }
+      catch(IOException e)
+      {
+         close(socket);
+         throw new EJBException(e);
+      }
+      catch(GeneralSecurityException e)
+      {
+         close(socket);
+         throw new EJBException(e);
+      }
+      catch(NamingException e)
+      {
+         close(socket);
+         throw new EJBException(e);
+      }
+      catch(EJBException e)
+      {
+         close(socket);
+         throw e;
+      }
+   }
+
+   /**
+    * The token the daemon on the given port wrote, waiting for it to appear if need be.
+    * Must match org.jboss.ejb3.embedded.sub.EJBContainerDaemon#tokenFile.
+    */
+   private static byte[] readToken(int port, long deadline) throws IOException
+   {
+      File file = new File(new File(System.getProperty("user.home"), ".jboss-ejb3-embedded"), "daemon-" + port + ".token");
+      // the daemon writes it right after binding, so it may lag behind
+      while(!file.isFile() || file.length() == 0)
+      {
+         if(System.currentTimeMillis() > deadline)
+            throw new EJBException("Embedded container daemon on port " + port + " did not write its token " + file);
+         try
+         {
+            Thread.sleep(50);
+         }
+         catch(InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            throw new EJBException(e);
+         }
+      }
+      InputStream in = new FileInputStream(file);
+      try
+      {
+         ByteArrayOutputStream token = new ByteArrayOutputStream();
+         byte buffer[] = new byte[256];
+         int n;
+         while((n = in.read(buffer)) != -1)
+            token.write(buffer, 0, n);
+         return token.toByteArray();
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+
+   /**
+    * Must match org.jboss.ejb3.embedded.sub.EJBContainerDaemon#handshake.
+    */
+   private static String[] handshake(String jbossHome, String serverConfig, String classPath) throws GeneralSecurityException
+   {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      return new String[] { String.valueOf(PROTOCOL_VERSION), new File(jbossHome).getAbsolutePath(), serverConfig, hex(digest.digest(classPath.getBytes())) };
+   }
+
+   private static byte[] sign(byte token[], byte nonce[]) throws GeneralSecurityException
+   {
+      Mac mac = Mac.getInstance(MAC_ALGORITHM);
+      mac.init(new SecretKeySpec(token, MAC_ALGORITHM));
+      return mac.doFinal(nonce);
+   }
+
+   private static String hex(byte bytes[])
+   {
+      StringBuilder sb = new StringBuilder(bytes.length * 2);
+      for(byte b : bytes)
+         sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      return sb.toString();
+   }
+
+   @Override
+   public void close()
+   {
+      try
+      {
+         invokeDaemon(CLOSE, null, null);
+      }
+      catch(Exception e)
+      {
+         // the daemon undeploys when we go away anyway
+      }
+      finally
+      {
+         close(socket);
+      }
+   }
+
+   @Override
+   public Context getContext()
+   {
+      return context;
+   }
+
+   /**
+    * Sends a command with the modules to deploy, if any, and the optional argument.
+    */
+   private synchronized Object invokeDaemon(String command, String modules[], String argument) throws NamingException
+   {
+      try
+      {
+         out.writeUTF(command);
+         if(modules != null)
+         {
+            out.writeInt(modules.length);
+            for(String module : modules)
+               out.writeUTF(module);
+            out.writeBoolean(argument != null);
+         }
+         if(argument != null)
+            out.writeUTF(argument);
+         out.flush();
+         if(in.readBoolean())
+            return in.readObject();
+         throw new NamingException(in.readUTF());
+      }
+      catch(IOException e)
+      {
+         NamingException ne = new NamingException("Lost the embedded container daemon");
+         ne.setRootCause(e);
+         throw ne;
+      }
+      catch(ClassNotFoundException e)
+      {
+         NamingException ne = new NamingException("Can't resolve the result of " + command);
+         ne.setRootCause(e);
+         throw ne;
+      }
+   }
+
+   private static Socket connect(int port)
+   {
+      try
+      {
+         return new Socket(InetAddress.getByName(null), port);
+      }
+      catch(ConnectException e)
+      {
+         return null;
+      }
+      catch(IOException e)
+      {
+         throw new EJBException(e);
+      }
+   }
+
+   private static void close(Socket socket)
+   {
+      try
+      {
+         socket.close();
+      }
+      catch(IOException e)
+      {
+         // ignore
+      }
+   }
+
+   /**
+    * The absolute module locations, scanned for on the class path if not specified. Modules are
+    * given as for any EJBContainer (a String, File, URL or java.nio.file.Path, or an array or
+    * Collection of these), but must be files, as the daemon deploys them by path.
+    */
+   static String[] modules(Map<?, ?> properties, ClassLoader beanLoader, ClassLoader loader)
+   {
+      Object modules = properties == null ? null : properties.get(EJBContainer.MODULES);
+      if(modules == null)
+         return scan(beanLoader, loader);
+      List<String> paths = new ArrayList<String>();
+      addModules(paths, modules);
+      return paths.toArray(new String[paths.size()]);
+   }
+
+   private static void addModules(List<String> paths, Object modules)
+   {
+      if(modules instanceof Object[])
+         modules = Arrays.asList((Object[]) modules);
+      if(modules instanceof Collection)
+      {
+         for(Object module : (Collection<?>) modules)
+            addModules(paths, module);
+      }
+      else
+         paths.add(toFile(modules).getAbsolutePath());
+   }
+
+   private static File toFile(Object module)
+   {
+      if(module instanceof File)
+         return (File) module;
+      if(module instanceof String && !((String) module).startsWith("file:"))
+         return new File((String) module);
+      // java.nio.file.Path is referenced by name, so as to run upon JREs without it
+      Class<?> pathClass = null;
+      if(!(module instanceof String) && !(module instanceof URL))
+      {
+         pathClass = module == null ? null : pathInterface(module.getClass());
+         if(pathClass == null)
+            throw new EJBException("EJB 3.1 FR 22.2.2.2: Illegal type " + (module == null ? null : module.getClass()) + " for " + EJBContainer.MODULES);
+      }
+      URI uri;
+      try
+      {
+         if(module instanceof String)
+            uri = new URI((String) module);
+         else if(module instanceof URL)
+            uri = ((URL) module).toURI();
+         else
+            uri = (URI) pathClass.getMethod("toUri").invoke(module);
+      }
+      catch(Exception e)
+      {
+         throw new EJBException("Can't locate module " + module, e);
+      }
+      if(!"file".equals(uri.getScheme()))
+         throw new EJBException("Module " + module + " is not a file, as required in daemon mode");
+      return new File(uri);
+   }
+
+   private static Class<?> pathInterface(Class<?> type)
+   {
+      for(Class<?> cls = type; cls != null; cls = cls.getSuperclass())
+      {
+         for(Class<?> iface : cls.getInterfaces())
+         {
+            if(iface.getName().equals("java.nio.file.Path"))
+               return iface;
+            Class<?> inherited = pathInterface(iface);
+            if(inherited != null)
+               return inherited;
+         }
+      }
+      return null;
+   }
+
+   private static String[] scan(ClassLoader beanLoader, ClassLoader loader)
+   {
+      Thread current = Thread.currentThread();
+      ClassLoader previous = current.getContextClassLoader();
+      current.setContextClassLoader(beanLoader);
+      try
+      {
+         String candidates[] = (String[]) loader.loadClass(SCANNER_CLASS_NAME).getMethod("getEjbJars").invoke(null);
+         for(int i = 0; i < candidates.length; i++)
+            candidates[i] = new File(candidates[i]).getAbsolutePath();
+         return candidates;
+      }
+      catch(Exception e)
+      {
+         throw new EJBException(e);
+      }
+      finally
+      {
+         current.setContextClassLoader(previous);
+      }
+   }
+
+   /**
+    * Launches the daemon JVM. Only jars of the class path are passed on, so
+    * that project classes (being the modules or used by them) are not cached by the daemon between runs.
+    */
+   private static void launch(ClassLoader loader, String jbossHome, String serverConfig, int port)
+   {
+      List<String> command = new ArrayList<String>();
+      command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+      command.add("-cp");
+      command.add(daemonClassPath(loader));
+      command.add("-Djboss.home=" + jbossHome);
+      command.add("-Dembedded.server.name=" + serverConfig);
+      for(String name : new String[] { "embedded.bind.address", "embedded.class.path", EJBContainerDaemonMain.IDLE_TIMEOUT_PROPERTY })
+      {
+         String value = System.getProperty(name);
+         if(value != null)
+            command.add("-D" + name + "=" + value);
+      }
+      command.add(EJBContainerDaemonMain.class.getName());
+      command.add(String.valueOf(port));
+      try
+      {
+         Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+         // the daemon logs to a file of its own and must outlive us
+         InputStream output = process.getInputStream();
+         output.close();
+         process.getOutputStream().close();
+      }
+      catch(IOException e)
+      {
+         throw new EJBException("Failed to launch the embedded container daemon", e);
+      }
+   }
+
+   private static String daemonClassPath(ClassLoader loader)
+   {
+      String classPath = System.getProperty("surefire.test.class.path");
+      if(classPath == null || classPath.length() == 0)
+         classPath = System.getProperty("java.class.path");
+      StringBuilder result = new StringBuilder(location(DaemonEJBContainer.class)).append(File.pathSeparator).append(location(EJBContainer.class));
+      // the daemon itself and the scanner it uses may well be directories
+      try
+      {
+         result.append(File.pathSeparator).append(location(loader.loadClass(EJBContainerDaemonMain.DAEMON_CLASS_NAME)));
+         result.append(File.pathSeparator).append(location(loader.loadClass(SCANNER_CLASS_NAME)));
+      }
+      catch(ClassNotFoundException e)
+      {
+         throw new EJBException(e);
+      }
+      for(String entry : classPath.split(File.pathSeparator))
+      {
+         if(new File(entry).isFile())
+            result.append(File.pathSeparator).append(entry);
+      }
+      return result.toString();
+   }
+
+   private static String location(Class<?> cls)
+   {
+      CodeSource codeSource = cls.getProtectionDomain().getCodeSource();
+      if(codeSource == null)
+         throw new EJBException("Can't determine the location of " + cls);
+      URL location = codeSource.getLocation();
+      try
+      {
+         return new File(location.toURI()).getAbsolutePath();
+      }
+      catch(URISyntaxException e)
+      {
+         throw new EJBException(e);
+      }
+   }
+
+   @Override
+   public String toString()
+   {
+      return "EJBContainer in daemon at " + socket.getRemoteSocketAddress();
+   }
+}
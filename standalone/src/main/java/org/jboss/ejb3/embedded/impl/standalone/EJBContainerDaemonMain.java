@@ -0,0 +1,67 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.embedded.impl.standalone;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.URLClassLoader;
+
+/**
+ * Entry point of the daemon JVM launched by {@link DaemonEJBContainer}: boots JBossEmbeddedAS
+ * out of the same class loader as {@link JBossStandaloneEJBContainerProvider} would, and
+ * serves containers on the port given as the sole argument until idle.
+ * 
+ * Output goes to jboss-ejb3-embedded-daemon-&lt;port&gt;.log in the temporary directory.
+ * 
+ * @author <a href="mailto:cdewolf@redhat.com">Carlo de Wolf</a>
+ */
+public class EJBContainerDaemonMain
+{
+   static final String IDLE_TIMEOUT_PROPERTY = "org.jboss.ejb3.embedded.daemon.idle.timeout";
+
+   static final String DAEMON_CLASS_NAME = "org.jboss.ejb3.embedded.sub.EJBContainerDaemon";
+
+   // half an hour
+   private static final long DEFAULT_IDLE_TIMEOUT = 30 * 60 * 1000;
+
+   public static void main(String args[]) throws Exception
+   {
+      int port = Integer.parseInt(args[0]);
+
+      // the launching JVM doesn't read our output
+      PrintStream log = new PrintStream(new FileOutputStream(new File(System.getProperty("java.io.tmpdir"), "jboss-ejb3-embedded-daemon-" + port + ".log")), true);
+      System.setOut(log);
+      System.setErr(log);
+
+      String jbossHome = JBossStandaloneEJBContainerProvider.jbossHome();
+      String serverConfig = JBossStandaloneEJBContainerProvider.serverConfig();
+      long idleTimeout = Long.getLong(IDLE_TIMEOUT_PROPERTY, DEFAULT_IDLE_TIMEOUT);
+
+      URLClassLoader loader = JBossStandaloneEJBContainerProvider.createClassLoader(ClassLoader.getSystemClassLoader(), jbossHome, serverConfig);
+      Thread.currentThread().setContextClassLoader(loader);
+      Method serve = loader.loadClass(DAEMON_CLASS_NAME).getMethod("serve", URLClassLoader.class, String.class, String.class, int.class, long.class);
+      serve.invoke(null, loader, jbossHome, serverConfig, port, idleTimeout);
+      System.exit(0);
+   }
+}
@@ -0,0 +1,541 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.embedded.impl.standalone;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * A URLClassLoader which knows which of its jars hold which directories (thus packages), so that
+ * a class or resource is looked for only in the jars that may have it, instead of probing every jar
+ * in turn. With the few hundred jars of JBossEmbeddedAS most lookups would otherwise miss in most jars.
+ * 
+ * The index is kept in a file, so that it need not be built again by the next JVM; jars whose
+ * modification time or length changed since are indexed again. Directories on the class path are
+ * not indexed, but looked into directly for every lookup. Jars and directories are looked into in
+ * class path order, as URLClassLoader would.
+ * 
+ * @author <a href="mailto:cdewolf@redhat.com">Carlo de Wolf</a>
+ */
+class IndexedURLClassLoader extends URLClassLoader
+{
+   private static String INDEX_VERSION = "2";
+
+   static
+   {
+      try
+      {
+         registerAsParallelCapable();
+      }
+      catch(NoSuchMethodError e)
+      {
+         // before Java 7 class loading is serialized anyway
+      }
+   }
+
+   // jars which have a given directory, in class path order
+   private final Map<String, List<URL>> index;
+
+   // directories on the class path, which may hold anything, in class path order
+   private final Map<URL, File> directories = new LinkedHashMap<URL, File>();
+
+   // the class path order of each jar and directory
+   private final Map<URL, Integer> positions = new HashMap<URL, Integer>();
+
+   private final ConcurrentMap<URL, JarFile> jars = new ConcurrentHashMap<URL, JarFile>();
+
+   IndexedURLClassLoader(URL urls[], ClassLoader parent, File indexFile)
+   {
+      super(urls, parent);
+      this.index = index(urls, indexFile);
+   }
+
+   /**
+    * Builds the index of the given class path, reading what is still up to date from the given
+    * file, and writing it back if anything changed. Jars named by the manifest Class-Path of a jar
+    * are indexed right after it, where URLClassLoader would look into them.
+    */
+   private Map<String, List<URL>> index(URL urls[], File indexFile)
+   {
+      Map<String, Entry> previous = read(indexFile);
+      Map<String, Entry> current = new LinkedHashMap<String, Entry>();
+      List<URL> jarUrls = new ArrayList<URL>();
+      boolean changed = false;
+      LinkedList<URL> pending = new LinkedList<URL>(Arrays.asList(urls));
+      while(!pending.isEmpty())
+      {
+         URL url = pending.removeFirst();
+         String key = url.toExternalForm();
+         if(positions.containsKey(url))
+            continue;
+         File file = toFile(url);
+         if(file.isDirectory())
+         {
+            positions.put(url, positions.size());
+            directories.put(url, file);
+            continue;
+         }
+         if(!file.isFile())
+            continue;
+         positions.put(url, positions.size());
+         Entry entry = previous.get(key);
+         if(entry == null || entry.lastModified != file.lastModified() || entry.length != file.length())
+         {
+            entry = scan(url, file);
+            changed = true;
+         }
+         current.put(key, entry);
+         jarUrls.add(url);
+         List<URL> referenced = new ArrayList<URL>();
+         for(String classPath : entry.classPath)
+         {
+            try
+            {
+               referenced.add(new URL(classPath));
+            }
+            catch(MalformedURLException e)
+            {
+               // URLClassLoader would skip it as well
+            }
+         }
+         pending.addAll(0, referenced);
+      }
+      if(changed || previous.size() != current.size())
+         write(indexFile, current);
+
+      Map<String, List<URL>> index = new HashMap<String, List<URL>>();
+      for(URL url : jarUrls)
+      {
+         for(String dir : current.get(url.toExternalForm()).directories)
+         {
+            List<URL> jars = index.get(dir);
+            if(jars == null)
+            {
+               jars = new ArrayList<URL>(1);
+               index.put(dir, jars);
+            }
+            jars.add(url);
+         }
+      }
+      return index;
+   }
+
+   private static Entry scan(URL url, File file)
+   {
+      Entry entry = new Entry(file.lastModified(), file.length());
+      try
+      {
+         JarFile jar = new JarFile(file);
+         try
+         {
+            Enumeration<JarEntry> entries = jar.entries();
+            while(entries.hasMoreElements())
+            {
+               String name = entries.nextElement().getName();
+               entry.directories.add(directory(name));
+               // a directory entry is found by its name without the slash as well
+               if(name.endsWith("/"))
+                  entry.directories.add(directory(name.substring(0, name.length() - 1)));
+            }
+            Manifest manifest = jar.getManifest();
+            String classPath = manifest == null ? null : manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+            if(classPath != null)
+            {
+               for(String path : classPath.split(" "))
+               {
+                  if(path.length() > 0)
+                     entry.classPath.add(new URL(url, path).toExternalForm());
+               }
+            }
+         }
+         finally
+         {
+            jar.close();
+         }
+      }
+      catch(IOException e)
+      {
+         // not a jar; the class loader won't find anything in it either
+      }
+      return entry;
+   }
+
+   private static Map<String, Entry> read(File indexFile)
+   {
+      Map<String, Entry> entries = new HashMap<String, Entry>();
+      if(indexFile == null || !indexFile.isFile())
+         return entries;
+      try
+      {
+         BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+         try
+         {
+            if(!INDEX_VERSION.equals(in.readLine()))
+               return entries;
+            Entry entry = null;
+            String line;
+            while((line = in.readLine()) != null)
+            {
+               if(line.startsWith("\t"))
+               {
+                  // a directory of the jar
+                  if(entry != null)
+                     entry.directories.add(line.substring(1));
+                  continue;
+               }
+               if(line.startsWith("+\t"))
+               {
+                  // a jar named by its manifest Class-Path
+                  if(entry != null)
+                     entry.classPath.add(line.substring(2));
+                  continue;
+               }
+               // url, last modified and length
+               String fields[] = line.split("\t");
+               entry = new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+               entries.put(fields[0], entry);
+            }
+         }
+         finally
+         {
+            in.close();
+         }
+      }
+      catch(Exception e)
+      {
+         // build it again
+         entries.clear();
+      }
+      return entries;
+   }
+
+   private static void write(File indexFile, Map<String, Entry> entries)
+   {
+      if(indexFile == null)
+         return;
+      File dir = indexFile.getAbsoluteFile().getParentFile();
+      try
+      {
+         dir.mkdirs();
+         // other JVMs may be reading it, so replace it in one go
+         File temp = File.createTempFile(indexFile.getName(), ".tmp", dir);
+         BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+         try
+         {
+            out.write(INDEX_VERSION);
+            out.newLine();
+            for(Map.Entry<String, Entry> entry : entries.entrySet())
+            {
+               out.write(entry.getKey() + "\t" + entry.getValue().lastModified + "\t" + entry.getValue().length);
+               out.newLine();
+               for(String directory : entry.getValue().directories)
+               {
+                  out.write("\t" + directory);
+                  out.newLine();
+               }
+               for(String classPath : entry.getValue().classPath)
+               {
+                  out.write("+\t" + classPath);
+                  out.newLine();
+               }
+            }
+         }
+         finally
+         {
+            out.close();
+         }
+         if(!temp.renameTo(indexFile))
+         {
+            indexFile.delete();
+            if(!temp.renameTo(indexFile))
+               temp.delete();
+         }
+      }
+      catch(IOException e)
+      {
+         // no index for the next JVM, we have ours
+      }
+   }
+
+   @Override
+   protected Class<?> findClass(String name) throws ClassNotFoundException
+   {
+      String path = name.replace('.', '/') + ".class";
+      try
+      {
+         for(URL url : candidates(path))
+         {
+            File directory = directories.get(url);
+            if(directory != null)
+            {
+               File file = new File(directory, path);
+               if(file.isFile())
+                  return define(name, read(new FileInputStream(file)), url, null, null);
+               continue;
+            }
+            JarFile jar = jar(url);
+            JarEntry entry = jar.getJarEntry(path);
+            if(entry != null)
+            {
+               byte bytes[] = read(jar.getInputStream(entry));
+               return define(name, bytes, url, jar.getManifest(), entry.getCodeSigners());
+            }
+         }
+      }
+      catch(IOException e)
+      {
+         throw new ClassNotFoundException(name, e);
+      }
+      throw new ClassNotFoundException(name);
+   }
+
+   private Class<?> define(String name, byte bytes[], URL url, Manifest manifest, CodeSigner signers[])
+   {
+      int i = name.lastIndexOf('.');
+      if(i > 0)
+      {
+         String packageName = name.substring(0, i);
+         if(getPackage(packageName) == null)
+         {
+            try
+            {
+               if(manifest != null)
+                  definePackage(packageName, manifest, url);
+               else
+                  definePackage(packageName, null, null, null, null, null, null, null);
+            }
+            catch(IllegalArgumentException e)
+            {
+               // defined concurrently by another thread
+            }
+         }
+      }
+      return defineClass(name, bytes, 0, bytes.length, new CodeSource(url, signers));
+   }
+
+   @Override
+   public URL findResource(String name)
+   {
+      List<URL> resources = findResources(name, true);
+      return resources.isEmpty() ? null : resources.get(0);
+   }
+
+   @Override
+   public Enumeration<URL> findResources(String name) throws IOException
+   {
+      return Collections.enumeration(findResources(name, false));
+   }
+
+   private List<URL> findResources(String name, boolean first)
+   {
+      List<URL> resources = new ArrayList<URL>();
+      try
+      {
+         for(URL url : candidates(name))
+         {
+            File directory = directories.get(url);
+            URL resource = null;
+            if(directory != null)
+            {
+               File file = new File(directory, name);
+               // relative to the directory URL, as URLClassLoader has it
+               if(file.exists())
+                  resource = new URL(url, new URI(null, null, name, null).getRawPath());
+            }
+            else if(jar(url).getJarEntry(name) != null)
+               resource = new URL("jar:" + url.toExternalForm() + "!/" + name);
+            if(resource != null)
+            {
+               resources.add(resource);
+               if(first)
+                  return resources;
+            }
+         }
+      }
+      catch(IOException e)
+      {
+         // as if it's not there
+      }
+      catch(URISyntaxException e)
+      {
+         // as if it's not there
+      }
+      return resources;
+   }
+
+   /**
+    * The jars indexed as having the directory of the given path and all directories, in class path order.
+    */
+   private List<URL> candidates(String path)
+   {
+      List<URL> jars = index.get(directory(path));
+      if(jars == null)
+         jars = Collections.emptyList();
+      if(directories.isEmpty())
+         return jars;
+      List<URL> candidates = new ArrayList<URL>(jars.size() + directories.size());
+      Iterator<URL> i = jars.iterator();
+      Iterator<URL> j = directories.keySet().iterator();
+      URL jar = i.hasNext() ? i.next() : null;
+      URL directory = j.hasNext() ? j.next() : null;
+      while(jar != null || directory != null)
+      {
+         if(directory == null || (jar != null && positions.get(jar) < positions.get(directory)))
+         {
+            candidates.add(jar);
+            jar = i.hasNext() ? i.next() : null;
+         }
+         else
+         {
+            candidates.add(directory);
+            directory = j.hasNext() ? j.next() : null;
+         }
+      }
+      return candidates;
+   }
+
+   private JarFile jar(URL url) throws IOException
+   {
+      JarFile jar = jars.get(url);
+      if(jar != null)
+         return jar;
+      jar = new JarFile(toFile(url));
+      JarFile previous = jars.putIfAbsent(url, jar);
+      if(previous != null)
+      {
+         jar.close();
+         return previous;
+      }
+      return jar;
+   }
+
+   /**
+    * Closes the jars opened by this class loader, and as of Java 7 whatever URLClassLoader
+    * opened. Classes and resources not yet loaded can't be loaded anymore.
+    */
+   public void close() throws IOException
+   {
+      for(JarFile jar : jars.values())
+         jar.close();
+      jars.clear();
+      try
+      {
+         super.close();
+      }
+      catch(NoSuchMethodError e)
+      {
+         // before Java 7 there is nothing to close
+      }
+   }
+
+   private static String directory(String path)
+   {
+      if(path.startsWith("/"))
+         path = path.substring(1);
+      int i = path.lastIndexOf('/');
+      return i < 0 ? "" : path.substring(0, i);
+   }
+
+   private static byte[] read(InputStream in) throws IOException
+   {
+      try
+      {
+         ByteArrayOutputStream out = new ByteArrayOutputStream();
+         byte buffer[] = new byte[8192];
+         int n;
+         while((n = in.read(buffer)) != -1)
+            out.write(buffer, 0, n);
+         return out.toByteArray();
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+
+   static File toFile(URL url)
+   {
+      try
+      {
+         return new File(url.toURI());
+      }
+      catch(URISyntaxException e)
+      {
+         return new File(url.getPath());
+      }
+      catch(IllegalArgumentException e)
+      {
+         // not a file URL
+         return new File(url.getPath());
+      }
+   }
+
+   /**
+    * What the index holds of a single jar.
+    */
+   private static class Entry
+   {
+      final long lastModified;
+      final long length;
+      final Set<String> directories = new LinkedHashSet<String>();
+      final List<String> classPath = new ArrayList<String>();
+
+      Entry(long lastModified, long length)
+      {
+         this.lastModified = lastModified;
+         this.length = length;
+      }
+   }
+}
@@ -26,22 +26,189 @@ import javax.ejb.EJBException;
 import javax.ejb.embeddable.EJBContainer;
 import javax.ejb.spi.EJBContainerProvider;
 import java.io.File;
+import java.io.UnsupportedEncodingException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * If the system property org.jboss.ejb3.embedded.prewarm is true, JBossEmbeddedAS is booted in
+ * the background as soon as this provider is loaded, to be used by the first container created
+ * from the same context class loader.  The async variant of createEJBContainer allows the caller
+ * to get on with its own setup meanwhile.
+ * 
+ * If the system property org.jboss.ejb3.embedded.daemon is true, containers are served by a daemon
+ * JVM on this host instead, which is launched upon first need and kept running across JVMs until
+ * idle (see {@link DaemonEJBContainer}). The daemon listens on the loopback port given by
+ * org.jboss.ejb3.embedded.daemon.port, 47111 by default.
+ * 
+ * The JBossEmbeddedAS jars are loaded through a package to jar index (see {@link IndexedURLClassLoader}),
+ * kept in the directory given by org.jboss.ejb3.embedded.class.index.dir, java.io.tmpdir by default.
+ * Setting org.jboss.ejb3.embedded.class.index to false falls back to a plain URLClassLoader.
+ * 
+ * Closing an in-process container releases the class loader JBossEmbeddedAS was loaded from, and
+ * reports what keeps it reachable (see {@link ReleasingEJBContainer}).
+ * 
  * @author <a href="mailto:cdewolf@redhat.com">Carlo de Wolf</a>
  */
 public class JBossStandaloneEJBContainerProvider implements EJBContainerProvider
 {
    private static String EJBCONTAINER_CLASS_NAME = "org.jboss.ejb3.embedded.sub.JBossSubmersibleEJBContainer";
-   
+
+   private static String SERVER_CLASS_NAME = "org.jboss.embedded.api.server.JBossASEmbeddedServer";
+
+   private static String PREWARM_PROPERTY = "org.jboss.ejb3.embedded.prewarm";
+
+   private static String DAEMON_PROPERTY = "org.jboss.ejb3.embedded.daemon";
+
+   private static String DAEMON_PORT_PROPERTY = "org.jboss.ejb3.embedded.daemon.port";
+
+   private static String DAEMON_LAUNCH_TIMEOUT_PROPERTY = "org.jboss.ejb3.embedded.daemon.launch.timeout";
+
+   private static String CLASS_INDEX_PROPERTY = "org.jboss.ejb3.embedded.class.index";
+
+   private static String CLASS_INDEX_DIR_PROPERTY = "org.jboss.ejb3.embedded.class.index.dir";
+
+   private static int DEFAULT_DAEMON_PORT = 47111;
+
+   // two minutes
+   private static long DEFAULT_DAEMON_LAUNCH_TIMEOUT = 2 * 60 * 1000;
+
+   // the server booted upon loading, until taken by the first container
+   private static final AtomicReference<Future<Prewarmed>> prewarmed = new AtomicReference<Future<Prewarmed>>();
+
+   static
+   {
+      // a daemon is the ultimate prewarm
+      if(Boolean.getBoolean(PREWARM_PROPERTY) && !Boolean.getBoolean(DAEMON_PROPERTY))
+         prewarm();
+   }
+
+   /**
+    * A server booted ahead of time, and what it was booted for.
+    */
+   private static class Prewarmed
+   {
+      final ClassLoader beanLoader;
+      final String jbossHome;
+      final String serverConfig;
+      final URLClassLoader loader;
+      final Object server;
+
+      Prewarmed(ClassLoader beanLoader, String jbossHome, String serverConfig, URLClassLoader loader, Object server)
+      {
+         this.beanLoader = beanLoader;
+         this.jbossHome = jbossHome;
+         this.serverConfig = serverConfig;
+         this.loader = loader;
+         this.server = server;
+      }
+
+      boolean matches(ClassLoader beanLoader, String jbossHome, String serverConfig)
+      {
+         return this.beanLoader == beanLoader && this.jbossHome.equals(jbossHome) && this.serverConfig.equals(serverConfig);
+      }
+   }
+
+   private static void prewarm()
+   {
+      final ClassLoader beanLoader = Thread.currentThread().getContextClassLoader();
+      FutureTask<Prewarmed> task = new FutureTask<Prewarmed>(new Callable<Prewarmed>()
+      {
+         public Prewarmed call() throws Exception
+         {
+            String jbossHome = jbossHome();
+            String serverConfig = serverConfig();
+            URLClassLoader loader = createClassLoader(beanLoader, jbossHome, serverConfig);
+            Thread.currentThread().setContextClassLoader(loader);
+            Class<?> cls = loader.loadClass(EJBCONTAINER_CLASS_NAME);
+            Method startMethod = cls.getMethod("startServer", URLClassLoader.class, String.class, String.class);
+            Object server = startMethod.invoke(null, loader, jbossHome, serverConfig);
+            return new Prewarmed(beanLoader, jbossHome, serverConfig, loader, server);
+         }
+      });
+      prewarmed.set(task);
+      startDaemon(task, "EJBContainer Prewarm");
+   }
+
+   /**
+    * Takes the prewarmed server if it was booted for the given parameters, otherwise
+    * shuts it down in the background and returns null.
+    */
+   private static Prewarmed takePrewarmed(ClassLoader beanLoader, String jbossHome, String serverConfig)
+   {
+      final Future<Prewarmed> future = prewarmed.getAndSet(null);
+      if(future == null)
+         return null;
+      final Prewarmed warm;
+      try
+      {
+         warm = future.get();
+      }
+      catch(InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new EJBException(e);
+      }
+      catch(ExecutionException e)
+      {
+         // boot again the regular way, which reports what is wrong
+         return null;
+      }
+      if(warm.matches(beanLoader, jbossHome, serverConfig))
+         return warm;
+      startDaemon(new Runnable()
+      {
+         public void run()
+         {
+            try
+            {
+               Class<?> serverClass = warm.loader.loadClass(SERVER_CLASS_NAME);
+               warm.loader.loadClass(EJBCONTAINER_CLASS_NAME).getMethod("shutdownServer", serverClass).invoke(null, warm.server);
+            }
+            catch(Exception e)
+            {
+               // nothing more we can do with it
+            }
+         }
+      }, "EJBContainer Prewarm Shutdown");
+      return null;
+   }
+
+   private static void startDaemon(Runnable task, String name)
+   {
+      Thread thread = new Thread(task, name);
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   static String jbossHome()
+   {
+      String jbossHome = System.getenv("JBOSS_HOME");
+      if(jbossHome == null)
+         jbossHome = System.getProperty("jboss.home");
+      if(jbossHome == null)
+         throw new EJBException("Neither JBOSS_HOME nor jboss.home is set");
+      return jbossHome;
+   }
+
+   static String serverConfig()
+   {
+      return System.getProperty("embedded.server.name", "default");
+   }
+
    private static void addClassPath(List<URL> cp, String dirname)
    {
       try
@@ -77,14 +244,88 @@ public class JBossStandaloneEJBContainerProvider implements EJBContainerProvider
          }
       }
 
-      String jbossHome = System.getenv("JBOSS_HOME");
-      if(jbossHome == null)
-         jbossHome = System.getProperty("jboss.home");
-      if(jbossHome == null)
-         throw new EJBException("Neither JBOSS_HOME nor jboss.home is set");
+      String jbossHome = jbossHome();
+
+      String serverConfig = serverConfig();
+
+      if(Boolean.getBoolean(DAEMON_PROPERTY))
+      {
+         int port = Integer.getInteger(DAEMON_PORT_PROPERTY, DEFAULT_DAEMON_PORT);
+         long launchTimeout = Long.getLong(DAEMON_LAUNCH_TIMEOUT_PROPERTY, DEFAULT_DAEMON_LAUNCH_TIMEOUT);
+         return DaemonEJBContainer.create(properties, beanLoader, createClassLoader(beanLoader, jbossHome, serverConfig), jbossHome, serverConfig, port, launchTimeout);
+      }
+
+      Prewarmed warm = takePrewarmed(beanLoader, jbossHome, serverConfig);
+
+      // the prewarmed server lives in its own loader
+      URLClassLoader loader = warm != null ? warm.loader : createClassLoader(beanLoader, jbossHome, serverConfig);
+
+      // TODO: if properties are not set do some sensible default
+      //System.setProperty("java.util.logging.manager", "org.jboss.logmanager.LogManager");
+
+      try
+      {
+         // make sure lib/endorsed is properly picked up
+         assert Resource.class.getMethod("lookup") != null;
+         // if the class loader works out we should not have a ClassCastException down below
+         assert loader.loadClass(EJBContainer.class.getName()).equals(EJBContainer.class);
 
-      String serverConfig = System.getProperty("embedded.server.name", "default");
+         Thread.currentThread().setContextClassLoader(loader);
 
+         Class<?> cls = loader.loadClass(EJBCONTAINER_CLASS_NAME);
+         EJBContainer container;
+         if(warm != null)
+         {
+            Method createMethod = cls.getMethod("createEJBContainer", Map.class, URLClassLoader.class, String.class, String.class, loader.loadClass(SERVER_CLASS_NAME));
+            container = (EJBContainer) createMethod.invoke(null, properties, loader, jbossHome, serverConfig, warm.server);
+         }
+         else
+         {
+            Method createMethod = cls.getMethod("createEJBContainer", Map.class, URLClassLoader.class, String.class, String.class);
+            container = (EJBContainer) createMethod.invoke(null, properties, loader, jbossHome, serverConfig);
+         }
+         // let go of the loader on close, so many create/close cycles don't pile up servers worth of classes
+         return new ReleasingEJBContainer(container, loader, beanLoader, properties);
+      }
+      catch(ClassNotFoundException e)
+      {
+         throw new EJBException(e);
+      }
+      catch (NoSuchMethodException e)
+      {
+         throw new EJBException(e);
+      }
+      catch (InvocationTargetException e)
+      {
+         throw new EJBException(e);
+      }
+      catch (IllegalAccessException e)
+      {
+         throw new EJBException(e);
+      }
+   }
+
+   /**
+    * Creates the container in the background. Enterprise beans are loaded using the context
+    * class loader active on the calling thread.
+    */
+   public Future<EJBContainer> createEJBContainerAsync(final Map<?, ?> properties)
+   {
+      final ClassLoader beanLoader = Thread.currentThread().getContextClassLoader();
+      FutureTask<EJBContainer> task = new FutureTask<EJBContainer>(new Callable<EJBContainer>()
+      {
+         public EJBContainer call() throws Exception
+         {
+            Thread.currentThread().setContextClassLoader(beanLoader);
+            return createEJBContainer(properties);
+         }
+      });
+      startDaemon(task, "EJBContainer Async Creation");
+      return task;
+   }
+
+   static URLClassLoader createClassLoader(ClassLoader beanLoader, String jbossHome, String serverConfig)
+   {
       List<URL> cp = new ArrayList<URL>();
 
       //addClassPath(cp, jbossHome + "/lib/endorsed");
@@ -122,37 +363,35 @@ public class JBossStandaloneEJBContainerProvider implements EJBContainerProvider
       }
 
       // add everything to the user supplied class loader
-      URLClassLoader loader = new URLClassLoader(cp.toArray(new URL[0]), beanLoader);
-
-      // TODO: if properties are not set do some sensible default
-      //System.setProperty("java.util.logging.manager", "org.jboss.logmanager.LogManager");
+      URL urls[] = cp.toArray(new URL[0]);
+      if(!Boolean.parseBoolean(System.getProperty(CLASS_INDEX_PROPERTY, "true")))
+         return new URLClassLoader(urls, beanLoader);
+      return new IndexedURLClassLoader(urls, beanLoader, indexFile(urls));
+   }
 
+   /**
+    * The file keeping the index of the given class path across JVMs, named by a digest of
+    * the ordered class path alone. It is updated in place as entries change, the loader
+    * reindexing only those whose modification time or length differs.
+    */
+   static File indexFile(URL urls[])
+   {
+      String dir = System.getProperty(CLASS_INDEX_DIR_PROPERTY, System.getProperty("java.io.tmpdir"));
       try
       {
-         // make sure lib/endorsed is properly picked up
-         assert Resource.class.getMethod("lookup") != null;
-         // if the class loader works out we should not have a ClassCastException down below
-         assert loader.loadClass(EJBContainer.class.getName()).equals(EJBContainer.class);
-
-         Thread.currentThread().setContextClassLoader(loader);
-
-         Class<?> cls = loader.loadClass(EJBCONTAINER_CLASS_NAME);
-         Method createMethod = cls.getMethod("createEJBContainer", Map.class, URLClassLoader.class, String.class, String.class);
-         return (EJBContainer) createMethod.invoke(null, properties, loader, jbossHome, serverConfig);
-      }
-      catch(ClassNotFoundException e)
-      {
-         throw new EJBException(e);
-      }
-      catch (NoSuchMethodException e)
-      {
-         throw new EJBException(e);
+         MessageDigest digest = MessageDigest.getInstance("SHA-1");
+         for(URL url : urls)
+            digest.update((url.toExternalForm() + "\n").getBytes("UTF-8"));
+         StringBuilder name = new StringBuilder("jboss-ejb3-embedded-");
+         for(byte b : digest.digest())
+            name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+         return new File(dir, name.append(".index").toString());
       }
-      catch (InvocationTargetException e)
+      catch(GeneralSecurityException e)
       {
          throw new EJBException(e);
       }
-      catch (IllegalAccessException e)
+      catch(UnsupportedEncodingException e)
       {
          throw new EJBException(e);
       }
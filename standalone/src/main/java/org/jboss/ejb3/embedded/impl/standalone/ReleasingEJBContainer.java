@@ -0,0 +1,209 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.embedded.impl.standalone;
+
+import org.jboss.logging.Logger;
+
+import javax.ejb.embeddable.EJBContainer;
+import javax.naming.Context;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.net.URLClassLoader;
+import java.util.Map;
+
+/**
+ * An EJBContainer living in its own URLClassLoader (see {@link JBossStandaloneEJBContainerProvider}),
+ * which on close lets go of that class loader and what it keeps reachable from here: the calling
+ * thread's context class loader and its open jars. Shutdown hooks of the embedded server are
+ * deregistered by the components registering them, as they are closed.
+ * 
+ * If org.jboss.ejb3.embedded.leak.check is true, whether the class loader then becomes unreachable is
+ * checked in the background, through a weak reference, for at most org.jboss.ejb3.embedded.close.timeout
+ * milliseconds (30000 by default). If it does not, the live threads rooting it are logged; nothing
+ * loaded from it can be trusted to report by then.
+ * 
+ * @author <a href="mailto:cdewolf@redhat.com">Carlo de Wolf</a>
+ */
+class ReleasingEJBContainer extends EJBContainer
+{
+   private static final Logger log = Logger.getLogger(ReleasingEJBContainer.class);
+
+   private static String CLOSE_TIMEOUT_PROPERTY = "org.jboss.ejb3.embedded.close.timeout";
+
+   private static String LEAK_CHECK_PROPERTY = "org.jboss.ejb3.embedded.leak.check";
+
+   // 30 seconds
+   private static long DEFAULT_CLOSE_TIMEOUT = 30 * 1000;
+
+   // first pause between collections, doubled up to a second
+   private static long INITIAL_GC_INTERVAL = 50;
+
+   private EJBContainer delegate;
+   private URLClassLoader loader;
+   private final ClassLoader beanLoader;
+   private final long closeTimeout;
+   private final boolean leakCheck;
+
+   ReleasingEJBContainer(EJBContainer delegate, URLClassLoader loader, ClassLoader beanLoader, Map<?, ?> properties)
+   {
+      this.delegate = delegate;
+      this.loader = loader;
+      this.beanLoader = beanLoader;
+      this.closeTimeout = closeTimeout(properties);
+      this.leakCheck = leakCheck(properties);
+   }
+
+   private static long closeTimeout(Map<?, ?> properties)
+   {
+      Object value = properties == null ? null : properties.get(CLOSE_TIMEOUT_PROPERTY);
+      if(value == null)
+         return DEFAULT_CLOSE_TIMEOUT;
+      if(value instanceof Number)
+         return ((Number) value).longValue();
+      return Long.parseLong(value.toString().trim());
+   }
+
+   private static boolean leakCheck(Map<?, ?> properties)
+   {
+      Object value = properties == null ? null : properties.get(LEAK_CHECK_PROPERTY);
+      if(value == null)
+         return Boolean.getBoolean(LEAK_CHECK_PROPERTY);
+      return Boolean.valueOf(value.toString().trim());
+   }
+
+   @Override
+   public synchronized void close()
+   {
+      if(delegate == null)
+         return;
+      EJBContainer delegate = this.delegate;
+      URLClassLoader loader = this.loader;
+      this.delegate = null;
+      this.loader = null;
+      try
+      {
+         delegate.close();
+      }
+      finally
+      {
+         release(loader);
+         if(leakCheck)
+            watch(new WeakReference<ClassLoader>(loader), closeTimeout);
+      }
+   }
+
+   @Override
+   public synchronized Context getContext()
+   {
+      if(delegate == null)
+         throw new IllegalStateException("EJBContainer is closed");
+      return delegate.getContext();
+   }
+
+   private void release(URLClassLoader loader)
+   {
+      // the provider left it as the context class loader of the creating thread
+      Thread current = Thread.currentThread();
+      if(isLoadedBy(current.getContextClassLoader(), loader))
+         current.setContextClassLoader(beanLoader);
+
+      // URLClassLoader.close is there as of Java 7, IndexedURLClassLoader.close always
+      try
+      {
+         Method close = loader.getClass().getMethod("close");
+         close.invoke(loader);
+      }
+      catch(NoSuchMethodException e)
+      {
+         // can't do more
+      }
+      catch(Exception e)
+      {
+         log.warn("Failed to close class loader " + loader, e);
+      }
+   }
+
+   private static void watch(final WeakReference<ClassLoader> ref, final long timeout)
+   {
+      Thread thread = new Thread(new Runnable()
+      {
+         public void run()
+         {
+            long deadline = System.currentTimeMillis() + timeout;
+            long interval = INITIAL_GC_INTERVAL;
+            while(ref.get() != null && System.currentTimeMillis() < deadline)
+            {
+               System.gc();
+               try
+               {
+                  Thread.sleep(Math.min(interval, Math.max(1, deadline - System.currentTimeMillis())));
+               }
+               catch(InterruptedException e)
+               {
+                  return;
+               }
+               interval = Math.min(interval * 2, 1000);
+            }
+            ClassLoader loader = ref.get();
+            if(loader != null)
+               log.warn(report(loader, timeout));
+         }
+      }, "EJBContainer Leak Check");
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   private static String report(ClassLoader loader, long timeout)
+   {
+      StringBuilder report = new StringBuilder("Class loader " + loader + " still reachable " + timeout + "ms after close");
+      int roots = 0;
+      for(Thread thread : Thread.getAllStackTraces().keySet())
+      {
+         if(thread == Thread.currentThread())
+            continue;
+         String via = null;
+         if(isLoadedBy(thread.getClass().getClassLoader(), loader))
+            via = "is of class " + thread.getClass().getName();
+         else if(isLoadedBy(thread.getContextClassLoader(), loader))
+            via = "has it as context class loader";
+         if(via != null)
+         {
+            report.append("\n\tthread \"").append(thread.getName()).append("\" ").append(via);
+            roots++;
+         }
+      }
+      if(roots == 0)
+         report.append("\n\tno live thread roots it; look for static references held by classes outside it");
+      return report.toString();
+   }
+
+   // whether cl is the given loader or one of its descendants
+   private static boolean isLoadedBy(ClassLoader cl, ClassLoader loader)
+   {
+      for(; cl != null; cl = cl.getParent())
+      {
+         if(cl == loader)
+            return true;
+      }
+      return false;
+   }
+}
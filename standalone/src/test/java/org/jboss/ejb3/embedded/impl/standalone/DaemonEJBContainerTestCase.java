@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.embedded.impl.standalone;
+
+import org.junit.Test;
+
+import javax.ejb.EJBException;
+import javax.ejb.embeddable.EJBContainer;
+import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that modules are sent to the daemon as absolute paths, whichever way they are given.
+ * 
+ * @author <a href="mailto:cdewolf@redhat.com">Carlo de Wolf</a>
+ */
+public class DaemonEJBContainerTestCase
+{
+   private static String[] modules(Object modules)
+   {
+      return DaemonEJBContainer.modules(Collections.singletonMap(EJBContainer.MODULES, modules), null, null);
+   }
+
+   @Test
+   public void testAbsolutePaths() throws Exception
+   {
+      File file = new File("target/module.jar");
+      String expected[] = { file.getAbsolutePath() };
+      assertArrayEquals(expected, modules("target/module.jar"));
+      assertArrayEquals(expected, modules(file));
+      assertArrayEquals(expected, modules(file.toURI().toString()));
+      assertArrayEquals(expected, modules(file.toURI().toURL()));
+   }
+
+   @Test
+   public void testArraysAndCollections() throws Exception
+   {
+      File first = new File("first.jar");
+      File second = new File("second.jar");
+      String expected[] = { first.getAbsolutePath(), second.getAbsolutePath() };
+      assertArrayEquals(expected, modules(new String[] { "first.jar", "second.jar" }));
+      assertArrayEquals(expected, modules(new File[] { first, second }));
+      assertArrayEquals(expected, modules(Arrays.asList(first.toURI().toURL(), "second.jar")));
+   }
+
+   @Test
+   public void testRemoteModule() throws Exception
+   {
+      try
+      {
+         modules(new URL("http://localhost/module.jar"));
+         fail("A module the daemon can't read by path must be refused");
+      }
+      catch(EJBException e)
+      {
+         // good
+      }
+   }
+
+   @Test
+   public void testIllegalType()
+   {
+      try
+      {
+         modules(1);
+         fail("Modules can't be given as a number");
+      }
+      catch(EJBException e)
+      {
+         // good
+      }
+   }
+}
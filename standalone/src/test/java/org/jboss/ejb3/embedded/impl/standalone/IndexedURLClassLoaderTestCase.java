@@ -0,0 +1,227 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.embedded.impl.standalone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that IndexedURLClassLoader finds what URLClassLoader finds, in the same order.
+ * 
+ * @author <a href="mailto:cdewolf@redhat.com">Carlo de Wolf</a>
+ */
+public class IndexedURLClassLoaderTestCase
+{
+   private static final String NAMES[] = {
+      "", "org", "org/", "org/jboss", "org/jboss/", "org/jboss/a.txt", "org/jboss/b.txt", "org/jboss/sub/",
+      "org/jboss/sub/c.txt", "org/only/", "org/only/deeper/", "org/only/deeper/d.txt", "root.txt", "missing.txt",
+      "org/missing/", IndexedURLClassLoaderTestCase.class.getName().replace('.', '/') + ".class"
+   };
+
+   private File root;
+   private URL urls[];
+
+   @Before
+   public void createClassPath() throws Exception
+   {
+      root = File.createTempFile("indexed", "");
+      root.delete();
+      root.mkdir();
+      // a jar with directory entries, one without and one only named by a manifest Class-Path
+      File withDirectories = jar("with-dirs.jar", true, "referenced.jar", "org/jboss/a.txt", "org/jboss/sub/c.txt", "org/only/deeper/d.txt");
+      jar("referenced.jar", false, null, "org/jboss/b.txt", "root.txt");
+      File withoutDirectories = jar("without-dirs.jar", false, null, "org/jboss/a.txt", "org/jboss/sub/c.txt");
+      // a directory in between jars
+      File directory = new File(root, "classes");
+      file(directory, "org/jboss/a.txt");
+      file(directory, "org/jboss/b.txt");
+      file(directory, "root.txt");
+      File classes = new File(IndexedURLClassLoaderTestCase.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+      urls = new URL[] { withoutDirectories.toURI().toURL(), directory.toURI().toURL(), withDirectories.toURI().toURL(), classes.toURI().toURL() };
+   }
+
+   @After
+   public void deleteClassPath()
+   {
+      delete(root);
+   }
+
+   @Test
+   public void testSameResources() throws Exception
+   {
+      URLClassLoader expected = new URLClassLoader(urls, null);
+      File indexFile = new File(root, "test.index");
+      for(int run = 0; run < 2; run++)
+      {
+         // the second run reads the index back from file
+         IndexedURLClassLoader actual = new IndexedURLClassLoader(urls, null, indexFile);
+         try
+         {
+            for(String name : NAMES)
+            {
+               assertEquals(name, String.valueOf(expected.getResource(name)), String.valueOf(actual.getResource(name)));
+               assertEquals(name, list(expected, name), list(actual, name));
+            }
+         }
+         finally
+         {
+            actual.close();
+         }
+         assertTrue(indexFile.isFile());
+      }
+   }
+
+   @Test
+   public void testLoadClass() throws Exception
+   {
+      IndexedURLClassLoader loader = new IndexedURLClassLoader(urls, null, null);
+      try
+      {
+         Class<?> cls = loader.loadClass(IndexedURLClassLoaderTestCase.class.getName());
+         assertSame(loader, cls.getClassLoader());
+         assertNotNull(cls.getPackage());
+      }
+      finally
+      {
+         loader.close();
+      }
+   }
+
+   @Test
+   public void testReindexChangedJar() throws Exception
+   {
+      File indexFile = new File(root, "test.index");
+      new IndexedURLClassLoader(urls, null, indexFile).close();
+      jar("without-dirs.jar", false, null, "org/jboss/changed.txt");
+      IndexedURLClassLoader loader = new IndexedURLClassLoader(urls, null, indexFile);
+      try
+      {
+         assertNotNull(loader.getResource("org/jboss/changed.txt"));
+      }
+      finally
+      {
+         loader.close();
+      }
+   }
+
+   @Test
+   public void testIndexFileKeptAcrossChanges() throws Exception
+   {
+      File indexFile = JBossStandaloneEJBContainerProvider.indexFile(urls);
+      jar("without-dirs.jar", false, null, "org/jboss/changed.txt");
+      assertEquals(indexFile, JBossStandaloneEJBContainerProvider.indexFile(urls));
+      URL reversed[] = urls.clone();
+      Collections.reverse(Arrays.asList(reversed));
+      assertFalse(indexFile.equals(JBossStandaloneEJBContainerProvider.indexFile(reversed)));
+   }
+
+   private static List<String> list(ClassLoader loader, String name) throws IOException
+   {
+      List<String> result = new ArrayList<String>();
+      for(URL url : Collections.list(loader.getResources(name)))
+         result.add(url.toExternalForm());
+      return result;
+   }
+
+   private File jar(String name, boolean directoryEntries, String classPath, String... entries) throws IOException
+   {
+      File file = new File(root, name);
+      Manifest manifest = new Manifest();
+      manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+      if(classPath != null)
+         manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, classPath);
+      JarOutputStream out = new JarOutputStream(new FileOutputStream(file), manifest);
+      try
+      {
+         List<String> written = new ArrayList<String>();
+         for(String entry : entries)
+         {
+            if(directoryEntries)
+            {
+               for(int i = entry.indexOf('/'); i > 0; i = entry.indexOf('/', i + 1))
+               {
+                  String directory = entry.substring(0, i + 1);
+                  if(!written.contains(directory))
+                  {
+                     out.putNextEntry(new JarEntry(directory));
+                     written.add(directory);
+                  }
+               }
+            }
+            out.putNextEntry(new JarEntry(entry));
+            out.write(entry.getBytes());
+         }
+      }
+      finally
+      {
+         out.close();
+      }
+      return file;
+   }
+
+   private static void file(File directory, String path) throws IOException
+   {
+      File file = new File(directory, path);
+      file.getParentFile().mkdirs();
+      FileOutputStream out = new FileOutputStream(file);
+      try
+      {
+         out.write(path.getBytes());
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+
+   private static void delete(File file)
+   {
+      File children[] = file.listFiles();
+      if(children != null)
+      {
+         for(File child : children)
+            delete(child);
+      }
+      file.delete();
+   }
+}
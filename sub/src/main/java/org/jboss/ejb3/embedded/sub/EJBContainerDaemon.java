@@ -0,0 +1,497 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.embedded.sub;
+
+import org.jboss.ejb3.embedded.sub.vfs.VirtualFileAssembly;
+import org.jboss.embedded.api.server.JBossASEmbeddedServer;
+import org.jboss.logging.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a booted JBossEmbeddedAS serving EJBContainer sessions of client JVMs on
+ * the same host over a loopback socket, so that they need not boot a server of their own.
+ * 
+ * Each connection is one container: the client deploys its modules (files on the shared
+ * filesystem), looks up serialized objects and undeploys them again by closing, or by
+ * going away. The daemon shuts down after being idle without sessions for the given time.
+ * 
+ * Only processes of the same user may connect: the daemon writes a random token to a file
+ * only the user can read (see {@link #tokenFile(int)}) and both ends prove knowledge of
+ * it before anything else is exchanged. The client then states the protocol version,
+ * jboss home, server name and class path digest it expects, which the daemon must match.
+ * Modules, or applications, can only be deployed by one session at a time.
+ * 
+ * The protocol must match org.jboss.ejb3.embedded.impl.standalone.DaemonEJBContainer:
+ * <ol>
+ * <li>the daemon sends a nonce, the client answers with a nonce of its own and the HMAC of the daemon
+ * nonce under the token, the daemon answers with the HMAC of the client nonce</li>
+ * <li>the client writes the handshake, the daemon replies</li>
+ * <li>a request is a command written by writeUTF followed by its arguments written by DataOutput,
+ * a reply is true followed by the result object, or false followed by the error message by writeUTF</li>
+ * </ol>
+ * Requests are never deserialized as objects, only replies are.
+ * 
+ * @author <a href="mailto:cdewolf@redhat.com">Carlo de Wolf</a>
+ */
+public class EJBContainerDaemon
+{
+   private static final Logger log = Logger.getLogger(EJBContainerDaemon.class);
+
+   static final int PROTOCOL_VERSION = 1;
+
+   static final String DEPLOY = "deploy";
+   static final String LOOKUP = "lookup";
+   static final String CLOSE = "close";
+
+   static final int NONCE_LENGTH = 16;
+
+   private static final String MAC_ALGORITHM = "HmacSHA1";
+
+   // more modules than any sane client deploys
+   private static final int MAX_MODULES = 4096;
+
+   // how often the idle time is checked
+   private static final int ACCEPT_TIMEOUT = 10000;
+
+   private final JBossASEmbeddedServer server;
+   private final ClassLoader loader;
+   private final ServerSocket serverSocket;
+   private final long idleTimeout;
+   private final byte token[];
+   private final String handshake[];
+   private final AtomicInteger sessions = new AtomicInteger();
+   private volatile long lastActive = System.currentTimeMillis();
+
+   // MainDeployer does not take concurrent deployments, guards owners as well
+   private final Object deployLock = new Object();
+   private final Map<String, Session> owners = new HashMap<String, Session>();
+
+   private EJBContainerDaemon(JBossASEmbeddedServer server, ClassLoader loader, ServerSocket serverSocket, long idleTimeout, byte token[], String handshake[])
+   {
+      this.server = server;
+      this.loader = loader;
+      this.serverSocket = serverSocket;
+      this.idleTimeout = idleTimeout;
+      this.token = token;
+      this.handshake = handshake;
+   }
+
+   /**
+    * Boots the server and serves sessions on the given loopback port until idle
+    * for the given time in milliseconds, then shuts the server down.
+    */
+   public static void serve(URLClassLoader loader, String jbossHome, String serverName, int port, long idleTimeout) throws Exception
+   {
+      // bind first, so that a concurrently launched daemon gives up
+      ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getByName(null));
+      File tokenFile = tokenFile(port);
+      try
+      {
+         byte token[] = writeToken(tokenFile);
+         String handshake[] = handshake(jbossHome, serverName, System.getProperty("java.class.path"));
+         JBossASEmbeddedServer server = JBossSubmersibleEJBContainer.startServer(loader, jbossHome, serverName);
+         try
+         {
+            new EJBContainerDaemon(server, loader, serverSocket, idleTimeout, token, handshake).run();
+         }
+         finally
+         {
+            JBossSubmersibleEJBContainer.shutdownServer(server);
+         }
+      }
+      finally
+      {
+         tokenFile.delete();
+         serverSocket.close();
+      }
+   }
+
+   /**
+    * The file holding the token of the daemon on the given port, in a directory of the user's home.
+    */
+   static File tokenFile(int port)
+   {
+      return new File(new File(System.getProperty("user.home"), ".jboss-ejb3-embedded"), "daemon-" + port + ".token");
+   }
+
+   /**
+    * What a client states in the handshake, and what the daemon must match.
+    */
+   static String[] handshake(String jbossHome, String serverName, String classPath) throws GeneralSecurityException
+   {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      return new String[] { String.valueOf(PROTOCOL_VERSION), new File(jbossHome).getAbsolutePath(), serverName, hex(digest.digest(classPath.getBytes())) };
+   }
+
+   /**
+    * The HMAC of the nonce under the token.
+    */
+   static byte[] sign(byte token[], byte nonce[]) throws GeneralSecurityException
+   {
+      Mac mac = Mac.getInstance(MAC_ALGORITHM);
+      mac.init(new SecretKeySpec(token, MAC_ALGORITHM));
+      return mac.doFinal(nonce);
+   }
+
+   private static byte[] writeToken(File tokenFile) throws IOException
+   {
+      File dir = tokenFile.getParentFile();
+      if(!dir.isDirectory() && !dir.mkdirs())
+         throw new IOException("Can't create " + dir);
+      ownerOnly(dir);
+      byte random[] = new byte[32];
+      new SecureRandom().nextBytes(random);
+      byte token[] = hex(random).getBytes();
+      // restrict before writing, so the token is never readable by others
+      File tmp = File.createTempFile("daemon", ".tmp", dir);
+      try
+      {
+         ownerOnly(tmp);
+         OutputStream out = new FileOutputStream(tmp);
+         try
+         {
+            out.write(token);
+         }
+         finally
+         {
+            out.close();
+         }
+         tokenFile.delete();
+         if(!tmp.renameTo(tokenFile))
+            throw new IOException("Can't write " + tokenFile);
+      }
+      finally
+      {
+         tmp.delete();
+      }
+      return token;
+   }
+
+   private static void ownerOnly(File file) throws IOException
+   {
+      boolean restricted = file.setReadable(false, false) & file.setReadable(true, true)
+         & file.setWritable(false, false) & file.setWritable(true, true);
+      if(file.isDirectory())
+         restricted &= file.setExecutable(false, false) & file.setExecutable(true, true);
+      if(!restricted)
+         throw new IOException("Can't restrict access to " + file + " to its owner");
+   }
+
+   private static String hex(byte bytes[])
+   {
+      StringBuilder sb = new StringBuilder(bytes.length * 2);
+      for(byte b : bytes)
+         sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      return sb.toString();
+   }
+
+   private void run() throws IOException
+   {
+      serverSocket.setSoTimeout(ACCEPT_TIMEOUT);
+      while(true)
+      {
+         final Socket socket;
+         try
+         {
+            socket = serverSocket.accept();
+         }
+         catch(SocketTimeoutException e)
+         {
+            if(sessions.get() == 0 && System.currentTimeMillis() - lastActive > idleTimeout)
+               return;
+            continue;
+         }
+         sessions.incrementAndGet();
+         Thread thread = new Thread(new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  new Session(socket).run();
+               }
+               finally
+               {
+                  lastActive = System.currentTimeMillis();
+                  sessions.decrementAndGet();
+               }
+            }
+         }, "EJBContainer Daemon Session " + socket.getPort());
+         thread.setContextClassLoader(loader);
+         thread.start();
+      }
+   }
+
+   /**
+    * A single client container.
+    */
+   private class Session
+   {
+      private final Socket socket;
+      private URL deployed[];
+      private List<String> names;
+      private VirtualFileAssembly assembly;
+
+      Session(Socket socket)
+      {
+         this.socket = socket;
+      }
+
+      void run()
+      {
+         try
+         {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream dout = new DataOutputStream(socket.getOutputStream());
+            if(!authenticate(in, dout))
+            {
+               log.warn("Rejected a connection from " + socket.getRemoteSocketAddress() + " without the daemon token");
+               return;
+            }
+            ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+            String mismatch = checkHandshake(in);
+            if(mismatch != null)
+            {
+               log.warn("Rejected a client expecting " + mismatch);
+               out.writeBoolean(false);
+               out.writeUTF("The daemon serves a different " + mismatch);
+               out.flush();
+               return;
+            }
+            out.writeBoolean(true);
+            out.flush();
+            InitialContext context = new InitialContext();
+            while(true)
+            {
+               String command = in.readUTF();
+               try
+               {
+                  Object result;
+                  if(DEPLOY.equals(command))
+                     result = deploy(readModules(in), in.readBoolean() ? in.readUTF() : null);
+                  else if(LOOKUP.equals(command))
+                     result = lookup(context, in.readUTF());
+                  else if(CLOSE.equals(command))
+                     result = null;
+                  else
+                     throw new IllegalArgumentException("Unknown command " + command);
+                  out.writeBoolean(true);
+                  out.writeObject(result);
+               }
+               catch(IOException e)
+               {
+                  throw e;
+               }
+               catch(Exception e)
+               {
+                  log.debug("Command " + command + " of " + socket.getRemoteSocketAddress() + " failed", e);
+                  out.writeBoolean(false);
+                  out.writeUTF(String.valueOf(e));
+               }
+               out.flush();
+               out.reset();
+               if(CLOSE.equals(command))
+                  return;
+            }
+         }
+         catch(EOFException e)
+         {
+            log.debug("Client " + socket.getRemoteSocketAddress() + " went away");
+         }
+         catch(Exception e)
+         {
+            log.warn("Session of " + socket.getRemoteSocketAddress() + " failed", e);
+         }
+         finally
+         {
+            undeploy();
+            try
+            {
+               socket.close();
+            }
+            catch(IOException e)
+            {
+               // ignore
+            }
+         }
+      }
+
+      private boolean authenticate(DataInputStream in, DataOutputStream out) throws IOException, GeneralSecurityException
+      {
+         byte nonce[] = new byte[NONCE_LENGTH];
+         new SecureRandom().nextBytes(nonce);
+         out.write(nonce);
+         out.flush();
+         byte clientNonce[] = new byte[NONCE_LENGTH];
+         in.readFully(clientNonce);
+         byte proof[] = new byte[sign(token, nonce).length];
+         in.readFully(proof);
+         if(!MessageDigest.isEqual(proof, sign(token, nonce)))
+            return false;
+         out.write(sign(token, clientNonce));
+         out.flush();
+         return true;
+      }
+
+      /**
+       * @return what differs from the client's expectation, or null if it matches
+       */
+      private String checkHandshake(DataInputStream in) throws IOException
+      {
+         String names[] = { "protocol version", "jboss home", "server name", "class path" };
+         String mismatch = null;
+         for(int i = 0; i < handshake.length; i++)
+         {
+            String expected = in.readUTF();
+            if(mismatch == null && !handshake[i].equals(expected))
+               mismatch = names[i] + " (" + expected + " instead of " + handshake[i] + ")";
+         }
+         return mismatch;
+      }
+
+      private File[] readModules(DataInputStream in) throws IOException
+      {
+         int count = in.readInt();
+         if(count < 0 || count > MAX_MODULES)
+            throw new IOException("Illegal number of modules " + count);
+         File deployments[] = new File[count];
+         for(int i = 0; i < count; i++)
+            deployments[i] = new File(in.readUTF());
+         return deployments;
+      }
+
+      /**
+       * Deploys the given modules, as an application if an app name is given.
+       */
+      private Object deploy(File deployments[], String appName) throws Exception
+      {
+         if(deployed != null)
+            throw new IllegalStateException("Modules have already been deployed");
+         // the names by which the deployment ends up in java:global
+         List<String> claimed = new ArrayList<String>();
+         if(appName != null)
+            claimed.add(appName + ".ear");
+         else
+         {
+            for(File deployment : deployments)
+               claimed.add(moduleName(deployment));
+         }
+         synchronized(deployLock)
+         {
+            for(String name : claimed)
+            {
+               if(owners.containsKey(name))
+                  throw new IllegalStateException(name + " is already deployed by another session");
+            }
+            if(appName == null)
+            {
+               URL urls[] = new URL[deployments.length];
+               for(int i = 0; i < deployments.length; i++)
+                  urls[i] = deployments[i].toURI().toURL();
+               server.deploy(urls);
+               deployed = urls;
+            }
+            else
+            {
+               assembly = JBossSubmersibleEJBContainer.assemble(appName, deployments);
+               deployed = new URL[] { assembly.getMountRoot().toURL() };
+               server.deploy(deployed);
+            }
+            for(String name : claimed)
+               owners.put(name, this);
+            names = claimed;
+         }
+         return null;
+      }
+
+      private String moduleName(File deployment)
+      {
+         String name = deployment.getName();
+         int dot = name.lastIndexOf('.');
+         return dot > 0 ? name.substring(0, dot) : name;
+      }
+
+      private Object lookup(InitialContext context, String name) throws NamingException
+      {
+         Object result = context.lookup(name);
+         if(result != null && !(result instanceof Serializable))
+            throw new NamingException(name + " is bound to a " + result.getClass().getName() + ", which can not be passed to another JVM");
+         return result;
+      }
+
+      private void undeploy()
+      {
+         synchronized(deployLock)
+         {
+            try
+            {
+               if(deployed != null)
+                  server.undeploy(deployed);
+            }
+            catch(Exception e)
+            {
+               log.warn("Failed to undeploy the modules of " + socket.getRemoteSocketAddress(), e);
+            }
+            finally
+            {
+               if(names != null)
+               {
+                  for(String name : names)
+                     owners.remove(name);
+               }
+               names = null;
+               deployed = null;
+               if(assembly != null)
+                  assembly.close();
+               assembly = null;
+            }
+         }
+      }
+   }
+}
@@ -29,6 +29,8 @@ import org.jboss.embedded.api.server.JBossASEmbeddedServerFactory;
 
 import javax.ejb.EJBException;
 import javax.ejb.embeddable.EJBContainer;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import java.io.BufferedOutputStream;
@@ -37,7 +39,15 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * An EJBContainer implementation that expects to be living within the same class loader
@@ -47,13 +57,32 @@ import java.util.Map;
  */
 public class JBossSubmersibleEJBContainer extends EJBContainer
 {
+   // default domain of the MBeanServer JBossEmbeddedAS registers with the MBeanServerFactory
+   private static final String MBEAN_SERVER_DOMAIN = "jboss";
+
+   // what the servers started hold on to, until they are shut down
+   private static final Map<JBossASEmbeddedServer, Resources> resources = Collections.synchronizedMap(new WeakHashMap<JBossASEmbeddedServer, Resources>());
+
+   // servers start one at a time, so that the MBeanServers they register are told apart
+   private static final Object startLock = new Object();
+
    private JBossASEmbeddedServer server;
    private Context context;
+   private VirtualFileAssembly assembly;
+   private Resources serverResources;
 
    protected JBossSubmersibleEJBContainer(JBossASEmbeddedServer server, Context context)
+   {
+      this(server, context, null);
+   }
+
+   protected JBossSubmersibleEJBContainer(JBossASEmbeddedServer server, Context context, VirtualFileAssembly assembly)
    {
       this.server = server;
       this.context = context;
+      this.assembly = assembly;
+      // the server is ours to shut down, and so is what it holds on to
+      this.serverResources = resources.remove(server);
    }
 
    private static Class<?> cls(ClassLoader loader, String className)
@@ -68,9 +97,16 @@ public class JBossSubmersibleEJBContainer extends EJBContainer
       }
    }
 
+   /**
+    * Shuts down the server, then releases what it and this container leave in static holders
+    * (mounts, its partition, its MBeanServer registration), so that the class loader they were
+    * loaded from can go once the caller lets go of this container. Subsequent invocations have no effect.
+    */
    @Override
-   public void close()
+   public synchronized void close()
    {
+      if(server == null)
+         return;
       try
       {
          server.shutdown();
@@ -79,13 +115,38 @@ public class JBossSubmersibleEJBContainer extends EJBContainer
       {
          throw new EJBException(e);
       }
+      finally
+      {
+         server = null;
+         context = null;
+         release();
+      }
+   }
+
+   private void release()
+   {
+      if(assembly != null)
+         assembly.close();
+      assembly = null;
+      if(serverResources != null)
+         serverResources.release();
+      serverResources = null;
    }
 
    public static EJBContainer createEJBContainer(Map<?, ?> properties, URLClassLoader loader, String jbossHome, String serverName) throws EJBException
    {
-      System.setProperty("java.util.logging.manager", "org.jboss.logmanager.LogManager");
+      return createEJBContainer(properties, loader, jbossHome, serverName, null);
+   }
 
-      File deployments[];
+   /**
+    * Creates an EJBContainer deploying into the given server, as started by
+    * {@link #startServer(URLClassLoader, String, String)} with the same loader, or into a
+    * newly started one if null.
+    */
+   public static EJBContainer createEJBContainer(Map<?, ?> properties, URLClassLoader loader, String jbossHome, String serverName, JBossASEmbeddedServer server) throws EJBException
+   {
+      File deployments[] = null;
+      Future<String[]> scan = null;
       
       Object modules = property(properties, EJBContainer.MODULES);
       if(modules != null)
@@ -113,30 +174,26 @@ public class JBossSubmersibleEJBContainer extends EJBContainer
       }
       else
       {
-         // ClassPathEjbJarScanner uses TCCL, so we can not modify it yet
-         String candidates[] = ClassPathEjbJarScanner.getEjbJars();
-         deployments = new File[candidates.length];
-         for(int i = 0; i < candidates.length; i++)
-            deployments[i] = new File(candidates[i]);
+         // ClassPathEjbJarScanner uses TCCL, so scan with the current one while the server boots
+         scan = scan(Thread.currentThread().getContextClassLoader());
       }
 
       String appName = property(properties, EJBContainer.APP_NAME, String.class);
 
-      String bindAddress = System.getProperty("embedded.bind.address", "localhost");
-      
       Thread.currentThread().setContextClassLoader(loader);
 
-      JBossASEmbeddedServer server = JBossASEmbeddedServerFactory.createServer(loader);
-      JBossASServerConfig config = server.getConfiguration();
-      config.jbossHome(jbossHome);
-      config.serverName(serverName);
-      config.bindAddress(bindAddress);
+      // a server we start is ours to shut down if we fail
+      boolean started = server == null;
+      if(started)
+         server = startServer(loader, jbossHome, serverName);
+      VirtualFileAssembly assembly = null;
       try
       {
-         server.start();
-
          InitialContext context = new InitialContext();
 
+         if(scan != null)
+            deployments = toFiles(join(scan));
+
          if(appName == null)
             server.deploy(deployments);
          else
@@ -148,36 +205,179 @@ public class JBossSubmersibleEJBContainer extends EJBContainer
                archive.addModule(d);
             server.deploy(archive);
             */
-            VirtualFileAssembly assembly = new VirtualFileAssembly(appName + ".ear");
-            // make sure we don't have class loader isolation (else CCE in the user class)
-            assembly.addDirectory("META-INF"); // make sure this is visible as a child
-            assembly.add("META-INF/jboss-classloading.xml", createJBossClassLoadingXML());
-            for(File d : deployments)
-            {
-               // if it's already a file it must not be mounted twice (see AbstractVFSArchiveStructureDeployer#determineStructure)
-               if(d.isFile())
-                  assembly.addZip(d.getName(), d);
-               else
-               {
-                  // a whimsical hack to make sure the directory is marked as an expanded archive
-                  String name = d.getName();
-                  if(!name.endsWith(".jar"))
-                     name = name + ".jar";
-                  assembly.add(name, d);
-               }
-            }
+            assembly = assemble(appName, deployments);
             // Deploy the virtual EAR.
             server.deploy(assembly.getMountRoot().toURL());
          }
 
-         return new JBossSubmersibleEJBContainer(server, context);
+         return new JBossSubmersibleEJBContainer(server, context, assembly);
       }
       catch(Exception e)
       {
+         if(assembly != null)
+            assembly.close();
+         if(started)
+         {
+            try
+            {
+               shutdownServer(server);
+            }
+            catch(Exception se)
+            {
+               // report the original failure
+            }
+         }
          throw new EJBException(e);
       }
    }
 
+   /**
+    * Boots JBossEmbeddedAS out of the given class loader, independent of any modules, so that
+    * this may happen ahead of {@link #createEJBContainer(Map, URLClassLoader, String, String, JBossASEmbeddedServer)}.
+    * The server is partitioned from others on this host if requested (see {@link Partition}).
+    */
+   public static JBossASEmbeddedServer startServer(URLClassLoader loader, String jbossHome, String serverName) throws EJBException
+   {
+      System.setProperty("java.util.logging.manager", "org.jboss.logmanager.LogManager");
+
+      String bindAddress = System.getProperty("embedded.bind.address", "localhost");
+
+      ClassLoader previous = Thread.currentThread().getContextClassLoader();
+      Thread.currentThread().setContextClassLoader(loader);
+      Partition partition = null;
+      try
+      {
+         JBossASEmbeddedServer server = JBossASEmbeddedServerFactory.createServer(loader);
+         JBossASServerConfig config = server.getConfiguration();
+         config.jbossHome(jbossHome);
+         config.serverName(serverName);
+         config.bindAddress(bindAddress);
+         partition = Partition.create(bindAddress);
+         if(partition != null)
+            partition.configure(config);
+         resources.put(server, new Resources(partition, start(server, partition)));
+         return server;
+      }
+      catch(Exception e)
+      {
+         if(partition != null)
+            partition.release();
+         throw new EJBException(e);
+      }
+      finally
+      {
+         Thread.currentThread().setContextClassLoader(previous);
+      }
+   }
+
+   /**
+    * Starts the server, within the given partition if any, and returns the MBeanServers
+    * it registered with the MBeanServerFactory.
+    */
+   private static List<MBeanServer> start(JBossASEmbeddedServer server, Partition partition) throws Exception
+   {
+      synchronized(startLock)
+      {
+         List<MBeanServer> existing = MBeanServerFactory.findMBeanServer(null);
+         if(partition == null)
+            server.start();
+         else
+            partition.start(server);
+         List<MBeanServer> created = new ArrayList<MBeanServer>();
+         for(MBeanServer mbeanServer : MBeanServerFactory.findMBeanServer(null))
+         {
+            if(!existing.contains(mbeanServer) && MBEAN_SERVER_DOMAIN.equals(mbeanServer.getDefaultDomain()))
+               created.add(mbeanServer);
+         }
+         return created;
+      }
+   }
+
+   /**
+    * Shuts down a server started by {@link #startServer(URLClassLoader, String, String)} that
+    * no container was created for, and releases what it holds on to.
+    */
+   public static void shutdownServer(JBossASEmbeddedServer server) throws Exception
+   {
+      try
+      {
+         server.shutdown();
+      }
+      finally
+      {
+         Resources serverResources = resources.remove(server);
+         if(serverResources != null)
+            serverResources.release();
+      }
+   }
+
+   /**
+    * Scans the class path for EJB modules on a separate thread with the given TCCL.
+    */
+   private static Future<String[]> scan(final ClassLoader tccl)
+   {
+      FutureTask<String[]> task = new FutureTask<String[]>(new Callable<String[]>()
+      {
+         public String[] call() throws Exception
+         {
+            Thread.currentThread().setContextClassLoader(tccl);
+            return ClassPathEjbJarScanner.getEjbJars();
+         }
+      });
+      Thread thread = new Thread(task, "EJBContainer ClassPath Scanner");
+      thread.setDaemon(true);
+      thread.start();
+      return task;
+   }
+
+   private static String[] join(Future<String[]> scan) throws InterruptedException
+   {
+      try
+      {
+         return scan.get();
+      }
+      catch(ExecutionException e)
+      {
+         if(e.getCause() instanceof Error)
+            throw (Error) e.getCause();
+         throw new EJBException("Failed to scan the class path for EJB modules", (Exception) e.getCause());
+      }
+   }
+
+   private static File[] toFiles(String candidates[])
+   {
+      File files[] = new File[candidates.length];
+      for(int i = 0; i < candidates.length; i++)
+         files[i] = new File(candidates[i]);
+      return files;
+   }
+
+   /**
+    * Assembles the given modules into a virtual EAR of the given name.
+    */
+   static VirtualFileAssembly assemble(String appName, File deployments[]) throws IOException
+   {
+      VirtualFileAssembly assembly = new VirtualFileAssembly(appName + ".ear");
+      // make sure we don't have class loader isolation (else CCE in the user class)
+      assembly.addDirectory("META-INF"); // make sure this is visible as a child
+      assembly.add("META-INF/jboss-classloading.xml", createJBossClassLoadingXML());
+      for(File d : deployments)
+      {
+         // if it's already a file it must not be mounted twice (see AbstractVFSArchiveStructureDeployer#determineStructure)
+         if(d.isFile())
+            assembly.addZip(d.getName(), d);
+         else
+         {
+            // a whimsical hack to make sure the directory is marked as an expanded archive
+            String name = d.getName();
+            if(!name.endsWith(".jar"))
+               name = name + ".jar";
+            assembly.add(name, d);
+         }
+      }
+      return assembly;
+   }
+
    private static File createJBossClassLoadingXML()
    {
       // create a big-pile-o-mud ((C) 2009 by Adrian Brock)
@@ -229,4 +429,36 @@ public class JBossSubmersibleEJBContainer extends EJBContainer
       // TODO: check expected type
       return expectedType.cast(properties.get(key));
    }
+
+   /**
+    * What a started server holds on to beyond its shutdown.
+    */
+   private static class Resources
+   {
+      private final Partition partition;
+      private final List<MBeanServer> mbeanServers;
+
+      Resources(Partition partition, List<MBeanServer> mbeanServers)
+      {
+         this.partition = partition;
+         this.mbeanServers = mbeanServers;
+      }
+
+      void release()
+      {
+         if(partition != null)
+            partition.release();
+         for(MBeanServer mbeanServer : mbeanServers)
+         {
+            try
+            {
+               MBeanServerFactory.releaseMBeanServer(mbeanServer);
+            }
+            catch(IllegalArgumentException e)
+            {
+               // released already
+            }
+         }
+      }
+   }
 }
@@ -0,0 +1,342 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.embedded.sub;
+
+import org.jboss.bootstrap.api.as.config.JBossASServerConfig;
+import org.jboss.embedded.api.server.JBossASEmbeddedServer;
+
+import javax.ejb.EJBException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * Partitions the resources of an embedded server, so that several of them can run
+ * concurrently on one host, each in its own JVM (as with surefire forkCount &gt; 1).
+ * 
+ * Ports are partitioned through the service binding sets of the server profile
+ * (ports-default, ports-01, ports-02 and ports-03, each offset by another 100). A set is claimed
+ * through an exclusive lock on a file per set and bind address in the temporary directory, held
+ * until the partition is released, and only if its ports are free. The set of the fork number is
+ * tried first, if known. If all sets are claimed, as with more forks than sets, creation waits
+ * for one to be released for up to embedded.partition.timeout milliseconds (300000 by default).
+ * Naming is reached through these ports, so it is partitioned likewise. Temp, data and log
+ * directories are unique to each server.
+ * 
+ * The partition is released, its directories removed, when the server is shut down. Should that
+ * never happen, a shutdown hook releases it when the JVM exits.
+ * 
+ * Partitioning takes place if embedded.partition is true or a fork number is given by
+ * embedded.fork.number or surefire.forkNumber. An explicit jboss.service.binding.set is honored.
+ * 
+ * @author <a href="mailto:cdewolf@redhat.com">Carlo de Wolf</a>
+ */
+class Partition
+{
+   static final String BINDING_SET_PROPERTY = "jboss.service.binding.set";
+
+   static final String[] BINDING_SETS = { "ports-default", "ports-01", "ports-02", "ports-03" };
+
+   private static final int BINDING_SET_OFFSET = 100;
+
+   // five minutes
+   private static final long DEFAULT_TIMEOUT = 5 * 60 * 1000;
+
+   // pause between attempts to claim a set
+   private static final long RETRY_INTERVAL = 500;
+
+   // a representative selection of the ports in ports-default
+   private static final int[] PROBE_PORTS = { 1090, 1091, 1098, 1099, 3873, 4446, 4712, 4713, 5445, 8080, 8083 };
+
+   private final String bindingSet;
+   private final FileLock lock;
+   private final File root;
+   private Thread hook;
+   private boolean released;
+
+   private Partition(String bindingSet, FileLock lock, File root)
+   {
+      this.bindingSet = bindingSet;
+      this.lock = lock;
+      this.root = root;
+   }
+
+   /**
+    * Returns the partition for a new server, or null if partitioning is not requested.
+    */
+   static Partition create(String bindAddress)
+   {
+      String forkNumber = System.getProperty("embedded.fork.number", System.getProperty("surefire.forkNumber"));
+      if(!Boolean.getBoolean("embedded.partition") && forkNumber == null)
+         return null;
+
+      String bindingSet = System.getProperty(BINDING_SET_PROPERTY);
+      FileLock lock = null;
+      if(bindingSet == null)
+      {
+         // surefire counts forks from 1
+         int preferred = forkNumber == null ? 0 : Integer.parseInt(forkNumber.trim()) - 1;
+         long timeout = Long.getLong("embedded.partition.timeout", DEFAULT_TIMEOUT);
+         Claim claim = claim(bindAddress, preferred, timeout);
+         lock = claim.lock;
+         bindingSet = BINDING_SETS[claim.index];
+      }
+
+      try
+      {
+         File root = File.createTempFile("jboss-ejb3-embedded-", "");
+         if(!root.delete() || !root.mkdir())
+            throw new IOException("Unable to create directory " + root);
+         final Partition partition = new Partition(bindingSet, lock, root);
+         partition.hook = new Thread(new Runnable()
+         {
+            public void run()
+            {
+               partition.release();
+            }
+         }, "EJBContainer Partition Cleanup");
+         Runtime.getRuntime().addShutdownHook(partition.hook);
+         return partition;
+      }
+      catch(IOException e)
+      {
+         release(lock);
+         throw new EJBException(e);
+      }
+   }
+
+   /**
+    * Applies this partition to the server configuration.
+    */
+   void configure(JBossASServerConfig config)
+   {
+      try
+      {
+         config.serverTempLocation(directory("tmp").toURI().toURL());
+         config.serverDataLocation(directory("data").toURI().toURL());
+         config.serverLogLocation(directory("log").toURI().toURL());
+      }
+      catch(MalformedURLException e)
+      {
+         throw new EJBException(e);
+      }
+   }
+
+   /**
+    * Starts the server with the binding set of this partition. The binding set is a system property
+    * read while the server boots, so it is set only meanwhile, one server at a time.
+    */
+   void start(JBossASEmbeddedServer server) throws Exception
+   {
+      synchronized(Partition.class)
+      {
+         String previous = System.getProperty(BINDING_SET_PROPERTY);
+         System.setProperty(BINDING_SET_PROPERTY, bindingSet);
+         try
+         {
+            server.start();
+         }
+         finally
+         {
+            if(previous == null)
+               System.clearProperty(BINDING_SET_PROPERTY);
+            else
+               System.setProperty(BINDING_SET_PROPERTY, previous);
+         }
+      }
+   }
+
+   String getBindingSet()
+   {
+      return bindingSet;
+   }
+
+   File getRoot()
+   {
+      return root;
+   }
+
+   /**
+    * Lets go of the binding set, removes the directories and deregisters the shutdown hook.
+    * Subsequent invocations have no effect.
+    */
+   synchronized void release()
+   {
+      if(released)
+         return;
+      released = true;
+      release(lock);
+      delete(root);
+      if(hook != null && hook != Thread.currentThread())
+      {
+         try
+         {
+            Runtime.getRuntime().removeShutdownHook(hook);
+         }
+         catch(IllegalStateException e)
+         {
+            // the JVM is shutting down already
+         }
+      }
+      hook = null;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "Partition " + bindingSet + " in " + root;
+   }
+
+   private File directory(String name)
+   {
+      File dir = new File(root, name);
+      if(!dir.mkdir() && !dir.isDirectory())
+         throw new EJBException("Unable to create directory " + dir);
+      return dir;
+   }
+
+   /**
+    * Claims a binding set whose ports are free, trying the preferred one first.
+    */
+   private static Claim claim(String bindAddress, int preferred, long timeout)
+   {
+      long deadline = System.currentTimeMillis() + timeout;
+      while(true)
+      {
+         for(int i = 0; i < BINDING_SETS.length; i++)
+         {
+            int index = (Math.max(preferred, 0) + i) % BINDING_SETS.length;
+            FileLock lock = tryLock(bindAddress, index);
+            if(lock == null)
+               continue;
+            if(isFree(bindAddress, index * BINDING_SET_OFFSET))
+               return new Claim(index, lock);
+            // taken by something else than an embedded server
+            release(lock);
+         }
+         if(System.currentTimeMillis() > deadline)
+            throw new EJBException("None of the service binding sets became free on " + bindAddress + " within " + timeout + " ms; set " + BINDING_SET_PROPERTY + " explicitly");
+         try
+         {
+            Thread.sleep(RETRY_INTERVAL);
+         }
+         catch(InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            throw new EJBException(e);
+         }
+      }
+   }
+
+   private static FileLock tryLock(String bindAddress, int index)
+   {
+      File file = lockFile(bindAddress, index);
+      try
+      {
+         FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+         FileLock lock = null;
+         try
+         {
+            lock = channel.tryLock();
+         }
+         catch(OverlappingFileLockException e)
+         {
+            // claimed by another server in this JVM
+         }
+         if(lock == null)
+            channel.close();
+         return lock;
+      }
+      catch(IOException e)
+      {
+         throw new EJBException("Unable to lock " + file, e);
+      }
+   }
+
+   static File lockFile(String bindAddress, int index)
+   {
+      return new File(System.getProperty("java.io.tmpdir"), "jboss-ejb3-embedded-" + bindAddress.replace(':', '_') + "-" + BINDING_SETS[index] + ".lock");
+   }
+
+   private static void release(FileLock lock)
+   {
+      if(lock == null)
+         return;
+      try
+      {
+         lock.release();
+         lock.channel().close();
+      }
+      catch(IOException e)
+      {
+         // closing the JVM releases it anyway
+      }
+   }
+
+   private static boolean isFree(String bindAddress, int offset)
+   {
+      for(int port : PROBE_PORTS)
+      {
+         try
+         {
+            new ServerSocket(port + offset, 1, InetAddress.getByName(bindAddress)).close();
+         }
+         catch(IOException e)
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static void delete(File file)
+   {
+      File children[] = file.listFiles();
+      if(children != null)
+      {
+         for(File child : children)
+            delete(child);
+      }
+      file.delete();
+   }
+
+   /**
+    * A binding set locked for a partition.
+    */
+   private static class Claim
+   {
+      final int index;
+      final FileLock lock;
+
+      Claim(int index, FileLock lock)
+      {
+         this.index = index;
+         this.lock = lock;
+      }
+   }
+}
@@ -40,6 +40,7 @@ import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * A copy of org.jboss.vfs.VirtualFileAssembly which exposes the mount root.
@@ -61,6 +62,8 @@ public class VirtualFileAssembly implements Closeable {
 
    private TempFileProvider tempFileProvider;
 
+   private ScheduledExecutorService tempFileExecutor;
+
    public VirtualFileAssembly(String name) throws IOException
    {
       mountRoot = VFS.getChild("assembly-mounts").getChild(name);
@@ -168,10 +171,17 @@ public class VirtualFileAssembly implements Closeable {
    }
 
    /**
-    * Close the assembly and nested resources.
+    * Close the assembly and nested resources, including the temp file provider and its thread.
     */
    public void close() {
       VFSUtils.safeClose(mountHandles);
+      mountHandles.clear();
+      if (tempFileProvider != null) {
+         VFSUtils.safeClose(tempFileProvider);
+         tempFileExecutor.shutdownNow();
+         tempFileProvider = null;
+         tempFileExecutor = null;
+      }
    }
 
    /**
@@ -181,7 +191,8 @@ public class VirtualFileAssembly implements Closeable {
     */
    private TempFileProvider getTempFileProvider() throws IOException {
       if (tempFileProvider == null) {
-         tempFileProvider = TempFileProvider.create("temp", Executors.newSingleThreadScheduledExecutor());
+         tempFileExecutor = Executors.newSingleThreadScheduledExecutor();
+         tempFileProvider = TempFileProvider.create("temp", tempFileExecutor);
       }
       return tempFileProvider;
    }
@@ -0,0 +1,169 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.embedded.sub;
+
+import org.jboss.embedded.api.server.JBossASEmbeddedServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ejb.EJBException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author <a href="mailto:cdewolf@redhat.com">Carlo de Wolf</a>
+ */
+public class PartitionTestCase
+{
+   private static final String PROPERTIES[] = { "embedded.partition", "embedded.partition.timeout", "embedded.fork.number", "surefire.forkNumber", Partition.BINDING_SET_PROPERTY };
+
+   private final Map<String, String> saved = new HashMap<String, String>();
+
+   private final List<Partition> partitions = new ArrayList<Partition>();
+
+   @Before
+   public void clearProperties()
+   {
+      for(String name : PROPERTIES)
+      {
+         saved.put(name, System.getProperty(name));
+         System.clearProperty(name);
+      }
+   }
+
+   @After
+   public void restoreProperties()
+   {
+      for(Partition partition : partitions)
+         partition.release();
+      for(String name : PROPERTIES)
+      {
+         if(saved.get(name) == null)
+            System.clearProperty(name);
+         else
+            System.setProperty(name, saved.get(name));
+      }
+   }
+
+   private Partition create()
+   {
+      Partition partition = Partition.create("localhost");
+      if(partition != null)
+         partitions.add(partition);
+      return partition;
+   }
+
+   @Test
+   public void testNotRequested()
+   {
+      assertNull(create());
+   }
+
+   @Test
+   public void testDistinct()
+   {
+      System.setProperty("embedded.partition", "true");
+      Partition first = create();
+      Partition second = create();
+      assertFalse(first.getBindingSet().equals(second.getBindingSet()));
+      assertFalse(first.getRoot().equals(second.getRoot()));
+      assertTrue(first.getRoot().isDirectory());
+
+      // once released, its set can be claimed again
+      first.release();
+      assertFalse(first.getRoot().exists());
+      assertEquals(first.getBindingSet(), create().getBindingSet());
+   }
+
+   @Test
+   public void testForkNumber()
+   {
+      System.setProperty("embedded.fork.number", "2");
+      assertEquals(Partition.BINDING_SETS[1], create().getBindingSet());
+   }
+
+   @Test
+   public void testMoreForksThanSets()
+   {
+      System.setProperty("embedded.fork.number", String.valueOf(Partition.BINDING_SETS.length + 3));
+      assertEquals(Partition.BINDING_SETS[2], create().getBindingSet());
+   }
+
+   @Test
+   public void testAllClaimed()
+   {
+      System.setProperty("embedded.partition", "true");
+      System.setProperty("embedded.partition.timeout", "0");
+      for(int i = 0; i < Partition.BINDING_SETS.length; i++)
+         assertNotNull(create());
+      try
+      {
+         create();
+         fail("There should be no binding set left");
+      }
+      catch(EJBException e)
+      {
+         // good
+      }
+   }
+
+   @Test
+   public void testExplicitBindingSet()
+   {
+      System.setProperty("embedded.partition", "true");
+      System.setProperty(Partition.BINDING_SET_PROPERTY, "ports-custom");
+      assertEquals("ports-custom", create().getBindingSet());
+   }
+
+   @Test
+   public void testBindingSetOnlyWhileStarting() throws Exception
+   {
+      System.setProperty("embedded.partition", "true");
+      Partition partition = create();
+      final List<String> seen = new ArrayList<String>();
+      JBossASEmbeddedServer server = (JBossASEmbeddedServer) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { JBossASEmbeddedServer.class }, new InvocationHandler()
+      {
+         public Object invoke(Object proxy, Method method, Object[] args)
+         {
+            if(method.getName().equals("start"))
+               seen.add(System.getProperty(Partition.BINDING_SET_PROPERTY));
+            return null;
+         }
+      });
+      partition.start(server);
+      assertEquals(partition.getBindingSet(), seen.get(0));
+      assertNull(System.getProperty(Partition.BINDING_SET_PROPERTY));
+   }
+}